@@ -0,0 +1,160 @@
+/**
+ *
+ */
+package com.ethwt.core.transaction;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.ethwt.core.transaction.metrics.TransactionMetrics;
+
+/**
+ * Triggers the recovery scans of the backend at an interval adapted to what they find, instead of the
+ * fixed period of the backend.
+ * <p>
+ * The first scan runs {@link TransactionConfig#getMinRecoveryIntervalMillis()} after start, as a start may
+ * follow a crash. Each scan finding nothing in doubt doubles the interval up to
+ * {@link TransactionConfig#getMaxRecoveryIntervalMillis()}, so idle nodes stop loading the resource managers
+ * with {@code recover()} calls; a scan finding in-doubt transactions, a heuristic outcome or a failed
+ * commit, see {@link #tighten(String)}, brings it back to the minimum. The backend keeps its own periodic
+ * recovery at the maximum interval as a backstop. Scan durations and in-doubt counts are recorded in
+ * {@link TransactionMetrics}.
+ *
+ * @author neillin
+ *
+ */
+public final class AdaptiveRecoveryScheduler {
+
+	private static Logger log = LoggerFactory.getLogger(AdaptiveRecoveryScheduler.class);
+
+	/**
+	 * A recovery scan of the backend.
+	 */
+	@FunctionalInterface
+	public interface RecoveryScan {
+
+		/**
+		 * Run a full recovery scan.
+		 *
+		 * @return the number of transactions of this node found in doubt, without those still running, see
+		 *   {@link InDoubtTracker}
+		 * @throws Exception if the scan failed
+		 */
+		int scan() throws Exception;
+	}
+
+	private static AdaptiveRecoveryScheduler instance;
+
+	private final RecoveryScan recoveryScan;
+	private final long minIntervalMillis;
+	private final long maxIntervalMillis;
+	private final ScheduledExecutorService scheduler;
+	private long intervalMillis;
+	private boolean tightened;
+	private ScheduledFuture<?> next;
+
+	private AdaptiveRecoveryScheduler(RecoveryScan recoveryScan, long minIntervalMillis, long maxIntervalMillis) {
+		this.recoveryScan = recoveryScan;
+		this.minIntervalMillis = minIntervalMillis;
+		this.maxIntervalMillis = Math.max(minIntervalMillis, maxIntervalMillis);
+		this.intervalMillis = minIntervalMillis;
+		this.scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+			Thread thread = new Thread(r, "tx-recovery-scheduler");
+			thread.setDaemon(true);
+			return thread;
+		});
+	}
+
+	/**
+	 * Start scheduling the scans if enabled by the configuration. Called by the
+	 * {@link TransactionManagerService} implementations once their recovery runs.
+	 *
+	 * @param config the configuration telling the intervals
+	 * @param recoveryScan the scan of the backend
+	 */
+	public static synchronized void start(TransactionConfig config, RecoveryScan recoveryScan) {
+		if (!config.isAdaptiveRecovery() || instance != null) {
+			return;
+		}
+		instance = new AdaptiveRecoveryScheduler(recoveryScan, config.getMinRecoveryIntervalMillis(),
+				config.getMaxRecoveryIntervalMillis());
+		instance.schedule(instance.minIntervalMillis);
+	}
+
+	/**
+	 * Stop scheduling the scans.
+	 */
+	public static synchronized void stop() {
+		if (instance != null) {
+			instance.scheduler.shutdownNow();
+			instance = null;
+		}
+	}
+
+	/**
+	 * Bring the interval back to the minimum and run the next scan within it, as some transaction may have
+	 * been left in doubt. Does nothing if the scheduler is not started.
+	 *
+	 * @param reason what may have left a transaction in doubt, for the log
+	 */
+	public static void tighten(String reason) {
+		AdaptiveRecoveryScheduler current;
+		synchronized (AdaptiveRecoveryScheduler.class) {
+			current = instance;
+		}
+		if (current != null) {
+			current.doTighten(reason);
+		}
+	}
+
+	private synchronized void doTighten(String reason) {
+		tightened = true;
+		if (intervalMillis > minIntervalMillis) {
+			log.info("Recovery interval back to {}ms after {}", minIntervalMillis, reason);
+		}
+		intervalMillis = minIntervalMillis;
+		if (next != null && next.getDelay(TimeUnit.MILLISECONDS) > minIntervalMillis && next.cancel(false)) {
+			schedule(minIntervalMillis);
+		}
+	}
+
+	private synchronized void schedule(long delayMillis) {
+		if (!scheduler.isShutdown()) {
+			next = scheduler.schedule(this::scan, delayMillis, TimeUnit.MILLISECONDS);
+		}
+	}
+
+	private void scan() {
+		synchronized (this) {
+			tightened = false;
+		}
+		long start = System.nanoTime();
+		int inDoubt;
+		try {
+			inDoubt = recoveryScan.scan();
+		} catch (Exception e) {
+			log.warn("Recovery scan failed", e);
+			inDoubt = -1;
+		}
+		long nanos = System.nanoTime() - start;
+		TransactionMetrics.getInstance().recoveryScanned(nanos, Math.max(0, inDoubt));
+		synchronized (this) {
+			if (inDoubt != 0 || tightened) {
+				intervalMillis = minIntervalMillis;
+			} else {
+				intervalMillis = Math.min(maxIntervalMillis, intervalMillis * 2);
+			}
+			if (log.isDebugEnabled()) {
+				log.debug("Recovery scan found {} in doubt in {}ms, next scan in {}ms", inDoubt,
+						TimeUnit.NANOSECONDS.toMillis(nanos), intervalMillis);
+			}
+			schedule(intervalMillis);
+		}
+	}
+
+}
@@ -0,0 +1,142 @@
+/**
+ *
+ */
+package com.ethwt.core.transaction;
+
+import java.util.List;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.transaction.Synchronization;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Runs the cleanups done after a transaction completes, such as closing the JMS sessions and connections
+ * used by it, off the committing thread.
+ * <p>
+ * Disabled by default, every cleanup then runs at once on the calling thread. Once enabled by
+ * {@link TransactionConfig#setAsyncAfterCompletion(boolean)}, cleanups are queued to a bounded pool; when
+ * the queue is full the committing thread runs the cleanup itself, which slows the producers of cleanups
+ * down rather than piling them up. Failures are logged, and the cleanups still queued at shutdown are run
+ * before the JVM exits.
+ *
+ * @author neillin
+ *
+ */
+public final class AfterCompletionExecutor {
+
+	private static Logger log = LoggerFactory.getLogger(AfterCompletionExecutor.class);
+
+	private static volatile ThreadPoolExecutor executor;
+	private static long shutdownTimeoutMillis;
+	private static boolean shutdownHookAdded;
+
+	private AfterCompletionExecutor() {
+	}
+
+	/**
+	 * Enable or disable the background executor as told by the configuration. Called by the
+	 * {@link TransactionManagerService} implementations when they start.
+	 */
+	public static synchronized void configure(TransactionConfig config) {
+		if (!config.isAsyncAfterCompletion()) {
+			shutdown();
+			return;
+		}
+		if (executor != null) {
+			return;
+		}
+		shutdownTimeoutMillis = config.getAfterCompletionShutdownTimeoutMillis();
+		int threads = Math.max(1, config.getAfterCompletionThreads());
+		AtomicInteger sequence = new AtomicInteger();
+		ThreadPoolExecutor pool = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+				new LinkedBlockingQueue<>(Math.max(1, config.getAfterCompletionQueueSize())), r -> {
+					Thread thread = new Thread(r, "tx-after-completion-" + sequence.incrementAndGet());
+					thread.setDaemon(true);
+					return thread;
+				}, (r, e) -> r.run()); // caller runs, also once shut down so that no close is dropped
+		pool.allowCoreThreadTimeOut(true);
+		executor = pool;
+		if (!shutdownHookAdded) {
+			Runtime.getRuntime().addShutdownHook(new Thread(AfterCompletionExecutor::shutdown, "tx-after-completion-shutdown"));
+			shutdownHookAdded = true;
+		}
+	}
+
+	/**
+	 * Run a cleanup in the background if enabled, else at once. A failure is logged and not rethrown.
+	 *
+	 * @param cleanup the cleanup to run
+	 */
+	public static void execute(Runnable cleanup) {
+		ThreadPoolExecutor pool = executor;
+		if (pool == null) {
+			runLogged(cleanup);
+		} else {
+			pool.execute(() -> runLogged(cleanup));
+		}
+	}
+
+	/**
+	 * Decorate a synchronization so that its {@code afterCompletion} runs through {@link #execute(Runnable)},
+	 * its {@code beforeCompletion} is still run by the committing thread.
+	 *
+	 * @param synchronization the synchronization to decorate
+	 * @return the decorated synchronization
+	 */
+	public static Synchronization decorate(Synchronization synchronization) {
+		return new Synchronization() {
+
+			@Override
+			public void beforeCompletion() {
+				synchronization.beforeCompletion();
+			}
+
+			@Override
+			public void afterCompletion(int status) {
+				execute(() -> synchronization.afterCompletion(status));
+			}
+
+			@Override
+			public String toString() {
+				return "AsyncAfterCompletion[" + synchronization + "]";
+			}
+		};
+	}
+
+	/**
+	 * Stop the background executor, waiting for the queued cleanups to run. The ones still queued after the
+	 * shutdown timeout are run by the calling thread.
+	 */
+	public static synchronized void shutdown() {
+		ThreadPoolExecutor pool = executor;
+		if (pool == null) {
+			return;
+		}
+		executor = null;
+		pool.shutdown();
+		try {
+			if (pool.awaitTermination(shutdownTimeoutMillis, TimeUnit.MILLISECONDS)) {
+				return;
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		List<Runnable> pending = pool.shutdownNow();
+		log.warn("Running {} after completion cleanups left after the shutdown timeout", pending.size());
+		pending.forEach(Runnable::run);
+	}
+
+	private static void runLogged(Runnable cleanup) {
+		try {
+			cleanup.run();
+		} catch (RuntimeException e) {
+			log.warn("After completion cleanup failed", e);
+		}
+	}
+
+}
@@ -0,0 +1,91 @@
+/**
+ *
+ */
+package com.ethwt.core.transaction;
+
+import java.util.Objects;
+
+import javax.transaction.Synchronization;
+import javax.transaction.TransactionSynchronizationRegistry;
+
+/**
+ * {@link TransactionSynchronizationRegistry} decorator scoping the resources put by a thread working for a
+ * {@link TransactionBranch} to that branch. Connection pools look up the connection enlisted with the
+ * transaction through the registry, so each parallel branch is handed its own connection.
+ *
+ * @author neillin
+ *
+ */
+public class BranchScopedTransactionSynchronizationRegistry implements TransactionSynchronizationRegistry {
+
+	private final TransactionSynchronizationRegistry delegate;
+
+	public BranchScopedTransactionSynchronizationRegistry(TransactionSynchronizationRegistry delegate) {
+		this.delegate = delegate;
+	}
+
+	@Override
+	public Object getTransactionKey() {
+		return delegate.getTransactionKey();
+	}
+
+	@Override
+	public void putResource(Object key, Object value) {
+		delegate.putResource(scoped(key), value);
+	}
+
+	@Override
+	public Object getResource(Object key) {
+		return delegate.getResource(scoped(key));
+	}
+
+	@Override
+	public void registerInterposedSynchronization(Synchronization sync) {
+		delegate.registerInterposedSynchronization(sync);
+	}
+
+	@Override
+	public int getTransactionStatus() {
+		return delegate.getTransactionStatus();
+	}
+
+	@Override
+	public void setRollbackOnly() {
+		delegate.setRollbackOnly();
+	}
+
+	@Override
+	public boolean getRollbackOnly() {
+		return delegate.getRollbackOnly();
+	}
+
+	private static Object scoped(Object key) {
+		TransactionBranch branch = TransactionBranch.current();
+		return branch == null ? key : new BranchKey(branch, key);
+	}
+
+	private static final class BranchKey {
+		private final TransactionBranch branch;
+		private final Object key;
+
+		BranchKey(TransactionBranch branch, Object key) {
+			this.branch = branch;
+			this.key = Objects.requireNonNull(key);
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (!(obj instanceof BranchKey)) {
+				return false;
+			}
+			BranchKey other = (BranchKey) obj;
+			return branch == other.branch && key.equals(other.key);
+		}
+
+		@Override
+		public int hashCode() {
+			return 31 * System.identityHashCode(branch) + key.hashCode();
+		}
+	}
+
+}
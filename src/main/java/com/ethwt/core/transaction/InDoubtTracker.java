@@ -0,0 +1,44 @@
+/**
+ *
+ */
+package com.ethwt.core.transaction;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Tells which of the transactions a recovery scan finds in doubt were already in doubt at the previous scan,
+ * for {@link AdaptiveRecoveryScheduler.RecoveryScan}s.
+ * <p>
+ * A scan also finds the transactions running between their prepare and their commit, which on a busy node
+ * are there at every scan: counting them would keep the recovery interval at its minimum. A transaction
+ * still in doubt one scan later is left for recovery.
+ *
+ * @author neillin
+ *
+ */
+public final class InDoubtTracker {
+
+	private Set<String> previous = Collections.emptySet();
+
+	/**
+	 * Record the transactions found in doubt by a scan.
+	 *
+	 * @param ids the identifiers of the transactions found in doubt
+	 * @return the number of them already found in doubt by the previous scan
+	 */
+	public synchronized int update(Collection<String> ids) {
+		Set<String> current = new HashSet<>(ids);
+		int inDoubt = 0;
+		for (String id : current) {
+			if (previous.contains(id)) {
+				inDoubt++;
+			}
+		}
+		previous = current;
+		return inDoubt;
+	}
+
+}
@@ -0,0 +1,41 @@
+/**
+ *
+ */
+package com.ethwt.core.transaction;
+
+/**
+ * Tracks the NESTED scopes opened by {@link TxUtils#withNested} on the current thread.
+ * <p>
+ * Only the work done on the savepoint connection is undone when a nested scope rolls back, so
+ * resource adaptors call {@link #isActive()} to refuse enlisting any other resource, JMS sessions
+ * or connections of another pool, while a nested scope is open.
+ *
+ * @author neillin
+ *
+ */
+public final class NestedScope {
+
+	private static final ThreadLocal<int[]> depth = ThreadLocal.withInitial(() -> new int[1]);
+
+	private NestedScope() {
+	}
+
+	/**
+	 * @return whether a NESTED scope is open on the current thread
+	 */
+	public static boolean isActive() {
+		return depth.get()[0] > 0;
+	}
+
+	static void enter() {
+		depth.get()[0]++;
+	}
+
+	static void exit() {
+		int[] current = depth.get();
+		if (--current[0] <= 0) {
+			depth.remove();
+		}
+	}
+
+}
@@ -9,4 +9,32 @@ package com.ethwt.core.transaction;
  */
 public class PoolConfig {
 
+	/**
+	 * Name of the pool, used to identify it in metrics and as the {@link com.ethwt.core.transaction.jms.JmsProxyConfig#getOutboxDataSourceName()
+	 * outbox data source}. A name is generated when not set.
+	 */
+	private String name;
+
+	/**
+	 * Number of connections the pool opens in the background when it is built, so that the first requests do
+	 * not open them.
+	 */
+	private int initialSize;
+
+	public String getName() {
+		return name;
+	}
+
+	public void setName(String name) {
+		this.name = name;
+	}
+
+	public int getInitialSize() {
+		return initialSize;
+	}
+
+	public void setInitialSize(int initialSize) {
+		this.initialSize = initialSize;
+	}
+
 }
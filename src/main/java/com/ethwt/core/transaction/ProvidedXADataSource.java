@@ -0,0 +1,112 @@
+/**
+ *
+ */
+package com.ethwt.core.transaction;
+
+import java.io.PrintWriter;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Logger;
+
+import javax.sql.XAConnection;
+import javax.sql.XADataSource;
+
+import io.agroal.api.configuration.supplier.AgroalConnectionFactoryConfigurationSupplier;
+
+/**
+ * Connection provider class of the Agroal pools built by the {@link XADataSourceAdaptor}s, opening the
+ * connections of the {@link XADataSource} given to the adaptor.
+ * <p>
+ * Agroal creates the connection provider itself, from its class, and sets its jdbc properties on it. The
+ * data source given to the adaptor is registered under a key, set as the {@link #KEY_PROPERTY} jdbc
+ * property, see {@link #provide(AgroalConnectionFactoryConfigurationSupplier, XADataSource)}.
+ *
+ * @author neillin
+ *
+ */
+public class ProvidedXADataSource implements XADataSource {
+
+	/**
+	 * Jdbc property carrying the key the data source is registered under.
+	 */
+	public static final String KEY_PROPERTY = "providedKey";
+
+	private static final Map<String, XADataSource> registered = new ConcurrentHashMap<>();
+	private static final AtomicInteger sequence = new AtomicInteger();
+
+	private XADataSource delegate;
+
+	/**
+	 * Make the pool open the connections of a data source.
+	 *
+	 * @param cf the connection factory configuration of the pool
+	 * @param xaDataSource the data source given to the adaptor
+	 * @return the configuration
+	 */
+	public static AgroalConnectionFactoryConfigurationSupplier provide(AgroalConnectionFactoryConfigurationSupplier cf,
+			XADataSource xaDataSource) {
+		String key = "xa-data-source-" + sequence.incrementAndGet();
+		registered.put(key, xaDataSource);
+		return cf.connectionProviderClass(ProvidedXADataSource.class).jdbcProperty(KEY_PROPERTY, key);
+	}
+
+	public void setProvidedKey(String key) {
+		XADataSource xaDataSource = registered.get(key);
+		if (xaDataSource == null) {
+			throw new IllegalArgumentException("No XA data source registered under " + key);
+		}
+		this.delegate = xaDataSource;
+	}
+
+	private XADataSource delegate() throws SQLException {
+		if (delegate == null) {
+			throw new SQLException("No XA data source provided, the " + KEY_PROPERTY + " property is not set");
+		}
+		return delegate;
+	}
+
+	@Override
+	public XAConnection getXAConnection() throws SQLException {
+		return delegate().getXAConnection();
+	}
+
+	@Override
+	public XAConnection getXAConnection(String user, String password) throws SQLException {
+		return delegate().getXAConnection(user, password);
+	}
+
+	@Override
+	public PrintWriter getLogWriter() throws SQLException {
+		return delegate != null ? delegate.getLogWriter() : null;
+	}
+
+	@Override
+	public void setLogWriter(PrintWriter out) throws SQLException {
+		delegate().setLogWriter(out);
+	}
+
+	@Override
+	public void setLoginTimeout(int seconds) throws SQLException {
+		// set by Agroal before the key, the data source keeps its own
+		if (delegate != null) {
+			delegate.setLoginTimeout(seconds);
+		}
+	}
+
+	@Override
+	public int getLoginTimeout() throws SQLException {
+		return delegate != null ? delegate.getLoginTimeout() : 0;
+	}
+
+	@Override
+	public Logger getParentLogger() throws SQLFeatureNotSupportedException {
+		if (delegate == null) {
+			throw new SQLFeatureNotSupportedException();
+		}
+		return delegate.getParentLogger();
+	}
+
+}
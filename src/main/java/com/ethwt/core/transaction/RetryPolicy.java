@@ -0,0 +1,222 @@
+/**
+ *
+ */
+package com.ethwt.core.transaction;
+
+import java.sql.SQLException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.ethwt.core.transaction.metrics.TransactionMetrics;
+
+/**
+ * Policy to retry a transaction which failed because of a transient conflict such as a deadlock or a
+ * serialization failure.
+ * <p>
+ * A transaction is retried only by the invocation which began it, with a jittered exponential backoff,
+ * until either {@link #getMaxAttempts()} or {@link #getDeadline()} is reached. An exception is retryable
+ * when a {@link SQLException} with one of {@link #getSqlStates()} or an instance of one of
+ * {@link #getRetryOn()} is found in its cause chain.
+ *
+ * @author neillin
+ *
+ */
+public class RetryPolicy {
+	private static Logger log = LoggerFactory.getLogger(RetryPolicy.class);
+
+	/**
+	 * Maximum number of attempts, including the first one.
+	 */
+	private int maxAttempts = 3;
+
+	/**
+	 * Backoff before the first retry.
+	 */
+	private Duration initialBackoff = Duration.ofMillis(20);
+
+	/**
+	 * Upper bound of the backoff between two attempts.
+	 */
+	private Duration maxBackoff = Duration.ofSeconds(1);
+
+	/**
+	 * Factor applied to the backoff after each attempt.
+	 */
+	private double multiplier = 2.0;
+
+	/**
+	 * Fraction of the backoff which is randomized, between 0 and 1.
+	 */
+	private double jitter = 0.5;
+
+	/**
+	 * Overall time allowed for all attempts, no retry is started past it.
+	 */
+	private Duration deadline = Duration.ofSeconds(10);
+
+	/**
+	 * SQLStates which identify a retryable failure, serialization failure and PostgreSQL deadlock by default.
+	 */
+	private Set<String> sqlStates = new LinkedHashSet<>(Arrays.asList("40001", "40P01"));
+
+	/**
+	 * Additional exception types which identify a retryable failure.
+	 */
+	private List<Class<? extends Throwable>> retryOn = new ArrayList<>();
+
+	public int getMaxAttempts() {
+		return maxAttempts;
+	}
+
+	public void setMaxAttempts(int maxAttempts) {
+		this.maxAttempts = maxAttempts;
+	}
+
+	public Duration getInitialBackoff() {
+		return initialBackoff;
+	}
+
+	public void setInitialBackoff(Duration initialBackoff) {
+		this.initialBackoff = initialBackoff;
+	}
+
+	public Duration getMaxBackoff() {
+		return maxBackoff;
+	}
+
+	public void setMaxBackoff(Duration maxBackoff) {
+		this.maxBackoff = maxBackoff;
+	}
+
+	public double getMultiplier() {
+		return multiplier;
+	}
+
+	public void setMultiplier(double multiplier) {
+		this.multiplier = multiplier;
+	}
+
+	public double getJitter() {
+		return jitter;
+	}
+
+	public void setJitter(double jitter) {
+		this.jitter = jitter;
+	}
+
+	public Duration getDeadline() {
+		return deadline;
+	}
+
+	public void setDeadline(Duration deadline) {
+		this.deadline = deadline;
+	}
+
+	public Set<String> getSqlStates() {
+		return sqlStates;
+	}
+
+	public void setSqlStates(Set<String> sqlStates) {
+		this.sqlStates = sqlStates;
+	}
+
+	public List<Class<? extends Throwable>> getRetryOn() {
+		return retryOn;
+	}
+
+	public void setRetryOn(List<Class<? extends Throwable>> retryOn) {
+		this.retryOn = retryOn;
+	}
+
+	/**
+	 * Check the cause chain of an exception, including chained {@link SQLException#getNextException()},
+	 * for a retryable failure.
+	 *
+	 * @param t the failure
+	 * @return whether the failure is retryable
+	 */
+	public boolean isRetryable(Throwable t) {
+		Set<Throwable> visited = Collections.newSetFromMap(new IdentityHashMap<>());
+		List<Throwable> pending = new ArrayList<>();
+		pending.add(t);
+		while (!pending.isEmpty()) {
+			Throwable current = pending.remove(pending.size() - 1);
+			if (current == null || !visited.add(current)) {
+				continue;
+			}
+			for (Class<? extends Throwable> type : retryOn) {
+				if (type.isInstance(current)) {
+					return true;
+				}
+			}
+			if (current instanceof SQLException) {
+				SQLException sqlException = (SQLException) current;
+				if (sqlException.getSQLState() != null && sqlStates.contains(sqlException.getSQLState())) {
+					return true;
+				}
+				pending.add(sqlException.getNextException());
+			}
+			pending.add(current.getCause());
+		}
+		return false;
+	}
+
+	/**
+	 * Run an attempt until it succeeds, fails with a non retryable exception, or the attempts or the deadline
+	 * are exhausted.
+	 *
+	 * @param attempt the work to run, it must begin and complete its own transaction
+	 * @return the result of the successful attempt
+	 * @throws Exception the failure of the last attempt
+	 */
+	public <T> T execute(ExceptionProducer<T> attempt) throws Exception {
+		TransactionMetrics metrics = TransactionMetrics.getInstance();
+		long deadlineNanos = System.nanoTime() + deadline.toNanos();
+		long backoffNanos = initialBackoff.toNanos();
+		for (int attemptNo = 1;; attemptNo++) {
+			try {
+				return attempt.execute();
+			} catch (Exception e) {
+				if (!isRetryable(e)) {
+					throw e;
+				}
+				long sleepNanos = jittered(Math.min(backoffNanos, maxBackoff.toNanos()));
+				if (attemptNo >= maxAttempts || System.nanoTime() + sleepNanos >= deadlineNanos) {
+					metrics.transactionRetriesExhausted();
+					throw e;
+				}
+				if (log.isDebugEnabled()) {
+					log.debug("Retrying transaction after attempt " + attemptNo + " failed with " + e);
+				}
+				metrics.transactionRetried();
+				try {
+					Thread.sleep(sleepNanos / 1_000_000L, (int) (sleepNanos % 1_000_000L));
+				} catch (InterruptedException ie) {
+					Thread.currentThread().interrupt();
+					e.addSuppressed(ie);
+					throw e;
+				}
+				backoffNanos = (long) Math.min(backoffNanos * multiplier, maxBackoff.toNanos());
+			}
+		}
+	}
+
+	private long jittered(long backoffNanos) {
+		if (jitter <= 0 || backoffNanos <= 0) {
+			return backoffNanos;
+		}
+		long randomPart = (long) (backoffNanos * Math.min(jitter, 1.0));
+		return backoffNanos - randomPart + ThreadLocalRandom.current().nextLong(randomPart + 1);
+	}
+
+}
@@ -0,0 +1,140 @@
+/**
+ *
+ */
+package com.ethwt.core.transaction;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Function;
+
+import javax.transaction.Synchronization;
+import javax.transaction.TransactionManager;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Initializes a {@link TransactionManagerService} once, and makes every caller needing it wait until it is
+ * ready rather than initialize it again or see it half initialized.
+ * <p>
+ * {@link #start()} runs the initialization on a background thread, followed by the warm up of the service,
+ * so that requests only wait for the rest of it; without a start, the first caller runs the initialization
+ * itself, without warm up. Calls back into the service from the initializing thread do not wait. A failed
+ * initialization is not retried, every caller gets its cause.
+ *
+ * @author neillin
+ *
+ */
+public final class ServiceBootstrap {
+
+	private static Logger log = LoggerFactory.getLogger(ServiceBootstrap.class);
+
+	private static final Synchronization NO_SYNCHRONIZATION = new Synchronization() {
+
+		@Override
+		public void beforeCompletion() {
+		}
+
+		@Override
+		public void afterCompletion(int status) {
+		}
+	};
+
+	private final String name;
+	private final Runnable initialization;
+	private final Runnable warmUp;
+	private final AtomicBoolean started = new AtomicBoolean(false);
+	private final CompletableFuture<Void> ready = new CompletableFuture<>();
+	private volatile Thread initializer;
+
+	/**
+	 * @param name the name of the service, for the logs
+	 * @param initialization the initialization of the service
+	 * @param warmUp run after the initialization when started in the background
+	 */
+	public ServiceBootstrap(String name, Runnable initialization, Runnable warmUp) {
+		this.name = name;
+		this.initialization = initialization;
+		this.warmUp = warmUp;
+	}
+
+	/**
+	 * Start the initialization in the background, unless already started.
+	 *
+	 * @return the readiness of the service, completed exceptionally if it failed to start
+	 */
+	public CompletableFuture<Void> start() {
+		if (this.started.compareAndSet(false, true)) {
+			Thread thread = new Thread(() -> initialize(true), "tx-bootstrap");
+			thread.setDaemon(true);
+			thread.start();
+		}
+		// completed by the initialization only
+		return this.ready.thenApply(Function.identity());
+	}
+
+	/**
+	 * Wait until the service is ready, initializing it on the calling thread if not started yet.
+	 *
+	 * @throws IllegalStateException if the service failed to start
+	 */
+	public void awaitReady() {
+		if (this.started.compareAndSet(false, true)) {
+			initialize(false);
+		} else if (Thread.currentThread() == this.initializer) {
+			return;
+		}
+		try {
+			this.ready.join();
+		} catch (CompletionException e) {
+			throw new IllegalStateException(this.name + " failed to start", e.getCause());
+		}
+	}
+
+	private void initialize(boolean background) {
+		this.initializer = Thread.currentThread();
+		long start = System.nanoTime();
+		try {
+			this.initialization.run();
+			if (background) {
+				this.warmUp.run();
+			}
+			log.info("{} ready in {}ms", this.name, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+			this.ready.complete(null);
+		} catch (RuntimeException | Error e) {
+			log.error("{} failed to start", this.name, e);
+			this.ready.completeExceptionally(e);
+		} finally {
+			this.initializer = null;
+		}
+	}
+
+	/**
+	 * Begin and commit empty transactions with a synchronization, loading and compiling the path every
+	 * transaction takes. A failure is logged only, the service works without warm up.
+	 *
+	 * @param tm the transaction manager of the service
+	 * @param transactions the number of transactions
+	 */
+	public static void warmUp(TransactionManager tm, int transactions) {
+		try {
+			for (int i = 0; i < transactions; i++) {
+				tm.begin();
+				tm.getTransaction().registerSynchronization(NO_SYNCHRONIZATION);
+				tm.commit();
+			}
+		} catch (Exception e) {
+			log.warn("Failed to warm up the transaction manager", e);
+			try {
+				if (tm.getTransaction() != null) {
+					tm.rollback();
+				}
+			} catch (Exception rollbackFailure) {
+				log.debug("Failed to roll back the warm up transaction", rollbackFailure);
+			}
+		}
+	}
+
+}
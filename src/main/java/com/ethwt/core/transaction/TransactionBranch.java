@@ -0,0 +1,59 @@
+/**
+ *
+ */
+package com.ethwt.core.transaction;
+
+/**
+ * Identifies the parallel branch of a global transaction the current thread works for, when it runs a
+ * subtask submitted by {@link TxUtils#withForkJoin}.
+ * <p>
+ * Resources bound to a transaction, such as the pooled connection enlisted by a data source, are scoped
+ * to the branch by {@link BranchScopedTransactionSynchronizationRegistry}, so concurrent subtasks never
+ * share a connection.
+ *
+ * @author neillin
+ *
+ */
+public final class TransactionBranch {
+
+	private static final ThreadLocal<TransactionBranch> current = new ThreadLocal<>();
+
+	private final TransactionBranch parent;
+	private final int index;
+
+	private TransactionBranch(TransactionBranch parent, int index) {
+		this.parent = parent;
+		this.index = index;
+	}
+
+	/**
+	 * @return the branch the current thread works for, or null outside of a forked subtask
+	 */
+	public static TransactionBranch current() {
+		return current.get();
+	}
+
+	static TransactionBranch fork(TransactionBranch parent, int index) {
+		return new TransactionBranch(parent, index);
+	}
+
+	static TransactionBranch enter(TransactionBranch branch) {
+		TransactionBranch previous = current.get();
+		current.set(branch);
+		return previous;
+	}
+
+	static void exit(TransactionBranch previous) {
+		if (previous == null) {
+			current.remove();
+		} else {
+			current.set(previous);
+		}
+	}
+
+	@Override
+	public String toString() {
+		return (parent != null ? parent + "." : "branch-") + index;
+	}
+
+}
@@ -0,0 +1,290 @@
+/**
+ *
+ */
+package com.ethwt.core.transaction;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Backend neutral settings applied by every {@link TransactionManagerService} implementation, on top of the
+ * backend specific configuration.
+ *
+ * @author neillin
+ *
+ */
+public class TransactionConfig {
+
+	public static final String CONFIG_NAME = "transaction";
+
+	/**
+	 * Whether to run the prepare, commit and rollback phases on the participants in parallel.
+	 */
+	private boolean parallelTwoPhaseCommit;
+
+	/**
+	 * Maximum number of threads used to run the two phase commit phases in parallel.
+	 */
+	private int maxTwoPhaseCommitThreads = 50;
+
+	/**
+	 * Whether a resource enlisted on a resource manager already in the transaction joins its branch.
+	 */
+	private boolean joinSameResourceManager = true;
+
+	/**
+	 * Class names of the XA resources whose {@code isSameRM} is not trusted, they never join a branch.
+	 */
+	private List<String> joinExcludedResourceClassNames = new ArrayList<>();
+
+	/**
+	 * Whether the cleanups after completion, closing JMS sessions and connections, run off the committing thread.
+	 */
+	private boolean asyncAfterCompletion;
+
+	/**
+	 * Number of threads running the cleanups after completion.
+	 */
+	private int afterCompletionThreads = 2;
+
+	/**
+	 * Number of cleanups queued before the committing thread runs them itself.
+	 */
+	private int afterCompletionQueueSize = 1000;
+
+	/**
+	 * How long in milliseconds the queued cleanups are waited for at shutdown.
+	 */
+	private long afterCompletionShutdownTimeoutMillis = 10000;
+
+	/**
+	 * Whether the adapted data sources and connection factories are registered for crash recovery.
+	 */
+	private boolean recoveryEnabled = true;
+
+	/**
+	 * Maximum number of resources scanned for in-doubt transactions at the same time.
+	 */
+	private int recoveryScanThreads = 4;
+
+	/**
+	 * Whether recovery scans are scheduled by {@link AdaptiveRecoveryScheduler} rather than at a fixed period.
+	 */
+	private boolean adaptiveRecovery;
+
+	/**
+	 * Interval in milliseconds between recovery scans while transactions are found in doubt.
+	 */
+	private long minRecoveryIntervalMillis = 10000;
+
+	/**
+	 * Interval in milliseconds the recovery scans back off to while they find nothing in doubt.
+	 */
+	private long maxRecoveryIntervalMillis = 600000;
+
+	/**
+	 * How long in milliseconds the connections of the recovered JMS connection factories are kept unused.
+	 */
+	private long recoveryConnectionIdleTimeoutMillis;
+
+	/**
+	 * Whether the service starts initializing in the background as soon as it is registered.
+	 */
+	private boolean eagerBootstrap;
+
+	/**
+	 * Number of empty transactions begun and committed by the background initialization before the service is ready.
+	 */
+	private int warmUpTransactions = 100;
+
+	public boolean isParallelTwoPhaseCommit() {
+		return parallelTwoPhaseCommit;
+	}
+
+	/**
+	 * Run the phases of the two phase commit on the participants in parallel, so that with several enlisted
+	 * resources the commit latency is the slowest participant's round trip rather than the sum of them.
+	 * Defaults to false.
+	 * <p>
+	 * Narayana runs them on a fixed pool of {@link #getMaxTwoPhaseCommitThreads()} threads, Atomikos on its
+	 * own task manager pool.
+	 *
+	 * @param parallelTwoPhaseCommit if the phases should run in parallel
+	 */
+	public void setParallelTwoPhaseCommit(boolean parallelTwoPhaseCommit) {
+		this.parallelTwoPhaseCommit = parallelTwoPhaseCommit;
+	}
+
+	public int getMaxTwoPhaseCommitThreads() {
+		return maxTwoPhaseCommitThreads;
+	}
+
+	public void setMaxTwoPhaseCommitThreads(int maxTwoPhaseCommitThreads) {
+		this.maxTwoPhaseCommitThreads = maxTwoPhaseCommitThreads;
+	}
+
+	public boolean isJoinSameResourceManager() {
+		return joinSameResourceManager;
+	}
+
+	/**
+	 * Let the transaction manager join the branch of a resource manager already enlisted, with
+	 * {@code XAResource.start(xid, TMJOIN)}, when several pooled connections or JMS sessions of the same
+	 * database or broker are enlisted in one transaction, instead of preparing and committing one branch
+	 * each. Resources are recognized through {@code isSameRM}. Defaults to true.
+	 * <p>
+	 * Some drivers answer {@code isSameRM} wrongly or fail on {@code TMJOIN}: turn it off, or list their
+	 * resource classes in {@link #setJoinExcludedResourceClassNames(List)}.
+	 *
+	 * @param joinSameResourceManager if resources of the same resource manager share a branch
+	 */
+	public void setJoinSameResourceManager(boolean joinSameResourceManager) {
+		this.joinSameResourceManager = joinSameResourceManager;
+	}
+
+	public List<String> getJoinExcludedResourceClassNames() {
+		return joinExcludedResourceClassNames;
+	}
+
+	public void setJoinExcludedResourceClassNames(List<String> joinExcludedResourceClassNames) {
+		this.joinExcludedResourceClassNames = joinExcludedResourceClassNames;
+	}
+
+	public boolean isAsyncAfterCompletion() {
+		return asyncAfterCompletion;
+	}
+
+	/**
+	 * Close the JMS sessions and connections scheduled to close at the end of a transaction on a bounded
+	 * background pool, see {@link AfterCompletionExecutor}, so that the broker round trips of the closes are
+	 * not added to the commit latency. Defaults to false.
+	 *
+	 * @param asyncAfterCompletion if the cleanups after completion run in the background
+	 */
+	public void setAsyncAfterCompletion(boolean asyncAfterCompletion) {
+		this.asyncAfterCompletion = asyncAfterCompletion;
+	}
+
+	public int getAfterCompletionThreads() {
+		return afterCompletionThreads;
+	}
+
+	public void setAfterCompletionThreads(int afterCompletionThreads) {
+		this.afterCompletionThreads = afterCompletionThreads;
+	}
+
+	public int getAfterCompletionQueueSize() {
+		return afterCompletionQueueSize;
+	}
+
+	public void setAfterCompletionQueueSize(int afterCompletionQueueSize) {
+		this.afterCompletionQueueSize = afterCompletionQueueSize;
+	}
+
+	public long getAfterCompletionShutdownTimeoutMillis() {
+		return afterCompletionShutdownTimeoutMillis;
+	}
+
+	public void setAfterCompletionShutdownTimeoutMillis(long afterCompletionShutdownTimeoutMillis) {
+		this.afterCompletionShutdownTimeoutMillis = afterCompletionShutdownTimeoutMillis;
+	}
+
+	public boolean isRecoveryEnabled() {
+		return recoveryEnabled;
+	}
+
+	/**
+	 * Register every data source and connection factory given to the adaptors for crash recovery, and start
+	 * the recovery of the backend if it does not run by itself. Defaults to true.
+	 *
+	 * @param recoveryEnabled if the adapted resources are recovered
+	 */
+	public void setRecoveryEnabled(boolean recoveryEnabled) {
+		this.recoveryEnabled = recoveryEnabled;
+	}
+
+	public int getRecoveryScanThreads() {
+		return recoveryScanThreads;
+	}
+
+	/**
+	 * @param recoveryScanThreads maximum number of resources scanned at the same time by Narayana recovery,
+	 *   Atomikos scans its resources one after another
+	 */
+	public void setRecoveryScanThreads(int recoveryScanThreads) {
+		this.recoveryScanThreads = recoveryScanThreads;
+	}
+
+	public boolean isAdaptiveRecovery() {
+		return adaptiveRecovery;
+	}
+
+	/**
+	 * Schedule the recovery scans adaptively, see {@link AdaptiveRecoveryScheduler}: backing off to
+	 * {@link #getMaxRecoveryIntervalMillis()} while scans find nothing in doubt, back to
+	 * {@link #getMinRecoveryIntervalMillis()} after a start, a heuristic outcome or a failed commit. The
+	 * periodic recovery of the backend then runs at the maximum interval only. Defaults to false.
+	 *
+	 * @param adaptiveRecovery if the recovery scans are scheduled adaptively
+	 */
+	public void setAdaptiveRecovery(boolean adaptiveRecovery) {
+		this.adaptiveRecovery = adaptiveRecovery;
+	}
+
+	public long getMinRecoveryIntervalMillis() {
+		return minRecoveryIntervalMillis;
+	}
+
+	public void setMinRecoveryIntervalMillis(long minRecoveryIntervalMillis) {
+		this.minRecoveryIntervalMillis = minRecoveryIntervalMillis;
+	}
+
+	public long getMaxRecoveryIntervalMillis() {
+		return maxRecoveryIntervalMillis;
+	}
+
+	public void setMaxRecoveryIntervalMillis(long maxRecoveryIntervalMillis) {
+		this.maxRecoveryIntervalMillis = maxRecoveryIntervalMillis;
+	}
+
+	public long getRecoveryConnectionIdleTimeoutMillis() {
+		return recoveryConnectionIdleTimeoutMillis;
+	}
+
+	/**
+	 * Close the connection a recovered JMS connection factory is scanned through once unused for this long,
+	 * rather than keep it open between the recovery scans. Defaults to 0, keeping it for twice the longest
+	 * interval between scans, so that every scan reuses the connection of the previous one.
+	 *
+	 * @param recoveryConnectionIdleTimeoutMillis how long an unused recovery connection is kept, 0 to derive
+	 *   it from the interval between scans
+	 */
+	public void setRecoveryConnectionIdleTimeoutMillis(long recoveryConnectionIdleTimeoutMillis) {
+		this.recoveryConnectionIdleTimeoutMillis = recoveryConnectionIdleTimeoutMillis;
+	}
+
+	public boolean isEagerBootstrap() {
+		return eagerBootstrap;
+	}
+
+	/**
+	 * Initialize the service in the background from {@link TransactionManagerService.Registry}, instead of on
+	 * the first call needing the transaction manager, which then waits only for what is left of the
+	 * initialization. Defaults to false.
+	 *
+	 * @param eagerBootstrap if the service should start at registration
+	 * @see TransactionManagerService#start()
+	 */
+	public void setEagerBootstrap(boolean eagerBootstrap) {
+		this.eagerBootstrap = eagerBootstrap;
+	}
+
+	public int getWarmUpTransactions() {
+		return warmUpTransactions;
+	}
+
+	public void setWarmUpTransactions(int warmUpTransactions) {
+		this.warmUpTransactions = warmUpTransactions;
+	}
+
+}
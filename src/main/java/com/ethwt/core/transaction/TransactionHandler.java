@@ -1,5 +1,7 @@
 package com.ethwt.core.transaction;
 
+import javax.transaction.HeuristicMixedException;
+import javax.transaction.HeuristicRollbackException;
 import javax.transaction.Status;
 import javax.transaction.SystemException;
 import javax.transaction.Transaction;
@@ -17,24 +19,33 @@ public final class TransactionHandler {
     public static void handleExceptionNoThrow(TransactionalTask<?> transactional, Throwable t, Transaction tx)
             throws IllegalStateException, SystemException {
 
+        if (isRollbackRequired(transactional, t)) {
+            tx.setRollbackOnly();
+        }
+    }
+
+    /**
+     * Apply the rollback rules of {@link Transactional#rollbackOn()} and {@link Transactional#dontRollbackOn()}
+     * to the given exception.
+     *
+     * @return whether the work done by the failed invocation should be rolled back
+     */
+    public static boolean isRollbackRequired(TransactionalTag transactional, Throwable t) {
+
         for (Class<?> dontRollbackOnClass : transactional.dontRollbackOn()) {
             if (dontRollbackOnClass.isAssignableFrom(t.getClass())) {
-                return;
+                return false;
             }
         }
 
         for (Class<?> rollbackOnClass : transactional.rollbackOn()) {
             if (rollbackOnClass.isAssignableFrom(t.getClass())) {
-                tx.setRollbackOnly();
-                return;
+                return true;
             }
         }
 
         // RuntimeException and Error are un-checked exceptions and rollback is expected
-        if (t instanceof RuntimeException || t instanceof Error) {
-            tx.setRollbackOnly();
-            return;
-        }
+        return t instanceof RuntimeException || t instanceof Error;
     }
 
     /**
@@ -58,6 +69,9 @@ public final class TransactionHandler {
             } else {
                 tm.commit();
             }
+        } catch (HeuristicMixedException | HeuristicRollbackException e) {
+            AdaptiveRecoveryScheduler.tighten("a heuristic outcome");
+            throw e;
         } finally {
             afterEndTransaction.run();
         }
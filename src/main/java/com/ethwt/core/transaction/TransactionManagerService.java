@@ -3,19 +3,31 @@
  */
 package com.ethwt.core.transaction;
 
+import static com.ethwt.core.transaction.TxUtils.defaultForkJoinExecutor;
+import static com.ethwt.core.transaction.TxUtils.tagged;
+import static com.ethwt.core.transaction.TxUtils.withForkJoin;
 import static com.ethwt.core.transaction.TxUtils.withMandatory;
+import static com.ethwt.core.transaction.TxUtils.withNested;
 import static com.ethwt.core.transaction.TxUtils.withNever;
 import static com.ethwt.core.transaction.TxUtils.withNotSupport;
 import static com.ethwt.core.transaction.TxUtils.withRequired;
 import static com.ethwt.core.transaction.TxUtils.withRequiresNew;
+import static com.ethwt.core.transaction.TxUtils.withRetryPolicy;
 import static com.ethwt.core.transaction.TxUtils.withSupports;
 
+import java.util.List;
+import java.util.Optional;
 import java.util.ServiceLoader;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
 
+import javax.sql.DataSource;
 import javax.transaction.TransactionManager;
 import javax.transaction.Transactional.TxType;
 import javax.transaction.UserTransaction;
 
+import com.networknt.config.Config;
+
 /**
  * @author Neil Lin
  *
@@ -28,22 +40,38 @@ public interface TransactionManagerService {
 		public static synchronized TransactionManagerService getInstance() {
 			if (instance == null) {
 				instance = ServiceLoader.load(TransactionManagerService.class).iterator().next();
+				startIfEager(instance);
 			}
 			return instance;
 		}
 		
 		public static synchronized void setInstance(TransactionManagerService inst) {
 			instance = inst;
+			if (inst != null) {
+				startIfEager(inst);
+			}
+		}
+		
+		/**
+		 * Start the service registered when {@link TransactionConfig#isEagerBootstrap()} is set.
+		 */
+		private static void startIfEager(TransactionManagerService inst) {
+			TransactionConfig txConfig = Optional.ofNullable((TransactionConfig)Config.getInstance().getJsonObjectConfig(TransactionConfig.CONFIG_NAME, TransactionConfig.class))
+					.orElse(new TransactionConfig());
+			if (txConfig.isEagerBootstrap()) {
+				inst.start();
+			}
 		}
 	}
 
 	
 	default void executeWithTx(TxType type, TransactionalRunnable task) throws Exception {
 		
-		this.executeWithTx(type, () -> {
+		// a lambda of its own would drop the rollback rules and the retry policy of the runnable
+		this.executeWithTx(type, tagged(() -> {
 			task.run();
 			return null;
-		});
+		}, task));
 		
 	}
 	
@@ -69,6 +97,79 @@ public interface TransactionManagerService {
 	}
 	
 	
+	/**
+	 * Execute a task with the given transaction type, retrying it according to the policy when the
+	 * invocation began the transaction and it failed with a retryable exception.
+	 *
+	 * @see TransactionalTag#retryPolicy()
+	 */
+	default <T> T executeWithTx(TxType type, RetryPolicy policy, TransactionalTask<T> task) throws Exception {
+		return this.executeWithTx(type, withRetryPolicy(task, policy));
+	}
+	
+	
+	/**
+	 * Execute a task with NESTED propagation: inside the caller's transaction, the task runs behind a savepoint
+	 * of the connection enlisted by the data source, and only its work is rolled back when it fails. Without a
+	 * caller transaction it behaves like {@link TxType#REQUIRED}.
+	 * <p>
+	 * It is a cheaper alternative to {@link TxType#REQUIRES_NEW} for partial rollback, no transaction is
+	 * suspended and no second connection is taken from the pool. Enlisting any other resource while the
+	 * task runs fails.
+	 *
+	 * @param dataSource the data source adapted by {@link #getDataSourceAdaptor()} the task works with
+	 * @see TxUtils#withNested(TransactionManager, DataSource, TransactionalTask)
+	 */
+	default <T> T executeNested(DataSource dataSource, TransactionalTask<T> task) throws Exception {
+		return withNested(getTransactionManager(), dataSource, task);
+	}
+	
+	default void executeNested(DataSource dataSource, TransactionalRunnable task) throws Exception {
+		this.executeNested(dataSource, tagged(() -> {
+			task.run();
+			return null;
+		}, task));
+	}
+	
+	
+	/**
+	 * Run independent subtasks in parallel inside one global transaction, the caller's one or a new one
+	 * begun and committed on the calling thread, using a shared bounded executor.
+	 *
+	 * @return the results of the subtasks, in order
+	 * @see TxUtils#withForkJoin(TransactionManager, ExecutorService, List)
+	 */
+	default <T> List<T> executeInParallel(List<? extends TransactionalTask<T>> tasks) throws Exception {
+		return this.executeInParallel(defaultForkJoinExecutor(), tasks);
+	}
+	
+	default <T> List<T> executeInParallel(ExecutorService executor, List<? extends TransactionalTask<T>> tasks) throws Exception {
+		return withForkJoin(getTransactionManager(), executor, tasks);
+	}
+	
+	
+	/**
+	 * Start initializing the service in the background, unless already started. The calls needing the
+	 * transaction manager, the adaptors included, then wait only until the service is ready.
+	 * <p>
+	 * The default implementation initializes the service on a thread of the common pool; the implementations
+	 * of this library start once, warm up the begin and commit path and log the time to readiness.
+	 *
+	 * @return the readiness of the service, completed exceptionally if it failed to start
+	 * @see TransactionConfig#isEagerBootstrap()
+	 */
+	default CompletableFuture<Void> start() {
+		return CompletableFuture.runAsync(this::getTransactionManager);
+	}
+	
+	/**
+	 * Stop what the service runs in the background for the resources it adapted, the relays of the
+	 * {@link com.ethwt.core.transaction.jms.JmsSendMode#OUTBOX outboxes} in the implementations of this
+	 * library. The transaction manager is left running.
+	 */
+	default void close() {
+	}
+	
 	TransactionManager getTransactionManager();
 	UserTransaction getUserTransaction();
 	
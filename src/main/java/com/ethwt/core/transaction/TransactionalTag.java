@@ -35,4 +35,14 @@ public interface TransactionalTag {
     	return new Class[0];
     }
 
+    /**
+     * The retry policy applied when the invocation begins its own transaction and that transaction
+     *  fails with a retryable exception, such as a deadlock or a serialization failure. The whole
+     *  task is executed again in a new transaction. A task joining the caller's transaction is never retried.
+     * @return the retry policy, or null for no retry
+     */
+    default RetryPolicy retryPolicy() {
+    	return null;
+    }
+
 }
@@ -5,15 +5,33 @@ package com.ethwt.core.transaction;
 
 import static com.ethwt.core.transaction.TransactionHandler.*;
 
+import java.sql.Connection;
+import java.sql.SQLFeatureNotSupportedException;
+import java.sql.Savepoint;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.sql.DataSource;
 
 import javax.transaction.InvalidTransactionException;
 import javax.transaction.Status;
 import javax.transaction.Transaction;
 import javax.transaction.TransactionManager;
 import javax.transaction.TransactionRequiredException;
+import javax.transaction.Transactional.TxType;
 import javax.transaction.TransactionalException;
 
+import com.ethwt.core.transaction.metrics.TransactionMetrics;
+
 /**
  * @author neillin
  *
@@ -82,11 +100,12 @@ public abstract class TxUtils {
 		return currentTransaction() != null;
 	}
 
-	static <T> T invokeInOurTx(TransactionManager tm, TransactionalTask<T> task, ExceptionRunnable callback)
+	static <T> T invokeInOurTx(TxType type, TransactionManager tm, TransactionalTask<T> task, ExceptionRunnable callback)
 			throws Exception {
 
 		tm.begin();
 		Transaction tx = tm.getTransaction();
+		TransactionMetrics.getInstance().transactionBegun(type, tx);
 
 		T ret = null;
 
@@ -100,6 +119,84 @@ public abstract class TxUtils {
 		return ret;
 	}
 
+	static <T> T invokeInOurTxWithRetry(TxType type, TransactionManager tm, TransactionalTask<T> task,
+			ExceptionRunnable callback) throws Exception {
+		RetryPolicy policy = task.retryPolicy();
+		if (policy == null) {
+			return invokeInOurTx(type, tm, task, callback);
+		}
+		// a retryable failure must never commit the partial work of the attempt, whatever the rollback rules say
+		TransactionalTask<T> attempt = tagged(() -> {
+			try {
+				return task.execute();
+			} catch (Throwable t) {
+				if (policy.isRetryable(t)) {
+					tm.setRollbackOnly();
+				}
+				sneakyThrow(t);
+				return null;
+			}
+		}, task);
+		try {
+			return policy.execute(() -> invokeInOurTx(type, tm, attempt, () -> {
+			}));
+		} finally {
+			callback.run();
+		}
+	}
+
+	/**
+	 * Decorate a task, typically a lambda, with a retry policy.
+	 *
+	 * @param task the task to decorate
+	 * @param policy the retry policy
+	 * @return a task keeping the rollback rules of the given one and retried with the given policy
+	 */
+	public static <T> TransactionalTask<T> withRetryPolicy(TransactionalTask<T> task, RetryPolicy policy) {
+		return tagged(task::execute, new TransactionalTag() {
+
+			@Override
+			public Class<?>[] rollbackOn() {
+				return task.rollbackOn();
+			}
+
+			@Override
+			public Class<?>[] dontRollbackOn() {
+				return task.dontRollbackOn();
+			}
+
+			@Override
+			public RetryPolicy retryPolicy() {
+				return policy;
+			}
+		});
+	}
+
+	static <T> TransactionalTask<T> tagged(ExceptionProducer<T> producer, TransactionalTag tag) {
+		return new TransactionalTask<T>() {
+
+			@Override
+			public T execute() throws Exception {
+				return producer.execute();
+			}
+
+			@Override
+			public Class<?>[] rollbackOn() {
+				return tag.rollbackOn();
+			}
+
+			@Override
+			public Class<?>[] dontRollbackOn() {
+				return tag.dontRollbackOn();
+			}
+
+			@Override
+			public RetryPolicy retryPolicy() {
+				return tag.retryPolicy();
+			}
+		};
+	}
+
 	static <T> T invokeInCallerTx(TransactionalTask<T> task, Transaction tx) throws Exception {
 		T ret = null;
 
@@ -137,7 +234,7 @@ public abstract class TxUtils {
 	public static <T> T withRequired(TransactionManager tm, TransactionalTask<T> task) throws Exception {
 		Transaction tx = tm.getTransaction();
 		if (tx == null) {
-			return invokeInOurTx(tm, task, () -> {
+			return invokeInOurTxWithRetry(TxType.REQUIRED, tm, task, () -> {
 			});
 		} else {
 			return invokeInCallerTx(task, tx);
@@ -176,13 +273,269 @@ public abstract class TxUtils {
 		}
 	}
 
+	/**
+	 * NESTED propagation: run the task in the caller's transaction behind a savepoint of the connection
+	 * the data source has enlisted in it, and roll back to the savepoint when the task fails and the rollback
+	 * rules require it. The caller's transaction stays usable. Without a caller transaction, it behaves
+	 * like REQUIRED.
+	 * <p>
+	 * Only the work done through the data source is undone, so no other resource may be enlisted while
+	 * the task runs, see {@link NestedScope}. Work done before the task on resources already enlisted, e.g.
+	 * JMS sessions, is not affected.
+	 *
+	 * @throws IllegalStateException if the driver refuses to roll back to the savepoint, as some do inside an
+	 *         XA transaction; the failure of the task is suppressed in it and the whole transaction is marked
+	 *         rollback-only
+	 */
+	public static <T> T withNested(TransactionManager tm, DataSource dataSource, TransactionalTask<T> task)
+			throws Exception {
+		Transaction tx = tm.getTransaction();
+		if (tx == null) {
+			return invokeInOurTxWithRetry(TxType.REQUIRED, tm, task, () -> {
+			});
+		}
+		// the pool hands out the connection already enlisted with the transaction, or enlists a new one
+		try (Connection connection = dataSource.getConnection()) {
+			Savepoint savepoint = connection.setSavepoint();
+			T ret = null;
+			NestedScope.enter();
+			try {
+				ret = task.execute();
+			} catch (Throwable t) {
+				if (isRollbackRequired(task, t)) {
+					rollbackToSavepoint(connection, savepoint, t, tx);
+				}
+				sneakyThrow(t);
+			} finally {
+				NestedScope.exit();
+			}
+			try {
+				connection.releaseSavepoint(savepoint);
+			} catch (SQLFeatureNotSupportedException e) {
+				// the savepoint is released at the end of the transaction
+			}
+			return ret;
+		}
+	}
+
+	static void rollbackToSavepoint(Connection connection, Savepoint savepoint, Throwable cause, Transaction tx)
+			throws Exception {
+		try {
+			// the pooled connection refuses rollback while enlisted, so go to the physical connection
+			connection.unwrap(Connection.class).rollback(savepoint);
+		} catch (Exception e) {
+			// the work of the task cannot be undone alone, and must not be committed either
+			tx.setRollbackOnly();
+			IllegalStateException failure = new IllegalStateException(
+					"The driver refused to roll back to the savepoint of the nested scope, the whole transaction is marked rollback-only", e);
+			failure.addSuppressed(cause);
+			throw failure;
+		}
+	}
+
+	/**
+	 * Fork the subtasks to the executor and join their results, all of them working in one global transaction:
+	 * the caller's one, or a transaction begun and committed on the calling thread as with REQUIRED.
+	 * <p>
+	 * Each worker thread is associated with the transaction for the time of its subtask. Resources bound to
+	 * the transaction by the pools are scoped to a {@link TransactionBranch}, so each subtask enlists its own
+	 * connection, which the transaction manager may join to a branch of the same resource manager with
+	 * <code>TMJOIN</code>. A failing subtask applies its own rollback rules to the transaction and cancels the
+	 * subtasks not started yet; the call returns only once every started subtask has finished, then throws the
+	 * first failure with the others suppressed.
+	 * <p>
+	 * A subtask forking subtasks of its own runs them one after the other on its thread: waiting for them
+	 * from the threads of a bounded executor could leave no thread to run them.
+	 *
+	 * @return the results of the subtasks, in order
+	 */
+	public static <T> List<T> withForkJoin(TransactionManager tm, ExecutorService executor,
+			List<? extends TransactionalTask<T>> tasks) throws Exception {
+		// failures are already handled by each subtask's own rules
+		TransactionalTag handled = new TransactionalTag() {
+
+			@Override
+			public Class<?>[] dontRollbackOn() {
+				return new Class<?>[] { Throwable.class };
+			}
+		};
+		Transaction tx = tm.getTransaction();
+		if (tx == null) {
+			return invokeInOurTx(TxType.REQUIRED, tm,
+					tagged(() -> forkJoin(tm, tm.getTransaction(), executor, tasks), handled), () -> {
+					});
+		} else {
+			return forkJoin(tm, tx, executor, tasks);
+		}
+	}
+
+	static <T> List<T> forkJoin(TransactionManager tm, Transaction tx, ExecutorService executor,
+			List<? extends TransactionalTask<T>> tasks) throws Exception {
+		TransactionBranch parent = TransactionBranch.current();
+		List<ForkedSubtask<T>> subtasks = new ArrayList<>(tasks.size());
+		for (int i = 0; i < tasks.size(); i++) {
+			TransactionalTask<T> task = tasks.get(i);
+			TransactionBranch branch = TransactionBranch.fork(parent, i);
+			subtasks.add(new ForkedSubtask<>(() -> invokeInBranch(tm, tx, task, branch)));
+		}
+		if (parent != null) {
+			// already a subtask: waiting on the executor from one of its threads may starve it, run them here
+			for (ForkedSubtask<T> subtask : subtasks) {
+				subtask.run();
+				if (subtask.failure != null) {
+					subtasks.forEach(ForkedSubtask::skip);
+					break;
+				}
+			}
+		} else {
+			for (ForkedSubtask<T> subtask : subtasks) {
+				subtask.future = executor.submit(subtask);
+			}
+		}
+
+		List<T> results = new ArrayList<>(tasks.size());
+		Throwable failure = null;
+		boolean interrupted = false;
+		for (ForkedSubtask<T> subtask : subtasks) {
+			// a started subtask is associated with the transaction, it must end before the transaction does
+			while (true) {
+				try {
+					subtask.finished.await();
+					break;
+				} catch (InterruptedException e) {
+					if (!interrupted) {
+						interrupted = true;
+						tx.setRollbackOnly();
+						subtasks.forEach(ForkedSubtask::skip);
+						failure = addFailure(failure, e);
+					}
+				}
+			}
+			if (subtask.failure != null) {
+				if (failure == null) {
+					subtasks.forEach(ForkedSubtask::skip);
+				}
+				failure = addFailure(failure, subtask.failure);
+			}
+			results.add(subtask.result);
+		}
+		if (interrupted) {
+			Thread.currentThread().interrupt();
+		}
+		if (failure != null) {
+			sneakyThrow(failure);
+		}
+		return results;
+	}
+
+	/**
+	 * A subtask run at most once, either by the executor or not at all once skipped, and which tells when it
+	 * will no longer run against the transaction.
+	 */
+	private static final class ForkedSubtask<T> implements Runnable {
+		private final ExceptionProducer<T> body;
+		private final AtomicBoolean claimed = new AtomicBoolean(false);
+		private final CountDownLatch finished = new CountDownLatch(1);
+		private volatile Future<?> future;
+		private volatile T result;
+		private volatile Throwable failure;
+
+		ForkedSubtask(ExceptionProducer<T> body) {
+			this.body = body;
+		}
+
+		@Override
+		public void run() {
+			if (!this.claimed.compareAndSet(false, true)) {
+				return;
+			}
+			try {
+				this.result = this.body.execute();
+			} catch (Throwable t) {
+				this.failure = t;
+			} finally {
+				this.finished.countDown();
+			}
+		}
+
+		/**
+		 * Make sure the subtask does not start, if it has not yet.
+		 */
+		void skip() {
+			if (this.claimed.compareAndSet(false, true)) {
+				this.finished.countDown();
+				Future<?> submitted = this.future;
+				if (submitted != null) {
+					// frees the queue of the executor
+					submitted.cancel(false);
+				}
+			}
+		}
+	}
+
+	private static Throwable addFailure(Throwable first, Throwable next) {
+		if (first == null) {
+			return next;
+		}
+		if (first != next) {
+			first.addSuppressed(next);
+		}
+		return first;
+	}
+
+	static <T> T invokeInBranch(TransactionManager tm, Transaction tx, TransactionalTask<T> task,
+			TransactionBranch branch) throws Exception {
+		// the executor may run the subtask on the calling thread, already associated with the transaction
+		boolean associate = tm.getTransaction() == null;
+		if (associate) {
+			tm.resume(tx);
+		}
+		TransactionBranch previous = TransactionBranch.enter(branch);
+		try {
+			return task.execute();
+		} catch (Throwable t) {
+			handleExceptionNoThrow(task, t, tx);
+			sneakyThrow(t);
+			return null;
+		} finally {
+			TransactionBranch.exit(previous);
+			if (associate) {
+				tm.suspend();
+			}
+		}
+	}
+
+	/**
+	 * @return the bounded executor used when no executor is given for fork-join subtasks
+	 */
+	public static ExecutorService defaultForkJoinExecutor() {
+		return ForkJoinExecutorHolder.executor;
+	}
+
+	private static class ForkJoinExecutorHolder {
+		static final ExecutorService executor;
+
+		static {
+			int threads = Math.max(2, Runtime.getRuntime().availableProcessors() * 2);
+			AtomicInteger sequence = new AtomicInteger();
+			ThreadPoolExecutor pool = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+					new LinkedBlockingQueue<>(threads * 16), r -> {
+						Thread thread = new Thread(r, "tx-fork-join-" + sequence.incrementAndGet());
+						thread.setDaemon(true);
+						return thread;
+					}, new ThreadPoolExecutor.CallerRunsPolicy());
+			pool.allowCoreThreadTimeOut(true);
+			executor = pool;
+		}
+	}
+
 	public static <T> T withRequiresNew(TransactionManager tm, TransactionalTask<T> task) throws Exception {
 		Transaction tx = tm.getTransaction();
 		if (tx != null) {
 			tm.suspend();
-			return invokeInOurTx(tm, task, () -> tm.resume(tx));
+			return invokeInOurTxWithRetry(TxType.REQUIRES_NEW, tm, task, () -> tm.resume(tx));
 		} else {
-			return invokeInOurTx(tm, task, () -> {
+			return invokeInOurTxWithRetry(TxType.REQUIRES_NEW, tm, task, () -> {
 			});
 		}
 	}
@@ -7,6 +7,8 @@ import javax.jms.ConnectionFactory;
 import javax.jms.XAConnectionFactory;
 import javax.transaction.TransactionManager;
 
+import com.ethwt.core.transaction.jms.JmsProxyConfig;
+
 /**
  * @author neillin
  *
@@ -22,4 +24,16 @@ public interface XAConnectionFactoryAdaptor {
 	 * @throws Exception if the factory cannot be adapted
 	 */
 	ConnectionFactory adapt(XAConnectionFactory factory, PoolConfig poolConfig) throws Exception;
+
+	/**
+	 * Adapt the specific {@link XAConnectionFactory} and enroll with a JTA {@link TransactionManager}, choosing
+	 * how messages sent inside a transaction reach the broker
+	 * 
+	 * @param factory the XA connection factory to adapt
+	 * @param poolConfig configure for connection pooling
+	 * @param jmsConfig configure for sending inside a transaction
+	 * @return the adapted connection factory
+	 * @throws Exception if the factory cannot be adapted
+	 */
+	ConnectionFactory adapt(XAConnectionFactory factory, PoolConfig poolConfig, JmsProxyConfig jmsConfig) throws Exception;
 }
@@ -35,6 +35,10 @@ public class AtomikosConfig {
 	
 	public static final String CONFIG_NAME="atomikos";
 
+	public static final String LOG_REPOSITORY_FILE = "file";
+
+	public static final String LOG_REPOSITORY_MAPPED = "mapped";
+
 	/**
 	 * Transaction manager implementation that should be started.
 	 */
@@ -111,6 +115,22 @@ public class AtomikosConfig {
 	 */
 	private boolean threadedTwoPhaseCommit;
 
+	/**
+	 * Repository of the transactions log, {@literal file} for the file log of Atomikos or
+	 * {@literal mapped} for the memory-mapped append-only log.
+	 */
+	private String logRepository = LOG_REPOSITORY_FILE;
+
+	/**
+	 * Size in bytes of the segment files of the mapped log.
+	 */
+	private int logSegmentSize = 16 * 1024 * 1024;
+
+	/**
+	 * Interval between two compactions of the sealed segments of the mapped log.
+	 */
+	private Duration logCompactionInterval = Duration.ofMillis(10000);
+
 	private final Recovery recovery = new Recovery();
 
 	/**
@@ -302,9 +322,10 @@ public class AtomikosConfig {
 	 * Specifies whether or not to use different (and concurrent) threads for two-phase
 	 * commit on the participating resources. Setting this to {@literal true} implies that
 	 * the commit is more efficient since waiting for acknowledgements is done in
-	 * parallel. Defaults to {@literal true}. If you set this to {@literal false}, then
+	 * parallel. Defaults to {@literal false}. If you set this to {@literal false}, then
 	 * commits will happen in the order that resources are accessed within the
-	 * transaction.
+	 * transaction. It is turned on by the backend neutral
+	 * {@code TransactionConfig.parallelTwoPhaseCommit} setting.
 	 * @param threadedTwoPhaseCommit if threaded two phase commits should be used
 	 */
 	public void setThreadedTwoPhaseCommit(boolean threadedTwoPhaseCommit) {
@@ -315,6 +336,48 @@ public class AtomikosConfig {
 		return this.threadedTwoPhaseCommit;
 	}
 
+	/**
+	 * Specifies the repository of the transactions log. Defaults to {@literal file}, the
+	 * log of Atomikos rewritten at every checkpoint. {@literal mapped} appends the records
+	 * to memory-mapped segment files synced in groups and compacted in the background, so
+	 * the checkpoint interval no longer applies. The mapped log must be registered by the
+	 * application as the only {@code com.atomikos.recovery.OltpLogFactory} of the class path,
+	 * see {@link MappedTransactionLogFactory}.
+	 * @param logRepository the log repository
+	 */
+	public void setLogRepository(String logRepository) {
+		this.logRepository = logRepository;
+	}
+
+	public String getLogRepository() {
+		return this.logRepository;
+	}
+
+	/**
+	 * Specifies the size of the segment files of the mapped log. Defaults to 16MB.
+	 * @param logSegmentSize the segment size in bytes
+	 */
+	public void setLogSegmentSize(int logSegmentSize) {
+		this.logSegmentSize = logSegmentSize;
+	}
+
+	public int getLogSegmentSize() {
+		return this.logSegmentSize;
+	}
+
+	/**
+	 * Specifies the interval between two compactions of the mapped log. Defaults to 10
+	 * seconds.
+	 * @param logCompactionInterval the compaction interval
+	 */
+	public void setLogCompactionInterval(Duration logCompactionInterval) {
+		this.logCompactionInterval = logCompactionInterval;
+	}
+
+	public Duration getLogCompactionInterval() {
+		return this.logCompactionInterval;
+	}
+
 	public Recovery getRecovery() {
 		return this.recovery;
 	}
@@ -4,9 +4,15 @@
 package com.ethwt.core.transaction.atomikos;
 
 import java.io.File;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Optional;
 import java.util.Properties;
-import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.jms.ConnectionFactory;
 import javax.jms.XAConnectionFactory;
@@ -15,18 +21,42 @@ import javax.sql.XADataSource;
 import javax.transaction.TransactionManager;
 import javax.transaction.TransactionSynchronizationRegistry;
 import javax.transaction.UserTransaction;
+import javax.transaction.xa.XAResource;
 
 import org.apache.commons.lang3.StringUtils;
+import org.jboss.tm.XAResourceWrapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
+import com.atomikos.datasource.RecoverableResource;
+import com.atomikos.datasource.xa.jdbc.JdbcTransactionalResource;
+import com.atomikos.datasource.xa.jms.JmsTransactionalResource;
+import com.atomikos.icatch.RecoveryService;
+import com.atomikos.icatch.TransactionService;
+import com.atomikos.icatch.config.Configuration;
 import com.atomikos.icatch.config.UserTransactionServiceImp;
 import com.atomikos.icatch.jta.TransactionManagerImp;
 import com.atomikos.icatch.jta.UserTransactionImp;
+import com.atomikos.recovery.PendingTransactionRecord;
+import com.ethwt.core.transaction.AdaptiveRecoveryScheduler;
+import com.ethwt.core.transaction.AfterCompletionExecutor;
+import com.ethwt.core.transaction.BranchScopedTransactionSynchronizationRegistry;
+import com.ethwt.core.transaction.ExceptionProducer;
+import com.ethwt.core.transaction.InDoubtTracker;
 import com.ethwt.core.transaction.PoolConfig;
+import com.ethwt.core.transaction.ProvidedXADataSource;
+import com.ethwt.core.transaction.ServiceBootstrap;
+import com.ethwt.core.transaction.TransactionConfig;
 import com.ethwt.core.transaction.TransactionManagerService;
 import com.ethwt.core.transaction.XAConnectionFactoryAdaptor;
 import com.ethwt.core.transaction.XADataSourceAdaptor;
 import com.ethwt.core.transaction.jms.ConnectionFactoryProxy;
+import com.ethwt.core.transaction.jms.JmsProxyConfig;
+import com.ethwt.core.transaction.jms.OutboxRelays;
 import com.ethwt.core.transaction.jms.TransactionHelperImpl;
+import com.ethwt.core.transaction.metrics.MeteredTransactionIntegration;
+import com.ethwt.core.transaction.metrics.MeteredXAResource;
+import com.ethwt.core.transaction.metrics.TransactionMetrics;
 import com.networknt.config.Config;
 
 import io.agroal.api.AgroalDataSource;
@@ -38,14 +68,33 @@ import io.agroal.narayana.NarayanaTransactionIntegration;
  *
  */
 public class AtomikosTxManagerService implements TransactionManagerService {
+	private static Logger log = LoggerFactory.getLogger(AtomikosTxManagerService.class);
 
-	private final AtomicBoolean initialized = new AtomicBoolean(false);
+	private final ServiceBootstrap bootstrap = new ServiceBootstrap("Atomikos transaction manager", this::initialize, this::warmUp);
 	private final AtomikosConfig config = 
 			Optional.ofNullable((AtomikosConfig)Config.getInstance().getJsonObjectConfig(AtomikosConfig.CONFIG_NAME, AtomikosConfig.class))
 			.orElse(new AtomikosConfig());
+	private final TransactionConfig txConfig = 
+			Optional.ofNullable((TransactionConfig)Config.getInstance().getJsonObjectConfig(TransactionConfig.CONFIG_NAME, TransactionConfig.class))
+			.orElse(new TransactionConfig());
+	private final JmsProxyConfig jmsConfig = 
+			Optional.ofNullable((JmsProxyConfig)Config.getInstance().getJsonObjectConfig(JmsProxyConfig.CONFIG_NAME, JmsProxyConfig.class))
+			.orElse(new JmsProxyConfig());
 	private XADataSourceAdaptor xaDataSourceAdaptor;
 	private XAConnectionFactoryAdaptor xaConnectionFactoryAdaptor;
+	private final OutboxRelays outboxRelays = new OutboxRelays();
 	private UserTransactionServiceImp service;
+	private final AtomicInteger resourceSequence = new AtomicInteger();
+
+	@Override
+	public CompletableFuture<Void> start() {
+		return this.bootstrap.start();
+	}
+
+	@Override
+	public void close() {
+		this.outboxRelays.close();
+	}
 
 	@Override
 	public TransactionManager getTransactionManager() {
@@ -72,44 +121,183 @@ public class AtomikosTxManagerService implements TransactionManagerService {
 	}
 
 	void makeSureInitialized() {
-		if (this.initialized.compareAndSet(false, true)) {
-			initLogDir();
-			Properties properties = new Properties();
-			properties.putAll(this.config.asProperties());
-			this.service = new UserTransactionServiceImp(properties);
-			this.service.init();
-			this.xaDataSourceAdaptor = new XADataSourceAdaptor() {
-				
-				@Override
-				public DataSource adapt(XADataSource xaDataSource, PoolConfig poolConfig) throws Exception {
-			        TransactionSynchronizationRegistry txSyncRegistry = new TransactionSynchronizationRegistryImple();
-
-			        AgroalDataSourceConfigurationSupplier configurationSupplier = new AgroalDataSourceConfigurationSupplier()
-			                .connectionPoolConfiguration( cp -> cp
-			                        .maxSize( 10 )
-			                        .transactionIntegration( new NarayanaTransactionIntegration( getTransactionManager(), txSyncRegistry ) )
-			                        .connectionFactoryConfiguration( cf -> cf
-			                                .autoCommit( true ) )
-			                );
-					return AgroalDataSource.from(configurationSupplier);
-				}
-			};
+		this.bootstrap.awaitReady();
+	}
+
+	void initialize() {
+		initLogDir();
+		TransactionMetrics.getInstance().registerMBeans();
+		initParallelTwoPhaseCommit();
+		MeteredXAResource.configureBranchJoining(this.txConfig.isJoinSameResourceManager(),
+				this.txConfig.getJoinExcludedResourceClassNames());
+		AfterCompletionExecutor.configure(this.txConfig);
+		if (this.txConfig.isRecoveryEnabled() && this.txConfig.isAdaptiveRecovery()) {
+			// the periodic recovery of Atomikos stays as a backstop
+			this.config.getRecovery().setDelay(Duration.ofMillis(this.txConfig.getMaxRecoveryIntervalMillis()));
+		}
+		MappedTransactionLogFactory.configure(this.config);
+		Properties properties = new Properties();
+		properties.putAll(this.config.asProperties());
+		this.service = new UserTransactionServiceImp(properties);
+		this.service.init();
+		initThreadedTwoPhaseCommit(Configuration.getTransactionService());
+		initAdaptiveRecovery();
+		this.xaDataSourceAdaptor = new XADataSourceAdaptor() {
 			
-			this.xaConnectionFactoryAdaptor = new XAConnectionFactoryAdaptor() {
-				
-				@Override
-				public ConnectionFactory adapt(XAConnectionFactory factory, PoolConfig poolConfig) throws Exception {
-					return new ConnectionFactoryProxy(factory, new TransactionHelperImpl(getTransactionManager()));
-				}
-			};
+			@Override
+			public DataSource adapt(XADataSource xaDataSource, PoolConfig poolConfig) throws Exception {
+		        TransactionSynchronizationRegistry txSyncRegistry = new TransactionSynchronizationRegistryImple();
+
+		        AgroalDataSourceConfigurationSupplier configurationSupplier = new AgroalDataSourceConfigurationSupplier()
+		                .metricsEnabled( true )
+		                .connectionPoolConfiguration( cp -> cp
+		                        .maxSize( 10 )
+		                        .initialSize( poolConfig != null ? poolConfig.getInitialSize() : 0 )
+		                        .transactionIntegration( new MeteredTransactionIntegration( new NarayanaTransactionIntegration( getTransactionManager(), new BranchScopedTransactionSynchronizationRegistry( txSyncRegistry ) ) ) )
+		                        .connectionFactoryConfiguration( cf -> ProvidedXADataSource.provide( cf
+		                                .autoCommit( true ), xaDataSource ) )
+		                );
+		        AgroalDataSource dataSource = AgroalDataSource.from(configurationSupplier);
+		        TransactionMetrics.getInstance().registerPool(poolConfig != null ? poolConfig.getName() : null, dataSource);
+		        registerForRecovery(new JdbcTransactionalResource(recoveryName("jdbc", poolConfig), xaDataSource) {
+		        	@Override
+		        	public boolean usesXAResource(XAResource xares) {
+		        		return super.usesXAResource(driverResource(xares));
+		        	}
+		        });
+				return dataSource;
+			}
+		};
+		
+		this.xaConnectionFactoryAdaptor = new XAConnectionFactoryAdaptor() {
 			
-		}
+			@Override
+			public ConnectionFactory adapt(XAConnectionFactory factory, PoolConfig poolConfig) throws Exception {
+				return adapt(factory, poolConfig, jmsConfig);
+			}
+			
+			@Override
+			public ConnectionFactory adapt(XAConnectionFactory factory, PoolConfig poolConfig, JmsProxyConfig jmsConfig) throws Exception {
+				registerForRecovery(new JmsTransactionalResource(recoveryName("jms", poolConfig), factory) {
+					@Override
+					public boolean usesXAResource(XAResource xares) {
+						return super.usesXAResource(driverResource(xares));
+					}
+				});
+				return new ConnectionFactoryProxy(factory, new TransactionHelperImpl(getTransactionManager(),
+						new BranchScopedTransactionSynchronizationRegistry(new TransactionSynchronizationRegistryImple())), jmsConfig,
+						outboxRelays.outbox(factory, jmsConfig));
+			}
+		};
+	}
+
+	/**
+	 * Run when started in the background, before the service is ready.
+	 */
+	void warmUp() {
+		ServiceBootstrap.warmUp(atomikosTxManager(), this.txConfig.getWarmUpTransactions());
 	}
 	
 	TransactionManager atomikosTxManager() {
 		return TransactionManagerImp.getTransactionManager();
 	}
 	
+	/**
+	 * Register an adapted resource with Atomikos, which recovers it and names the branches of the
+	 * connections it recognizes through {@code isSameRM} after it.
+	 * <p>
+	 * Atomikos only recognizes connections whose {@link XAResource} has the class of the one of the
+	 * resource, the registered resources are given the resource of the driver, see {@link #driverResource(XAResource)}.
+	 */
+	void registerForRecovery(RecoverableResource resource) {
+		if (!this.txConfig.isRecoveryEnabled()) {
+			return;
+		}
+		try {
+			Configuration.addResource(resource);
+		} catch (IllegalStateException e) {
+			log.warn("Failed to register {} for recovery", resource.getName(), e);
+		}
+	}
+
+	/**
+	 * @return the resource of the driver, enlisted wrapped by a {@link MeteredXAResource}, itself wrapped by
+	 *   Agroal for the data sources
+	 */
+	static XAResource driverResource(XAResource xares) {
+		XAResource resource = xares instanceof XAResourceWrapper ? ((XAResourceWrapper) xares).getResource() : xares;
+		return MeteredXAResource.unwrap(resource);
+	}
+
+	String recoveryName(String type, PoolConfig poolConfig) {
+		if (poolConfig != null && poolConfig.getName() != null) {
+			return poolConfig.getName();
+		}
+		return "ethwt-" + type + "-" + this.resourceSequence.incrementAndGet();
+	}
+	
+	/**
+	 * Count in doubt the records of the log of this node past their expiry at two scans in a row, the
+	 * others are transactions still running.
+	 */
+	void initAdaptiveRecovery() {
+		if (!this.txConfig.isRecoveryEnabled()) {
+			return;
+		}
+		ExceptionProducer<?> recoveryPass = recoveryPass(Configuration.getRecoveryService());
+		InDoubtTracker inDoubtTracker = new InDoubtTracker();
+		AdaptiveRecoveryScheduler.start(this.txConfig, () -> {
+			recoveryPass.execute();
+			long now = System.currentTimeMillis();
+			List<String> expired = new ArrayList<>();
+			for (PendingTransactionRecord record : Configuration.getRecoveryLog().getPendingTransactionRecords()) {
+				if (record.expires < now) {
+					expired.add(record.id);
+				}
+			}
+			return inDoubtTracker.update(expired);
+		});
+	}
+
+	/**
+	 * {@code performRecovery()} of Atomikos waits for the maximum timeout after a pass and runs a second
+	 * one, holding the scheduler for minutes: run the single pass of the Atomikos recovery timer instead.
+	 */
+	ExceptionProducer<?> recoveryPass(RecoveryService recoveryService) {
+		try {
+			Method pass = recoveryService.getClass().getDeclaredMethod("performRecoveryPass");
+			pass.setAccessible(true);
+			return () -> pass.invoke(recoveryService);
+		} catch (NoSuchMethodException | RuntimeException e) {
+			log.warn("No single recovery pass in {}, each adaptive scan waits for the maximum timeout",
+					recoveryService.getClass().getName());
+			return recoveryService::performRecovery;
+		}
+	}
+	
+	void initParallelTwoPhaseCommit() {
+		if (this.txConfig.isParallelTwoPhaseCommit()) {
+			this.config.setThreadedTwoPhaseCommit(true);
+		}
+	}
+	
+	/**
+	 * Atomikos 5 reads no {@code threaded_2pc} property and builds its transaction service single threaded:
+	 * switch the service to propagating the phases of the two phase commit on its own threads.
+	 */
+	void initThreadedTwoPhaseCommit(TransactionService transactionService) {
+		if (!this.config.isThreadedTwoPhaseCommit()) {
+			return;
+		}
+		try {
+			Field singleThreaded = transactionService.getClass().getDeclaredField("single_threaded_2pc_");
+			singleThreaded.setAccessible(true);
+			singleThreaded.setBoolean(transactionService, false);
+		} catch (NoSuchFieldException | IllegalAccessException | RuntimeException e) {
+			log.warn("No threaded two phase commit in {}, the phases run sequentially", transactionService.getClass().getName());
+		}
+	}
+	
 	void initLogDir() {
 		if(StringUtils.isEmpty(this.config.getLogBaseDir())) {
 			File home = new File(System.getProperty("user.home"));
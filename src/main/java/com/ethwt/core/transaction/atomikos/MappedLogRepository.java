@@ -0,0 +1,401 @@
+/**
+ *
+ */
+package com.ethwt.core.transaction.atomikos;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.CRC32;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.atomikos.recovery.LogException;
+import com.atomikos.recovery.LogReadException;
+import com.atomikos.recovery.LogWriteException;
+import com.atomikos.recovery.PendingTransactionRecord;
+import com.atomikos.recovery.fs.InMemoryRepository;
+import com.atomikos.recovery.fs.Repository;
+
+/**
+ * Atomikos log {@link Repository} appending the transaction records to memory-mapped segment files, in
+ * place of the file repository which rewrites the whole log at every checkpoint.
+ * <p>
+ * A record is copied to the mapped segment under a short lock, then made durable by a group sync: the
+ * first writer waiting for its record to be synced forces the segment for every record written so far,
+ * the writers arriving meanwhile wait for that force or the next one. A full segment is forced and sealed,
+ * and the next one is preallocated. A background task compacts the sealed segments oldest first: the
+ * records still pending whose latest copy lives in the oldest segment are appended again, then the segment
+ * is deleted, so the log holds only the few pending transactions plus the active segment. Reads are served
+ * from an {@link InMemoryRepository} rebuilt from the segments at start.
+ * <p>
+ * Each record is laid out as its length, its CRC32 and the UTF-8 bytes of
+ * {@link PendingTransactionRecord#toRecord()}; a zero length ends the records of a segment, a bad checksum
+ * marks a write torn by a crash.
+ *
+ * @author neillin
+ *
+ */
+public class MappedLogRepository implements Repository {
+
+	private static Logger log = LoggerFactory.getLogger(MappedLogRepository.class);
+
+	private static final String SUFFIX = ".mlog";
+	private static final int HEADER_SIZE = 8;
+
+	private final File dir;
+	private final String baseName;
+	private final int segmentSize;
+	private final long compactionIntervalMillis;
+
+	private final InMemoryRepository index = new InMemoryRepository();
+	/**
+	 * Segment of the latest record of each pending transaction.
+	 */
+	private final Map<String, Long> segmentOf = new HashMap<>();
+	private final TreeMap<Long, Segment> segments = new TreeMap<>();
+	private volatile Segment active;
+	private volatile long written;
+
+	private final ReentrantLock flushLock = new ReentrantLock();
+	private final Condition flushDone = flushLock.newCondition();
+	private boolean flushing;
+	private long flushed;
+
+	private FileChannel lockChannel;
+	private FileLock fileLock;
+	private ScheduledExecutorService compactor;
+
+	/**
+	 * @param dir directory of the segment files
+	 * @param baseName prefix of the segment files
+	 * @param segmentSize size in bytes of a segment file
+	 * @param compactionIntervalMillis interval of the compaction of the sealed segments
+	 */
+	public MappedLogRepository(File dir, String baseName, int segmentSize, long compactionIntervalMillis) {
+		this.dir = dir;
+		this.baseName = baseName;
+		this.segmentSize = segmentSize;
+		this.compactionIntervalMillis = compactionIntervalMillis;
+	}
+
+	private static class Segment {
+		final long sequence;
+		final File file;
+		final MappedByteBuffer buffer;
+
+		Segment(long sequence, File file, MappedByteBuffer buffer) {
+			this.sequence = sequence;
+			this.file = file;
+			this.buffer = buffer;
+		}
+	}
+
+	@Override
+	public synchronized void init() throws LogException {
+		index.init();
+		try {
+			if (!dir.isDirectory() && !dir.mkdirs()) {
+				throw new IOException("Cannot create " + dir);
+			}
+			lockChannel = new RandomAccessFile(new File(dir, baseName + SUFFIX + ".lck"), "rw").getChannel();
+			fileLock = lockChannel.tryLock();
+			if (fileLock == null) {
+				throw new IOException("The transaction log in " + dir + " is in use by another process");
+			}
+			Map<String, PendingTransactionRecord> pending = new LinkedHashMap<>();
+			long last = 0;
+			for (File file : listSegments()) {
+				long sequence = sequenceOf(file);
+				Segment segment = new Segment(sequence, file, map(file));
+				segments.put(sequence, segment);
+				replay(segment, pending);
+				last = sequence;
+			}
+			for (PendingTransactionRecord record : pending.values()) {
+				index.put(record.id, record);
+			}
+			roll(last + 1);
+			if (!pending.isEmpty()) {
+				log.info("Recovered {} pending transactions from {} log segments", pending.size(), segments.size() - 1);
+			}
+		} catch (IOException e) {
+			close();
+			throw new LogException(new IOException("Failed to open the transaction log in " + dir, e));
+		}
+		compactor = Executors.newSingleThreadScheduledExecutor(r -> {
+			Thread thread = new Thread(r, "tx-log-compactor");
+			thread.setDaemon(true);
+			return thread;
+		});
+		compactor.scheduleWithFixedDelay(this::compact, compactionIntervalMillis, compactionIntervalMillis,
+				TimeUnit.MILLISECONDS);
+	}
+
+	@Override
+	public void put(String id, PendingTransactionRecord record) throws LogWriteException {
+		long position;
+		synchronized (this) {
+			if (active == null) {
+				throw new LogWriteException(new IllegalStateException("The transaction log is closed"));
+			}
+			index.put(id, record);
+			position = append(record);
+		}
+		sync(position);
+	}
+
+	@Override
+	public PendingTransactionRecord get(String id) throws LogReadException {
+		return index.get(id);
+	}
+
+	@Override
+	public Collection<PendingTransactionRecord> findAllCommittingCoordinatorLogEntries() throws LogReadException {
+		return index.findAllCommittingCoordinatorLogEntries();
+	}
+
+	@Override
+	public Collection<PendingTransactionRecord> getAllCoordinatorLogEntries() throws LogReadException {
+		return index.getAllCoordinatorLogEntries();
+	}
+
+	/**
+	 * Nothing to do, sealed segments are compacted in the background.
+	 */
+	@Override
+	public void writeCheckpoint(Collection<PendingTransactionRecord> checkpointContent) {
+	}
+
+	@Override
+	public synchronized void close() {
+		if (compactor != null) {
+			compactor.shutdownNow();
+			compactor = null;
+		}
+		if (active != null) {
+			active.buffer.force();
+			active = null;
+		}
+		segments.clear();
+		index.close();
+		try {
+			if (fileLock != null) {
+				fileLock.release();
+			}
+			if (lockChannel != null) {
+				lockChannel.close();
+			}
+		} catch (IOException e) {
+			log.warn("Failed to release the lock of the transaction log in {}", dir, e);
+		}
+	}
+
+	/**
+	 * Copy the record to the active segment, sealing it if full.
+	 *
+	 * @return the position to sync for the record to be durable
+	 */
+	private long append(PendingTransactionRecord record) throws LogWriteException {
+		byte[] bytes = record.toRecord().getBytes(StandardCharsets.UTF_8);
+		if (bytes.length + 2 * HEADER_SIZE > segmentSize) {
+			throw new LogWriteException(new IllegalArgumentException("Transaction record larger than the log segment size " + segmentSize));
+		}
+		MappedByteBuffer buffer = active.buffer;
+		// keep room for the zero length ending the segment
+		if (buffer.remaining() < bytes.length + 2 * HEADER_SIZE) {
+			// the records of a sealed segment are durable before any of the next one
+			buffer.force();
+			try {
+				roll(active.sequence + 1);
+			} catch (IOException e) {
+				throw new LogWriteException(new IOException("Failed to create a transaction log segment in " + dir, e));
+			}
+			buffer = active.buffer;
+		}
+		CRC32 crc = new CRC32();
+		crc.update(bytes, 0, bytes.length);
+		int start = buffer.position();
+		buffer.position(start + 4);
+		buffer.putInt((int) crc.getValue());
+		buffer.put(bytes);
+		// the length last, a record is only seen once complete
+		buffer.putInt(start, bytes.length);
+		if (record.state.isFinalState()) {
+			segmentOf.remove(record.id);
+		} else {
+			segmentOf.put(record.id, active.sequence);
+		}
+		written = position(active.sequence, buffer.position());
+		return written;
+	}
+
+	/**
+	 * Wait until the log is durable up to the position, forcing the active segment if no other writer is.
+	 */
+	private void sync(long position) throws LogWriteException {
+		flushLock.lock();
+		try {
+			while (flushed < position) {
+				if (flushing) {
+					flushDone.awaitUninterruptibly();
+					continue;
+				}
+				// written before active, a segment is forced before the next one is written
+				long target = written;
+				Segment segment = active;
+				if (segment == null) {
+					throw new LogWriteException(new IllegalStateException("The transaction log is closed"));
+				}
+				MappedByteBuffer buffer = segment.buffer;
+				flushing = true;
+				flushLock.unlock();
+				try {
+					buffer.force();
+				} catch (RuntimeException e) {
+					throw new LogWriteException(new IOException("Failed to sync the transaction log in " + dir, e));
+				} finally {
+					flushLock.lock();
+					flushing = false;
+					flushDone.signalAll();
+				}
+				if (target > flushed) {
+					flushed = target;
+				}
+			}
+		} finally {
+			flushLock.unlock();
+		}
+	}
+
+	/**
+	 * Rewrite the pending records of the sealed segments, oldest first, and delete the segments. A segment
+	 * is only deleted once all the older ones are, so that no superseded record outlives its successor.
+	 */
+	void compact() {
+		try {
+			while (true) {
+				Segment oldest;
+				long position = 0;
+				int rewritten = 0;
+				synchronized (this) {
+					if (active == null || segments.firstKey() == active.sequence) {
+						return;
+					}
+					oldest = segments.firstEntry().getValue();
+					List<String> ids = new ArrayList<>();
+					for (Map.Entry<String, Long> entry : segmentOf.entrySet()) {
+						if (entry.getValue() == oldest.sequence) {
+							ids.add(entry.getKey());
+						}
+					}
+					for (String id : ids) {
+						PendingTransactionRecord record = index.get(id);
+						if (record != null) {
+							position = append(record);
+							rewritten++;
+						}
+					}
+				}
+				if (position > 0) {
+					sync(position);
+				}
+				synchronized (this) {
+					segments.remove(oldest.sequence);
+				}
+				if (!oldest.file.delete()) {
+					log.warn("Failed to delete the compacted transaction log segment {}", oldest.file);
+				}
+				if (log.isDebugEnabled()) {
+					log.debug("Compacted {}, {} pending records rewritten", oldest.file, rewritten);
+				}
+			}
+		} catch (LogException | RuntimeException e) {
+			log.warn("Failed to compact the transaction log in {}", dir, e);
+		}
+	}
+
+	private void roll(long sequence) throws IOException {
+		File file = new File(dir, String.format("%s-%010d%s", baseName, sequence, SUFFIX));
+		try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+			raf.setLength(segmentSize);
+		}
+		active = new Segment(sequence, file, map(file));
+		segments.put(sequence, active);
+	}
+
+	private static MappedByteBuffer map(File file) throws IOException {
+		try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+			// the mapping stays valid once the channel is closed
+			return raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, raf.length());
+		}
+	}
+
+	private void replay(Segment segment, Map<String, PendingTransactionRecord> pending) {
+		MappedByteBuffer buffer = segment.buffer;
+		while (buffer.remaining() >= HEADER_SIZE) {
+			int start = buffer.position();
+			int length = buffer.getInt();
+			if (length <= 0 || length > buffer.remaining() - 4) {
+				break;
+			}
+			int checksum = buffer.getInt();
+			byte[] bytes = new byte[length];
+			buffer.get(bytes);
+			CRC32 crc = new CRC32();
+			crc.update(bytes, 0, length);
+			if ((int) crc.getValue() != checksum) {
+				log.warn("Torn record at offset {} of {}, ignoring the rest of the segment", start, segment.file);
+				break;
+			}
+			// without the line separator ending toRecord(), as read by the file log: it would be taken for a superior id
+			PendingTransactionRecord record = PendingTransactionRecord.fromRecord(new String(bytes, StandardCharsets.UTF_8).trim());
+			if (record.state.isFinalState()) {
+				pending.remove(record.id);
+				segmentOf.remove(record.id);
+			} else {
+				pending.put(record.id, record);
+				segmentOf.put(record.id, segment.sequence);
+			}
+		}
+	}
+
+	private List<File> listSegments() {
+		File[] files = dir.listFiles((d, name) -> name.startsWith(baseName + "-") && name.endsWith(SUFFIX));
+		List<File> result = new ArrayList<>();
+		if (files != null) {
+			for (File file : files) {
+				result.add(file);
+			}
+		}
+		result.sort((a, b) -> Long.compare(sequenceOf(a), sequenceOf(b)));
+		return result;
+	}
+
+	private long sequenceOf(File file) {
+		String name = file.getName();
+		return Long.parseLong(name.substring(baseName.length() + 1, name.length() - SUFFIX.length()));
+	}
+
+	private static long position(long sequence, int offset) {
+		return (sequence << 32) | offset;
+	}
+
+}
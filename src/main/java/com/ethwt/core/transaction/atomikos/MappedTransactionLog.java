@@ -0,0 +1,98 @@
+/**
+ *
+ */
+package com.ethwt.core.transaction.atomikos;
+
+import java.util.Collection;
+
+import com.atomikos.recovery.LogException;
+import com.atomikos.recovery.LogReadException;
+import com.atomikos.recovery.LogWriteException;
+import com.atomikos.recovery.OltpLog;
+import com.atomikos.recovery.PendingTransactionRecord;
+import com.atomikos.recovery.RecoveryLog;
+import com.atomikos.recovery.fs.OltpLogImp;
+import com.atomikos.recovery.fs.RecoveryLogImp;
+
+/**
+ * Transaction log of Atomikos on a {@link MappedLogRepository}. Atomikos takes the log given by an
+ * {@link com.atomikos.recovery.OltpLogFactory} as its recovery log too when it implements both, the calls
+ * go to the Atomikos implementations of the file log, on the mapped repository.
+ *
+ * @author neillin
+ *
+ */
+public class MappedTransactionLog implements OltpLog, RecoveryLog {
+
+	private final MappedLogRepository repository;
+	private final OltpLogImp oltpLog = new OltpLogImp();
+	private final RecoveryLogImp recoveryLog = new RecoveryLogImp();
+
+	public MappedTransactionLog(MappedLogRepository repository) {
+		this.repository = repository;
+		this.oltpLog.setRepository(repository);
+		this.recoveryLog.setRepository(repository);
+	}
+
+	@Override
+	public void write(PendingTransactionRecord record) throws LogWriteException {
+		oltpLog.write(record);
+	}
+
+	@Override
+	public void close() {
+		repository.close();
+	}
+
+	@Override
+	public boolean isActive() {
+		return recoveryLog.isActive();
+	}
+
+	@Override
+	public void closing() {
+		recoveryLog.closing();
+	}
+
+	@Override
+	public void closed() {
+		recoveryLog.closed();
+	}
+
+	@Override
+	public Collection<PendingTransactionRecord> getIndoubtTransactionRecords() throws LogReadException {
+		return recoveryLog.getIndoubtTransactionRecords();
+	}
+
+	@Override
+	public Collection<PendingTransactionRecord> getExpiredPendingCommittingTransactionRecordsAt(long time)
+			throws LogReadException {
+		return recoveryLog.getExpiredPendingCommittingTransactionRecordsAt(time);
+	}
+
+	@Override
+	public void forgetTransactionRecords(Collection<PendingTransactionRecord> coordinators) {
+		recoveryLog.forgetTransactionRecords(coordinators);
+	}
+
+	@Override
+	public void recordAsCommitting(String coordinatorId) throws LogException {
+		recoveryLog.recordAsCommitting(coordinatorId);
+	}
+
+	@Override
+	public void forget(String coordinatorId) {
+		recoveryLog.forget(coordinatorId);
+	}
+
+	@Override
+	public PendingTransactionRecord get(String coordinatorId) throws LogReadException {
+		return recoveryLog.get(coordinatorId);
+	}
+
+	@Override
+	public Collection<PendingTransactionRecord> getPendingTransactionRecords() throws LogReadException {
+		return recoveryLog.getPendingTransactionRecords();
+	}
+
+}
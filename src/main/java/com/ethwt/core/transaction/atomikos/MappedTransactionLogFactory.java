@@ -0,0 +1,79 @@
+/**
+ *
+ */
+package com.ethwt.core.transaction.atomikos;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.ServiceLoader;
+
+import com.atomikos.icatch.config.Configuration;
+import com.atomikos.recovery.LogException;
+import com.atomikos.recovery.OltpLog;
+import com.atomikos.recovery.OltpLogFactory;
+
+/**
+ * {@link OltpLogFactory} found by Atomikos on the class path, giving it a {@link MappedTransactionLog} when
+ * {@link AtomikosConfig#getLogRepository()} selects it and nothing otherwise, which keeps the file log of
+ * Atomikos.
+ * <p>
+ * Atomikos finds its factory through the service loader and refuses to start when it finds more than one,
+ * so this factory is not registered by this library: an application selecting the mapped log registers it
+ * in its own {@code META-INF/services/com.atomikos.recovery.OltpLogFactory} file, holding the name of this
+ * class, and can then have no other {@link OltpLogFactory} on its class path.
+ *
+ * @author neillin
+ *
+ */
+public class MappedTransactionLogFactory implements OltpLogFactory {
+
+	private static volatile AtomikosConfig config;
+
+	/**
+	 * Select the log for the next start of Atomikos. Called by {@link AtomikosTxManagerService} before
+	 * Atomikos starts.
+	 *
+	 * @param atomikosConfig the configuration, the mapped log is used if it selects it
+	 */
+	public static void configure(AtomikosConfig atomikosConfig) {
+		config = atomikosConfig;
+		if (atomikosConfig.isEnableLogging() && AtomikosConfig.LOG_REPOSITORY_MAPPED.equals(atomikosConfig.getLogRepository())) {
+			checkRegistered();
+		}
+	}
+
+	/**
+	 * Fail before Atomikos starts with its file log, or fails on several factories, when the mapped log
+	 * is selected but this factory is not the one Atomikos finds.
+	 */
+	private static void checkRegistered() {
+		List<String> factories = new ArrayList<>();
+		for (OltpLogFactory factory : ServiceLoader.load(OltpLogFactory.class, Configuration.class.getClassLoader())) {
+			factories.add(factory.getClass().getName());
+		}
+		if (!factories.equals(Collections.singletonList(MappedTransactionLogFactory.class.getName()))) {
+			throw new IllegalStateException("The mapped transaction log needs " + MappedTransactionLogFactory.class.getName()
+					+ " as the only OltpLogFactory of META-INF/services/" + OltpLogFactory.class.getName() + ", found " + factories);
+		}
+	}
+
+	@Override
+	public OltpLog createOltpLog() {
+		AtomikosConfig current = config;
+		if (current == null || !current.isEnableLogging()
+				|| !AtomikosConfig.LOG_REPOSITORY_MAPPED.equals(current.getLogRepository())) {
+			return null;
+		}
+		MappedLogRepository repository = new MappedLogRepository(new File(current.getLogBaseDir()),
+				current.getLogBaseName(), current.getLogSegmentSize(), current.getLogCompactionInterval().toMillis());
+		try {
+			repository.init();
+		} catch (LogException e) {
+			throw new IllegalStateException("Failed to open the mapped transaction log", e);
+		}
+		return new MappedTransactionLog(repository);
+	}
+
+}
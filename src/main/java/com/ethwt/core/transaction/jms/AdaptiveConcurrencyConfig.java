@@ -0,0 +1,123 @@
+/**
+ * 
+ */
+package com.ethwt.core.transaction.jms;
+
+import java.util.List;
+
+/**
+ * Settings of an {@link AdaptiveConcurrencyController}.
+ * 
+ * @author neillin
+ *
+ */
+public class AdaptiveConcurrencyConfig {
+
+	private int minConcurrency = 1;
+
+	private int maxConcurrency = 16;
+
+	private int minBatchSize = 1;
+
+	private int maxBatchSize = 100;
+
+	/**
+	 * Average time in milliseconds to process and commit a batch above which the database is considered
+	 * overloaded.
+	 */
+	private long targetBatchLatencyMillis = 200;
+
+	/**
+	 * Average wait in milliseconds for a pooled connection above which the pool is considered saturated.
+	 */
+	private long maxPoolWaitMillis = 5;
+
+	/**
+	 * Factor applied to the concurrency and the batch size on overload.
+	 */
+	private double decreaseFactor = 0.5;
+
+	/**
+	 * Delay in milliseconds between two adjustments.
+	 */
+	private long intervalMillis = 1000;
+
+	/**
+	 * Names of the pools the consumers work with, as registered in
+	 * {@link com.ethwt.core.transaction.metrics.TransactionMetrics}. Null or empty for all the pools.
+	 */
+	private List<String> poolNames;
+
+	public int getMinConcurrency() {
+		return minConcurrency;
+	}
+
+	public void setMinConcurrency(int minConcurrency) {
+		this.minConcurrency = minConcurrency;
+	}
+
+	public int getMaxConcurrency() {
+		return maxConcurrency;
+	}
+
+	public void setMaxConcurrency(int maxConcurrency) {
+		this.maxConcurrency = maxConcurrency;
+	}
+
+	public int getMinBatchSize() {
+		return minBatchSize;
+	}
+
+	public void setMinBatchSize(int minBatchSize) {
+		this.minBatchSize = minBatchSize;
+	}
+
+	public int getMaxBatchSize() {
+		return maxBatchSize;
+	}
+
+	public void setMaxBatchSize(int maxBatchSize) {
+		this.maxBatchSize = maxBatchSize;
+	}
+
+	public long getTargetBatchLatencyMillis() {
+		return targetBatchLatencyMillis;
+	}
+
+	public void setTargetBatchLatencyMillis(long targetBatchLatencyMillis) {
+		this.targetBatchLatencyMillis = targetBatchLatencyMillis;
+	}
+
+	public long getMaxPoolWaitMillis() {
+		return maxPoolWaitMillis;
+	}
+
+	public void setMaxPoolWaitMillis(long maxPoolWaitMillis) {
+		this.maxPoolWaitMillis = maxPoolWaitMillis;
+	}
+
+	public double getDecreaseFactor() {
+		return decreaseFactor;
+	}
+
+	public void setDecreaseFactor(double decreaseFactor) {
+		this.decreaseFactor = decreaseFactor;
+	}
+
+	public long getIntervalMillis() {
+		return intervalMillis;
+	}
+
+	public void setIntervalMillis(long intervalMillis) {
+		this.intervalMillis = intervalMillis;
+	}
+
+	public List<String> getPoolNames() {
+		return poolNames;
+	}
+
+	public void setPoolNames(List<String> poolNames) {
+		this.poolNames = poolNames;
+	}
+
+}
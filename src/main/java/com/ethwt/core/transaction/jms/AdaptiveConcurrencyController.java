@@ -0,0 +1,174 @@
+/**
+ * 
+ */
+package com.ethwt.core.transaction.jms;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.ethwt.core.transaction.metrics.ConnectionPoolMetrics;
+import com.ethwt.core.transaction.metrics.TransactionMetrics;
+
+/**
+ * Additive increase, multiplicative decrease controller of the concurrency and the batch size of a
+ * {@link XAMessageConsumerContainer}, so that its throughput follows what the database absorbs.
+ * <p>
+ * At every interval it compares the measures of the last interval:
+ * <ul>
+ * <li>overload, when the average batch latency exceeds the target, or consumers waited for pooled
+ * connections longer than allowed, or threads are waiting for one right now: concurrency and batch size
+ * are multiplied by the decrease factor;</li>
+ * <li>backlog without overload, when the queue depth is positive or, without a depth supplier, most
+ * batches came full: one consumer is added, and the batch size grows while the latency stays under half
+ * the target;</li>
+ * <li>idle, when batches came mostly partial and the queue is drained: one consumer is removed.</li>
+ * </ul>
+ * 
+ * @author neillin
+ *
+ */
+public class AdaptiveConcurrencyController implements AutoCloseable {
+	private static Logger log = LoggerFactory.getLogger(AdaptiveConcurrencyController.class);
+
+	private final XAMessageConsumerContainer container;
+	private final AdaptiveConcurrencyConfig config;
+	private final LongSupplier queueDepth;
+	private ScheduledExecutorService scheduler;
+
+	private long lastBatches;
+	private long lastFullBatches;
+	private long lastBatchNanos;
+	private long lastAcquires;
+	private long lastBlockingMillis;
+
+	/**
+	 * @param container the container to drive
+	 * @param config the controller settings
+	 * @param queueDepth number of messages waiting on the destination, typically read from the broker
+	 *   management API, null to judge the backlog from how full the batches come
+	 */
+	public AdaptiveConcurrencyController(XAMessageConsumerContainer container, AdaptiveConcurrencyConfig config,
+			LongSupplier queueDepth) {
+		this.container = container;
+		this.config = config;
+		this.queueDepth = queueDepth;
+	}
+
+	public synchronized void start() {
+		if (scheduler != null) {
+			return;
+		}
+		sample();
+		scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+			Thread thread = new Thread(r, "jms-consumer-controller");
+			thread.setDaemon(true);
+			return thread;
+		});
+		scheduler.scheduleWithFixedDelay(this::adjustQuietly, config.getIntervalMillis(), config.getIntervalMillis(),
+				TimeUnit.MILLISECONDS);
+	}
+
+	@Override
+	public synchronized void close() {
+		if (scheduler != null) {
+			scheduler.shutdownNow();
+			scheduler = null;
+		}
+	}
+
+	private void adjustQuietly() {
+		try {
+			adjust();
+		} catch (RuntimeException e) {
+			log.warn("Failed to adjust consumer concurrency", e);
+		}
+	}
+
+	/**
+	 * Take the measures of the interval just ended and resize the container.
+	 */
+	void adjust() {
+		long batches = -lastBatches;
+		long fullBatches = -lastFullBatches;
+		long batchNanos = -lastBatchNanos;
+		long acquires = -lastAcquires;
+		long blockingMillis = -lastBlockingMillis;
+		sample();
+		batches += lastBatches;
+		fullBatches += lastFullBatches;
+		batchNanos += lastBatchNanos;
+		acquires += lastAcquires;
+		blockingMillis += lastBlockingMillis;
+		long awaiting = 0;
+		for (ConnectionPoolMetrics pool : pools().values()) {
+			awaiting += pool.getAwaitingCount();
+		}
+
+		long latencyMillis = batches > 0 ? TimeUnit.NANOSECONDS.toMillis(batchNanos / batches) : 0;
+		long poolWaitMillis = acquires > 0 ? blockingMillis / acquires : 0;
+		boolean overloaded = latencyMillis > config.getTargetBatchLatencyMillis()
+				|| poolWaitMillis > config.getMaxPoolWaitMillis() || awaiting > 0;
+		boolean backlog = queueDepth != null ? queueDepth.getAsLong() > 0
+				: batches > 0 && fullBatches * 2 >= batches;
+
+		int concurrency = container.getConcurrency();
+		int batchSize = container.getBatchSize();
+		if (overloaded) {
+			concurrency = (int) (concurrency * config.getDecreaseFactor());
+			if (latencyMillis > config.getTargetBatchLatencyMillis()) {
+				batchSize = (int) (batchSize * config.getDecreaseFactor());
+			}
+		} else if (backlog) {
+			concurrency++;
+			if (latencyMillis * 2 < config.getTargetBatchLatencyMillis()) {
+				batchSize++;
+			}
+		} else if (batches == 0 || fullBatches * 2 < batches) {
+			concurrency--;
+		}
+		concurrency = Math.max(config.getMinConcurrency(), Math.min(config.getMaxConcurrency(), concurrency));
+		batchSize = Math.max(config.getMinBatchSize(), Math.min(config.getMaxBatchSize(), batchSize));
+
+		if (concurrency != container.getConcurrency() || batchSize != container.getBatchSize()) {
+			if (log.isDebugEnabled()) {
+				log.debug("Consumers {} -> {}, batch size {} -> {} (latency {}ms, pool wait {}ms, awaiting {}, backlog {})",
+						container.getConcurrency(), concurrency, container.getBatchSize(), batchSize, latencyMillis,
+						poolWaitMillis, awaiting, backlog);
+			}
+			container.setConcurrency(concurrency);
+			container.setBatchSize(batchSize);
+		}
+	}
+
+	private void sample() {
+		lastBatches = container.getBatchCount();
+		lastFullBatches = container.getFullBatchCount();
+		lastBatchNanos = container.getBatchNanos();
+		long acquires = 0;
+		long blockingMillis = 0;
+		for (ConnectionPoolMetrics pool : pools().values()) {
+			acquires += pool.getAcquireCount();
+			blockingMillis += pool.getBlockingTimeTotalMillis();
+		}
+		lastAcquires = acquires;
+		lastBlockingMillis = blockingMillis;
+	}
+
+	private Map<String, ConnectionPoolMetrics> pools() {
+		Map<String, ConnectionPoolMetrics> pools = TransactionMetrics.getInstance().getPools();
+		if (config.getPoolNames() == null || config.getPoolNames().isEmpty()) {
+			return pools;
+		}
+		Map<String, ConnectionPoolMetrics> selected = new HashMap<>(pools);
+		selected.keySet().retainAll(config.getPoolNames());
+		return selected;
+	}
+
+}
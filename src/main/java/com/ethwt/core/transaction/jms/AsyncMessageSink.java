@@ -0,0 +1,49 @@
+/**
+ * 
+ */
+package com.ethwt.core.transaction.jms;
+
+import javax.jms.CompletionListener;
+import javax.jms.JMSException;
+
+/**
+ * {@link MessageSink} of one producer of an enlisted session, sending through that producer and tracking
+ * the asynchronous sends made inside a transaction with {@link PendingSends}. Only the sends the application
+ * made with a {@link CompletionListener} are asynchronous, the others are sent synchronously as they are.
+ * 
+ * @author neillin
+ *
+ */
+class AsyncMessageSink implements MessageSink {
+
+	private final TransactionHelper transactionHelper;
+	private final PendingSends pendingSends;
+	private final MessageSender sender;
+
+	/**
+	 * @param transactionHelper utility to check for a transaction
+	 * @param pendingSends the sends of the session
+	 * @param sender sends through the producer
+	 */
+	AsyncMessageSink(TransactionHelper transactionHelper, PendingSends pendingSends, MessageSender sender) {
+		this.transactionHelper = transactionHelper;
+		this.pendingSends = pendingSends;
+		this.sender = sender;
+	}
+
+	@Override
+	public void send(OutgoingMessage message) throws JMSException {
+		if (message.getCompletionListener() == null || !transactionHelper.isTransactionAvailable()) {
+			sender.send(message, message.getCompletionListener());
+			return;
+		}
+		CompletionListener listener = pendingSends.track(message.getCompletionListener());
+		try {
+			sender.send(message, listener);
+		} catch (JMSException | RuntimeException e) {
+			pendingSends.untrack();
+			throw e;
+		}
+	}
+
+}
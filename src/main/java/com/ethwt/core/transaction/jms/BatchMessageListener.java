@@ -0,0 +1,28 @@
+/**
+ * 
+ */
+package com.ethwt.core.transaction.jms;
+
+import java.util.List;
+
+import javax.jms.Message;
+
+/**
+ * Processes the messages received by a {@link XAMessageConsumerContainer} in one transaction.
+ * 
+ * @author neillin
+ *
+ */
+@FunctionalInterface
+public interface BatchMessageListener {
+
+	/**
+	 * Process a batch inside the transaction which received it. Any exception rolls the transaction back
+	 * and the messages are redelivered.
+	 *
+	 * @param messages the batch, never empty
+	 * @throws Exception if the batch cannot be processed
+	 */
+	void onMessages(List<Message> messages) throws Exception;
+
+}
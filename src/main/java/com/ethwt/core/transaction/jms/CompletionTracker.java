@@ -0,0 +1,119 @@
+/**
+ * 
+ */
+package com.ethwt.core.transaction.jms;
+
+import java.util.concurrent.TimeUnit;
+
+import javax.jms.CompletionListener;
+import javax.jms.JMSException;
+import javax.jms.Message;
+
+/**
+ * Counts the asynchronous sends of a session not acknowledged by the broker yet, so that they can be
+ * waited for before the transaction completes.
+ * 
+ * @author neillin
+ *
+ */
+final class CompletionTracker {
+
+	private int outstanding;
+	private Exception failure;
+
+	/**
+	 * Count one more outstanding send.
+	 *
+	 * @param listener listener of the application to notify as well, may be null
+	 * @return the listener to send with
+	 */
+	synchronized CompletionListener track(CompletionListener listener) {
+		outstanding++;
+		return new CompletionListener() {
+
+			@Override
+			public void onCompletion(Message message) {
+				try {
+					if (listener != null) {
+						listener.onCompletion(message);
+					}
+				} finally {
+					completed(null);
+				}
+			}
+
+			@Override
+			public void onException(Message message, Exception exception) {
+				try {
+					if (listener != null) {
+						listener.onException(message, exception);
+					}
+				} finally {
+					completed(exception);
+				}
+			}
+		};
+	}
+
+	/**
+	 * Record the outcome of a tracked send, also to be called when the send itself failed.
+	 *
+	 * @param exception the failure, or null
+	 */
+	synchronized void completed(Exception exception) {
+		outstanding--;
+		if (exception != null) {
+			if (failure == null) {
+				failure = exception;
+			} else if (failure != exception) {
+				failure.addSuppressed(exception);
+			}
+		}
+		if (outstanding <= 0) {
+			notifyAll();
+		}
+	}
+
+	/**
+	 * @return the number of sends not acknowledged yet
+	 */
+	synchronized int getOutstanding() {
+		return outstanding;
+	}
+
+	/**
+	 * Wait for all the tracked sends and clear the recorded failure.
+	 *
+	 * @param timeoutMillis how long to wait at most
+	 * @throws JMSException if a send failed, or some were not acknowledged in time
+	 */
+	synchronized void await(long timeoutMillis) throws JMSException {
+		long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+		try {
+			while (outstanding > 0) {
+				long remaining = deadline - System.nanoTime();
+				if (remaining <= 0) {
+					throw new JMSException(outstanding + " sends not acknowledged by the broker within "
+							+ timeoutMillis + "ms");
+				}
+				TimeUnit.NANOSECONDS.timedWait(this, remaining);
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw getJmsException("Interrupted waiting for sends to be acknowledged", e);
+		}
+		Exception exception = failure;
+		failure = null;
+		if (exception != null) {
+			throw getJmsException("Send failed: " + exception.getMessage(), exception);
+		}
+	}
+
+	private static JMSException getJmsException(String message, Exception cause) {
+		JMSException jmsException = new JMSException(message);
+		jmsException.setLinkedException(cause);
+		jmsException.initCause(cause);
+		return jmsException;
+	}
+
+}
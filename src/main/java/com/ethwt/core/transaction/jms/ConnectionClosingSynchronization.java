@@ -30,6 +30,9 @@ import javax.transaction.Synchronization;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.ethwt.core.transaction.AfterCompletionExecutor;
+import com.ethwt.core.transaction.metrics.TransactionMetrics;
+
 /**
  * Synchronization to close JMS connection at the end of the transaction.
  *
@@ -54,12 +57,17 @@ public class ConnectionClosingSynchronization implements Synchronization {
     }
 
     /**
-     * Close the connection no matter what the status of the transaction is.
+     * Close the connection no matter what the status of the transaction is, in the background if
+     * {@link AfterCompletionExecutor} is enabled.
      *
      * @param status the status of the completed transaction
      */
     @Override
     public void afterCompletion(int status) {
+        AfterCompletionExecutor.execute(this::close);
+    }
+
+    private void close() {
         if (log.isTraceEnabled()) {
             log.trace("Closing connection " + connection);
         }
@@ -68,6 +76,8 @@ public class ConnectionClosingSynchronization implements Synchronization {
             connection.close();
         } catch (JMSException e) {
             log.warn("Failed to close JMS connection {}", connection.toString(), e);
+        } finally {
+            TransactionMetrics.getInstance().jmsConnectionClosed(true);
         }
     }
 
@@ -22,10 +22,13 @@
 package com.ethwt.core.transaction.jms;
 
 
+import java.util.Objects;
+
 import javax.jms.Connection;
 import javax.jms.ConnectionFactory;
 import javax.jms.JMSContext;
 import javax.jms.JMSException;
+import javax.jms.JMSRuntimeException;
 import javax.jms.XAConnectionFactory;
 import javax.jms.XAJMSContext;
 
@@ -45,13 +48,59 @@ public class ConnectionFactoryProxy implements ConnectionFactory {
 
     private final TransactionHelper transactionHelper;
 
+    private final JmsProxyConfig config;
+
+    private final TransactionalOutbox outbox;
+
+    private final Object sharedSessionKey;
+
+    private final Object sharedContextKey;
+
     /**
      * @param xaConnectionFactory factory to get XA connection instances, not null.
      * @param transactionHelper utility to make transaction resources registration easier.
      */
     public ConnectionFactoryProxy(XAConnectionFactory xaConnectionFactory, TransactionHelper transactionHelper) {
+        this(xaConnectionFactory, transactionHelper, new JmsProxyConfig());
+    }
+
+    /**
+     * @param xaConnectionFactory factory to get XA connection instances, not null.
+     * @param transactionHelper utility to make transaction resources registration easier.
+     * @param config how the proxied sessions send inside a transaction, not null. In the
+     *   {@link JmsSendMode#OUTBOX} mode the outbox is created with its relay not started, see {@link #getOutbox()}.
+     */
+    public ConnectionFactoryProxy(XAConnectionFactory xaConnectionFactory, TransactionHelper transactionHelper,
+            JmsProxyConfig config) {
+        this(xaConnectionFactory, transactionHelper, config,
+                config.getSendMode() == JmsSendMode.OUTBOX ? new TransactionalOutbox(xaConnectionFactory, config) : null);
+    }
+
+    /**
+     * @param xaConnectionFactory factory to get XA connection instances, not null.
+     * @param transactionHelper utility to make transaction resources registration easier.
+     * @param config how the proxied sessions send inside a transaction, not null.
+     * @param outbox the outbox the sends are written to in the {@link JmsSendMode#OUTBOX} mode, its relay
+     *   is run by the caller, see {@link OutboxRelays}.
+     */
+    public ConnectionFactoryProxy(XAConnectionFactory xaConnectionFactory, TransactionHelper transactionHelper,
+            JmsProxyConfig config, TransactionalOutbox outbox) {
+        if (config.getSendMode() == JmsSendMode.OUTBOX && outbox == null) {
+            throw new IllegalArgumentException("An outbox is required by the OUTBOX send mode");
+        }
         this.xaConnectionFactory = xaConnectionFactory;
         this.transactionHelper = transactionHelper;
+        this.config = config;
+        this.outbox = config.getSendMode() == JmsSendMode.OUTBOX ? outbox : null;
+        this.sharedSessionKey = config.isShareTransactionSessions() ? new Object() : null;
+        this.sharedContextKey = config.isShareTransactionSessions() ? new Object() : null;
+    }
+
+    /**
+     * @return the outbox of the {@link JmsSendMode#OUTBOX} mode, or null in other modes.
+     */
+    public TransactionalOutbox getOutbox() {
+        return outbox;
     }
 
     /**
@@ -62,7 +111,8 @@ public class ConnectionFactoryProxy implements ConnectionFactory {
      */
     @Override
     public Connection createConnection() throws JMSException {
-        Connection connection = new ConnectionProxy(xaConnectionFactory.createXAConnection(), transactionHelper);
+        Connection connection = new ConnectionProxy(xaConnectionFactory.createXAConnection(), transactionHelper,
+                config, outbox, sharedSessionKey);
 
         if (log.isTraceEnabled()) {
             log.trace("Created new proxied connection: " + connection);
@@ -73,6 +123,8 @@ public class ConnectionFactoryProxy implements ConnectionFactory {
 
     /**
      * Get XA connection from the provided factory with credentials and wrap it with {@link ConnectionProxy}.
+     * When sessions are shared, its sessions share the session bound to the transaction for the same
+     * credentials.
      * 
      * @param userName
      * @param password
@@ -82,7 +134,7 @@ public class ConnectionFactoryProxy implements ConnectionFactory {
     @Override
     public Connection createConnection(String userName, String password) throws JMSException {
         Connection connection = new ConnectionProxy(xaConnectionFactory.createXAConnection(userName, password),
-                transactionHelper);
+                transactionHelper, config, outbox, credentialsKey(sharedSessionKey, userName, password));
 
         if (log.isTraceEnabled()) {
             log.trace("Created new proxied connection: " + connection);
@@ -91,24 +143,132 @@ public class ConnectionFactoryProxy implements ConnectionFactory {
         return connection;
     }
 
+    /**
+     * Get XA context from the provided factory and wrap it with {@link JMSContextProxy}. When sessions are
+     * shared, the context already bound to the active transaction is returned if any.
+     */
     @Override
     public JMSContext createContext() {
-        return JMSContextProxy.wrapContext(xaConnectionFactory.createXAContext(), transactionHelper);
+        JMSContext shared = getSharedContext(sharedContextKey);
+        if (shared != null) {
+            return shared;
+        }
+        return shareContext(sharedContextKey, JMSContextProxy.wrapContext(xaConnectionFactory.createXAContext(), transactionHelper, config, outbox));
     }
 
+    /**
+     * Get XA context from the provided factory with credentials and wrap it with {@link JMSContextProxy}.
+     * When sessions are shared, the context already bound to the active transaction for the same
+     * credentials is returned if any.
+     */
     @Override
     public JMSContext createContext(String userName, String password) {
-        return JMSContextProxy.wrapContext(xaConnectionFactory.createXAContext(userName, password), transactionHelper);
+        Object key = credentialsKey(sharedContextKey, userName, password);
+        JMSContext shared = getSharedContext(key);
+        if (shared != null) {
+            return shared;
+        }
+        return shareContext(key, JMSContextProxy.wrapContext(xaConnectionFactory.createXAContext(userName, password), transactionHelper, config, outbox));
     }
 
     @Override
     public JMSContext createContext(String userName, String password, int sessionMode) {
-        return JMSContextProxy.wrapContext((XAJMSContext) xaConnectionFactory.createXAContext(userName, password).createContext(sessionMode), transactionHelper);
+        Object key = credentialsKey(sharedContextKey, userName, password);
+        JMSContext shared = getSharedContext(key);
+        if (shared != null) {
+            return shared;
+        }
+        return shareContext(key, JMSContextProxy.wrapContext((XAJMSContext) xaConnectionFactory.createXAContext(userName, password).createContext(sessionMode), transactionHelper, config, outbox));
     }
 
     @Override
     public JMSContext createContext(int sessionMode) {
-        return JMSContextProxy.wrapContext((XAJMSContext) xaConnectionFactory.createXAContext().createContext(sessionMode), transactionHelper);
+        JMSContext shared = getSharedContext(sharedContextKey);
+        if (shared != null) {
+            return shared;
+        }
+        return shareContext(sharedContextKey, JMSContextProxy.wrapContext((XAJMSContext) xaConnectionFactory.createXAContext().createContext(sessionMode), transactionHelper, config, outbox));
+    }
+
+    /**
+     * The key of the handle shared by the callers with the same credentials, or null if not shared.
+     */
+    private static Object credentialsKey(Object key, String userName, String password) {
+        return key == null ? null : new CredentialsKey(key, userName, password);
+    }
+
+    private JMSContext getSharedContext(Object key) {
+        if (key == null) {
+            return null;
+        }
+        try {
+            if (!transactionHelper.isTransactionAvailable()) {
+                return null;
+            }
+            return (JMSContext) transactionHelper.getTransactionResource(key);
+        } catch (JMSException e) {
+            JMSRuntimeException jmsre = new JMSRuntimeException("Could not get the shared context");
+            jmsre.addSuppressed(e);
+            throw jmsre;
+        }
+    }
+
+    /**
+     * Bind a context created inside a transaction to it, when contexts are shared.
+     */
+    private JMSContext shareContext(Object key, JMSContext context) {
+        if (key == null) {
+            return context;
+        }
+        try {
+            if (transactionHelper.isTransactionAvailable()) {
+                ((JMSContextProxy) context).share();
+                transactionHelper.putTransactionResource(key, context);
+            }
+        } catch (JMSException e) {
+            context.close();
+            JMSRuntimeException jmsre = new JMSRuntimeException("Could not share the context");
+            jmsre.addSuppressed(e);
+            throw jmsre;
+        }
+        return context;
+    }
+
+    /**
+     * Binds the handle shared by the callers of one factory with the same credentials. The credentials are
+     * left out of {@link #toString()}.
+     */
+    private static final class CredentialsKey {
+
+        private final Object key;
+        private final String userName;
+        private final String password;
+
+        CredentialsKey(Object key, String userName, String password) {
+            this.key = key;
+            this.userName = userName;
+            this.password = password;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof CredentialsKey)) {
+                return false;
+            }
+            CredentialsKey other = (CredentialsKey) obj;
+            return key == other.key && Objects.equals(userName, other.userName)
+                    && Objects.equals(password, other.password);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(System.identityHashCode(key), userName, password);
+        }
+
+        @Override
+        public String toString() {
+            return "CredentialsKey[" + userName + "]";
+        }
     }
 
 }
@@ -17,6 +17,11 @@
 package com.ethwt.core.transaction.jms;
 
 
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
 import javax.jms.JMSException;
 import javax.jms.XAConnection;
 import javax.jms.XAConnectionFactory;
@@ -27,81 +32,141 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 /**
+ * Thread-safe holder of the JMS connection used to reach an XA resource, typically during recovery.
+ * <p>
+ * The connection is opened on first use and kept across calls, so a recovery scan over many in-doubt Xids,
+ * and the following scans, reuse one connection. Calls are serialized on the holder, as the XA session
+ * they go through is not thread-safe. The connection is dropped when the provider reports it broken,
+ * through its exception listener or an {@code XAER_RMFAIL} error, and reconnected on next use; failed
+ * connection attempts back off exponentially from {@code reconnectDelayMillis} to
+ * {@code maxReconnectDelayMillis}, failing fast in between. A connection left unused for
+ * {@code idleTimeoutMillis} is closed.
+ *
  * @author <a href="mailto:gytis@redhat.com">Gytis Trikleris</a>
  */
 public class ConnectionManager {
 	private static Logger log = LoggerFactory.getLogger(ConnectionManager.class);
 
+    // above the longest interval between the scans of the adaptive recovery
+    private static final long DEFAULT_IDLE_TIMEOUT_MILLIS = 1200000;
+
+    private static final long DEFAULT_RECONNECT_DELAY_MILLIS = 1000;
+
+    private static final long DEFAULT_MAX_RECONNECT_DELAY_MILLIS = 60000;
+
     private final XAConnectionFactory xaConnectionFactory;
 
     private final String user;
 
     private final String pass;
 
+    private final long idleTimeoutMillis;
+
+    private final long reconnectDelayMillis;
+
+    private final long maxReconnectDelayMillis;
+
     private XAConnection connection;
 
     private XASession session;
 
+    private volatile boolean broken;
+
+    private long lastUsed;
+
+    private int failedAttempts;
+
+    private long nextAttempt;
+
+    private ScheduledFuture<?> idleCheck;
+
     public ConnectionManager(XAConnectionFactory xaConnectionFactory, String user, String pass) {
+        this(xaConnectionFactory, user, pass, DEFAULT_IDLE_TIMEOUT_MILLIS);
+    }
+
+    /**
+     * @param idleTimeoutMillis how long the connection is kept unused before it is closed, 0 to keep it.
+     */
+    public ConnectionManager(XAConnectionFactory xaConnectionFactory, String user, String pass,
+            long idleTimeoutMillis) {
+        this(xaConnectionFactory, user, pass, idleTimeoutMillis, DEFAULT_RECONNECT_DELAY_MILLIS,
+                DEFAULT_MAX_RECONNECT_DELAY_MILLIS);
+    }
+
+    /**
+     * @param idleTimeoutMillis how long the connection is kept unused before it is closed, 0 to keep it.
+     * @param reconnectDelayMillis how long to wait before connecting again after a failed attempt.
+     * @param maxReconnectDelayMillis maximum wait after consecutive failed attempts.
+     */
+    public ConnectionManager(XAConnectionFactory xaConnectionFactory, String user, String pass,
+            long idleTimeoutMillis, long reconnectDelayMillis, long maxReconnectDelayMillis) {
         this.xaConnectionFactory = xaConnectionFactory;
         this.user = user;
         this.pass = pass;
+        this.idleTimeoutMillis = idleTimeoutMillis;
+        this.reconnectDelayMillis = reconnectDelayMillis;
+        this.maxReconnectDelayMillis = maxReconnectDelayMillis;
     }
 
     /**
-     * Invoke {@link XAResourceConsumer} accept method before making sure that JMS connection is available. Current
-     * connection is used if one is available. If connection is not available, new connection is created before the
-     * accept call and closed after it.
+     * Invoke {@link XAResourceConsumer} accept method after making sure that JMS connection is available. Current
+     * connection is used if one is available, else a new one is created and kept for the next calls.
      *
      * @param consumer {@link XAResourceConsumer} to be executed.
      * @throws XAException if JMS connection cannot be created.
      */
     public void connectAndAccept(XAResourceConsumer consumer) throws XAException {
-        if (isConnected()) {
-            consumer.accept(session.getXAResource());
-            return;
-        }
-
-        connect();
-        try {
-            consumer.accept(session.getXAResource());
-        } finally {
-            disconnect();
-        }
+        connectAndApply(xaResource -> {
+            consumer.accept(xaResource);
+            return null;
+        });
     }
 
     /**
-     * Invoke {@link XAResourceFunction} apply method before making sure that JMS connection is available. Current
-     * connection is used if one is available. If connection is not available, new connection is created before the
-     * apply call and closed after it.
+     * Invoke {@link XAResourceFunction} apply method after making sure that JMS connection is available. Current
+     * connection is used if one is available, else a new one is created and kept for the next calls. The
+     * connection is dropped if the call fails with {@code XAER_RMFAIL}.
      *
      * @param function {@link XAResourceFunction} to be executed.
      * @param <T> Return type of the {@link XAResourceFunction}.
      * @return The result of {@link XAResourceFunction}.
      * @throws XAException if JMS connection cannot be created.
      */
-    public <T> T connectAndApply(XAResourceFunction<T> function) throws XAException {
-        if (isConnected()) {
-            return function.apply(session.getXAResource());
-        }
-
+    public synchronized <T> T connectAndApply(XAResourceFunction<T> function) throws XAException {
         connect();
         try {
             return function.apply(session.getXAResource());
+        } catch (XAException e) {
+            if (e.errorCode == XAException.XAER_RMFAIL) {
+                log.warn("JMS resource manager failed, dropping the connection");
+                disconnect();
+            }
+            throw e;
         } finally {
-            disconnect();
+            lastUsed = System.nanoTime();
         }
     }
 
     /**
-     * Create JMS connection.
+     * Create JMS connection, unless a healthy one is open.
      *
-     * @throws XAException if JMS connection cannot be created.
+     * @throws XAException if JMS connection cannot be created, or if the last attempt failed less than the
+     *   reconnect delay ago.
      */
-    public void connect() throws XAException {
+    public synchronized void connect() throws XAException {
+        if (broken) {
+            disconnect();
+        }
         if (isConnected()) {
             return;
         }
+        long now = System.nanoTime();
+        if (failedAttempts > 0 && now - nextAttempt < 0) {
+            if (log.isDebugEnabled()) {
+                log.debug("Not connecting again before the reconnect delay after {} failed attempts", failedAttempts);
+            }
+            throw new XAException(XAException.XAER_RMFAIL);
+        }
 
         try {
             connection = createXAConnection();
@@ -113,15 +178,34 @@ public class ConnectionManager {
                 } catch (JMSException ignore) {
                 }
             }
-           log.warn("Failed to create JMS connection",e);
+            connection = null;
+            session = null;
+            failedAttempts++;
+            long delay = Math.min(maxReconnectDelayMillis,
+                    reconnectDelayMillis << Math.min(failedAttempts - 1, 20));
+            nextAttempt = now + TimeUnit.MILLISECONDS.toNanos(delay);
+            log.warn("Failed to create JMS connection, next attempt in {}ms", delay, e);
             throw new XAException(XAException.XAER_RMFAIL);
         }
+        failedAttempts = 0;
+        lastUsed = now;
+        watch(connection);
+        if (idleTimeoutMillis > 0) {
+            long period = Math.max(1, idleTimeoutMillis / 2);
+            idleCheck = IdleCheckHolder.scheduler.scheduleWithFixedDelay(this::disconnectIfIdle, period, period,
+                    TimeUnit.MILLISECONDS);
+        }
     }
 
     /**
      * Close current JMS connection.
      */
-    public void disconnect() {
+    public synchronized void disconnect() {
+        broken = false;
+        if (idleCheck != null) {
+            idleCheck.cancel(false);
+            idleCheck = null;
+        }
         if (!isConnected()) {
             return;
         }
@@ -139,10 +223,33 @@ public class ConnectionManager {
     /**
      * Check if JMS connection is active.
      *
-     * @return {@code true} if JMS connection is active.
+     * @return {@code true} if JMS connection is open and was not reported broken.
      */
-    public boolean isConnected() {
-        return connection != null && session != null;
+    public synchronized boolean isConnected() {
+        return connection != null && session != null && !broken;
+    }
+
+    private void watch(XAConnection xaConnection) {
+        try {
+            xaConnection.setExceptionListener(e -> {
+                log.warn("JMS connection {} reported broken", xaConnection, e);
+                broken = true;
+            });
+        } catch (JMSException | IllegalStateException e) {
+            // some providers refuse exception listeners, failed calls still drop the connection
+            if (log.isDebugEnabled()) {
+                log.debug("Cannot watch JMS connection {}", xaConnection, e);
+            }
+        }
+    }
+
+    private synchronized void disconnectIfIdle() {
+        if (connection != null && System.nanoTime() - lastUsed >= TimeUnit.MILLISECONDS.toNanos(idleTimeoutMillis)) {
+            if (log.isDebugEnabled()) {
+                log.debug("Closing JMS connection idle for {}ms", idleTimeoutMillis);
+            }
+            disconnect();
+        }
     }
 
     private XAConnection createXAConnection() throws JMSException {
@@ -153,4 +260,12 @@ public class ConnectionManager {
         return xaConnectionFactory.createXAConnection(user, pass);
     }
 
+    private static class IdleCheckHolder {
+        static final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "jms-connection-idle-check");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
 }
@@ -38,6 +38,8 @@ import javax.transaction.Synchronization;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.ethwt.core.transaction.metrics.TransactionMetrics;
+
 /**
  * Proxy connection to wrap around provided {@link XAConnection}.
  *
@@ -49,6 +51,12 @@ public class ConnectionProxy implements Connection {
     private final XAConnection xaConnection;
 
     private final TransactionHelper transactionHelper;
+
+    private final JmsProxyConfig config;
+
+    private final TransactionalOutbox outbox;
+
+    private final Object sharedSessionKey;
     private boolean connectionCloseScheduled;
 
     /**
@@ -56,8 +64,32 @@ public class ConnectionProxy implements Connection {
      * @param transactionHelper utility to make transaction resources registration easier.
      */
     public ConnectionProxy(XAConnection xaConnection, TransactionHelper transactionHelper) {
+        this(xaConnection, transactionHelper, new JmsProxyConfig(), null);
+    }
+
+    /**
+     * @param xaConnection XA connection which needs to be proxied.
+     * @param transactionHelper utility to make transaction resources registration easier.
+     * @param config how the proxied sessions send inside a transaction.
+     * @param outbox where the sessions send in the {@link JmsSendMode#OUTBOX} mode, null in other modes.
+     */
+    public ConnectionProxy(XAConnection xaConnection, TransactionHelper transactionHelper, JmsProxyConfig config,
+            TransactionalOutbox outbox) {
+        this(xaConnection, transactionHelper, config, outbox, null);
+    }
+
+    /**
+     * @param sharedSessionKey key binding the session shared by the connections of a factory to the
+     *   transaction, null not to share sessions.
+     */
+    ConnectionProxy(XAConnection xaConnection, TransactionHelper transactionHelper, JmsProxyConfig config,
+            TransactionalOutbox outbox, Object sharedSessionKey) {
         this.xaConnection = xaConnection;
         this.transactionHelper = transactionHelper;
+        this.config = config;
+        this.outbox = outbox;
+        this.sharedSessionKey = sharedSessionKey;
+        TransactionMetrics.getInstance().jmsConnectionOpened();
     }
 
     /**
@@ -119,12 +151,14 @@ public class ConnectionProxy implements Connection {
             connectionCloseScheduled = true;
             Synchronization synchronization = new ConnectionClosingSynchronization(xaConnection);
             transactionHelper.registerSynchronization(synchronization);
+            TransactionMetrics.getInstance().jmsConnectionCloseScheduled();
 
             if (log.isTraceEnabled()) {
                 log.trace("Registered synchronization to close the connection: " + synchronization);
             }
         } else {
             xaConnection.close();
+            TransactionMetrics.getInstance().jmsConnectionClosed(false);
         }
     }
 
@@ -218,7 +252,8 @@ public class ConnectionProxy implements Connection {
     }
 
     /**
-     * Delegate to {@link #xaConnection}
+     * Delegate to {@link #xaConnection}. Give it a {@link XAServerSessionPool} created on this connection
+     * to have every delivery processed inside an XA transaction.
      *
      * @see Connection#createConnectionConsumer(Destination, String, ServerSessionPool, int)
      */
@@ -261,17 +296,55 @@ public class ConnectionProxy implements Connection {
         return xaConnection.createSharedDurableConnectionConsumer(topic, subscriptionName, messageSelector, sessionPool, maxMessages);
     }
 
+    /**
+     * @return the proxied XA connection, used by {@link XAServerSessionPool} to create the sessions the
+     *   connection consumers deliver to.
+     */
+    XAConnection getXAConnection() {
+        return xaConnection;
+    }
+
     /**
      * Create a proxied XA session and enlist its XA resource to the transaction.
      * <p>
-     * If session's XA resource cannot be enlisted to the transaction, session is closed.
+     * If session's XA resource cannot be enlisted to the transaction, session is closed. In the
+     * {@link JmsSendMode#OUTBOX} mode the session is only enlisted once it is used to consume. When sessions
+     * are shared, the session already bound to the transaction is returned if any, else the new one is bound.
      *
      * @return XA session wrapped with {@link SessionProxy}.
      * @throws JMSException if failure occurred creating XA session or registering its XA resource.
      */
     private Session createAndRegisterSession() throws JMSException {
+        if (sharedSessionKey == null) {
+            return createAndEnlistSession();
+        }
+        Session shared = (Session) transactionHelper.getTransactionResource(sharedSessionKey);
+        if (shared != null) {
+            if (log.isTraceEnabled()) {
+                log.trace("Reusing proxied session shared by the transaction: " + shared);
+            }
+            return shared;
+        }
+        SessionProxy session = createAndEnlistSession();
+        try {
+            session.share();
+        } catch (JMSException e) {
+            session.close();
+            throw e;
+        }
+        transactionHelper.putTransactionResource(sharedSessionKey, session);
+        return session;
+    }
+
+    private SessionProxy createAndEnlistSession() throws JMSException {
         XASession xaSession = xaConnection.createXASession();
-        Session session = new SessionProxy(xaSession, transactionHelper);
+        SessionProxy session = new SessionProxy(xaSession, transactionHelper, config, outbox);
+        if (outbox != null) {
+            if (log.isTraceEnabled()) {
+                log.trace("Created new proxied outbox session: " + session);
+            }
+            return session;
+        }
 
         try {
             transactionHelper.registerXAResource(xaSession.getXAResource());
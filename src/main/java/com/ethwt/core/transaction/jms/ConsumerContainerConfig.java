@@ -0,0 +1,160 @@
+/**
+ * 
+ */
+package com.ethwt.core.transaction.jms;
+
+/**
+ * Settings of a {@link XAMessageConsumerContainer}.
+ * 
+ * @author neillin
+ *
+ */
+public class ConsumerContainerConfig {
+
+	/**
+	 * Number of consumer threads, each with its own connection and session.
+	 */
+	private int concurrency = 1;
+
+	/**
+	 * Maximum number of messages received and committed in one transaction.
+	 */
+	private int batchSize = 10;
+
+	/**
+	 * Maximum time in milliseconds to wait for a batch to fill up.
+	 */
+	private long receiveTimeoutMillis = 1000;
+
+	/**
+	 * Selector of the consumers, null to receive all messages.
+	 */
+	private String messageSelector;
+
+	/**
+	 * Number of deliveries, redeliveries delayed by the container included, after which a message still
+	 * failing is handed to the poison message handler.
+	 */
+	private int maxDeliveryAttempts = 5;
+
+	/**
+	 * Delay in milliseconds before a failed message is delivered again, doubled by
+	 * {@link #redeliveryMultiplier} at each further failure. 0 lets the broker redeliver at once.
+	 */
+	private long redeliveryDelayMillis = 1000;
+
+	/**
+	 * Factor applied to the redelivery delay at each failure.
+	 */
+	private double redeliveryMultiplier = 2.0;
+
+	/**
+	 * Maximum delay in milliseconds before a failed message is delivered again.
+	 */
+	private long maxRedeliveryDelayMillis = 60000;
+
+	/**
+	 * Name of the queue the messages failing more than {@link #maxDeliveryAttempts} times are moved to,
+	 * null to discard them.
+	 */
+	private String deadLetterQueue;
+
+	/**
+	 * Delay in milliseconds before a consumer reconnects after a broker failure.
+	 */
+	private long recoveryIntervalMillis = 5000;
+
+	/**
+	 * Maximum time in milliseconds to wait for the batches in progress to complete on shutdown.
+	 */
+	private long shutdownTimeoutMillis = 30000;
+
+	public int getConcurrency() {
+		return concurrency;
+	}
+
+	public void setConcurrency(int concurrency) {
+		this.concurrency = concurrency;
+	}
+
+	public int getBatchSize() {
+		return batchSize;
+	}
+
+	public void setBatchSize(int batchSize) {
+		this.batchSize = batchSize;
+	}
+
+	public long getReceiveTimeoutMillis() {
+		return receiveTimeoutMillis;
+	}
+
+	public void setReceiveTimeoutMillis(long receiveTimeoutMillis) {
+		this.receiveTimeoutMillis = receiveTimeoutMillis;
+	}
+
+	public String getMessageSelector() {
+		return messageSelector;
+	}
+
+	public void setMessageSelector(String messageSelector) {
+		this.messageSelector = messageSelector;
+	}
+
+	public int getMaxDeliveryAttempts() {
+		return maxDeliveryAttempts;
+	}
+
+	public void setMaxDeliveryAttempts(int maxDeliveryAttempts) {
+		this.maxDeliveryAttempts = maxDeliveryAttempts;
+	}
+
+	public long getRedeliveryDelayMillis() {
+		return redeliveryDelayMillis;
+	}
+
+	public void setRedeliveryDelayMillis(long redeliveryDelayMillis) {
+		this.redeliveryDelayMillis = redeliveryDelayMillis;
+	}
+
+	public double getRedeliveryMultiplier() {
+		return redeliveryMultiplier;
+	}
+
+	public void setRedeliveryMultiplier(double redeliveryMultiplier) {
+		this.redeliveryMultiplier = redeliveryMultiplier;
+	}
+
+	public long getMaxRedeliveryDelayMillis() {
+		return maxRedeliveryDelayMillis;
+	}
+
+	public void setMaxRedeliveryDelayMillis(long maxRedeliveryDelayMillis) {
+		this.maxRedeliveryDelayMillis = maxRedeliveryDelayMillis;
+	}
+
+	public String getDeadLetterQueue() {
+		return deadLetterQueue;
+	}
+
+	public void setDeadLetterQueue(String deadLetterQueue) {
+		this.deadLetterQueue = deadLetterQueue;
+	}
+
+	public long getRecoveryIntervalMillis() {
+		return recoveryIntervalMillis;
+	}
+
+	public void setRecoveryIntervalMillis(long recoveryIntervalMillis) {
+		this.recoveryIntervalMillis = recoveryIntervalMillis;
+	}
+
+	public long getShutdownTimeoutMillis() {
+		return shutdownTimeoutMillis;
+	}
+
+	public void setShutdownTimeoutMillis(long shutdownTimeoutMillis) {
+		this.shutdownTimeoutMillis = shutdownTimeoutMillis;
+	}
+
+}
@@ -0,0 +1,132 @@
+/**
+ * 
+ */
+package com.ethwt.core.transaction.jms;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.jms.CompletionListener;
+import javax.jms.JMSException;
+import javax.jms.Message;
+import javax.transaction.Synchronization;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * {@link MessageSink} of the {@link JmsSendMode#DEFERRED} mode, buffering the sends of a session made
+ * inside a transaction and flushing them just before the transaction prepares.
+ * <p>
+ * The flush sends the whole buffer asynchronously, so the sends are pipelined, then waits for the broker
+ * to acknowledge all of them. If the flush fails the transaction rolls back. If the transaction rolls back
+ * before the flush, nothing is sent.
+ * <p>
+ * A buffered message is a snapshot of the message of the application, taken with the session of the sink,
+ * so the application may reuse or change its message once {@code send()} returned, as with any send. The
+ * header fields assigned by a send, such as {@code JMSMessageID} and {@code JMSTimestamp}, are assigned to
+ * the snapshot when the transaction commits, not to the message of the application.
+ * 
+ * @author neillin
+ *
+ */
+class DeferredMessageSink implements MessageSink, Synchronization {
+	private static Logger log = LoggerFactory.getLogger(DeferredMessageSink.class);
+
+	private final TransactionHelper transactionHelper;
+	private final MessageSender sender;
+	private final MessageFactory messageFactory;
+	private final long flushTimeoutMillis;
+	private final List<OutgoingMessage> buffer = new ArrayList<>();
+	private boolean registered;
+
+	DeferredMessageSink(TransactionHelper transactionHelper, MessageSender sender, MessageFactory messageFactory,
+			long flushTimeoutMillis) {
+		this.transactionHelper = transactionHelper;
+		this.sender = sender;
+		this.messageFactory = messageFactory;
+		this.flushTimeoutMillis = flushTimeoutMillis;
+	}
+
+	/**
+	 * Buffer the message when a transaction is active, send it right away otherwise. The completion listener
+	 * of an asynchronous send is called once the flush got the acknowledgement of the broker.
+	 */
+	@Override
+	public void send(OutgoingMessage message) throws JMSException {
+		if (!transactionHelper.isTransactionAvailable()) {
+			sender.send(message, message.getCompletionListener());
+			return;
+		}
+		if (!registered) {
+			transactionHelper.registerSynchronization(this);
+			registered = true;
+		}
+		buffer.add(snapshot(message));
+	}
+
+	private OutgoingMessage snapshot(OutgoingMessage message) throws JMSException {
+		Message original = message.getMessage();
+		CompletionListener listener = message.getCompletionListener();
+		// the application is told about its own message
+		CompletionListener originalListener = listener == null ? null : new CompletionListener() {
+
+			@Override
+			public void onCompletion(Message sent) {
+				listener.onCompletion(original);
+			}
+
+			@Override
+			public void onException(Message sent, Exception exception) {
+				listener.onException(original, exception);
+			}
+		};
+		return new OutgoingMessage(message.getDestination(), messageFactory.copy(original), message.getDeliveryMode(),
+				message.getPriority(), message.getTimeToLive(), message.getDeliveryDelay(), originalListener);
+	}
+
+	/**
+	 * Send the buffered messages and wait for the broker to acknowledge them. Called before the transaction
+	 * completes, or before the session is delisted from it.
+	 *
+	 * @throws JMSException if a send failed, or was not acknowledged in time
+	 */
+	void flush() throws JMSException {
+		if (buffer.isEmpty()) {
+			return;
+		}
+		List<OutgoingMessage> messages = new ArrayList<>(buffer);
+		buffer.clear();
+		CompletionTracker tracker = new CompletionTracker();
+		for (OutgoingMessage message : messages) {
+			CompletionListener listener = tracker.track(message.getCompletionListener());
+			try {
+				sender.send(message, listener);
+			} catch (JMSException | RuntimeException e) {
+				tracker.completed(e);
+				break;
+			}
+		}
+		tracker.await(flushTimeoutMillis);
+		if (log.isTraceEnabled()) {
+			log.trace("Flushed " + messages.size() + " deferred messages");
+		}
+	}
+
+	@Override
+	public void beforeCompletion() {
+		try {
+			flush();
+		} catch (JMSException e) {
+			log.warn("Failed to flush deferred messages, the transaction will roll back", e);
+			throw new IllegalStateException("Failed to flush deferred messages", e);
+		}
+	}
+
+	@Override
+	public void afterCompletion(int status) {
+		buffer.clear();
+		registered = false;
+	}
+
+}
@@ -0,0 +1,354 @@
+/**
+ * 
+ */
+package com.ethwt.core.transaction.jms;
+
+import java.io.Serializable;
+import java.util.Map;
+import java.util.Set;
+
+import javax.jms.BytesMessage;
+import javax.jms.CompletionListener;
+import javax.jms.Destination;
+import javax.jms.InvalidDestinationRuntimeException;
+import javax.jms.JMSContext;
+import javax.jms.JMSException;
+import javax.jms.JMSProducer;
+import javax.jms.JMSRuntimeException;
+import javax.jms.MapMessage;
+import javax.jms.Message;
+import javax.jms.MessageFormatRuntimeException;
+
+/**
+ * {@link JMSProducer} handing its sends to a {@link MessageSink} instead of the broker. The producer of
+ * the underlying context keeps the delivery options, headers and properties, which are applied to the
+ * message before it is handed over.
+ * 
+ * @author neillin
+ *
+ */
+public class InterceptingJMSProducer implements JMSProducer {
+
+	private final JMSProducer delegate;
+	private final JMSContext context;
+	private final MessageSink sink;
+
+	/**
+	 * @param delegate producer of the underlying context
+	 * @param context the underlying context, used to create the messages of the body only sends
+	 * @param sink where the sends go
+	 */
+	public InterceptingJMSProducer(JMSProducer delegate, JMSContext context, MessageSink sink) {
+		this.delegate = delegate;
+		this.context = context;
+		this.sink = sink;
+	}
+
+	@Override
+	public JMSProducer send(Destination destination, Message message) {
+		if (message == null) {
+			throw new MessageFormatRuntimeException("Message must not be null");
+		}
+		if (destination == null) {
+			throw new InvalidDestinationRuntimeException("No destination specified");
+		}
+		try {
+			Set<String> names = delegate.getPropertyNames();
+			for (String name : names) {
+				message.setObjectProperty(name, delegate.getObjectProperty(name));
+			}
+			String correlationId = delegate.getJMSCorrelationID();
+			if (correlationId != null) {
+				message.setJMSCorrelationID(correlationId);
+			} else if (delegate.getJMSCorrelationIDAsBytes() != null) {
+				message.setJMSCorrelationIDAsBytes(delegate.getJMSCorrelationIDAsBytes());
+			}
+			if (delegate.getJMSType() != null) {
+				message.setJMSType(delegate.getJMSType());
+			}
+			if (delegate.getJMSReplyTo() != null) {
+				message.setJMSReplyTo(delegate.getJMSReplyTo());
+			}
+			sink.send(new OutgoingMessage(destination, message, delegate.getDeliveryMode(), delegate.getPriority(),
+					delegate.getTimeToLive(), delegate.getDeliveryDelay(), delegate.getAsync()));
+		} catch (JMSException e) {
+			throw new JMSRuntimeException(e.getMessage(), e.getErrorCode(), e);
+		}
+		return this;
+	}
+
+	@Override
+	public JMSProducer send(Destination destination, String body) {
+		return send(destination, context.createTextMessage(body));
+	}
+
+	@Override
+	public JMSProducer send(Destination destination, Map<String, Object> body) {
+		MapMessage message = context.createMapMessage();
+		if (body != null) {
+			try {
+				for (Map.Entry<String, Object> entry : body.entrySet()) {
+					message.setObject(entry.getKey(), entry.getValue());
+				}
+			} catch (JMSException e) {
+				throw new JMSRuntimeException(e.getMessage(), e.getErrorCode(), e);
+			}
+		}
+		return send(destination, message);
+	}
+
+	@Override
+	public JMSProducer send(Destination destination, byte[] body) {
+		BytesMessage message = context.createBytesMessage();
+		if (body != null) {
+			try {
+				message.writeBytes(body);
+			} catch (JMSException e) {
+				throw new JMSRuntimeException(e.getMessage(), e.getErrorCode(), e);
+			}
+		}
+		return send(destination, message);
+	}
+
+	@Override
+	public JMSProducer send(Destination destination, Serializable body) {
+		return send(destination, context.createObjectMessage(body));
+	}
+
+	@Override
+	public JMSProducer setDisableMessageID(boolean value) {
+		delegate.setDisableMessageID(value);
+		return this;
+	}
+
+	@Override
+	public boolean getDisableMessageID() {
+		return delegate.getDisableMessageID();
+	}
+
+	@Override
+	public JMSProducer setDisableMessageTimestamp(boolean value) {
+		delegate.setDisableMessageTimestamp(value);
+		return this;
+	}
+
+	@Override
+	public boolean getDisableMessageTimestamp() {
+		return delegate.getDisableMessageTimestamp();
+	}
+
+	@Override
+	public JMSProducer setDeliveryMode(int deliveryMode) {
+		delegate.setDeliveryMode(deliveryMode);
+		return this;
+	}
+
+	@Override
+	public int getDeliveryMode() {
+		return delegate.getDeliveryMode();
+	}
+
+	@Override
+	public JMSProducer setPriority(int priority) {
+		delegate.setPriority(priority);
+		return this;
+	}
+
+	@Override
+	public int getPriority() {
+		return delegate.getPriority();
+	}
+
+	@Override
+	public JMSProducer setTimeToLive(long timeToLive) {
+		delegate.setTimeToLive(timeToLive);
+		return this;
+	}
+
+	@Override
+	public long getTimeToLive() {
+		return delegate.getTimeToLive();
+	}
+
+	@Override
+	public JMSProducer setDeliveryDelay(long deliveryDelay) {
+		delegate.setDeliveryDelay(deliveryDelay);
+		return this;
+	}
+
+	@Override
+	public long getDeliveryDelay() {
+		return delegate.getDeliveryDelay();
+	}
+
+	@Override
+	public JMSProducer setAsync(CompletionListener completionListener) {
+		delegate.setAsync(completionListener);
+		return this;
+	}
+
+	@Override
+	public CompletionListener getAsync() {
+		return delegate.getAsync();
+	}
+
+	@Override
+	public JMSProducer setProperty(String name, boolean value) {
+		delegate.setProperty(name, value);
+		return this;
+	}
+
+	@Override
+	public JMSProducer setProperty(String name, byte value) {
+		delegate.setProperty(name, value);
+		return this;
+	}
+
+	@Override
+	public JMSProducer setProperty(String name, short value) {
+		delegate.setProperty(name, value);
+		return this;
+	}
+
+	@Override
+	public JMSProducer setProperty(String name, int value) {
+		delegate.setProperty(name, value);
+		return this;
+	}
+
+	@Override
+	public JMSProducer setProperty(String name, long value) {
+		delegate.setProperty(name, value);
+		return this;
+	}
+
+	@Override
+	public JMSProducer setProperty(String name, float value) {
+		delegate.setProperty(name, value);
+		return this;
+	}
+
+	@Override
+	public JMSProducer setProperty(String name, double value) {
+		delegate.setProperty(name, value);
+		return this;
+	}
+
+	@Override
+	public JMSProducer setProperty(String name, String value) {
+		delegate.setProperty(name, value);
+		return this;
+	}
+
+	@Override
+	public JMSProducer setProperty(String name, Object value) {
+		delegate.setProperty(name, value);
+		return this;
+	}
+
+	@Override
+	public JMSProducer clearProperties() {
+		delegate.clearProperties();
+		return this;
+	}
+
+	@Override
+	public boolean propertyExists(String name) {
+		return delegate.propertyExists(name);
+	}
+
+	@Override
+	public boolean getBooleanProperty(String name) {
+		return delegate.getBooleanProperty(name);
+	}
+
+	@Override
+	public byte getByteProperty(String name) {
+		return delegate.getByteProperty(name);
+	}
+
+	@Override
+	public short getShortProperty(String name) {
+		return delegate.getShortProperty(name);
+	}
+
+	@Override
+	public int getIntProperty(String name) {
+		return delegate.getIntProperty(name);
+	}
+
+	@Override
+	public long getLongProperty(String name) {
+		return delegate.getLongProperty(name);
+	}
+
+	@Override
+	public float getFloatProperty(String name) {
+		return delegate.getFloatProperty(name);
+	}
+
+	@Override
+	public double getDoubleProperty(String name) {
+		return delegate.getDoubleProperty(name);
+	}
+
+	@Override
+	public String getStringProperty(String name) {
+		return delegate.getStringProperty(name);
+	}
+
+	@Override
+	public Object getObjectProperty(String name) {
+		return delegate.getObjectProperty(name);
+	}
+
+	@Override
+	public Set<String> getPropertyNames() {
+		return delegate.getPropertyNames();
+	}
+
+	@Override
+	public JMSProducer setJMSCorrelationIDAsBytes(byte[] correlationID) {
+		delegate.setJMSCorrelationIDAsBytes(correlationID);
+		return this;
+	}
+
+	@Override
+	public byte[] getJMSCorrelationIDAsBytes() {
+		return delegate.getJMSCorrelationIDAsBytes();
+	}
+
+	@Override
+	public JMSProducer setJMSCorrelationID(String correlationID) {
+		delegate.setJMSCorrelationID(correlationID);
+		return this;
+	}
+
+	@Override
+	public String getJMSCorrelationID() {
+		return delegate.getJMSCorrelationID();
+	}
+
+	@Override
+	public JMSProducer setJMSType(String type) {
+		delegate.setJMSType(type);
+		return this;
+	}
+
+	@Override
+	public String getJMSType() {
+		return delegate.getJMSType();
+	}
+
+	@Override
+	public JMSProducer setJMSReplyTo(Destination replyTo) {
+		delegate.setJMSReplyTo(replyTo);
+		return this;
+	}
+
+	@Override
+	public Destination getJMSReplyTo() {
+		return delegate.getJMSReplyTo();
+	}
+
+}
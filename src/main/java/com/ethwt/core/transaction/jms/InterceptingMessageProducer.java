@@ -0,0 +1,154 @@
+/**
+ * 
+ */
+package com.ethwt.core.transaction.jms;
+
+import javax.jms.CompletionListener;
+import javax.jms.Destination;
+import javax.jms.InvalidDestinationException;
+import javax.jms.JMSException;
+import javax.jms.Message;
+import javax.jms.MessageProducer;
+
+/**
+ * {@link MessageProducer} handing its sends to a {@link MessageSink} instead of the broker. The producer
+ * of the underlying session keeps the defaults and the destination.
+ * 
+ * @author neillin
+ *
+ */
+public class InterceptingMessageProducer implements MessageProducer {
+
+	private final MessageProducer delegate;
+	private final MessageSink sink;
+
+	public InterceptingMessageProducer(MessageProducer delegate, MessageSink sink) {
+		this.delegate = delegate;
+		this.sink = sink;
+	}
+
+	@Override
+	public void setDisableMessageID(boolean value) throws JMSException {
+		delegate.setDisableMessageID(value);
+	}
+
+	@Override
+	public boolean getDisableMessageID() throws JMSException {
+		return delegate.getDisableMessageID();
+	}
+
+	@Override
+	public void setDisableMessageTimestamp(boolean value) throws JMSException {
+		delegate.setDisableMessageTimestamp(value);
+	}
+
+	@Override
+	public boolean getDisableMessageTimestamp() throws JMSException {
+		return delegate.getDisableMessageTimestamp();
+	}
+
+	@Override
+	public void setDeliveryMode(int deliveryMode) throws JMSException {
+		delegate.setDeliveryMode(deliveryMode);
+	}
+
+	@Override
+	public int getDeliveryMode() throws JMSException {
+		return delegate.getDeliveryMode();
+	}
+
+	@Override
+	public void setPriority(int defaultPriority) throws JMSException {
+		delegate.setPriority(defaultPriority);
+	}
+
+	@Override
+	public int getPriority() throws JMSException {
+		return delegate.getPriority();
+	}
+
+	@Override
+	public void setTimeToLive(long timeToLive) throws JMSException {
+		delegate.setTimeToLive(timeToLive);
+	}
+
+	@Override
+	public long getTimeToLive() throws JMSException {
+		return delegate.getTimeToLive();
+	}
+
+	@Override
+	public void setDeliveryDelay(long deliveryDelay) throws JMSException {
+		delegate.setDeliveryDelay(deliveryDelay);
+	}
+
+	@Override
+	public long getDeliveryDelay() throws JMSException {
+		return delegate.getDeliveryDelay();
+	}
+
+	@Override
+	public Destination getDestination() throws JMSException {
+		return delegate.getDestination();
+	}
+
+	@Override
+	public void close() throws JMSException {
+		delegate.close();
+	}
+
+	@Override
+	public void send(Message message) throws JMSException {
+		send(null, message, getDeliveryMode(), getPriority(), getTimeToLive(), null);
+	}
+
+	@Override
+	public void send(Message message, int deliveryMode, int priority, long timeToLive) throws JMSException {
+		send(null, message, deliveryMode, priority, timeToLive, null);
+	}
+
+	@Override
+	public void send(Destination destination, Message message) throws JMSException {
+		send(destination, message, getDeliveryMode(), getPriority(), getTimeToLive(), null);
+	}
+
+	@Override
+	public void send(Destination destination, Message message, int deliveryMode, int priority, long timeToLive)
+			throws JMSException {
+		send(destination, message, deliveryMode, priority, timeToLive, null);
+	}
+
+	@Override
+	public void send(Message message, CompletionListener completionListener) throws JMSException {
+		send(null, message, getDeliveryMode(), getPriority(), getTimeToLive(), completionListener);
+	}
+
+	@Override
+	public void send(Message message, int deliveryMode, int priority, long timeToLive,
+			CompletionListener completionListener) throws JMSException {
+		send(null, message, deliveryMode, priority, timeToLive, completionListener);
+	}
+
+	@Override
+	public void send(Destination destination, Message message, CompletionListener completionListener)
+			throws JMSException {
+		send(destination, message, getDeliveryMode(), getPriority(), getTimeToLive(), completionListener);
+	}
+
+	@Override
+	public void send(Destination destination, Message message, int deliveryMode, int priority, long timeToLive,
+			CompletionListener completionListener) throws JMSException {
+		Destination target = delegate.getDestination();
+		if (target == null) {
+			target = destination;
+		} else if (destination != null) {
+			throw new UnsupportedOperationException("The producer was created with destination " + target);
+		}
+		if (target == null) {
+			throw new InvalidDestinationException("No destination specified");
+		}
+		sink.send(new OutgoingMessage(target, message, deliveryMode, priority, timeToLive, getDeliveryDelay(),
+				completionListener));
+	}
+
+}
@@ -26,6 +26,8 @@ import javax.transaction.Synchronization;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.ethwt.core.transaction.metrics.TransactionMetrics;
+
 import java.io.Serializable;
 
 public class JMSContextProxy implements JMSContext {
@@ -33,24 +35,48 @@ public class JMSContextProxy implements JMSContext {
 
     private final XAJMSContext xaContext;
     private final TransactionHelper transactionHelper;
+    private final JmsProxyConfig config;
+    private final TransactionalOutbox outbox;
     private boolean contextCloseScheduled;
+    private boolean enlisted;
+    private boolean shared;
+    private DeferredMessageSink deferredSink;
+    private PendingSends pendingSends;
 
     public static JMSContext wrapContext(XAJMSContext xaContext, TransactionHelper transactionHelper) {
-        return new JMSContextProxy(xaContext, transactionHelper);
+        return new JMSContextProxy(xaContext, transactionHelper, new JmsProxyConfig(), null);
+    }
+
+    /**
+     * @param xaContext XA context that needs to be proxied.
+     * @param transactionHelper utility to make transaction resources registration easier.
+     * @param config how the context sends inside a transaction.
+     * @param outbox where the context sends in the {@link JmsSendMode#OUTBOX} mode, null in other modes. The
+     *   context is then only enlisted once it is used to consume.
+     * @return the proxied context
+     */
+    public static JMSContext wrapContext(XAJMSContext xaContext, TransactionHelper transactionHelper,
+            JmsProxyConfig config, TransactionalOutbox outbox) {
+        return new JMSContextProxy(xaContext, transactionHelper, config, outbox);
     }
 
-    private JMSContextProxy (XAJMSContext xaContext, TransactionHelper transactionHelper) {
+    private JMSContextProxy (XAJMSContext xaContext, TransactionHelper transactionHelper, JmsProxyConfig config,
+            TransactionalOutbox outbox) {
         this.xaContext = xaContext;
         this.transactionHelper = transactionHelper;
+        this.config = config;
+        this.outbox = outbox;
         try {
-            if (transactionHelper.isTransactionAvailable()) {
+            if (outbox == null && transactionHelper.isTransactionAvailable()) {
                 transactionHelper.registerXAResource(xaContext.getXAResource());
+                enlisted = true;
             }
         } catch (JMSException e) {
             JMSRuntimeException jmsre = new JMSRuntimeException("Could not register the resource");
             jmsre.addSuppressed(e);
             throw jmsre;
         }
+        TransactionMetrics.getInstance().jmsSessionOpened();
     }
 
     @Override
@@ -66,6 +92,24 @@ public class JMSContextProxy implements JMSContext {
         if (contextCloseScheduled) {
             throw new JMSRuntimeException("This JMSContextProxy is already scheduled to be closed");
         }
+        if (outbox != null) {
+            return new InterceptingJMSProducer(xaContext.createProducer(), xaContext, outbox);
+        }
+        if (enlisted && config.getSendMode() == JmsSendMode.DEFERRED) {
+            if (deferredSink == null) {
+                deferredSink = new DeferredMessageSink(transactionHelper, MessageSender.of(xaContext),
+                        MessageFactory.of(xaContext), config.getFlushTimeoutMillis());
+            }
+            return new InterceptingJMSProducer(xaContext.createProducer(), xaContext, deferredSink);
+        }
+        if (enlisted) {
+            if (pendingSends == null) {
+                pendingSends = new PendingSends(transactionHelper, config.getFlushTimeoutMillis());
+            }
+            JMSProducer producer = xaContext.createProducer();
+            return new InterceptingJMSProducer(producer, xaContext, new AsyncMessageSink(transactionHelper,
+                    pendingSends, MessageSender.of(producer)));
+        }
         return xaContext.createProducer();
     }
 
@@ -143,19 +187,32 @@ public class JMSContextProxy implements JMSContext {
 
     @Override
     public void close() {
+        if (shared) {
+            // closed by the transaction which owns it
+            return;
+        }
         if (contextCloseScheduled) {
             throw new JMSRuntimeException("This JMSContextProxy is already scheduled to be closed");
         }
         try {
             if (transactionHelper.isTransactionAvailable()) {
-                transactionHelper.deregisterXAResource(xaContext.getXAResource());
-
-                if (log.isTraceEnabled()) {
-                    log.trace("Delisted " + xaContext + " XA resource from the transaction");
+                if (enlisted) {
+                    if (deferredSink != null) {
+                        deferredSink.flush();
+                    }
+                    if (pendingSends != null) {
+                        pendingSends.await();
+                    }
+                    transactionHelper.deregisterXAResource(xaContext.getXAResource());
+
+                    if (log.isTraceEnabled()) {
+                        log.trace("Delisted " + xaContext + " XA resource from the transaction");
+                    }
                 }
 
                 Synchronization synchronization = new SessionClosingSynchronization(xaContext);
                 transactionHelper.registerSynchronization(synchronization);
+                TransactionMetrics.getInstance().jmsSessionCloseScheduled();
 
                 if (log.isTraceEnabled()) {
                     log.trace("Registered synchronization to close the session: " + synchronization);
@@ -163,6 +220,7 @@ public class JMSContextProxy implements JMSContext {
                 contextCloseScheduled = true;
             } else {
                 xaContext.close();
+                TransactionMetrics.getInstance().jmsSessionClosed(false);
             }
         } catch (JMSException e) {
             JMSRuntimeException jmsre = new JMSRuntimeException("Could not close the context");
@@ -280,6 +338,7 @@ public class JMSContextProxy implements JMSContext {
         if (contextCloseScheduled) {
             throw new JMSRuntimeException("This JMSContextProxy is already scheduled to be closed");
         }
+        enlistToConsume();
         return xaContext.createConsumer(destination);
     }
 
@@ -288,6 +347,7 @@ public class JMSContextProxy implements JMSContext {
         if (contextCloseScheduled) {
             throw new JMSRuntimeException("This JMSContextProxy is already scheduled to be closed");
         }
+        enlistToConsume();
         return xaContext.createConsumer(destination, s);
     }
 
@@ -296,6 +356,7 @@ public class JMSContextProxy implements JMSContext {
         if (contextCloseScheduled) {
             throw new JMSRuntimeException("This JMSContextProxy is already scheduled to be closed");
         }
+        enlistToConsume();
         return xaContext.createConsumer(destination, s, b);
     }
 
@@ -320,6 +381,7 @@ public class JMSContextProxy implements JMSContext {
         if (contextCloseScheduled) {
             throw new JMSRuntimeException("This JMSContextProxy is already scheduled to be closed");
         }
+        enlistToConsume();
         return xaContext.createDurableConsumer(topic, s);
     }
 
@@ -328,6 +390,7 @@ public class JMSContextProxy implements JMSContext {
         if (contextCloseScheduled) {
             throw new JMSRuntimeException("This JMSContextProxy is already scheduled to be closed");
         }
+        enlistToConsume();
         return xaContext.createDurableConsumer(topic, s, s1, b);
     }
 
@@ -336,6 +399,7 @@ public class JMSContextProxy implements JMSContext {
         if (contextCloseScheduled) {
             throw new JMSRuntimeException("This JMSContextProxy is already scheduled to be closed");
         }
+        enlistToConsume();
         return xaContext.createSharedDurableConsumer(topic, s);
     }
 
@@ -344,6 +408,7 @@ public class JMSContextProxy implements JMSContext {
         if (contextCloseScheduled) {
             throw new JMSRuntimeException("This JMSContextProxy is already scheduled to be closed");
         }
+        enlistToConsume();
         return xaContext.createSharedDurableConsumer(topic, s, s1);
     }
 
@@ -352,6 +417,7 @@ public class JMSContextProxy implements JMSContext {
         if (contextCloseScheduled) {
             throw new JMSRuntimeException("This JMSContextProxy is already scheduled to be closed");
         }
+        enlistToConsume();
         return xaContext.createSharedConsumer(topic, s);
     }
 
@@ -360,6 +426,7 @@ public class JMSContextProxy implements JMSContext {
         if (contextCloseScheduled) {
             throw new JMSRuntimeException("This JMSContextProxy is already scheduled to be closed");
         }
+        enlistToConsume();
         return xaContext.createSharedConsumer(topic, s, s1);
     }
 
@@ -410,4 +477,36 @@ public class JMSContextProxy implements JMSContext {
         }
         xaContext.acknowledge();
     }
+
+    /**
+     * Make this context the one shared by the current transaction: closing it does nothing anymore, it is
+     * closed once the transaction completes.
+     *
+     * @throws JMSException if the closing synchronization cannot be registered.
+     */
+    void share() throws JMSException {
+        transactionHelper.registerSynchronization(new SessionClosingSynchronization(xaContext));
+        TransactionMetrics.getInstance().jmsSessionCloseScheduled();
+        shared = true;
+    }
+
+    /**
+     * Enlist the XA resource of an outbox context before its first consumer is created, so that what is
+     * received is part of the transaction.
+     */
+    private void enlistToConsume() {
+        if (outbox == null || enlisted) {
+            return;
+        }
+        try {
+            if (transactionHelper.isTransactionAvailable()) {
+                transactionHelper.registerXAResource(xaContext.getXAResource());
+                enlisted = true;
+            }
+        } catch (JMSException e) {
+            JMSRuntimeException jmsre = new JMSRuntimeException("Could not register the resource");
+            jmsre.addSuppressed(e);
+            throw jmsre;
+        }
+    }
 }
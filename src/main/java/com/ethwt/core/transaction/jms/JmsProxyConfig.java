@@ -0,0 +1,189 @@
+/**
+ * 
+ */
+package com.ethwt.core.transaction.jms;
+
+import javax.sql.DataSource;
+
+/**
+ * Settings of the connection factories adapted by a {@link com.ethwt.core.transaction.XAConnectionFactoryAdaptor}.
+ * 
+ * @author neillin
+ *
+ */
+public class JmsProxyConfig {
+
+	public static final String CONFIG_NAME = "jms";
+
+	/**
+	 * How messages sent inside a transaction reach the broker.
+	 */
+	private JmsSendMode sendMode = JmsSendMode.XA;
+
+	/**
+	 * Table the {@link JmsSendMode#OUTBOX} mode writes to.
+	 */
+	private String outboxTable = "jms_outbox";
+
+	/**
+	 * Name of the pool the outbox table lives in, as given by {@link com.ethwt.core.transaction.PoolConfig#getName()}
+	 * to the data source adaptor of the same service.
+	 */
+	private String outboxDataSourceName;
+
+	/**
+	 * Transaction aware data source the outbox table lives in, set programmatically. Takes precedence over
+	 * the pool name.
+	 */
+	private DataSource outboxDataSource;
+
+	/**
+	 * Whether this process runs the relay publishing the outbox. Relays of other proxies or processes on the
+	 * same table take turns, through the claims on its rows.
+	 */
+	private boolean relayEnabled = true;
+
+	/**
+	 * Maximum number of messages the relay publishes in one broker transaction.
+	 */
+	private int relayBatchSize = 100;
+
+	/**
+	 * Delay in milliseconds between two polls of the outbox table, when the last one found it drained.
+	 */
+	private long relayIntervalMillis = 200;
+
+	/**
+	 * Age in milliseconds an outbox row must reach before it is relayed, so that the transactions writing
+	 * earlier rows have committed.
+	 */
+	private long relayVisibilityHorizonMillis = 1000;
+
+	/**
+	 * How long in milliseconds a relay owns the rows it claimed, before another relay may take them over.
+	 */
+	private long relayClaimTimeoutMillis = 60000;
+
+	/**
+	 * How long in milliseconds to wait for the broker to acknowledge the sends flushed or still pending
+	 * before the transaction completes.
+	 */
+	private long flushTimeoutMillis = 30000;
+
+	/**
+	 * Whether the sessions and contexts created inside a transaction share one transaction bound session.
+	 */
+	private boolean shareTransactionSessions;
+
+	public JmsSendMode getSendMode() {
+		return sendMode;
+	}
+
+	public void setSendMode(JmsSendMode sendMode) {
+		this.sendMode = sendMode;
+	}
+
+	public long getFlushTimeoutMillis() {
+		return flushTimeoutMillis;
+	}
+
+	public void setFlushTimeoutMillis(long flushTimeoutMillis) {
+		this.flushTimeoutMillis = flushTimeoutMillis;
+	}
+
+	public boolean isShareTransactionSessions() {
+		return shareTransactionSessions;
+	}
+
+	/**
+	 * Hand out a single session per connection factory and transaction: inside an active transaction,
+	 * {@code createSession} and {@code createContext} return the session or context already bound to the
+	 * transaction, so the broker is enlisted as one XA branch however many times the code opens a session.
+	 * Closing the shared handle is a no-op, it is closed once the transaction completes. Defaults to false.
+	 * <p>
+	 * The shared handle is bound through the {@link javax.transaction.TransactionSynchronizationRegistry},
+	 * so every thread working for a parallel branch of the transaction gets its own.
+	 *
+	 * @param shareTransactionSessions if sessions should be shared inside a transaction
+	 */
+	public void setShareTransactionSessions(boolean shareTransactionSessions) {
+		this.shareTransactionSessions = shareTransactionSessions;
+	}
+
+	public String getOutboxTable() {
+		return outboxTable;
+	}
+
+	public void setOutboxTable(String outboxTable) {
+		this.outboxTable = outboxTable;
+	}
+
+	public String getOutboxDataSourceName() {
+		return outboxDataSourceName;
+	}
+
+	public void setOutboxDataSourceName(String outboxDataSourceName) {
+		this.outboxDataSourceName = outboxDataSourceName;
+	}
+
+	public DataSource getOutboxDataSource() {
+		return outboxDataSource;
+	}
+
+	/**
+	 * @param outboxDataSource a data source adapted by the same {@link com.ethwt.core.transaction.TransactionManagerService},
+	 * so that outbox rows are written on the connection enlisted with the transaction
+	 */
+	public void setOutboxDataSource(DataSource outboxDataSource) {
+		this.outboxDataSource = outboxDataSource;
+	}
+
+	public boolean isRelayEnabled() {
+		return relayEnabled;
+	}
+
+	public void setRelayEnabled(boolean relayEnabled) {
+		this.relayEnabled = relayEnabled;
+	}
+
+	public int getRelayBatchSize() {
+		return relayBatchSize;
+	}
+
+	public void setRelayBatchSize(int relayBatchSize) {
+		this.relayBatchSize = relayBatchSize;
+	}
+
+	public long getRelayIntervalMillis() {
+		return relayIntervalMillis;
+	}
+
+	public void setRelayIntervalMillis(long relayIntervalMillis) {
+		this.relayIntervalMillis = relayIntervalMillis;
+	}
+
+	public long getRelayVisibilityHorizonMillis() {
+		return relayVisibilityHorizonMillis;
+	}
+
+	/**
+	 * Rows are ordered by the time they are written, while they become visible when their transaction
+	 * commits: a transaction committing later than the horizon after its write has its rows relayed after
+	 * rows written after them. The horizon is compared with the clock of the writing process, keep the
+	 * clocks of the processes sharing a table synchronized well within it.
+	 *
+	 * @param relayVisibilityHorizonMillis the age of the rows relayed, in milliseconds
+	 */
+	public void setRelayVisibilityHorizonMillis(long relayVisibilityHorizonMillis) {
+		this.relayVisibilityHorizonMillis = relayVisibilityHorizonMillis;
+	}
+
+	public long getRelayClaimTimeoutMillis() {
+		return relayClaimTimeoutMillis;
+	}
+
+	public void setRelayClaimTimeoutMillis(long relayClaimTimeoutMillis) {
+		this.relayClaimTimeoutMillis = relayClaimTimeoutMillis;
+	}
+
+}
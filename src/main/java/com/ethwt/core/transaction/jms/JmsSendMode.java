@@ -0,0 +1,36 @@
+/**
+ * 
+ */
+package com.ethwt.core.transaction.jms;
+
+/**
+ * How messages sent through a proxied session or context inside a transaction reach the broker.
+ * 
+ * @author neillin
+ *
+ */
+public enum JmsSendMode {
+
+	/**
+	 * The session is enlisted with the transaction and every send goes straight to the broker, which
+	 * makes the transaction a two phase commit whenever another resource is involved. Sends made with a
+	 * {@link javax.jms.CompletionListener} are waited for before the transaction prepares.
+	 */
+	XA,
+
+	/**
+	 * The session is enlisted with the transaction, but its sends are buffered and flushed as one pipelined
+	 * batch just before the transaction prepares. Nothing is sent if the transaction rolls back first.
+	 * A snapshot of each message is buffered; header fields such as {@code JMSMessageID} are assigned to
+	 * the snapshot at commit, and never set on the message of the application.
+	 */
+	DEFERRED,
+
+	/**
+	 * Sends are written to an outbox table on the JDBC connection of the transaction, and published
+	 * later by the relay of {@link TransactionalOutbox}. The session is only enlisted when it is used
+	 * to consume.
+	 */
+	OUTBOX
+
+}
@@ -29,13 +29,12 @@ import javax.transaction.xa.Xid;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-//import com.arjuna.ats.jta.logging.jtaLogger;
-//import com.arjuna.ats.jta.recovery.XAResourceRecoveryHelper;
+import com.arjuna.ats.jta.recovery.XAResourceRecoveryHelper;
 
 /**
  * @author <a href="mailto:gytis@redhat.com">Gytis Trikleris</a>
  */
-public class JmsXAResourceRecoveryHelper implements XAResource {
+public class JmsXAResourceRecoveryHelper implements XAResource, XAResourceRecoveryHelper {
 	private static Logger log = LoggerFactory.getLogger(JmsXAResourceRecoveryHelper.class);
 
     private final ConnectionManager connectionManager;
@@ -58,7 +57,7 @@ public class JmsXAResourceRecoveryHelper implements XAResource {
      * @param properties
      * @return Always returns true
      */
-//    @Override
+    @Override
     public boolean initialise(String properties) {
         if (log.isTraceEnabled()) {
             log.trace("Initialise with properties=" + properties);
@@ -73,35 +72,28 @@ public class JmsXAResourceRecoveryHelper implements XAResource {
      *
      * @return Array with one instance of JmsXAResourceRecoveryHelper or an empty array
      */
-//    @Override
+    @Override
     public XAResource[] getXAResources() {
-        if (!connectionManager.isConnected()) {
-            try {
-                connectionManager.connect();
-            } catch (XAException ignored) {
-                return new XAResource[0];
-            }
+        try {
+            connectionManager.connect();
+        } catch (XAException ignored) {
+            return new XAResource[0];
         }
 
         return new XAResource[] { this };
     }
 
     /**
-     * Delegates XAResource#recover call to the connected JMS resource. If provided argument is XAResource.TMENDRSCAN, then JMS
-     * connection will be closed at the end of the call.
+     * Delegates XAResource#recover call to the connected JMS resource. The connection is kept open at the end of
+     * the scan, for the commit and rollback calls on the recovered Xids and the next scans; the
+     * {@link ConnectionManager} closes it once idle.
      *
      * @param flag
      * @throws XAException
      */
     @Override
     public Xid[] recover(int flag) throws XAException {
-        try {
-            return connectionManager.connectAndApply(delegate -> delegate.recover(flag));
-        } finally {
-            if (flag == XAResource.TMENDRSCAN) {
-                connectionManager.disconnect();
-            }
-        }
+        return connectionManager.connectAndApply(delegate -> delegate.recover(flag));
     }
 
     /**
@@ -0,0 +1,202 @@
+/**
+ *
+ */
+package com.ethwt.core.transaction.jms;
+
+import java.io.Serializable;
+import java.util.Enumeration;
+
+import javax.jms.BytesMessage;
+import javax.jms.JMSContext;
+import javax.jms.JMSException;
+import javax.jms.JMSRuntimeException;
+import javax.jms.MapMessage;
+import javax.jms.Message;
+import javax.jms.MessageEOFException;
+import javax.jms.ObjectMessage;
+import javax.jms.Session;
+import javax.jms.StreamMessage;
+import javax.jms.TextMessage;
+
+/**
+ * Creates the messages of the provider through the session or context sends are captured on, to take
+ * snapshots of the messages of the application.
+ *
+ * @author neillin
+ *
+ */
+interface MessageFactory {
+
+	TextMessage createTextMessage(String text) throws JMSException;
+
+	BytesMessage createBytesMessage() throws JMSException;
+
+	MapMessage createMapMessage() throws JMSException;
+
+	StreamMessage createStreamMessage() throws JMSException;
+
+	ObjectMessage createObjectMessage(Serializable object) throws JMSException;
+
+	Message createMessage() throws JMSException;
+
+	/**
+	 * Copy the body, the properties and the header fields set by the application into a new message, so
+	 * that the application may reuse or change its message once sent. The header fields set by the send,
+	 * such as {@code JMSMessageID} and {@code JMSTimestamp}, are only assigned to the copy when it is sent.
+	 *
+	 * @param message the message of the application
+	 * @return a message of the provider with the same content
+	 * @throws JMSException if the message cannot be read or copied
+	 */
+	default Message copy(Message message) throws JMSException {
+		Message copy;
+		if (message instanceof TextMessage) {
+			copy = createTextMessage(((TextMessage) message).getText());
+		} else if (message instanceof BytesMessage) {
+			BytesMessage bytesMessage = (BytesMessage) message;
+			bytesMessage.reset();
+			byte[] body = new byte[(int) bytesMessage.getBodyLength()];
+			bytesMessage.readBytes(body);
+			// back to the start, as a sent message is
+			bytesMessage.reset();
+			BytesMessage bytesCopy = createBytesMessage();
+			bytesCopy.writeBytes(body);
+			copy = bytesCopy;
+		} else if (message instanceof MapMessage) {
+			MapMessage mapMessage = (MapMessage) message;
+			MapMessage mapCopy = createMapMessage();
+			for (Enumeration<?> names = mapMessage.getMapNames(); names.hasMoreElements();) {
+				String name = (String) names.nextElement();
+				mapCopy.setObject(name, mapMessage.getObject(name));
+			}
+			copy = mapCopy;
+		} else if (message instanceof StreamMessage) {
+			StreamMessage streamMessage = (StreamMessage) message;
+			streamMessage.reset();
+			StreamMessage streamCopy = createStreamMessage();
+			try {
+				while (true) {
+					streamCopy.writeObject(streamMessage.readObject());
+				}
+			} catch (MessageEOFException e) {
+				// end of the stream
+			}
+			streamMessage.reset();
+			copy = streamCopy;
+		} else if (message instanceof ObjectMessage) {
+			// serialized by the provider, later changes to the object are not seen
+			copy = createObjectMessage(((ObjectMessage) message).getObject());
+		} else {
+			copy = createMessage();
+		}
+		copy.setJMSCorrelationID(message.getJMSCorrelationID());
+		copy.setJMSType(message.getJMSType());
+		copy.setJMSReplyTo(message.getJMSReplyTo());
+		for (Enumeration<?> names = message.getPropertyNames(); names.hasMoreElements();) {
+			String name = (String) names.nextElement();
+			copy.setObjectProperty(name, message.getObjectProperty(name));
+		}
+		return copy;
+	}
+
+	static MessageFactory of(Session session) {
+		return new MessageFactory() {
+
+			@Override
+			public TextMessage createTextMessage(String text) throws JMSException {
+				return session.createTextMessage(text);
+			}
+
+			@Override
+			public BytesMessage createBytesMessage() throws JMSException {
+				return session.createBytesMessage();
+			}
+
+			@Override
+			public MapMessage createMapMessage() throws JMSException {
+				return session.createMapMessage();
+			}
+
+			@Override
+			public StreamMessage createStreamMessage() throws JMSException {
+				return session.createStreamMessage();
+			}
+
+			@Override
+			public ObjectMessage createObjectMessage(Serializable object) throws JMSException {
+				return session.createObjectMessage(object);
+			}
+
+			@Override
+			public Message createMessage() throws JMSException {
+				return session.createMessage();
+			}
+		};
+	}
+
+	static MessageFactory of(JMSContext context) {
+		return new MessageFactory() {
+
+			@Override
+			public TextMessage createTextMessage(String text) throws JMSException {
+				try {
+					return context.createTextMessage(text);
+				} catch (JMSRuntimeException e) {
+					throw jmsException(e);
+				}
+			}
+
+			@Override
+			public BytesMessage createBytesMessage() throws JMSException {
+				try {
+					return context.createBytesMessage();
+				} catch (JMSRuntimeException e) {
+					throw jmsException(e);
+				}
+			}
+
+			@Override
+			public MapMessage createMapMessage() throws JMSException {
+				try {
+					return context.createMapMessage();
+				} catch (JMSRuntimeException e) {
+					throw jmsException(e);
+				}
+			}
+
+			@Override
+			public StreamMessage createStreamMessage() throws JMSException {
+				try {
+					return context.createStreamMessage();
+				} catch (JMSRuntimeException e) {
+					throw jmsException(e);
+				}
+			}
+
+			@Override
+			public ObjectMessage createObjectMessage(Serializable object) throws JMSException {
+				try {
+					return context.createObjectMessage(object);
+				} catch (JMSRuntimeException e) {
+					throw jmsException(e);
+				}
+			}
+
+			@Override
+			public Message createMessage() throws JMSException {
+				try {
+					return context.createMessage();
+				} catch (JMSRuntimeException e) {
+					throw jmsException(e);
+				}
+			}
+
+			private JMSException jmsException(JMSRuntimeException e) {
+				JMSException jmsException = new JMSException(e.getMessage(), e.getErrorCode());
+				jmsException.initCause(e);
+				return jmsException;
+			}
+		};
+	}
+
+}
@@ -0,0 +1,110 @@
+/**
+ * 
+ */
+package com.ethwt.core.transaction.jms;
+
+import javax.jms.CompletionListener;
+import javax.jms.JMSContext;
+import javax.jms.JMSException;
+import javax.jms.JMSProducer;
+import javax.jms.JMSRuntimeException;
+import javax.jms.MessageProducer;
+import javax.jms.Session;
+
+/**
+ * Sends captured messages to the broker through the session or context they were captured on.
+ * 
+ * @author neillin
+ *
+ */
+interface MessageSender {
+
+	/**
+	 * @param message the message to send
+	 * @param listener null to send synchronously, or the listener of an asynchronous send
+	 * @throws JMSException if the send fails, or cannot be started
+	 */
+	void send(OutgoingMessage message, CompletionListener listener) throws JMSException;
+
+	static MessageSender of(MessageProducer producer) {
+		return (message, listener) -> {
+			if (producer.getDestination() != null) {
+				if (listener == null) {
+					producer.send(message.getMessage(), message.getDeliveryMode(), message.getPriority(),
+							message.getTimeToLive());
+				} else {
+					producer.send(message.getMessage(), message.getDeliveryMode(), message.getPriority(),
+							message.getTimeToLive(), listener);
+				}
+			} else if (listener == null) {
+				producer.send(message.getDestination(), message.getMessage(), message.getDeliveryMode(),
+						message.getPriority(), message.getTimeToLive());
+			} else {
+				producer.send(message.getDestination(), message.getMessage(), message.getDeliveryMode(),
+						message.getPriority(), message.getTimeToLive(), listener);
+			}
+		};
+	}
+
+	static MessageSender of(JMSProducer producer) {
+		return (message, listener) -> {
+			CompletionListener async = producer.getAsync();
+			try {
+				producer.setAsync(listener).send(message.getDestination(), message.getMessage());
+			} catch (JMSRuntimeException e) {
+				JMSException jmsException = new JMSException(e.getMessage(), e.getErrorCode());
+				jmsException.initCause(e);
+				throw jmsException;
+			} finally {
+				producer.setAsync(async);
+			}
+		};
+	}
+
+	static MessageSender of(Session session) {
+		return new MessageSender() {
+			private MessageProducer producer;
+
+			@Override
+			public void send(OutgoingMessage message, CompletionListener listener) throws JMSException {
+				if (producer == null) {
+					producer = session.createProducer(null);
+				}
+				producer.setDeliveryDelay(message.getDeliveryDelay());
+				if (listener == null) {
+					producer.send(message.getDestination(), message.getMessage(), message.getDeliveryMode(),
+							message.getPriority(), message.getTimeToLive());
+				} else {
+					producer.send(message.getDestination(), message.getMessage(), message.getDeliveryMode(),
+							message.getPriority(), message.getTimeToLive(), listener);
+				}
+			}
+		};
+	}
+
+	static MessageSender of(JMSContext context) {
+		return new MessageSender() {
+			private JMSProducer producer;
+
+			@Override
+			public void send(OutgoingMessage message, CompletionListener listener) throws JMSException {
+				try {
+					if (producer == null) {
+						producer = context.createProducer();
+					}
+					producer.setDeliveryMode(message.getDeliveryMode())
+							.setPriority(message.getPriority())
+							.setTimeToLive(message.getTimeToLive())
+							.setDeliveryDelay(message.getDeliveryDelay())
+							.setAsync(listener)
+							.send(message.getDestination(), message.getMessage());
+				} catch (JMSRuntimeException e) {
+					JMSException jmsException = new JMSException(e.getMessage(), e.getErrorCode());
+					jmsException.initCause(e);
+					throw jmsException;
+				}
+			}
+		};
+	}
+
+}
@@ -0,0 +1,23 @@
+/**
+ * 
+ */
+package com.ethwt.core.transaction.jms;
+
+import javax.jms.JMSException;
+
+/**
+ * Receives the sends captured by {@link InterceptingMessageProducer} and {@link InterceptingJMSProducer}
+ * in place of the broker.
+ * 
+ * @author neillin
+ *
+ */
+public interface MessageSink {
+
+	/**
+	 * @param message the captured send
+	 * @throws JMSException if the message cannot be accepted
+	 */
+	void send(OutgoingMessage message) throws JMSException;
+
+}
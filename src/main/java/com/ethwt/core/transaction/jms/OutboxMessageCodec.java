@@ -0,0 +1,264 @@
+/**
+ * 
+ */
+package com.ethwt.core.transaction.jms;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.Base64;
+import java.util.Enumeration;
+
+import javax.jms.BytesMessage;
+import javax.jms.Destination;
+import javax.jms.JMSException;
+import javax.jms.MapMessage;
+import javax.jms.Message;
+import javax.jms.MessageEOFException;
+import javax.jms.MessageFormatException;
+import javax.jms.ObjectMessage;
+import javax.jms.Queue;
+import javax.jms.Session;
+import javax.jms.StreamMessage;
+import javax.jms.TemporaryQueue;
+import javax.jms.TemporaryTopic;
+import javax.jms.TextMessage;
+import javax.jms.Topic;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+/**
+ * Turns a captured send into the JSON document stored in the outbox table, and back into a message of
+ * a relay session. Typed values are stored as strings tagged with their type, so no precision is lost.
+ * 
+ * @author neillin
+ *
+ */
+final class OutboxMessageCodec {
+
+	private static final String QUEUE_PREFIX = "queue://";
+	private static final String TOPIC_PREFIX = "topic://";
+
+	private OutboxMessageCodec() {
+	}
+
+	static String encodeDestination(Destination destination) throws JMSException {
+		if (destination instanceof TemporaryQueue || destination instanceof TemporaryTopic) {
+			throw new JMSException("Temporary destinations cannot be sent through the outbox: " + destination);
+		}
+		if (destination instanceof Queue) {
+			return QUEUE_PREFIX + ((Queue) destination).getQueueName();
+		}
+		if (destination instanceof Topic) {
+			return TOPIC_PREFIX + ((Topic) destination).getTopicName();
+		}
+		throw new JMSException("Unsupported destination " + destination);
+	}
+
+	static Destination decodeDestination(Session session, String destination) throws JMSException {
+		if (destination.startsWith(QUEUE_PREFIX)) {
+			return session.createQueue(destination.substring(QUEUE_PREFIX.length()));
+		}
+		if (destination.startsWith(TOPIC_PREFIX)) {
+			return session.createTopic(destination.substring(TOPIC_PREFIX.length()));
+		}
+		throw new JMSException("Unsupported destination " + destination);
+	}
+
+	static String encode(OutgoingMessage outgoing) throws JMSException {
+		Message message = outgoing.getMessage();
+		JSONObject json = new JSONObject();
+		json.put("deliveryMode", outgoing.getDeliveryMode());
+		json.put("priority", outgoing.getPriority());
+		json.put("timeToLive", outgoing.getTimeToLive());
+		json.put("deliveryDelay", outgoing.getDeliveryDelay());
+		json.putOpt("correlationId", message.getJMSCorrelationID());
+		json.putOpt("jmsType", message.getJMSType());
+		if (message.getJMSReplyTo() != null) {
+			json.put("replyTo", encodeDestination(message.getJMSReplyTo()));
+		}
+		JSONObject properties = new JSONObject();
+		for (Enumeration<?> names = message.getPropertyNames(); names.hasMoreElements();) {
+			String name = (String) names.nextElement();
+			properties.put(name, encodeValue(message.getObjectProperty(name)));
+		}
+		json.put("properties", properties);
+
+		if (message instanceof TextMessage) {
+			json.put("type", "text");
+			json.putOpt("body", ((TextMessage) message).getText());
+		} else if (message instanceof BytesMessage) {
+			BytesMessage bytesMessage = (BytesMessage) message;
+			bytesMessage.reset();
+			byte[] body = new byte[(int) bytesMessage.getBodyLength()];
+			bytesMessage.readBytes(body);
+			json.put("type", "bytes");
+			json.put("body", Base64.getEncoder().encodeToString(body));
+		} else if (message instanceof MapMessage) {
+			MapMessage mapMessage = (MapMessage) message;
+			JSONObject body = new JSONObject();
+			for (Enumeration<?> names = mapMessage.getMapNames(); names.hasMoreElements();) {
+				String name = (String) names.nextElement();
+				body.put(name, encodeValue(mapMessage.getObject(name)));
+			}
+			json.put("type", "map");
+			json.put("body", body);
+		} else if (message instanceof StreamMessage) {
+			StreamMessage streamMessage = (StreamMessage) message;
+			streamMessage.reset();
+			JSONArray body = new JSONArray();
+			try {
+				while (true) {
+					body.put(encodeValue(streamMessage.readObject()));
+				}
+			} catch (MessageEOFException e) {
+				// end of the stream
+			}
+			json.put("type", "stream");
+			json.put("body", body);
+		} else if (message instanceof ObjectMessage) {
+			Serializable object = ((ObjectMessage) message).getObject();
+			json.put("type", "object");
+			if (object != null) {
+				json.put("body", Base64.getEncoder().encodeToString(serialize(object)));
+			}
+		} else {
+			json.put("type", "message");
+		}
+		return json.toString();
+	}
+
+	static OutgoingMessage decode(Session session, Destination destination, String document) throws JMSException {
+		JSONObject json = new JSONObject(document);
+		Message message;
+		String type = json.getString("type");
+		switch (type) {
+		case "text":
+			message = session.createTextMessage(json.optString("body", null));
+			break;
+		case "bytes":
+			BytesMessage bytesMessage = session.createBytesMessage();
+			bytesMessage.writeBytes(Base64.getDecoder().decode(json.getString("body")));
+			message = bytesMessage;
+			break;
+		case "map":
+			MapMessage mapMessage = session.createMapMessage();
+			JSONObject map = json.getJSONObject("body");
+			for (String name : map.keySet()) {
+				mapMessage.setObject(name, decodeValue(map.getJSONObject(name)));
+			}
+			message = mapMessage;
+			break;
+		case "stream":
+			StreamMessage streamMessage = session.createStreamMessage();
+			JSONArray stream = json.getJSONArray("body");
+			for (int i = 0; i < stream.length(); i++) {
+				streamMessage.writeObject(decodeValue(stream.getJSONObject(i)));
+			}
+			message = streamMessage;
+			break;
+		case "object":
+			message = session.createObjectMessage(json.has("body")
+					? deserialize(Base64.getDecoder().decode(json.getString("body"))) : null);
+			break;
+		case "message":
+			message = session.createMessage();
+			break;
+		default:
+			throw new MessageFormatException("Unknown outbox message type " + type);
+		}
+		if (json.has("correlationId")) {
+			message.setJMSCorrelationID(json.getString("correlationId"));
+		}
+		if (json.has("jmsType")) {
+			message.setJMSType(json.getString("jmsType"));
+		}
+		if (json.has("replyTo")) {
+			message.setJMSReplyTo(decodeDestination(session, json.getString("replyTo")));
+		}
+		JSONObject properties = json.getJSONObject("properties");
+		for (String name : properties.keySet()) {
+			message.setObjectProperty(name, decodeValue(properties.getJSONObject(name)));
+		}
+		return new OutgoingMessage(destination, message, json.getInt("deliveryMode"), json.getInt("priority"),
+				json.getLong("timeToLive"), json.getLong("deliveryDelay"), null);
+	}
+
+	private static JSONObject encodeValue(Object value) throws JMSException {
+		JSONObject json = new JSONObject();
+		if (value == null) {
+			json.put("t", "null");
+		} else if (value instanceof byte[]) {
+			json.put("t", "bytes");
+			json.put("v", Base64.getEncoder().encodeToString((byte[]) value));
+		} else if (value instanceof String || value instanceof Boolean || value instanceof Byte
+				|| value instanceof Short || value instanceof Integer || value instanceof Long
+				|| value instanceof Float || value instanceof Double || value instanceof Character) {
+			json.put("t", value.getClass().getSimpleName());
+			json.put("v", value.toString());
+		} else {
+			throw new MessageFormatException("Unsupported value type " + value.getClass().getName());
+		}
+		return json;
+	}
+
+	private static Object decodeValue(JSONObject json) throws JMSException {
+		String type = json.getString("t");
+		switch (type) {
+		case "null":
+			return null;
+		case "bytes":
+			return Base64.getDecoder().decode(json.getString("v"));
+		case "String":
+			return json.getString("v");
+		case "Boolean":
+			return Boolean.valueOf(json.getString("v"));
+		case "Byte":
+			return Byte.valueOf(json.getString("v"));
+		case "Short":
+			return Short.valueOf(json.getString("v"));
+		case "Integer":
+			return Integer.valueOf(json.getString("v"));
+		case "Long":
+			return Long.valueOf(json.getString("v"));
+		case "Float":
+			return Float.valueOf(json.getString("v"));
+		case "Double":
+			return Double.valueOf(json.getString("v"));
+		case "Character":
+			return json.getString("v").charAt(0);
+		default:
+			throw new MessageFormatException("Unknown outbox value type " + type);
+		}
+	}
+
+	private static byte[] serialize(Serializable object) throws JMSException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+			out.writeObject(object);
+		} catch (IOException e) {
+			throw jmsException("Failed to serialize object message body", e);
+		}
+		return bytes.toByteArray();
+	}
+
+	private static Serializable deserialize(byte[] bytes) throws JMSException {
+		try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes))) {
+			return (Serializable) in.readObject();
+		} catch (IOException | ClassNotFoundException e) {
+			throw jmsException("Failed to deserialize object message body", e);
+		}
+	}
+
+	static JMSException jmsException(String message, Exception cause) {
+		JMSException jmsException = new JMSException(message);
+		jmsException.setLinkedException(cause);
+		jmsException.initCause(cause);
+		return jmsException;
+	}
+
+}
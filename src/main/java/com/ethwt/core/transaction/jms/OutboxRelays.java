@@ -0,0 +1,76 @@
+/**
+ *
+ */
+package com.ethwt.core.transaction.jms;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.jms.XAConnectionFactory;
+
+/**
+ * The {@link TransactionalOutbox}es of the connection factories adapted by a
+ * {@link com.ethwt.core.transaction.TransactionManagerService}, one per outbox table, so that each table is
+ * published by one relay of the process whichever number of factories are adapted for it.
+ *
+ * @author neillin
+ *
+ */
+public class OutboxRelays implements AutoCloseable {
+
+	private final Map<List<Object>, TransactionalOutbox> outboxes = new HashMap<>();
+	private boolean shutdownHookAdded;
+	private boolean closed;
+
+	/**
+	 * Get the outbox of the table of the settings. It is created the first time the table is asked for,
+	 * and relayed through the connections of the factory it was created with.
+	 *
+	 * @param factory factory of the connections the relay publishes with
+	 * @param config the settings of the adapted connection factory
+	 * @return the outbox, null unless the send mode is {@link JmsSendMode#OUTBOX}
+	 */
+	public synchronized TransactionalOutbox outbox(XAConnectionFactory factory, JmsProxyConfig config) {
+		if (config.getSendMode() != JmsSendMode.OUTBOX) {
+			return null;
+		}
+		if (closed) {
+			throw new IllegalStateException("The outbox relays are closed");
+		}
+		List<Object> key = Arrays.asList(config.getOutboxDataSource(), config.getOutboxDataSourceName(),
+				config.getOutboxTable());
+		TransactionalOutbox outbox = outboxes.get(key);
+		if (outbox == null) {
+			outbox = new TransactionalOutbox(factory, config);
+			outboxes.put(key, outbox);
+		}
+		if (config.isRelayEnabled()) {
+			outbox.start();
+			if (!shutdownHookAdded) {
+				Runtime.getRuntime().addShutdownHook(new Thread(this::close, "jms-outbox-relay-shutdown"));
+				shutdownHookAdded = true;
+			}
+		}
+		return outbox;
+	}
+
+	/**
+	 * Stop the relays. Rows not yet published stay in the tables.
+	 */
+	@Override
+	public void close() {
+		List<TransactionalOutbox> relays;
+		synchronized (this) {
+			closed = true;
+			relays = new ArrayList<>(outboxes.values());
+			outboxes.clear();
+		}
+		for (TransactionalOutbox outbox : relays) {
+			outbox.close();
+		}
+	}
+
+}
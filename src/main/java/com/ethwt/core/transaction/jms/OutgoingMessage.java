@@ -0,0 +1,69 @@
+/**
+ * 
+ */
+package com.ethwt.core.transaction.jms;
+
+import javax.jms.CompletionListener;
+import javax.jms.Destination;
+import javax.jms.Message;
+
+/**
+ * A send captured by a proxied producer, with the delivery options resolved against the producer
+ * defaults.
+ * 
+ * @author neillin
+ *
+ */
+public class OutgoingMessage {
+
+	private final Destination destination;
+	private final Message message;
+	private final int deliveryMode;
+	private final int priority;
+	private final long timeToLive;
+	private final long deliveryDelay;
+	private final CompletionListener completionListener;
+
+	public OutgoingMessage(Destination destination, Message message, int deliveryMode, int priority,
+			long timeToLive, long deliveryDelay, CompletionListener completionListener) {
+		this.destination = destination;
+		this.message = message;
+		this.deliveryMode = deliveryMode;
+		this.priority = priority;
+		this.timeToLive = timeToLive;
+		this.deliveryDelay = deliveryDelay;
+		this.completionListener = completionListener;
+	}
+
+	public Destination getDestination() {
+		return destination;
+	}
+
+	public Message getMessage() {
+		return message;
+	}
+
+	public int getDeliveryMode() {
+		return deliveryMode;
+	}
+
+	public int getPriority() {
+		return priority;
+	}
+
+	public long getTimeToLive() {
+		return timeToLive;
+	}
+
+	public long getDeliveryDelay() {
+		return deliveryDelay;
+	}
+
+	/**
+	 * @return the listener of an asynchronous send, or null
+	 */
+	public CompletionListener getCompletionListener() {
+		return completionListener;
+	}
+
+}
@@ -0,0 +1,79 @@
+/**
+ * 
+ */
+package com.ethwt.core.transaction.jms;
+
+import javax.jms.CompletionListener;
+import javax.jms.JMSException;
+import javax.transaction.Synchronization;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Asynchronous sends made by the producers of one proxied session inside a transaction. The transaction
+ * does not prepare before the broker acknowledged all of them, and rolls back if one failed.
+ * 
+ * @author neillin
+ *
+ */
+class PendingSends implements Synchronization {
+	private static Logger log = LoggerFactory.getLogger(PendingSends.class);
+
+	private final TransactionHelper transactionHelper;
+	private final long timeoutMillis;
+	private final CompletionTracker tracker = new CompletionTracker();
+	private boolean registered;
+
+	PendingSends(TransactionHelper transactionHelper, long timeoutMillis) {
+		this.transactionHelper = transactionHelper;
+		this.timeoutMillis = timeoutMillis;
+	}
+
+	/**
+	 * Count one more send of the current transaction.
+	 *
+	 * @param listener listener of the application, may be null
+	 * @return the listener to send with
+	 * @throws JMSException if the transaction cannot be waited for
+	 */
+	CompletionListener track(CompletionListener listener) throws JMSException {
+		if (!registered) {
+			transactionHelper.registerSynchronization(this);
+			registered = true;
+		}
+		return tracker.track(listener);
+	}
+
+	/**
+	 * Forget a tracked send which failed to start, its caller got the exception.
+	 */
+	void untrack() {
+		tracker.completed(null);
+	}
+
+	/**
+	 * Wait for the broker to acknowledge the tracked sends.
+	 *
+	 * @throws JMSException if a send failed, or was not acknowledged in time
+	 */
+	void await() throws JMSException {
+		tracker.await(timeoutMillis);
+	}
+
+	@Override
+	public void beforeCompletion() {
+		try {
+			await();
+		} catch (JMSException e) {
+			log.warn("Asynchronous send failed, the transaction will roll back", e);
+			throw new IllegalStateException("Asynchronous send failed", e);
+		}
+	}
+
+	@Override
+	public void afterCompletion(int status) {
+		registered = false;
+	}
+
+}
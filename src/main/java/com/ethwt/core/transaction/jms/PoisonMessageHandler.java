@@ -0,0 +1,27 @@
+/**
+ * 
+ */
+package com.ethwt.core.transaction.jms;
+
+import javax.jms.Message;
+
+/**
+ * Takes care of a message delivered more times than a {@link XAMessageConsumerContainer} allows.
+ * 
+ * @author neillin
+ *
+ */
+@FunctionalInterface
+public interface PoisonMessageHandler {
+
+	/**
+	 * Called inside the transaction consuming the message, instead of the listener. The message is
+	 * acknowledged when the transaction commits.
+	 *
+	 * @param message the message
+	 * @param deliveryCount how many times it was delivered
+	 * @throws Exception to roll the transaction back
+	 */
+	void onPoisonMessage(Message message, int deliveryCount) throws Exception;
+
+}
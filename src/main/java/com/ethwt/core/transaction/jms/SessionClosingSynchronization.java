@@ -27,6 +27,9 @@ import javax.transaction.Synchronization;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.ethwt.core.transaction.AfterCompletionExecutor;
+import com.ethwt.core.transaction.metrics.TransactionMetrics;
+
 /**
  * Synchronization to close JMS session at the end of the transaction.
  *
@@ -51,12 +54,17 @@ public class SessionClosingSynchronization implements Synchronization {
     }
 
     /**
-     * Close the session no matter what the status of the transaction is.
+     * Close the session no matter what the status of the transaction is, in the background if
+     * {@link AfterCompletionExecutor} is enabled.
      *
      * @param status the status of the completed transaction
      */
     @Override
     public void afterCompletion(int status) {
+        AfterCompletionExecutor.execute(this::close);
+    }
+
+    private void close() {
         if (log.isTraceEnabled()) {
             log.trace("Closing session " + session);
         }
@@ -65,6 +73,8 @@ public class SessionClosingSynchronization implements Synchronization {
             session.close();
         } catch (Exception e) {
             log.warn("Failed to close JMS session {0}",session.toString(), e);
+        } finally {
+            TransactionMetrics.getInstance().jmsSessionClosed(true);
         }
     }
 
@@ -46,6 +46,8 @@ import javax.transaction.Synchronization;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.ethwt.core.transaction.metrics.TransactionMetrics;
+
 import java.io.Serializable;
 
 /**
@@ -59,15 +61,39 @@ public class SessionProxy implements Session {
     private final XASession xaSession;
 
     private final TransactionHelper transactionHelper;
+
+    private final JmsProxyConfig config;
+
+    private final TransactionalOutbox outbox;
     private boolean sessionCloseScheduled;
+    private boolean enlisted;
+    private boolean shared;
+    private DeferredMessageSink deferredSink;
+    private PendingSends pendingSends;
 
     /**
-     * @param xaSession XA session that needs to be proxied.
+     * @param xaSession XA session that needs to be proxied, its XA resource enlisted by the caller.
      * @param transactionHelper utility to make transaction resources registration easier.
      */
     public SessionProxy(XASession xaSession, TransactionHelper transactionHelper) {
+        this(xaSession, transactionHelper, new JmsProxyConfig(), null);
+    }
+
+    /**
+     * @param xaSession XA session that needs to be proxied, its XA resource enlisted by the caller unless
+     *   an outbox is given.
+     * @param transactionHelper utility to make transaction resources registration easier.
+     * @param config how the session sends inside a transaction.
+     * @param outbox where the session sends in the {@link JmsSendMode#OUTBOX} mode, null in other modes.
+     */
+    public SessionProxy(XASession xaSession, TransactionHelper transactionHelper, JmsProxyConfig config,
+            TransactionalOutbox outbox) {
         this.xaSession = xaSession;
         this.transactionHelper = transactionHelper;
+        this.config = config;
+        this.outbox = outbox;
+        this.enlisted = outbox == null;
+        TransactionMetrics.getInstance().jmsSessionOpened();
     }
 
     /**
@@ -78,20 +104,33 @@ public class SessionProxy implements Session {
      */
     @Override
     public void close() throws JMSException {
+        if (shared) {
+            // closed by the transaction which owns it
+            return;
+        }
         if (sessionCloseScheduled) {
             throw new JMSException("Session is already scheduled to be closed");
         }
         if (transactionHelper.isTransactionAvailable()) {
             sessionCloseScheduled = true;
-            
-            transactionHelper.deregisterXAResource(xaSession.getXAResource());
 
-            if (log.isTraceEnabled()) {
-                log.trace("Delisted " + xaSession + " XA resource from the transaction");
+            if (enlisted) {
+                if (deferredSink != null) {
+                    deferredSink.flush();
+                }
+                if (pendingSends != null) {
+                    pendingSends.await();
+                }
+                transactionHelper.deregisterXAResource(xaSession.getXAResource());
+
+                if (log.isTraceEnabled()) {
+                    log.trace("Delisted " + xaSession + " XA resource from the transaction");
+                }
             }
 
             Synchronization synchronization = new SessionClosingSynchronization(xaSession);
             transactionHelper.registerSynchronization(synchronization);
+            TransactionMetrics.getInstance().jmsSessionCloseScheduled();
 
             if (log.isTraceEnabled()) {
                 log.trace("Registered synchronization to close the session: " + synchronization);
@@ -99,6 +138,7 @@ public class SessionProxy implements Session {
 
         } else {
             xaSession.close();
+            TransactionMetrics.getInstance().jmsSessionClosed(false);
         }
     }
 
@@ -235,7 +275,22 @@ public class SessionProxy implements Session {
         if (sessionCloseScheduled) {
             throw new JMSException("Session is already scheduled to be closed");
         }
-        return xaSession.createProducer(destination);
+        if (outbox != null) {
+            return new InterceptingMessageProducer(xaSession.createProducer(destination), outbox);
+        }
+        if (config.getSendMode() == JmsSendMode.DEFERRED) {
+            if (deferredSink == null) {
+                deferredSink = new DeferredMessageSink(transactionHelper, MessageSender.of(xaSession),
+                        MessageFactory.of(xaSession), config.getFlushTimeoutMillis());
+            }
+            return new InterceptingMessageProducer(xaSession.createProducer(destination), deferredSink);
+        }
+        if (pendingSends == null) {
+            pendingSends = new PendingSends(transactionHelper, config.getFlushTimeoutMillis());
+        }
+        MessageProducer producer = xaSession.createProducer(destination);
+        return new InterceptingMessageProducer(producer, new AsyncMessageSink(transactionHelper, pendingSends,
+                MessageSender.of(producer)));
     }
 
     @Override
@@ -243,6 +298,7 @@ public class SessionProxy implements Session {
         if (sessionCloseScheduled) {
             throw new JMSException("Session is already scheduled to be closed");
         }
+        enlistToConsume();
         return xaSession.createConsumer(destination);
     }
 
@@ -251,6 +307,7 @@ public class SessionProxy implements Session {
         if (sessionCloseScheduled) {
             throw new JMSException("Session is already scheduled to be closed");
         }
+        enlistToConsume();
         return xaSession.createConsumer(destination, s);
     }
 
@@ -259,6 +316,7 @@ public class SessionProxy implements Session {
         if (sessionCloseScheduled) {
             throw new JMSException("Session is already scheduled to be closed");
         }
+        enlistToConsume();
         return xaSession.createConsumer(destination, s, b);
     }
 
@@ -267,6 +325,7 @@ public class SessionProxy implements Session {
         if (sessionCloseScheduled) {
             throw new JMSException("Session is already scheduled to be closed");
         }
+        enlistToConsume();
         return xaSession.createSharedConsumer(topic, sharedSubscriptionName);
     }
 
@@ -275,6 +334,7 @@ public class SessionProxy implements Session {
         if (sessionCloseScheduled) {
             throw new JMSException("Session is already scheduled to be closed");
         }
+        enlistToConsume();
         return xaSession.createSharedConsumer(topic, sharedSubscriptionName, messageSelector);
     }
 
@@ -299,6 +359,7 @@ public class SessionProxy implements Session {
         if (sessionCloseScheduled) {
             throw new JMSException("Session is already scheduled to be closed");
         }
+        enlistToConsume();
         return xaSession.createDurableSubscriber(topic, s);
     }
 
@@ -307,6 +368,7 @@ public class SessionProxy implements Session {
         if (sessionCloseScheduled) {
             throw new JMSException("Session is already scheduled to be closed");
         }
+        enlistToConsume();
         return xaSession.createDurableSubscriber(topic, s, s1, b);
     }
 
@@ -315,6 +377,7 @@ public class SessionProxy implements Session {
         if (sessionCloseScheduled) {
             throw new JMSException("Session is already scheduled to be closed");
         }
+        enlistToConsume();
         return xaSession.createDurableConsumer(topic, name);
     }
 
@@ -323,6 +386,7 @@ public class SessionProxy implements Session {
         if (sessionCloseScheduled) {
             throw new JMSException("Session is already scheduled to be closed");
         }
+        enlistToConsume();
         return xaSession.createDurableConsumer(topic, name, messageSelector, noLocal);
     }
 
@@ -382,4 +446,27 @@ public class SessionProxy implements Session {
         xaSession.unsubscribe(s);
     }
 
+    /**
+     * Make this session the one shared by the current transaction: closing it does nothing anymore, it is
+     * closed once the transaction completes.
+     *
+     * @throws JMSException if the closing synchronization cannot be registered.
+     */
+    void share() throws JMSException {
+        transactionHelper.registerSynchronization(new SessionClosingSynchronization(xaSession));
+        TransactionMetrics.getInstance().jmsSessionCloseScheduled();
+        shared = true;
+    }
+
+    /**
+     * Enlist the XA resource of an outbox session before its first consumer is created, so that what is
+     * received is part of the transaction.
+     */
+    private void enlistToConsume() throws JMSException {
+        if (!enlisted && transactionHelper.isTransactionAvailable()) {
+            transactionHelper.registerXAResource(xaSession.getXAResource());
+            enlisted = true;
+        }
+    }
+
 }
@@ -54,6 +54,8 @@ public interface TransactionHelper {
 
     /**
      * Enlist XA resource to a current transaction. If error occurs wrap an original exception with {@link JMSException}.
+     * A resource of a broker already enlisted joins its branch unless disabled by
+     * {@link com.ethwt.core.transaction.TransactionConfig#setJoinSameResourceManager(boolean)}.
      * 
      * @param xaResource resource to be enlisted.
      * @throws JMSException if error occurred enlisting resource
@@ -73,4 +75,23 @@ public interface TransactionHelper {
      */
     void deregisterXAResource(XAResource xaResource) throws JMSException;
 
+    /**
+     * Get a resource bound to the current transaction by {@link #putTransactionResource(Object, Object)}.
+     *
+     * @param key key of the resource.
+     * @return the resource, or null if none is bound or no transaction synchronization registry is available.
+     * @throws JMSException if the transaction is in a state where resources cannot be looked up.
+     */
+    Object getTransactionResource(Object key) throws JMSException;
+
+    /**
+     * Bind a resource to the current transaction. Does nothing if no transaction synchronization registry
+     * is available.
+     *
+     * @param key key of the resource.
+     * @param value resource to be bound.
+     * @throws JMSException if the transaction is in a state where resources cannot be bound.
+     */
+    void putTransactionResource(Object key, Object value) throws JMSException;
+
 }
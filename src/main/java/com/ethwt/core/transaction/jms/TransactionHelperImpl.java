@@ -29,11 +29,15 @@ import javax.transaction.Synchronization;
 import javax.transaction.SystemException;
 import javax.transaction.Transaction;
 import javax.transaction.TransactionManager;
+import javax.transaction.TransactionSynchronizationRegistry;
 import javax.transaction.xa.XAResource;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.ethwt.core.transaction.NestedScope;
+import com.ethwt.core.transaction.metrics.MeteredXAResource;
+
 /**
  * @author <a href="mailto:gytis@redhat.com">Gytis Trikleris</a>
  */
@@ -42,8 +46,20 @@ public class TransactionHelperImpl implements TransactionHelper {
 
     private final TransactionManager transactionManager;
 
+    private final TransactionSynchronizationRegistry synchronizationRegistry;
+
     public TransactionHelperImpl(TransactionManager transactionManager) {
+        this(transactionManager, null);
+    }
+
+    /**
+     * @param transactionManager transaction manager the resources are enlisted with.
+     * @param synchronizationRegistry registry binding resources to the transactions, null to bind none.
+     */
+    public TransactionHelperImpl(TransactionManager transactionManager,
+            TransactionSynchronizationRegistry synchronizationRegistry) {
         this.transactionManager = transactionManager;
+        this.synchronizationRegistry = synchronizationRegistry;
     }
 
     @Override
@@ -68,8 +84,13 @@ public class TransactionHelperImpl implements TransactionHelper {
 
     @Override
     public void registerXAResource(XAResource xaResource) throws JMSException {
+        if (NestedScope.isActive()) {
+            log.warn("Refused to enlist XA resource inside a NESTED scope");
+            throw getJmsException("JMS resources cannot be enlisted inside a NESTED scope, "
+                    + "its savepoint would not roll them back", null);
+        }
         try {
-            if (!getTransaction().enlistResource(xaResource)) {
+            if (!getTransaction().enlistResource(MeteredXAResource.wrap(xaResource))) {
                 log.warn("Failed to enlist XA resource");
                 throw getJmsException("Failed to enlist XA resource", null);
             }
@@ -82,7 +103,7 @@ public class TransactionHelperImpl implements TransactionHelper {
     @Override
     public void deregisterXAResource(XAResource xaResource) throws JMSException {
         try {
-            if (!getTransaction().delistResource(xaResource, XAResource.TMSUCCESS)) {
+            if (!getTransaction().delistResource(MeteredXAResource.wrap(xaResource), XAResource.TMSUCCESS)) {
                 log.warn("Failed to delist XA resource");
                 throw getJmsException("Failed to delist XA resource", null);
             }
@@ -92,6 +113,32 @@ public class TransactionHelperImpl implements TransactionHelper {
         }
     }
 
+    @Override
+    public Object getTransactionResource(Object key) throws JMSException {
+        if (synchronizationRegistry == null) {
+            return null;
+        }
+        try {
+            return synchronizationRegistry.getResource(key);
+        } catch (IllegalStateException e) {
+            log.warn("Failed to get transaction resource",e);
+            throw getJmsException("Failed to get transaction resource", e);
+        }
+    }
+
+    @Override
+    public void putTransactionResource(Object key, Object value) throws JMSException {
+        if (synchronizationRegistry == null) {
+            return;
+        }
+        try {
+            synchronizationRegistry.putResource(key, value);
+        } catch (IllegalStateException e) {
+            log.warn("Failed to put transaction resource",e);
+            throw getJmsException("Failed to put transaction resource", e);
+        }
+    }
+
     private Transaction getTransaction() throws JMSException {
         try {
             return transactionManager.getTransaction();
@@ -0,0 +1,364 @@
+/**
+ * 
+ */
+package com.ethwt.core.transaction.jms;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.jms.Destination;
+import javax.jms.JMSException;
+import javax.jms.MessageProducer;
+import javax.jms.Session;
+import javax.jms.XAConnection;
+import javax.jms.XAConnectionFactory;
+import javax.sql.DataSource;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.ethwt.core.transaction.metrics.TransactionMetrics;
+
+/**
+ * Transactional outbox, the {@link MessageSink} of the {@link JmsSendMode#OUTBOX} mode.
+ * <p>
+ * A send inside a transaction is written as a row of the outbox table, on the connection of the
+ * transaction aware {@link JmsProxyConfig#getOutboxDataSourceName() data source}. As long as the transaction
+ * touches no other XA resource it commits in one phase. A relay thread then publishes the committed rows
+ * to the broker in batches, one broker transaction per batch, and deletes them once the broker commit
+ * succeeded.
+ * <p>
+ * Before publishing, a relay claims the oldest rows for {@link JmsProxyConfig#getRelayClaimTimeoutMillis()},
+ * stopping at the first row claimed by another relay, so relays of several proxies or processes on one
+ * table take turns rather than publish the same rows. The rows of a relay which stopped are taken over once
+ * its claim expired.
+ * <p>
+ * Delivery is at least once: a crash between the broker commit and the delete, or a claim expiring while
+ * its relay still publishes, publishes the rows again, consumers can recognize the duplicates by the
+ * {@link #OUTBOX_ID_PROPERTY} property. Rows are published in the order they were written, a batch
+ * failing to publish is retried as a whole and holds back the rows after it. As a row becomes visible
+ * only when its transaction commits, rows are relayed once older than
+ * {@link JmsProxyConfig#getRelayVisibilityHorizonMillis()}: the order per destination is kept for the
+ * transactions committing within the horizon after their sends, a transaction committing later has its
+ * messages published after messages sent after them.
+ * <p>
+ * The table must exist:
+ * <pre>
+ * CREATE TABLE jms_outbox (
+ *     id VARCHAR(36) NOT NULL PRIMARY KEY,
+ *     seq BIGINT NOT NULL,
+ *     destination VARCHAR(255) NOT NULL,
+ *     message CLOB NOT NULL,
+ *     owner VARCHAR(36),
+ *     claimed_until BIGINT
+ * );
+ * CREATE INDEX jms_outbox_seq ON jms_outbox (seq, id);
+ * </pre>
+ * 
+ * @author neillin
+ *
+ */
+public class TransactionalOutbox implements MessageSink, AutoCloseable {
+	private static Logger log = LoggerFactory.getLogger(TransactionalOutbox.class);
+
+	/**
+	 * String property carrying the id of the outbox row a relayed message comes from.
+	 */
+	public static final String OUTBOX_ID_PROPERTY = "EthwtOutboxId";
+
+	private static final AtomicLong lastSequence = new AtomicLong();
+
+	private final XAConnectionFactory connectionFactory;
+	private final String dataSourceName;
+	private volatile DataSource dataSource;
+	private final int batchSize;
+	private final long intervalMillis;
+	private final long visibilityHorizonMillis;
+	private final long claimTimeoutMillis;
+	private final String owner = UUID.randomUUID().toString();
+	private final String insertSql;
+	private final String selectSql;
+	private final String claimSql;
+	private final String deleteSql;
+
+	private ScheduledExecutorService relay;
+	private XAConnection relayConnection;
+	private Session relaySession;
+	private MessageProducer relayProducer;
+
+	/**
+	 * @param connectionFactory factory of the connections the relay publishes with
+	 * @param config the outbox settings, its data source or the name of its pool must be set
+	 */
+	public TransactionalOutbox(XAConnectionFactory connectionFactory, JmsProxyConfig config) {
+		if (config.getOutboxDataSource() == null
+				&& (config.getOutboxDataSourceName() == null || config.getOutboxDataSourceName().isEmpty())) {
+			throw new IllegalArgumentException("An outbox data source name is required by the OUTBOX send mode");
+		}
+		this.connectionFactory = connectionFactory;
+		this.dataSourceName = config.getOutboxDataSourceName();
+		this.dataSource = config.getOutboxDataSource();
+		this.batchSize = Math.max(1, config.getRelayBatchSize());
+		this.intervalMillis = Math.max(1, config.getRelayIntervalMillis());
+		this.visibilityHorizonMillis = Math.max(0, config.getRelayVisibilityHorizonMillis());
+		this.claimTimeoutMillis = Math.max(1, config.getRelayClaimTimeoutMillis());
+		String table = config.getOutboxTable();
+		this.insertSql = "INSERT INTO " + table + " (id, seq, destination, message) VALUES (?, ?, ?, ?)";
+		this.selectSql = "SELECT id, destination, message, owner, claimed_until FROM " + table
+				+ " WHERE seq <= ? ORDER BY seq, id";
+		this.claimSql = "UPDATE " + table + " SET owner = ?, claimed_until = ? WHERE id = ?"
+				+ " AND (owner IS NULL OR owner = ? OR claimed_until < ?)";
+		this.deleteSql = "DELETE FROM " + table + " WHERE id = ?";
+	}
+
+	/**
+	 * Write the message to the outbox table, on the connection enlisted with the current transaction if
+	 * any. The completion listener of an asynchronous send is called once the row is written.
+	 */
+	@Override
+	public void send(OutgoingMessage message) throws JMSException {
+		String destination = OutboxMessageCodec.encodeDestination(message.getDestination());
+		String document = OutboxMessageCodec.encode(message);
+		try (Connection connection = dataSource().getConnection();
+				PreparedStatement statement = connection.prepareStatement(insertSql)) {
+			statement.setString(1, UUID.randomUUID().toString());
+			statement.setLong(2, nextSequence());
+			statement.setString(3, destination);
+			statement.setString(4, document);
+			statement.executeUpdate();
+		} catch (SQLException e) {
+			log.warn("Failed to write message to the outbox", e);
+			throw OutboxMessageCodec.jmsException("Failed to write message to the outbox", e);
+		}
+		TransactionMetrics.getInstance().jmsOutboxStaged();
+		if (message.getCompletionListener() != null) {
+			message.getCompletionListener().onCompletion(message.getMessage());
+		}
+	}
+
+	/**
+	 * Start the relay thread. Calling it more than once has no effect.
+	 */
+	public synchronized void start() {
+		if (relay != null) {
+			return;
+		}
+		relay = Executors.newSingleThreadScheduledExecutor(r -> {
+			Thread thread = new Thread(r, "jms-outbox-relay");
+			thread.setDaemon(true);
+			return thread;
+		});
+		relay.scheduleWithFixedDelay(this::relay, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Stop the relay thread and close its broker connection. Rows not yet published stay in the table.
+	 */
+	@Override
+	public void close() {
+		ScheduledExecutorService executor;
+		synchronized (this) {
+			executor = relay;
+			relay = null;
+		}
+		if (executor == null) {
+			return;
+		}
+		executor.shutdown();
+		try {
+			if (!executor.awaitTermination(10, TimeUnit.SECONDS)) {
+				executor.shutdownNow();
+			}
+		} catch (InterruptedException e) {
+			executor.shutdownNow();
+			Thread.currentThread().interrupt();
+		}
+		closeRelayConnection();
+	}
+
+	private void relay() {
+		try {
+			while (relayBatch() == batchSize) {
+				// keep draining while batches come full
+			}
+		} catch (Exception e) {
+			log.warn("Failed to relay outbox messages, will retry", e);
+			closeRelayConnection();
+		}
+	}
+
+	/**
+	 * Claim the oldest visible rows, publish them in one broker transaction, then delete them.
+	 *
+	 * @return the number of rows published
+	 */
+	int relayBatch() throws JMSException, SQLException {
+		long now = System.currentTimeMillis();
+		List<String[]> rows = new ArrayList<>();
+		try (Connection connection = dataSource().getConnection();
+				PreparedStatement statement = connection.prepareStatement(selectSql)) {
+			statement.setMaxRows(batchSize);
+			statement.setLong(1, TimeUnit.MILLISECONDS.toMicros(now - visibilityHorizonMillis));
+			try (ResultSet rs = statement.executeQuery()) {
+				while (rs.next()) {
+					String rowOwner = rs.getString(4);
+					long claimedUntil = rs.getLong(5);
+					if (rowOwner != null && !owner.equals(rowOwner) && claimedUntil >= now) {
+						// published by another relay, the rows after it wait for their turn
+						break;
+					}
+					rows.add(new String[] { rs.getString(1), rs.getString(2), rs.getString(3) });
+				}
+			}
+		}
+		rows = claim(rows, now);
+		if (rows.isEmpty()) {
+			return 0;
+		}
+
+		Session session = relaySession();
+		try {
+			Map<String, Destination> destinations = new HashMap<>();
+			for (String[] row : rows) {
+				Destination destination = destinations.get(row[1]);
+				if (destination == null) {
+					destination = OutboxMessageCodec.decodeDestination(session, row[1]);
+					destinations.put(row[1], destination);
+				}
+				OutgoingMessage outgoing = OutboxMessageCodec.decode(session, destination, row[2]);
+				outgoing.getMessage().setStringProperty(OUTBOX_ID_PROPERTY, row[0]);
+				relayProducer.setDeliveryDelay(outgoing.getDeliveryDelay());
+				relayProducer.send(destination, outgoing.getMessage(), outgoing.getDeliveryMode(),
+						outgoing.getPriority(), outgoing.getTimeToLive());
+			}
+			session.commit();
+		} catch (JMSException | RuntimeException e) {
+			try {
+				session.rollback();
+			} catch (JMSException ex) {
+				e.addSuppressed(ex);
+			}
+			throw e;
+		}
+
+		try (Connection connection = dataSource().getConnection()) {
+			connection.setAutoCommit(false);
+			try (PreparedStatement statement = connection.prepareStatement(deleteSql)) {
+				for (String[] row : rows) {
+					statement.setString(1, row[0]);
+					statement.addBatch();
+				}
+				statement.executeBatch();
+				connection.commit();
+			} catch (SQLException e) {
+				connection.rollback();
+				throw e;
+			} finally {
+				connection.setAutoCommit(true);
+			}
+		}
+		TransactionMetrics.getInstance().jmsOutboxRelayed(rows.size());
+		if (log.isTraceEnabled()) {
+			log.trace("Relayed " + rows.size() + " outbox messages");
+		}
+		return rows.size();
+	}
+
+	/**
+	 * Claim the rows in order, up to the first one another relay claimed meanwhile.
+	 *
+	 * @return the rows claimed
+	 */
+	private List<String[]> claim(List<String[]> rows, long now) throws SQLException {
+		if (rows.isEmpty()) {
+			return rows;
+		}
+		List<String[]> claimed = new ArrayList<>(rows.size());
+		try (Connection connection = dataSource().getConnection()) {
+			connection.setAutoCommit(false);
+			try (PreparedStatement statement = connection.prepareStatement(claimSql)) {
+				for (String[] row : rows) {
+					statement.setString(1, owner);
+					statement.setLong(2, now + claimTimeoutMillis);
+					statement.setString(3, row[0]);
+					statement.setString(4, owner);
+					statement.setLong(5, now);
+					if (statement.executeUpdate() == 0) {
+						break;
+					}
+					claimed.add(row);
+				}
+				connection.commit();
+			} catch (SQLException e) {
+				connection.rollback();
+				throw e;
+			} finally {
+				connection.setAutoCommit(true);
+			}
+		}
+		return claimed;
+	}
+
+	/**
+	 * @return the data source, looked up by its pool name the first time, as the pool may be adapted after
+	 *   the connection factory
+	 */
+	private DataSource dataSource() throws SQLException {
+		DataSource current = dataSource;
+		if (current == null) {
+			current = TransactionMetrics.getInstance().getPool(dataSourceName);
+			if (current == null) {
+				throw new SQLException("No pool named " + dataSourceName + " was adapted for the outbox");
+			}
+			dataSource = current;
+		}
+		return current;
+	}
+
+	private Session relaySession() throws JMSException {
+		if (relaySession == null) {
+			XAConnection connection = connectionFactory.createXAConnection();
+			try {
+				Session session = connection.createSession(true, Session.SESSION_TRANSACTED);
+				relayProducer = session.createProducer(null);
+				relaySession = session;
+				relayConnection = connection;
+			} catch (JMSException e) {
+				connection.close();
+				throw e;
+			}
+		}
+		return relaySession;
+	}
+
+	private void closeRelayConnection() {
+		XAConnection connection = relayConnection;
+		relayConnection = null;
+		relaySession = null;
+		relayProducer = null;
+		if (connection != null) {
+			try {
+				connection.close();
+			} catch (JMSException e) {
+				log.debug("Failed to close outbox relay connection", e);
+			}
+		}
+	}
+
+	private static long nextSequence() {
+		long now = TimeUnit.MILLISECONDS.toMicros(System.currentTimeMillis());
+		return lastSequence.updateAndGet(last -> Math.max(now, last + 1));
+	}
+
+}
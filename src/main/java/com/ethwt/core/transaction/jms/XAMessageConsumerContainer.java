@@ -0,0 +1,499 @@
+/**
+ * 
+ */
+package com.ethwt.core.transaction.jms;
+
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.jms.Connection;
+import javax.jms.ConnectionFactory;
+import javax.jms.Destination;
+import javax.jms.JMSException;
+import javax.jms.Message;
+import javax.jms.MessageConsumer;
+import javax.jms.MessageProducer;
+import javax.jms.Session;
+import javax.jms.XAConnection;
+import javax.jms.XAConnectionFactory;
+import javax.jms.XASession;
+import javax.transaction.Transactional.TxType;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.ethwt.core.transaction.TransactionManagerService;
+import com.ethwt.core.transaction.TransactionalTask;
+
+/**
+ * Polling consumer receiving messages in batches, each batch inside one XA transaction committed once,
+ * so that the cost of the two phase commit is shared by all the messages of the batch.
+ * <p>
+ * Every consumer thread owns an XA connection and session, kept open across transactions. The session
+ * is enlisted with a new transaction, receives up to {@link ConsumerContainerConfig#getBatchSize()}
+ * messages or waits up to {@link ConsumerContainerConfig#getReceiveTimeoutMillis()}, hands them to the
+ * {@link BatchMessageListener} and the transaction commits. Any failure rolls the whole batch back.
+ * <p>
+ * After a failed batch the thread receives its messages one per transaction, so that a single poison
+ * message does not hold back the rest of the batch. When a message fails on its own, the broker redelivers
+ * it at once; the container consumes that redelivery and sends the message again to the destination with
+ * a delivery delay growing exponentially, {@link ConsumerContainerConfig#getRedeliveryDelayMillis()} at
+ * first, so a failing message does not loop hot. The attempts are counted by {@code JMSXDeliveryCount}
+ * plus the {@link #REDELIVERY_ATTEMPTS_PROPERTY} property carried by the delayed copies.
+ * <p>
+ * A message attempted more than {@link ConsumerContainerConfig#getMaxDeliveryAttempts()} times is handed
+ * to the {@link PoisonMessageHandler} instead of the listener. By default it is moved to the
+ * {@link ConsumerContainerConfig#getDeadLetterQueue() dead letter queue}, sent in its own transaction
+ * through the proxied connection factory, or logged and discarded without a dead letter queue.
+ * 
+ * @author neillin
+ *
+ */
+public class XAMessageConsumerContainer implements AutoCloseable {
+	private static Logger log = LoggerFactory.getLogger(XAMessageConsumerContainer.class);
+
+	/**
+	 * Int property counting the failed attempts of a message sent again by the container with a delay.
+	 */
+	public static final String REDELIVERY_ATTEMPTS_PROPERTY = "EthwtRedeliveryAttempts";
+
+	/**
+	 * String property of a dead letter telling why the last attempt failed.
+	 */
+	public static final String DEAD_LETTER_CAUSE_PROPERTY = "EthwtDeadLetterCause";
+
+	/**
+	 * String property of a dead letter naming the destination it was received from.
+	 */
+	public static final String DEAD_LETTER_ORIGIN_PROPERTY = "EthwtDeadLetterOrigin";
+
+	private static final String DELIVERY_COUNT = "JMSXDeliveryCount";
+
+	private final TransactionManagerService txService;
+	private final XAConnectionFactory connectionFactory;
+	private final Destination destination;
+	private final BatchMessageListener listener;
+	private final ConsumerContainerConfig config;
+	private final TransactionHelper transactionHelper;
+	private final AtomicInteger threadSequence = new AtomicInteger();
+	private final List<Worker> workers = new ArrayList<>();
+	private final LongAdder batches = new LongAdder();
+	private final LongAdder fullBatches = new LongAdder();
+	private final LongAdder messages = new LongAdder();
+	private final LongAdder batchNanos = new LongAdder();
+	private final PoisonMessageHandler deadLetterHandler = this::deadLetter;
+	private volatile PoisonMessageHandler poisonMessageHandler = deadLetterHandler;
+	private ConnectionFactory deadLetterConnectionFactory;
+	private volatile boolean running;
+	private volatile int concurrency;
+	private volatile int batchSize;
+
+	/**
+	 * @param txService the transaction manager the batches run with
+	 * @param connectionFactory factory of the XA connections of the consumers, not a proxied one
+	 * @param destination where to receive from
+	 * @param listener processes the batches
+	 * @param config the container settings
+	 */
+	public XAMessageConsumerContainer(TransactionManagerService txService, XAConnectionFactory connectionFactory,
+			Destination destination, BatchMessageListener listener, ConsumerContainerConfig config) {
+		this.txService = txService;
+		this.connectionFactory = connectionFactory;
+		this.destination = destination;
+		this.listener = listener;
+		this.config = config;
+		this.transactionHelper = new TransactionHelperImpl(txService.getTransactionManager());
+		this.concurrency = Math.max(1, config.getConcurrency());
+		this.batchSize = Math.max(1, config.getBatchSize());
+	}
+
+	public void setPoisonMessageHandler(PoisonMessageHandler poisonMessageHandler) {
+		this.poisonMessageHandler = poisonMessageHandler != null ? poisonMessageHandler : deadLetterHandler;
+	}
+
+	/**
+	 * Start the consumer threads. Calling it more than once has no effect.
+	 */
+	public synchronized void start() {
+		if (running) {
+			return;
+		}
+		running = true;
+		for (int i = 0; i < concurrency; i++) {
+			addWorker();
+		}
+	}
+
+	private void addWorker() {
+		Worker worker = new Worker();
+		Thread thread = new Thread(worker, "jms-consumer-" + threadSequence.incrementAndGet());
+		thread.setDaemon(true);
+		worker.thread = thread;
+		workers.add(worker);
+		thread.start();
+	}
+
+	/**
+	 * Change the number of consumer threads. Threads in excess finish their current batch and stop.
+	 *
+	 * @param concurrency the new number of threads, at least 1
+	 */
+	public synchronized void setConcurrency(int concurrency) {
+		this.concurrency = Math.max(1, concurrency);
+		if (!running) {
+			return;
+		}
+		workers.removeIf(worker -> !worker.thread.isAlive());
+		while (workers.size() < this.concurrency) {
+			addWorker();
+		}
+		while (workers.size() > this.concurrency) {
+			workers.remove(workers.size() - 1).retired = true;
+		}
+	}
+
+	public int getConcurrency() {
+		return concurrency;
+	}
+
+	/**
+	 * Change the maximum number of messages of the next batches.
+	 *
+	 * @param batchSize the new batch size, at least 1
+	 */
+	public void setBatchSize(int batchSize) {
+		this.batchSize = Math.max(1, batchSize);
+	}
+
+	public int getBatchSize() {
+		return batchSize;
+	}
+
+	/**
+	 * @return number of non empty batches committed
+	 */
+	public long getBatchCount() {
+		return batches.sum();
+	}
+
+	/**
+	 * @return number of committed batches which were full
+	 */
+	public long getFullBatchCount() {
+		return fullBatches.sum();
+	}
+
+	/**
+	 * @return number of messages committed
+	 */
+	public long getMessageCount() {
+		return messages.sum();
+	}
+
+	/**
+	 * @return total time in nanoseconds spent processing and committing the non empty batches, from the
+	 *   last message received to the end of the commit
+	 */
+	public long getBatchNanos() {
+		return batchNanos.sum();
+	}
+
+	/**
+	 * Stop receiving and wait for the batches in progress to commit, at most
+	 * {@link ConsumerContainerConfig#getShutdownTimeoutMillis()}. The threads still busy after that are
+	 * interrupted, which rolls their batch back.
+	 */
+	public synchronized void stop() {
+		if (!running) {
+			return;
+		}
+		running = false;
+		long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(config.getShutdownTimeoutMillis());
+		try {
+			for (Worker worker : workers) {
+				long remaining = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+				if (remaining > 0) {
+					worker.thread.join(remaining);
+				}
+				if (worker.thread.isAlive()) {
+					log.warn("Consumer {} did not stop in time, interrupting it", worker.thread.getName());
+					worker.thread.interrupt();
+				}
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		workers.clear();
+	}
+
+	@Override
+	public void close() {
+		stop();
+	}
+
+	public boolean isRunning() {
+		return running;
+	}
+
+	/**
+	 * @return the number of times the message was delivered, including the delayed redeliveries
+	 */
+	static int deliveryCount(Message message) throws JMSException {
+		int attempts = message.propertyExists(REDELIVERY_ATTEMPTS_PROPERTY)
+				? message.getIntProperty(REDELIVERY_ATTEMPTS_PROPERTY) : 0;
+		if (message.propertyExists(DELIVERY_COUNT)) {
+			return attempts + message.getIntProperty(DELIVERY_COUNT);
+		}
+		return attempts + (message.getJMSRedelivered() ? 2 : 1);
+	}
+
+	long redeliveryDelay(int failures) {
+		double delay = config.getRedeliveryDelayMillis() * Math.pow(config.getRedeliveryMultiplier(), failures - 1);
+		return (long) Math.min(delay, config.getMaxRedeliveryDelayMillis());
+	}
+
+	/**
+	 * Default {@link PoisonMessageHandler}, moving the message to the dead letter queue in its own
+	 * transaction, or discarding it without one.
+	 */
+	private void deadLetter(Message message, int deliveryCount) throws Exception {
+		if (config.getDeadLetterQueue() == null) {
+			log.error("Discarding message {} delivered {} times", message.getJMSMessageID(), deliveryCount);
+			return;
+		}
+		Destination origin = message.getJMSDestination();
+		String cause = message.propertyExists(DEAD_LETTER_CAUSE_PROPERTY)
+				? message.getStringProperty(DEAD_LETTER_CAUSE_PROPERTY) : null;
+		resetProperties(message, deliveryCount - 1);
+		message.setStringProperty(DEAD_LETTER_ORIGIN_PROPERTY, String.valueOf(origin));
+		if (cause != null) {
+			message.setStringProperty(DEAD_LETTER_CAUSE_PROPERTY, cause);
+		}
+		ConnectionFactory factory = deadLetterConnectionFactory();
+		txService.executeWithTx(TxType.REQUIRES_NEW, () -> {
+			Connection connection = factory.createConnection();
+			try {
+				Session session = connection.createSession();
+				MessageProducer producer = session.createProducer(session.createQueue(config.getDeadLetterQueue()));
+				producer.send(message);
+				session.close();
+			} finally {
+				connection.close();
+			}
+		});
+		log.warn("Moved message {} delivered {} times to {}", message.getJMSMessageID(), deliveryCount,
+				config.getDeadLetterQueue());
+	}
+
+	private synchronized ConnectionFactory deadLetterConnectionFactory() throws Exception {
+		if (deadLetterConnectionFactory == null) {
+			deadLetterConnectionFactory = txService.getConnectionAdaptor().adapt(connectionFactory, null);
+		}
+		return deadLetterConnectionFactory;
+	}
+
+	/**
+	 * Make the properties of a received message writable again, keeping them except the ones set by the
+	 * provider, and record the failed attempts.
+	 */
+	static void resetProperties(Message message, int failures) throws JMSException {
+		Map<String, Object> properties = new HashMap<>();
+		for (Enumeration<?> names = message.getPropertyNames(); names.hasMoreElements();) {
+			String name = (String) names.nextElement();
+			if (!name.startsWith("JMSX") && !name.startsWith("JMS_")) {
+				properties.put(name, message.getObjectProperty(name));
+			}
+		}
+		message.clearProperties();
+		for (Map.Entry<String, Object> property : properties.entrySet()) {
+			message.setObjectProperty(property.getKey(), property.getValue());
+		}
+		message.setIntProperty(REDELIVERY_ATTEMPTS_PROPERTY, failures);
+	}
+
+	private class Worker implements Runnable {
+		private Thread thread;
+		private XAConnection connection;
+		private XASession session;
+		private MessageConsumer consumer;
+		private int isolated;
+		private String failedMessageId;
+		private Exception failure;
+		private MessageProducer redeliveryProducer;
+		private long processingStart;
+		private volatile boolean retired;
+
+		@Override
+		public void run() {
+			try {
+				while (running && !retired) {
+					int limit = isolated > 0 ? 1 : batchSize;
+					try {
+						connect();
+						int received = txService.executeWithTx(TxType.REQUIRED, new BatchTask(limit));
+						if (received > 0) {
+							batchNanos.add(System.nanoTime() - processingStart);
+							batches.increment();
+							messages.add(received);
+							if (received >= limit) {
+								fullBatches.increment();
+							}
+						}
+						if (isolated > 0) {
+							isolated -= received;
+						}
+					} catch (Exception e) {
+						if (limit > 1) {
+							isolated = limit;
+						} else {
+							failure = e;
+						}
+						if (!running && Thread.currentThread().isInterrupted()) {
+							break;
+						}
+						log.warn("Batch on {} failed and was rolled back", destination, e);
+						if (e instanceof JMSException) {
+							disconnect();
+							pause(config.getRecoveryIntervalMillis());
+						}
+					}
+				}
+			} finally {
+				disconnect();
+			}
+		}
+
+		private void connect() throws JMSException {
+			if (consumer != null) {
+				return;
+			}
+			connection = connectionFactory.createXAConnection();
+			session = connection.createXASession();
+			consumer = session.createConsumer(destination, config.getMessageSelector());
+			connection.start();
+		}
+
+		private void disconnect() {
+			XAConnection current = connection;
+			connection = null;
+			session = null;
+			consumer = null;
+			redeliveryProducer = null;
+			if (current != null) {
+				try {
+					current.close();
+				} catch (JMSException e) {
+					log.debug("Failed to close consumer connection", e);
+				}
+			}
+		}
+
+		private void pause(long millis) {
+			try {
+				TimeUnit.MILLISECONDS.sleep(millis);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+
+		private List<Message> receive(int limit) throws JMSException {
+			List<Message> batch = new ArrayList<>(limit);
+			long timeout = config.getReceiveTimeoutMillis();
+			long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout);
+			Message message = consumer.receive(timeout);
+			while (message != null) {
+				batch.add(message);
+				if (batch.size() >= limit) {
+					break;
+				}
+				long remaining = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+				message = remaining > 0 ? consumer.receive(remaining) : consumer.receiveNoWait();
+			}
+			return batch;
+		}
+
+		/**
+		 * One batch. Rolls back on any exception, checked ones included, or the batch would be lost.
+		 */
+		private class BatchTask implements TransactionalTask<Integer> {
+			private final int limit;
+
+			BatchTask(int limit) {
+				this.limit = limit;
+			}
+
+			@Override
+			public Integer execute() throws Exception {
+				transactionHelper.registerXAResource(session.getXAResource());
+				List<Message> batch = receive(limit);
+				processingStart = System.nanoTime();
+				if (limit == 1 && !batch.isEmpty() && !isRedeliveryOfFailure(batch.get(0))) {
+					// remembered to recognize its redelivery if it fails
+					failedMessageId = batch.get(0).getJMSMessageID();
+					failure = null;
+				}
+				List<Message> accepted = new ArrayList<>(batch.size());
+				for (Message message : batch) {
+					int deliveryCount = deliveryCount(message);
+					if (deliveryCount > config.getMaxDeliveryAttempts()) {
+						recordCause(message);
+						poisonMessageHandler.onPoisonMessage(message, deliveryCount);
+					} else if (isRedeliveryOfFailure(message) && config.getRedeliveryDelayMillis() > 0) {
+						redeliverLater(message, deliveryCount - 1);
+					} else {
+						accepted.add(message);
+					}
+				}
+				if (!accepted.isEmpty()) {
+					listener.onMessages(accepted);
+				}
+				failure = null;
+				transactionHelper.deregisterXAResource(session.getXAResource());
+				return batch.size();
+			}
+
+			@Override
+			public Class<?>[] rollbackOn() {
+				return new Class<?>[] { Throwable.class };
+			}
+		}
+
+		private boolean isRedeliveryOfFailure(Message message) throws JMSException {
+			return failure != null && message.getJMSMessageID() != null
+					&& message.getJMSMessageID().equals(failedMessageId);
+		}
+
+		private void recordCause(Message message) throws JMSException {
+			if (isRedeliveryOfFailure(message)) {
+				resetProperties(message, deliveryCount(message) - 1);
+				message.setStringProperty(DEAD_LETTER_CAUSE_PROPERTY, String.valueOf(failure));
+			}
+		}
+
+		/**
+		 * Consume the immediate redelivery of a failed message and send it again with a delay, in the same
+		 * transaction.
+		 */
+		private void redeliverLater(Message message, int failures) throws JMSException {
+			long delay = redeliveryDelay(failures);
+			resetProperties(message, failures);
+			if (redeliveryProducer == null) {
+				redeliveryProducer = session.createProducer(destination);
+			}
+			redeliveryProducer.setDeliveryDelay(delay);
+			redeliveryProducer.send(message, message.getJMSDeliveryMode(), message.getJMSPriority(),
+					Message.DEFAULT_TIME_TO_LIVE);
+			if (log.isDebugEnabled()) {
+				log.debug("Message {} failed {} times, delivering it again in {}ms", message.getJMSMessageID(),
+						failures, delay);
+			}
+		}
+	}
+
+}
@@ -0,0 +1,229 @@
+/**
+ * 
+ */
+package com.ethwt.core.transaction.jms;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.jms.JMSException;
+import javax.jms.Message;
+import javax.jms.MessageListener;
+import javax.jms.ServerSession;
+import javax.jms.ServerSessionPool;
+import javax.jms.Session;
+import javax.jms.XAConnection;
+import javax.jms.XASession;
+import javax.transaction.SystemException;
+import javax.transaction.TransactionManager;
+import javax.transaction.Transactional.TxType;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.ethwt.core.transaction.TransactionManagerService;
+import com.ethwt.core.transaction.TransactionalTask;
+
+/**
+ * {@link ServerSessionPool} of pre-created {@link XASession}s, for the connection consumers of a connection,
+ * which processes every delivery inside an XA transaction.
+ * <p>
+ * When the broker hands messages to a server session, the session is run on the executor of the pool inside
+ * a {@link TxType#REQUIRED} transaction with its XA resource enlisted. Receiving the messages and the work of
+ * the listener commit or roll back together; a listener throwing rolls the transaction back and the messages
+ * are redelivered. {@link #getServerSession()} blocks while all sessions are busy, so the broker never pushes
+ * more concurrent deliveries than the pool has sessions.
+ * 
+ * @author neillin
+ *
+ */
+public class XAServerSessionPool implements ServerSessionPool, AutoCloseable {
+	private static Logger log = LoggerFactory.getLogger(XAServerSessionPool.class);
+
+	private static final AtomicInteger poolSequence = new AtomicInteger();
+
+	private final TransactionManagerService txService;
+	private final TransactionHelper transactionHelper;
+	private final MessageListener listener;
+	private final ExecutorService executor;
+	private final boolean ownExecutor;
+	private final BlockingQueue<XAServerSession> idle;
+	private final List<XAServerSession> sessions = new ArrayList<>();
+	private volatile boolean closed;
+
+	/**
+	 * @param txService the transaction manager the deliveries run with
+	 * @param connection the proxied connection the connection consumer is created on
+	 * @param listener processes the delivered messages
+	 * @param size number of sessions, the maximum number of concurrent deliveries
+	 * @throws JMSException if the sessions cannot be created
+	 */
+	public XAServerSessionPool(TransactionManagerService txService, ConnectionProxy connection,
+			MessageListener listener, int size) throws JMSException {
+		this(txService, connection.getXAConnection(), listener, size, null);
+	}
+
+	/**
+	 * @param txService the transaction manager the deliveries run with
+	 * @param connection the XA connection the connection consumer is created on
+	 * @param listener processes the delivered messages
+	 * @param size number of sessions, the maximum number of concurrent deliveries
+	 * @param executor runs the sessions, null for a pool owned fixed thread pool of the given size
+	 * @throws JMSException if the sessions cannot be created
+	 */
+	public XAServerSessionPool(TransactionManagerService txService, XAConnection connection,
+			MessageListener listener, int size, ExecutorService executor) throws JMSException {
+		if (size < 1) {
+			throw new IllegalArgumentException("Pool size must be positive: " + size);
+		}
+		this.txService = txService;
+		this.transactionHelper = new TransactionHelperImpl(txService.getTransactionManager());
+		this.listener = listener;
+		this.ownExecutor = executor == null;
+		if (executor == null) {
+			int poolId = poolSequence.incrementAndGet();
+			AtomicInteger threadSequence = new AtomicInteger();
+			executor = Executors.newFixedThreadPool(size, r -> {
+				Thread thread = new Thread(r, "jms-server-session-" + poolId + "-" + threadSequence.incrementAndGet());
+				thread.setDaemon(true);
+				return thread;
+			});
+		}
+		this.executor = executor;
+		this.idle = new ArrayBlockingQueue<>(size);
+		try {
+			for (int i = 0; i < size; i++) {
+				XAServerSession session = new XAServerSession(connection.createXASession());
+				sessions.add(session);
+				idle.add(session);
+			}
+		} catch (JMSException e) {
+			close();
+			throw e;
+		}
+	}
+
+	/**
+	 * Wait for an idle session.
+	 */
+	@Override
+	public ServerSession getServerSession() throws JMSException {
+		if (closed) {
+			throw new JMSException("Server session pool is closed");
+		}
+		try {
+			return idle.take();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			JMSException jmsException = new JMSException("Interrupted waiting for a server session");
+			jmsException.setLinkedException(e);
+			throw jmsException;
+		}
+	}
+
+	/**
+	 * Close the sessions and stop the owned executor. The connection consumers using the pool must be
+	 * closed first.
+	 */
+	@Override
+	public void close() {
+		closed = true;
+		if (ownExecutor) {
+			executor.shutdown();
+		}
+		for (XAServerSession session : sessions) {
+			try {
+				session.session.close();
+			} catch (JMSException e) {
+				log.debug("Failed to close server session", e);
+			}
+		}
+		sessions.clear();
+	}
+
+	private class XAServerSession implements ServerSession, MessageListener {
+		private final XASession session;
+		private RuntimeException failure;
+
+		XAServerSession(XASession session) throws JMSException {
+			this.session = session;
+			session.setMessageListener(this);
+		}
+
+		@Override
+		public Session getSession() throws JMSException {
+			return session;
+		}
+
+		@Override
+		public void start() throws JMSException {
+			try {
+				executor.execute(this::runInTransaction);
+			} catch (RejectedExecutionException e) {
+				idle.offer(this);
+				JMSException jmsException = new JMSException("Server session pool is closed");
+				jmsException.setLinkedException(e);
+				throw jmsException;
+			}
+		}
+
+		private void runInTransaction() {
+			try {
+				txService.executeWithTx(TxType.REQUIRED, new TransactionalTask<Void>() {
+
+					@Override
+					public Void execute() throws Exception {
+						transactionHelper.registerXAResource(session.getXAResource());
+						failure = null;
+						session.run();
+						if (failure != null) {
+							throw failure;
+						}
+						transactionHelper.deregisterXAResource(session.getXAResource());
+						return null;
+					}
+
+					@Override
+					public Class<?>[] rollbackOn() {
+						return new Class<?>[] { Throwable.class };
+					}
+				});
+			} catch (Exception e) {
+				log.warn("Delivery rolled back, the messages will be redelivered", e);
+			} finally {
+				if (!closed) {
+					idle.offer(this);
+				}
+			}
+		}
+
+		/**
+		 * Called by {@link Session#run()} for each message loaded in the session. A failing message marks the
+		 * transaction rollback only, the messages after it would be rolled back anyway.
+		 */
+		@Override
+		public void onMessage(Message message) {
+			if (failure != null) {
+				return;
+			}
+			try {
+				listener.onMessage(message);
+			} catch (RuntimeException e) {
+				failure = e;
+				TransactionManager tm = txService.getTransactionManager();
+				try {
+					tm.setRollbackOnly();
+				} catch (IllegalStateException | SystemException ex) {
+					e.addSuppressed(ex);
+				}
+			}
+		}
+	}
+
+}
@@ -0,0 +1,78 @@
+/**
+ *
+ */
+package com.ethwt.core.transaction.metrics;
+
+import io.agroal.api.AgroalDataSource;
+import io.agroal.api.AgroalDataSourceMetrics;
+
+/**
+ * Live gauges of an Agroal pool, read straight from {@link AgroalDataSource#getMetrics()}.
+ *
+ * @author neillin
+ *
+ */
+public class ConnectionPoolMetrics implements ConnectionPoolMetricsMXBean {
+
+	private final String name;
+	private final AgroalDataSource dataSource;
+
+	public ConnectionPoolMetrics(String name, AgroalDataSource dataSource) {
+		this.name = name;
+		this.dataSource = dataSource;
+	}
+
+	@Override
+	public String getName() {
+		return name;
+	}
+
+	AgroalDataSource dataSource() {
+		return dataSource;
+	}
+
+	@Override
+	public long getActiveCount() {
+		return metrics().activeCount();
+	}
+
+	@Override
+	public long getIdleCount() {
+		return metrics().availableCount();
+	}
+
+	@Override
+	public long getAwaitingCount() {
+		return metrics().awaitingCount();
+	}
+
+	@Override
+	public long getMaxUsedCount() {
+		return metrics().maxUsedCount();
+	}
+
+	@Override
+	public long getAcquireCount() {
+		return metrics().acquireCount();
+	}
+
+	@Override
+	public long getBlockingTimeAverageMillis() {
+		return metrics().blockingTimeAverage().toMillis();
+	}
+
+	@Override
+	public long getBlockingTimeMaxMillis() {
+		return metrics().blockingTimeMax().toMillis();
+	}
+
+	@Override
+	public long getBlockingTimeTotalMillis() {
+		return metrics().blockingTimeTotal().toMillis();
+	}
+
+	private AgroalDataSourceMetrics metrics() {
+		return dataSource.getMetrics();
+	}
+
+}
@@ -0,0 +1,56 @@
+/**
+ *
+ */
+package com.ethwt.core.transaction.metrics;
+
+/**
+ * JMX view of an Agroal connection pool built by an {@link com.ethwt.core.transaction.XADataSourceAdaptor}.
+ *
+ * @author neillin
+ *
+ */
+public interface ConnectionPoolMetricsMXBean {
+
+	String getName();
+
+	/**
+	 * @return number of connections currently in use
+	 */
+	long getActiveCount();
+
+	/**
+	 * @return number of idle connections in the pool
+	 */
+	long getIdleCount();
+
+	/**
+	 * @return number of threads waiting for a connection
+	 */
+	long getAwaitingCount();
+
+	/**
+	 * @return maximum number of connections used at the same time
+	 */
+	long getMaxUsedCount();
+
+	/**
+	 * @return number of times a connection was acquired from the pool
+	 */
+	long getAcquireCount();
+
+	/**
+	 * @return average time spent waiting for a connection, in milliseconds
+	 */
+	long getBlockingTimeAverageMillis();
+
+	/**
+	 * @return maximum time spent waiting for a connection, in milliseconds
+	 */
+	long getBlockingTimeMaxMillis();
+
+	/**
+	 * @return total time spent waiting for a connection, in milliseconds
+	 */
+	long getBlockingTimeTotalMillis();
+
+}
@@ -0,0 +1,59 @@
+/**
+ *
+ */
+package com.ethwt.core.transaction.metrics;
+
+import java.sql.SQLException;
+
+import javax.transaction.xa.XAResource;
+
+import com.ethwt.core.transaction.NestedScope;
+
+import io.agroal.api.transaction.TransactionAware;
+import io.agroal.api.transaction.TransactionIntegration;
+
+/**
+ * Agroal {@link TransactionIntegration} decorator which enlists pooled XA connections through a
+ * {@link MeteredXAResource}, and refuses new enlistments inside a {@link NestedScope}.
+ *
+ * @author neillin
+ *
+ */
+public class MeteredTransactionIntegration implements TransactionIntegration {
+
+	private final TransactionIntegration delegate;
+
+	public MeteredTransactionIntegration(TransactionIntegration delegate) {
+		this.delegate = delegate;
+	}
+
+	@Override
+	public TransactionAware getTransactionAware() throws SQLException {
+		return delegate.getTransactionAware();
+	}
+
+	@Override
+	public void associate(TransactionAware transactionAware, XAResource xaResource) throws SQLException {
+		if (NestedScope.isActive()) {
+			throw new SQLException("Connections of another pool cannot be enlisted inside a NESTED scope, "
+					+ "its savepoint would not roll them back");
+		}
+		delegate.associate(transactionAware, MeteredXAResource.wrap(xaResource));
+	}
+
+	@Override
+	public boolean disassociate(TransactionAware transactionAware) throws SQLException {
+		return delegate.disassociate(transactionAware);
+	}
+
+	@Override
+	public void addResourceRecoveryFactory(ResourceRecoveryFactory factory) {
+		delegate.addResourceRecoveryFactory(factory);
+	}
+
+	@Override
+	public void removeResourceRecoveryFactory(ResourceRecoveryFactory factory) {
+		delegate.removeResourceRecoveryFactory(factory);
+	}
+
+}
@@ -0,0 +1,159 @@
+/**
+ *
+ */
+package com.ethwt.core.transaction.metrics;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+import javax.transaction.xa.XAException;
+import javax.transaction.xa.XAResource;
+import javax.transaction.xa.Xid;
+
+import com.ethwt.core.transaction.AdaptiveRecoveryScheduler;
+
+/**
+ * {@link XAResource} decorator recording prepare, commit and rollback calls in {@link TransactionMetrics}.
+ * <p>
+ * Two wrappers of the same resource are equal, but a wrapper is never equal to the resource it wraps, so
+ * a transaction manager finds an enlisted resource whichever side it compares from: a resource enlisted
+ * through {@link #wrap(XAResource)} must be delisted through {@link #wrap(XAResource)} too.
+ * <p>
+ * As every resource is enlisted through this wrapper, it also decides whether the transaction manager may
+ * join the branch of another resource of the same resource manager, see
+ * {@link #configureBranchJoining(boolean, Collection)}, and counts the branches started and joined.
+ *
+ * @author neillin
+ *
+ */
+public class MeteredXAResource implements XAResource {
+
+	private static volatile boolean joinSameRM = true;
+	private static volatile Set<String> joinExcludedClassNames = Collections.emptySet();
+
+	private final XAResource delegate;
+	private final TransactionMetrics metrics;
+
+	/**
+	 * @param joinSameRM whether {@code isSameRM} is asked to the resources at all, when false every
+	 *   enlisted resource gets its own branch
+	 * @param excludedClassNames class names of the resources never reported as the same resource manager
+	 *   as another one, null for none
+	 */
+	public static void configureBranchJoining(boolean joinSameRM, Collection<String> excludedClassNames) {
+		MeteredXAResource.joinSameRM = joinSameRM;
+		MeteredXAResource.joinExcludedClassNames = excludedClassNames == null ? Collections.emptySet()
+				: new HashSet<>(excludedClassNames);
+	}
+
+	public static XAResource wrap(XAResource xaResource) {
+		if (xaResource == null || xaResource instanceof MeteredXAResource) {
+			return xaResource;
+		}
+		return new MeteredXAResource(xaResource, TransactionMetrics.getInstance());
+	}
+
+	public static XAResource unwrap(XAResource xaResource) {
+		return xaResource instanceof MeteredXAResource ? ((MeteredXAResource) xaResource).delegate : xaResource;
+	}
+
+	MeteredXAResource(XAResource delegate, TransactionMetrics metrics) {
+		this.delegate = delegate;
+		this.metrics = metrics;
+	}
+
+	public XAResource getDelegate() {
+		return delegate;
+	}
+
+	@Override
+	public void commit(Xid xid, boolean onePhase) throws XAException {
+		try {
+			delegate.commit(xid, onePhase);
+		} catch (XAException e) {
+			// the branch may be left in doubt or with a heuristic outcome
+			AdaptiveRecoveryScheduler.tighten("a failed commit");
+			throw e;
+		}
+		metrics.xaCommitted(onePhase);
+	}
+
+	@Override
+	public void end(Xid xid, int flags) throws XAException {
+		delegate.end(xid, flags);
+	}
+
+	@Override
+	public void forget(Xid xid) throws XAException {
+		delegate.forget(xid);
+	}
+
+	@Override
+	public int getTransactionTimeout() throws XAException {
+		return delegate.getTransactionTimeout();
+	}
+
+	@Override
+	public boolean isSameRM(XAResource xares) throws XAException {
+		XAResource other = unwrap(xares);
+		if (!joinSameRM || joinExcludedClassNames.contains(delegate.getClass().getName())
+				|| (other != null && joinExcludedClassNames.contains(other.getClass().getName()))) {
+			return false;
+		}
+		return delegate.isSameRM(other);
+	}
+
+	@Override
+	public int prepare(Xid xid) throws XAException {
+		int vote = delegate.prepare(xid);
+		metrics.xaPrepared();
+		return vote;
+	}
+
+	@Override
+	public Xid[] recover(int flag) throws XAException {
+		return delegate.recover(flag);
+	}
+
+	@Override
+	public void rollback(Xid xid) throws XAException {
+		delegate.rollback(xid);
+		metrics.xaRolledBack();
+	}
+
+	@Override
+	public boolean setTransactionTimeout(int seconds) throws XAException {
+		return delegate.setTransactionTimeout(seconds);
+	}
+
+	@Override
+	public void start(Xid xid, int flags) throws XAException {
+		delegate.start(xid, flags);
+		if ((flags & TMJOIN) != 0) {
+			metrics.xaBranchJoined();
+		} else if ((flags & TMRESUME) == 0) {
+			metrics.xaBranchStarted();
+		}
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj) {
+			return true;
+		}
+		return obj instanceof MeteredXAResource && delegate.equals(((MeteredXAResource) obj).delegate);
+	}
+
+	@Override
+	public int hashCode() {
+		return delegate.hashCode();
+	}
+
+	@Override
+	public String toString() {
+		return "MeteredXAResource[" + delegate + "]";
+	}
+
+}
@@ -0,0 +1,515 @@
+/**
+ *
+ */
+package com.ethwt.core.transaction.metrics;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.ToLongFunction;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.transaction.Status;
+import javax.transaction.Synchronization;
+import javax.transaction.Transaction;
+import javax.transaction.Transactional.TxType;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import io.agroal.api.AgroalDataSource;
+
+/**
+ * Process wide counters and gauges for transactions, XA branches, connection pools and JMS proxies.
+ * <p>
+ * The counters are exposed through JMX once {@link #registerMBeans()} is called, and can be dumped
+ * in Prometheus text exposition format with {@link #writePrometheus(Writer)}.
+ *
+ * @author neillin
+ *
+ */
+public class TransactionMetrics implements TransactionMetricsMXBean {
+	private static Logger log = LoggerFactory.getLogger(TransactionMetrics.class);
+
+	public static final String JMX_DOMAIN = "com.ethwt.core.transaction";
+
+	private static final TransactionMetrics instance = new TransactionMetrics();
+
+	public static TransactionMetrics getInstance() {
+		return instance;
+	}
+
+	private final Map<TxType, LongAdder> begun = newCounters();
+	private final Map<TxType, LongAdder> committed = newCounters();
+	private final Map<TxType, LongAdder> rolledBack = newCounters();
+	private final AtomicLong inFlight = new AtomicLong();
+	private final LongAdder retries = new LongAdder();
+	private final LongAdder retriesExhausted = new LongAdder();
+
+	private final LongAdder xaPrepares = new LongAdder();
+	private final LongAdder xaOnePhaseCommits = new LongAdder();
+	private final LongAdder xaTwoPhaseCommits = new LongAdder();
+	private final LongAdder xaRollbacks = new LongAdder();
+	private final LongAdder xaBranchesStarted = new LongAdder();
+	private final LongAdder xaBranchesJoined = new LongAdder();
+
+	private final AtomicLong jmsSessionsOpen = new AtomicLong();
+	private final AtomicLong jmsSessionsPendingClose = new AtomicLong();
+	private final AtomicLong jmsConnectionsOpen = new AtomicLong();
+	private final AtomicLong jmsConnectionsPendingClose = new AtomicLong();
+	private final LongAdder jmsOutboxStaged = new LongAdder();
+	private final LongAdder jmsOutboxRelayed = new LongAdder();
+	private final LongAdder recoveryScans = new LongAdder();
+	private final LongAdder recoveryScanNanos = new LongAdder();
+	private final AtomicLong lastRecoveryScanNanos = new AtomicLong();
+	private final AtomicLong lastRecoveryInDoubt = new AtomicLong();
+
+	private final Map<String, ConnectionPoolMetrics> pools = new ConcurrentHashMap<>();
+	private final AtomicInteger poolSequence = new AtomicInteger();
+	private final AtomicBoolean mbeansRegistered = new AtomicBoolean(false);
+
+	TransactionMetrics() {
+	}
+
+	private static Map<TxType, LongAdder> newCounters() {
+		Map<TxType, LongAdder> counters = new EnumMap<>(TxType.class);
+		for (TxType type : TxType.values()) {
+			counters.put(type, new LongAdder());
+		}
+		return Collections.unmodifiableMap(counters);
+	}
+
+	/**
+	 * Start tracking a transaction just begun on behalf of the given TxType. Its outcome is recorded
+	 * by a {@link Synchronization} when the transaction completes.
+	 *
+	 * @param type the TxType which caused the transaction to begin
+	 * @param tx the transaction just begun
+	 */
+	public void transactionBegun(TxType type, Transaction tx) {
+		try {
+			tx.registerSynchronization(new Synchronization() {
+
+				@Override
+				public void beforeCompletion() {
+				}
+
+				@Override
+				public void afterCompletion(int status) {
+					inFlight.decrementAndGet();
+					if (status == Status.STATUS_COMMITTED) {
+						committed.get(type).increment();
+					} else {
+						rolledBack.get(type).increment();
+					}
+				}
+			});
+		} catch (Exception e) {
+			log.debug("Failed to track outcome of transaction {}", tx, e);
+			return;
+		}
+		begun.get(type).increment();
+		inFlight.incrementAndGet();
+	}
+
+	public void transactionRetried() {
+		retries.increment();
+	}
+
+	public void transactionRetriesExhausted() {
+		retriesExhausted.increment();
+	}
+
+	public void xaPrepared() {
+		xaPrepares.increment();
+	}
+
+	public void xaCommitted(boolean onePhase) {
+		if (onePhase) {
+			xaOnePhaseCommits.increment();
+		} else {
+			xaTwoPhaseCommits.increment();
+		}
+	}
+
+	public void xaRolledBack() {
+		xaRollbacks.increment();
+	}
+
+	public void xaBranchStarted() {
+		xaBranchesStarted.increment();
+	}
+
+	public void xaBranchJoined() {
+		xaBranchesJoined.increment();
+	}
+
+	public void jmsSessionOpened() {
+		jmsSessionsOpen.incrementAndGet();
+	}
+
+	public void jmsSessionCloseScheduled() {
+		jmsSessionsPendingClose.incrementAndGet();
+	}
+
+	/**
+	 * @param scheduled whether the close was scheduled by {@link #jmsSessionCloseScheduled()} before
+	 */
+	public void jmsSessionClosed(boolean scheduled) {
+		jmsSessionsOpen.decrementAndGet();
+		if (scheduled) {
+			jmsSessionsPendingClose.decrementAndGet();
+		}
+	}
+
+	public void jmsConnectionOpened() {
+		jmsConnectionsOpen.incrementAndGet();
+	}
+
+	public void jmsConnectionCloseScheduled() {
+		jmsConnectionsPendingClose.incrementAndGet();
+	}
+
+	/**
+	 * @param scheduled whether the close was scheduled by {@link #jmsConnectionCloseScheduled()} before
+	 */
+	public void jmsConnectionClosed(boolean scheduled) {
+		jmsConnectionsOpen.decrementAndGet();
+		if (scheduled) {
+			jmsConnectionsPendingClose.decrementAndGet();
+		}
+	}
+
+	public void jmsOutboxStaged() {
+		jmsOutboxStaged.increment();
+	}
+
+	public void jmsOutboxRelayed(int count) {
+		jmsOutboxRelayed.add(count);
+	}
+
+	/**
+	 * @param nanos how long the recovery scan took
+	 * @param inDoubt number of transactions it found in doubt
+	 */
+	public void recoveryScanned(long nanos, int inDoubt) {
+		recoveryScans.increment();
+		recoveryScanNanos.add(nanos);
+		lastRecoveryScanNanos.set(nanos);
+		lastRecoveryInDoubt.set(inDoubt);
+	}
+
+	/**
+	 * Start publishing gauges of an Agroal pool. The pool must be built with metrics enabled.
+	 *
+	 * @param name name of the pool, a name is generated if null
+	 * @param dataSource the pool
+	 * @return the name the pool is published under
+	 */
+	public String registerPool(String name, AgroalDataSource dataSource) {
+		String poolName = name != null ? name : "pool-" + poolSequence.incrementAndGet();
+		ConnectionPoolMetrics metrics = new ConnectionPoolMetrics(poolName, dataSource);
+		if (pools.putIfAbsent(poolName, metrics) != null) {
+			throw new IllegalArgumentException("Pool " + poolName + " is already registered");
+		}
+		if (mbeansRegistered.get()) {
+			registerMBean(metrics, poolObjectName(poolName));
+		}
+		return poolName;
+	}
+
+	/**
+	 * @param name name of a registered pool
+	 * @return the pool, null if none is registered under the name
+	 */
+	public AgroalDataSource getPool(String name) {
+		ConnectionPoolMetrics metrics = name != null ? pools.get(name) : null;
+		return metrics != null ? metrics.dataSource() : null;
+	}
+
+	public void unregisterPool(String name) {
+		if (pools.remove(name) != null && mbeansRegistered.get()) {
+			unregisterMBean(poolObjectName(name));
+		}
+	}
+
+	/**
+	 * Register this object and the known pools with the platform MBean server. Pools registered later
+	 * are published as they come. Calling it more than once has no effect.
+	 */
+	public void registerMBeans() {
+		if (mbeansRegistered.compareAndSet(false, true)) {
+			registerMBean(this, objectName(JMX_DOMAIN + ":type=TransactionMetrics"));
+			for (ConnectionPoolMetrics pool : pools.values()) {
+				registerMBean(pool, poolObjectName(pool.getName()));
+			}
+		}
+	}
+
+	@Override
+	public Map<String, Long> getTransactionsBegun() {
+		return snapshot(begun);
+	}
+
+	@Override
+	public Map<String, Long> getTransactionsCommitted() {
+		return snapshot(committed);
+	}
+
+	@Override
+	public Map<String, Long> getTransactionsRolledBack() {
+		return snapshot(rolledBack);
+	}
+
+	@Override
+	public long getTransactionsInFlight() {
+		return inFlight.get();
+	}
+
+	@Override
+	public long getTransactionRetries() {
+		return retries.sum();
+	}
+
+	@Override
+	public long getTransactionRetriesExhausted() {
+		return retriesExhausted.sum();
+	}
+
+	@Override
+	public long getXaPrepares() {
+		return xaPrepares.sum();
+	}
+
+	@Override
+	public long getXaOnePhaseCommits() {
+		return xaOnePhaseCommits.sum();
+	}
+
+	@Override
+	public long getXaTwoPhaseCommits() {
+		return xaTwoPhaseCommits.sum();
+	}
+
+	@Override
+	public long getXaRollbacks() {
+		return xaRollbacks.sum();
+	}
+
+	@Override
+	public long getXaBranchesStarted() {
+		return xaBranchesStarted.sum();
+	}
+
+	@Override
+	public long getXaBranchesJoined() {
+		return xaBranchesJoined.sum();
+	}
+
+	@Override
+	public long getJmsSessionsOpen() {
+		return jmsSessionsOpen.get();
+	}
+
+	@Override
+	public long getJmsSessionsPendingClose() {
+		return jmsSessionsPendingClose.get();
+	}
+
+	@Override
+	public long getJmsConnectionsOpen() {
+		return jmsConnectionsOpen.get();
+	}
+
+	@Override
+	public long getJmsConnectionsPendingClose() {
+		return jmsConnectionsPendingClose.get();
+	}
+
+	@Override
+	public long getJmsOutboxStaged() {
+		return jmsOutboxStaged.sum();
+	}
+
+	@Override
+	public long getJmsOutboxRelayed() {
+		return jmsOutboxRelayed.sum();
+	}
+
+	@Override
+	public long getRecoveryScans() {
+		return recoveryScans.sum();
+	}
+
+	@Override
+	public long getRecoveryScanTimeTotalMillis() {
+		return TimeUnit.NANOSECONDS.toMillis(recoveryScanNanos.sum());
+	}
+
+	@Override
+	public long getLastRecoveryScanMillis() {
+		return TimeUnit.NANOSECONDS.toMillis(lastRecoveryScanNanos.get());
+	}
+
+	@Override
+	public long getLastRecoveryInDoubt() {
+		return lastRecoveryInDoubt.get();
+	}
+
+	public Map<String, ConnectionPoolMetrics> getPools() {
+		return Collections.unmodifiableMap(pools);
+	}
+
+	@Override
+	public String getPrometheusText() {
+		StringWriter writer = new StringWriter();
+		try {
+			writePrometheus(writer);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		return writer.toString();
+	}
+
+	/**
+	 * Dump all metrics in Prometheus text exposition format (version 0.0.4).
+	 *
+	 * @param writer where to write the metrics
+	 * @throws IOException if writing fails
+	 */
+	public void writePrometheus(Writer writer) throws IOException {
+		writeByType(writer, "ethwt_tx_begun_total", "Transactions begun by executeWithTx", begun);
+		writeByType(writer, "ethwt_tx_committed_total", "Transactions committed", committed);
+		writeByType(writer, "ethwt_tx_rolled_back_total", "Transactions rolled back", rolledBack);
+		writeSingle(writer, "ethwt_tx_in_flight", "gauge", "Transactions begun and not completed", inFlight.get());
+		writeSingle(writer, "ethwt_tx_retry_total", "counter", "Transactions retried after a retryable failure",
+				retries.sum());
+		writeSingle(writer, "ethwt_tx_retry_exhausted_total", "counter",
+				"Retryable failures given up after exhausting attempts or deadline", retriesExhausted.sum());
+
+		writeHeader(writer, "ethwt_xa_commit_total", "counter", "XA branch commits by phase");
+		writer.write("ethwt_xa_commit_total{phase=\"one\"} " + xaOnePhaseCommits.sum() + "\n");
+		writer.write("ethwt_xa_commit_total{phase=\"two\"} " + xaTwoPhaseCommits.sum() + "\n");
+		writeSingle(writer, "ethwt_xa_prepare_total", "counter", "XA branches prepared", xaPrepares.sum());
+		writeSingle(writer, "ethwt_xa_rollback_total", "counter", "XA branches rolled back", xaRollbacks.sum());
+		writeSingle(writer, "ethwt_xa_branch_started_total", "counter", "XA branches started", xaBranchesStarted.sum());
+		writeSingle(writer, "ethwt_xa_branch_joined_total", "counter",
+				"XA resources which joined the branch of the same resource manager instead of starting one",
+				xaBranchesJoined.sum());
+
+		writeSingle(writer, "ethwt_jms_sessions_open", "gauge", "Proxied JMS sessions open", jmsSessionsOpen.get());
+		writeSingle(writer, "ethwt_jms_sessions_pending_close", "gauge",
+				"Proxied JMS sessions waiting for transaction completion to close", jmsSessionsPendingClose.get());
+		writeSingle(writer, "ethwt_jms_connections_open", "gauge", "Proxied JMS connections open",
+				jmsConnectionsOpen.get());
+		writeSingle(writer, "ethwt_jms_connections_pending_close", "gauge",
+				"Proxied JMS connections waiting for transaction completion to close", jmsConnectionsPendingClose.get());
+		writeSingle(writer, "ethwt_jms_outbox_staged_total", "counter", "Messages written to a transactional outbox",
+				jmsOutboxStaged.sum());
+		writeSingle(writer, "ethwt_jms_outbox_relayed_total", "counter", "Outbox messages published to the broker",
+				jmsOutboxRelayed.sum());
+		writeSingle(writer, "ethwt_recovery_scan_total", "counter", "Recovery scans triggered by the adaptive scheduler",
+				recoveryScans.sum());
+		writeSingle(writer, "ethwt_recovery_scan_millis_total", "counter", "Time spent in recovery scans",
+				getRecoveryScanTimeTotalMillis());
+		writeSingle(writer, "ethwt_recovery_last_scan_millis", "gauge", "Duration of the last recovery scan",
+				getLastRecoveryScanMillis());
+		writeSingle(writer, "ethwt_recovery_in_doubt", "gauge", "Transactions found in doubt by the last recovery scan",
+				lastRecoveryInDoubt.get());
+
+		if (!pools.isEmpty()) {
+			writePools(writer, "ethwt_pool_active_connections", "Connections in use", ConnectionPoolMetrics::getActiveCount);
+			writePools(writer, "ethwt_pool_idle_connections", "Idle connections", ConnectionPoolMetrics::getIdleCount);
+			writePools(writer, "ethwt_pool_awaiting_threads", "Threads waiting for a connection",
+					ConnectionPoolMetrics::getAwaitingCount);
+		}
+		writer.flush();
+	}
+
+	private void writeByType(Writer writer, String name, String help, Map<TxType, LongAdder> counters)
+			throws IOException {
+		writeHeader(writer, name, "counter", help);
+		for (Map.Entry<TxType, LongAdder> entry : counters.entrySet()) {
+			writer.write(name + "{type=\"" + entry.getKey().name() + "\"} " + entry.getValue().sum() + "\n");
+		}
+	}
+
+	private void writePools(Writer writer, String name, String help,
+			ToLongFunction<ConnectionPoolMetrics> gauge) throws IOException {
+		writeHeader(writer, name, "gauge", help);
+		for (ConnectionPoolMetrics pool : pools.values()) {
+			writer.write(name + "{pool=\"" + escapeLabel(pool.getName()) + "\"} " + gauge.applyAsLong(pool) + "\n");
+		}
+	}
+
+	private void writeSingle(Writer writer, String name, String type, String help, long value) throws IOException {
+		writeHeader(writer, name, type, help);
+		writer.write(name + " " + value + "\n");
+	}
+
+	private void writeHeader(Writer writer, String name, String type, String help) throws IOException {
+		writer.write("# HELP " + name + " " + help + "\n");
+		writer.write("# TYPE " + name + " " + type + "\n");
+	}
+
+	private static String escapeLabel(String value) {
+		return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+	}
+
+	private static Map<String, Long> snapshot(Map<TxType, LongAdder> counters) {
+		Map<String, Long> result = new LinkedHashMap<>();
+		for (Map.Entry<TxType, LongAdder> entry : counters.entrySet()) {
+			result.put(entry.getKey().name(), entry.getValue().sum());
+		}
+		return result;
+	}
+
+	private static ObjectName poolObjectName(String name) {
+		return objectName(JMX_DOMAIN + ":type=ConnectionPool,name=" + ObjectName.quote(name));
+	}
+
+	private static ObjectName objectName(String name) {
+		try {
+			return new ObjectName(name);
+		} catch (Exception e) {
+			throw new IllegalArgumentException("Invalid MBean name " + name, e);
+		}
+	}
+
+	private static void registerMBean(Object mbean, ObjectName name) {
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		try {
+			if (server.isRegistered(name)) {
+				server.unregisterMBean(name);
+			}
+			server.registerMBean(mbean, name);
+		} catch (Exception e) {
+			log.warn("Failed to register MBean {}", name, e);
+		}
+	}
+
+	private static void unregisterMBean(ObjectName name) {
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		try {
+			if (server.isRegistered(name)) {
+				server.unregisterMBean(name);
+			}
+		} catch (Exception e) {
+			log.warn("Failed to unregister MBean {}", name, e);
+		}
+	}
+
+}
@@ -0,0 +1,132 @@
+/**
+ *
+ */
+package com.ethwt.core.transaction.metrics;
+
+import java.util.Map;
+
+/**
+ * JMX view of the transaction counters collected by {@link TransactionMetrics}.
+ *
+ * @author neillin
+ *
+ */
+public interface TransactionMetricsMXBean {
+
+	/**
+	 * @return number of transactions begun by <code>executeWithTx</code>, keyed by TxType name
+	 */
+	Map<String, Long> getTransactionsBegun();
+
+	/**
+	 * @return number of transactions committed, keyed by TxType name
+	 */
+	Map<String, Long> getTransactionsCommitted();
+
+	/**
+	 * @return number of transactions rolled back, keyed by TxType name
+	 */
+	Map<String, Long> getTransactionsRolledBack();
+
+	/**
+	 * @return number of transactions begun and not completed yet
+	 */
+	long getTransactionsInFlight();
+
+	/**
+	 * @return number of times a transaction was retried after a retryable failure
+	 */
+	long getTransactionRetries();
+
+	/**
+	 * @return number of retryable failures given up because the attempts or the deadline were exhausted
+	 */
+	long getTransactionRetriesExhausted();
+
+	/**
+	 * @return number of XA branches prepared
+	 */
+	long getXaPrepares();
+
+	/**
+	 * @return number of XA branches committed with the one phase optimization, each of them is a 1PC transaction
+	 */
+	long getXaOnePhaseCommits();
+
+	/**
+	 * @return number of XA branches committed after prepare
+	 */
+	long getXaTwoPhaseCommits();
+
+	/**
+	 * @return number of XA branches rolled back
+	 */
+	long getXaRollbacks();
+
+	/**
+	 * @return number of XA branches started
+	 */
+	long getXaBranchesStarted();
+
+	/**
+	 * @return number of XA resources which joined the branch of the same resource manager, each of them a
+	 *   branch saved
+	 */
+	long getXaBranchesJoined();
+
+	/**
+	 * @return number of proxied JMS sessions and contexts not closed yet
+	 */
+	long getJmsSessionsOpen();
+
+	/**
+	 * @return number of proxied JMS sessions and contexts waiting for the transaction to complete to be closed
+	 */
+	long getJmsSessionsPendingClose();
+
+	/**
+	 * @return number of proxied JMS connections not closed yet
+	 */
+	long getJmsConnectionsOpen();
+
+	/**
+	 * @return number of proxied JMS connections waiting for the transaction to complete to be closed
+	 */
+	long getJmsConnectionsPendingClose();
+
+	/**
+	 * @return number of messages written to a transactional outbox
+	 */
+	long getJmsOutboxStaged();
+
+	/**
+	 * @return number of outbox messages published to the broker by the relay
+	 */
+	long getJmsOutboxRelayed();
+
+	/**
+	 * @return number of recovery scans triggered by the adaptive recovery scheduler
+	 */
+	long getRecoveryScans();
+
+	/**
+	 * @return total time spent in those recovery scans
+	 */
+	long getRecoveryScanTimeTotalMillis();
+
+	/**
+	 * @return duration of the last recovery scan
+	 */
+	long getLastRecoveryScanMillis();
+
+	/**
+	 * @return number of transactions found in doubt by the last recovery scan
+	 */
+	long getLastRecoveryInDoubt();
+
+	/**
+	 * @return all metrics in Prometheus text exposition format
+	 */
+	String getPrometheusText();
+
+}
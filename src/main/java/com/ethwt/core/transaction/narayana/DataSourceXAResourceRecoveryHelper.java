@@ -0,0 +1,79 @@
+/**
+ *
+ */
+package com.ethwt.core.transaction.narayana;
+
+import java.sql.SQLException;
+
+import javax.sql.XAConnection;
+import javax.sql.XADataSource;
+import javax.transaction.xa.XAResource;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.arjuna.ats.jta.recovery.XAResourceRecoveryHelper;
+
+/**
+ * {@link XAResourceRecoveryHelper} giving the recovery module the XA resource of an adapted
+ * {@link XADataSource}.
+ * <p>
+ * Each recovery pass gets a new XA connection, the one of the previous pass is closed then: it stays open
+ * in between for the commit and rollback calls on the Xids it recovered.
+ *
+ * @author neillin
+ *
+ */
+public class DataSourceXAResourceRecoveryHelper implements XAResourceRecoveryHelper {
+
+	private static Logger log = LoggerFactory.getLogger(DataSourceXAResourceRecoveryHelper.class);
+
+	private final XADataSource xaDataSource;
+	private final String name;
+	private XAConnection connection;
+
+	public DataSourceXAResourceRecoveryHelper(XADataSource xaDataSource, String name) {
+		this.xaDataSource = xaDataSource;
+		this.name = name;
+	}
+
+	@Override
+	public boolean initialise(String p) throws Exception {
+		return true;
+	}
+
+	@Override
+	public synchronized XAResource[] getXAResources() throws Exception {
+		close();
+		try {
+			connection = xaDataSource.getXAConnection();
+			return new XAResource[] { connection.getXAResource() };
+		} catch (SQLException e) {
+			log.warn("Failed to connect to {} for recovery", name, e);
+			close();
+			return new XAResource[0];
+		}
+	}
+
+	/**
+	 * Close the connection of the last recovery pass.
+	 */
+	public synchronized void close() {
+		if (connection == null) {
+			return;
+		}
+		try {
+			connection.close();
+		} catch (SQLException e) {
+			log.warn("Failed to close the recovery connection of {}", name, e);
+		} finally {
+			connection = null;
+		}
+	}
+
+	@Override
+	public String toString() {
+		return "DataSourceXAResourceRecoveryHelper[" + name + "]";
+	}
+
+}
@@ -0,0 +1,127 @@
+/**
+ *
+ */
+package com.ethwt.core.transaction.narayana;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * {@link RecoveryLeaseStore} keeping one file per node identifier in a directory shared by the nodes, such
+ * as the directory of a shared object store. Each file holds the owner and the expiry time of the lease,
+ * and the expiry time of the request of its node to get it back, and is updated under an exclusive file
+ * lock.
+ *
+ * @author neillin
+ *
+ */
+public class FileRecoveryLeaseStore implements RecoveryLeaseStore {
+
+	private static final String SUFFIX = ".lease";
+
+	/**
+	 * File locks are held by the JVM, two stores of the same JVM locking the same file would fail.
+	 */
+	private static final Object JVM_LOCK = new Object();
+
+	private final Path dir;
+
+	public FileRecoveryLeaseStore(String dir) throws IOException {
+		this.dir = Files.createDirectories(Paths.get(dir));
+	}
+
+	@Override
+	public boolean tryAcquire(String nodeId, String owner, long ttlMillis, boolean reclaim) throws IOException {
+		synchronized (JVM_LOCK) {
+			try (FileChannel channel = open(nodeId)) {
+				FileLock lock = channel.lock();
+				try {
+					long[] times = new long[2];
+					String holder = read(channel, times);
+					long now = System.currentTimeMillis();
+					boolean free = holder == null || times[0] < now;
+					boolean held = holder != null && holder.equals(owner) && times[1] < now;
+					if (held || (free && (times[1] < now || nodeId.equals(owner)))) {
+						write(channel, owner, now + ttlMillis, 0);
+						return true;
+					}
+					if (reclaim && nodeId.equals(owner)) {
+						write(channel, holder, times[0], now + ttlMillis);
+					}
+					return false;
+				} finally {
+					lock.release();
+				}
+			}
+		}
+	}
+
+	@Override
+	public void release(String nodeId, String owner) throws IOException {
+		synchronized (JVM_LOCK) {
+			try (FileChannel channel = open(nodeId)) {
+				FileLock lock = channel.lock();
+				try {
+					long[] times = new long[2];
+					String holder = read(channel, times);
+					if (holder != null && holder.equals(owner)) {
+						write(channel, owner, 0, times[1]);
+					}
+				} finally {
+					lock.release();
+				}
+			}
+		}
+	}
+
+	@Override
+	public Collection<String> getNodeIds() throws IOException {
+		List<String> nodeIds = new ArrayList<>();
+		try (DirectoryStream<Path> files = Files.newDirectoryStream(dir, "*" + SUFFIX)) {
+			for (Path file : files) {
+				String name = file.getFileName().toString();
+				nodeIds.add(name.substring(0, name.length() - SUFFIX.length()));
+			}
+		}
+		return nodeIds;
+	}
+
+	private FileChannel open(String nodeId) throws IOException {
+		return FileChannel.open(dir.resolve(nodeId + SUFFIX), StandardOpenOption.CREATE, StandardOpenOption.READ,
+				StandardOpenOption.WRITE);
+	}
+
+	/**
+	 * @param times receives the expiry times of the lease and of the request to get it back
+	 * @return the owner of the lease, or null if none was ever taken
+	 */
+	private static String read(FileChannel channel, long[] times) throws IOException {
+		ByteBuffer buffer = ByteBuffer.allocate((int) channel.size());
+		channel.read(buffer, 0);
+		String[] fields = new String(buffer.array(), StandardCharsets.UTF_8).trim().split(" ");
+		if (fields.length < 2) {
+			return null;
+		}
+		times[0] = Long.parseLong(fields[1]);
+		times[1] = fields.length > 2 ? Long.parseLong(fields[2]) : 0;
+		return fields[0];
+	}
+
+	private static void write(FileChannel channel, String owner, long expiresAt, long requestedUntil) throws IOException {
+		channel.truncate(0);
+		channel.write(ByteBuffer.wrap((owner + " " + expiresAt + " " + requestedUntil).getBytes(StandardCharsets.UTF_8)), 0);
+		channel.force(false);
+	}
+
+}
@@ -4,9 +4,14 @@
 package com.ethwt.core.transaction.narayana;
 
 import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.Optional;
 import java.util.UUID;
-import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.Stream;
 
 import javax.jms.ConnectionFactory;
 import javax.jms.XAConnectionFactory;
@@ -17,14 +22,33 @@ import javax.transaction.TransactionSynchronizationRegistry;
 import javax.transaction.UserTransaction;
 
 import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
+import com.arjuna.ats.arjuna.common.ObjectStoreEnvironmentBean;
 import com.arjuna.ats.arjuna.coordinator.ActionStatus;
+import com.arjuna.ats.arjuna.recovery.RecoveryManager;
+import com.arjuna.ats.internal.jta.recovery.arjunacore.XARecoveryModule;
+import com.arjuna.common.internal.util.propertyservice.BeanPopulator;
+import com.ethwt.core.transaction.AdaptiveRecoveryScheduler;
+import com.ethwt.core.transaction.AfterCompletionExecutor;
+import com.ethwt.core.transaction.BranchScopedTransactionSynchronizationRegistry;
 import com.ethwt.core.transaction.PoolConfig;
+import com.ethwt.core.transaction.ProvidedXADataSource;
+import com.ethwt.core.transaction.ServiceBootstrap;
+import com.ethwt.core.transaction.TransactionConfig;
 import com.ethwt.core.transaction.TransactionManagerService;
 import com.ethwt.core.transaction.XAConnectionFactoryAdaptor;
 import com.ethwt.core.transaction.XADataSourceAdaptor;
 import com.ethwt.core.transaction.jms.ConnectionFactoryProxy;
+import com.ethwt.core.transaction.jms.ConnectionManager;
+import com.ethwt.core.transaction.jms.JmsProxyConfig;
+import com.ethwt.core.transaction.jms.OutboxRelays;
+import com.ethwt.core.transaction.jms.JmsXAResourceRecoveryHelper;
 import com.ethwt.core.transaction.jms.TransactionHelperImpl;
+import com.ethwt.core.transaction.metrics.MeteredTransactionIntegration;
+import com.ethwt.core.transaction.metrics.MeteredXAResource;
+import com.ethwt.core.transaction.metrics.TransactionMetrics;
 import com.networknt.config.Config;
 
 import io.agroal.api.AgroalDataSource;
@@ -36,13 +60,33 @@ import io.agroal.narayana.NarayanaTransactionIntegration;
  *
  */
 public class JBossTxManagerService implements TransactionManagerService {
+	private static Logger log = LoggerFactory.getLogger(JBossTxManagerService.class);
 	
-	private final AtomicBoolean initialized = new AtomicBoolean(false);
+	private final ServiceBootstrap bootstrap = new ServiceBootstrap("Narayana transaction manager", this::initialize, this::warmUp);
 	private final NarayanaConfig config = 
 			Optional.ofNullable((NarayanaConfig)Config.getInstance().getJsonObjectConfig(NarayanaConfig.CONFIG_NAME, NarayanaConfig.class))
 			.orElse(new NarayanaConfig());
+	private final TransactionConfig txConfig = 
+			Optional.ofNullable((TransactionConfig)Config.getInstance().getJsonObjectConfig(TransactionConfig.CONFIG_NAME, TransactionConfig.class))
+			.orElse(new TransactionConfig());
+	private final JmsProxyConfig jmsConfig = 
+			Optional.ofNullable((JmsProxyConfig)Config.getInstance().getJsonObjectConfig(JmsProxyConfig.CONFIG_NAME, JmsProxyConfig.class))
+			.orElse(new JmsProxyConfig());
 	private XADataSourceAdaptor xaDataSourceAdaptor;
 	private XAConnectionFactoryAdaptor xaConnectionFactoryAdaptor;
+	private final OutboxRelays outboxRelays = new OutboxRelays();
+	private ParallelXAResourceRecovery recovery;
+	private RecoveryLeaseManager leaseManager;
+
+	@Override
+	public CompletableFuture<Void> start() {
+		return this.bootstrap.start();
+	}
+
+	@Override
+	public void close() {
+		this.outboxRelays.close();
+	}
 
 	@Override
 	public TransactionManager getTransactionManager() {
@@ -70,49 +114,221 @@ public class JBossTxManagerService implements TransactionManagerService {
 
 
 	void makeSureInitialized() {
-		if (this.initialized.compareAndSet(false, true)) {
-			initLogDir();
-			initTransactionManagerId();
-			NarayanaPropertiesInitializer initializer = new NarayanaPropertiesInitializer(this.config);
-			initializer.setup();
-			this.xaDataSourceAdaptor = new XADataSourceAdaptor() {
-				
-				@Override
-				public DataSource adapt(XADataSource xaDataSource, PoolConfig poolConfig) throws Exception {
-			        TransactionSynchronizationRegistry txSyncRegistry = new com.arjuna.ats.internal.jta.transaction.arjunacore.TransactionSynchronizationRegistryImple();
-
-			        AgroalDataSourceConfigurationSupplier configurationSupplier = new AgroalDataSourceConfigurationSupplier()
-			                .connectionPoolConfiguration( cp -> cp
-			                        .maxSize( 10 )
-			                        .transactionIntegration( new NarayanaTransactionIntegration( getTransactionManager(), txSyncRegistry ) )
-			                        .connectionFactoryConfiguration( cf -> cf
-			                                .autoCommit( true ) )
-			                );
-					return AgroalDataSource.from(configurationSupplier);
-				}
-			};
+		this.bootstrap.awaitReady();
+	}
+
+	void initialize() {
+		initLogDir();
+		TransactionMetrics.getInstance().registerMBeans();
+		initTransactionManagerId();
+		initParallelTwoPhaseCommit();
+		MeteredXAResource.configureBranchJoining(this.txConfig.isJoinSameResourceManager(),
+				this.txConfig.getJoinExcludedResourceClassNames());
+		AfterCompletionExecutor.configure(this.txConfig);
+		initAdaptiveRecovery();
+		NarayanaPropertiesInitializer initializer = new NarayanaPropertiesInitializer(this.config);
+		initializer.setup();
+		initRecoveryLeases();
+		initRecovery();
+		this.xaDataSourceAdaptor = new XADataSourceAdaptor() {
 			
-			this.xaConnectionFactoryAdaptor = new XAConnectionFactoryAdaptor() {
-				
-				@Override
-				public ConnectionFactory adapt(XAConnectionFactory factory, PoolConfig poolConfig) throws Exception {
-					return new ConnectionFactoryProxy(factory, new TransactionHelperImpl(getTransactionManager()));
-				}
-			};
+			@Override
+			public DataSource adapt(XADataSource xaDataSource, PoolConfig poolConfig) throws Exception {
+		        TransactionSynchronizationRegistry txSyncRegistry = new com.arjuna.ats.internal.jta.transaction.arjunacore.TransactionSynchronizationRegistryImple();
+
+		        AgroalDataSourceConfigurationSupplier configurationSupplier = new AgroalDataSourceConfigurationSupplier()
+		                .metricsEnabled( true )
+		                .connectionPoolConfiguration( cp -> cp
+		                        .maxSize( 10 )
+		                        .initialSize( poolConfig != null ? poolConfig.getInitialSize() : 0 )
+		                        .transactionIntegration( new MeteredTransactionIntegration( new NarayanaTransactionIntegration( getTransactionManager(), new BranchScopedTransactionSynchronizationRegistry( txSyncRegistry ) ) ) )
+		                        .connectionFactoryConfiguration( cf -> ProvidedXADataSource.provide( cf
+		                                .autoCommit( true ), xaDataSource ) )
+		                );
+		        AgroalDataSource dataSource = AgroalDataSource.from(configurationSupplier);
+		        TransactionMetrics.getInstance().registerPool(poolConfig != null ? poolConfig.getName() : null, dataSource);
+		        if (recovery != null) {
+		        	recovery.addHelper(new DataSourceXAResourceRecoveryHelper(xaDataSource,
+		        			poolConfig != null && poolConfig.getName() != null ? poolConfig.getName() : xaDataSource.toString()));
+		        }
+				return dataSource;
+			}
+		};
+		
+		this.xaConnectionFactoryAdaptor = new XAConnectionFactoryAdaptor() {
 			
-		}
+			@Override
+			public ConnectionFactory adapt(XAConnectionFactory factory, PoolConfig poolConfig) throws Exception {
+				return adapt(factory, poolConfig, jmsConfig);
+			}
+			
+			@Override
+			public ConnectionFactory adapt(XAConnectionFactory factory, PoolConfig poolConfig, JmsProxyConfig jmsConfig) throws Exception {
+				if (recovery != null) {
+					recovery.addHelper(new JmsXAResourceRecoveryHelper(new ConnectionManager(factory, null, null,
+							getRecoveryConnectionIdleTimeoutMillis())));
+				}
+				return new ConnectionFactoryProxy(factory, new TransactionHelperImpl(getTransactionManager(),
+						new BranchScopedTransactionSynchronizationRegistry(new com.arjuna.ats.internal.jta.transaction.arjunacore.TransactionSynchronizationRegistryImple())), jmsConfig,
+						outboxRelays.outbox(factory, jmsConfig));
+			}
+		};
+	}
+
+	/**
+	 * Run when started in the background, before the service is ready.
+	 */
+	void warmUp() {
+		ServiceBootstrap.warmUp(com.arjuna.ats.jta.TransactionManager.transactionManager(), this.txConfig.getWarmUpTransactions());
 	}
 	
 	void initLogDir() {
 		if(StringUtils.isEmpty(this.config.getLogDir())) {
+			File bundled = new File(NarayanaPropertiesInitializer.BUNDLED_OBJECT_STORE_DIR).getAbsoluteFile();
+			if (holdsLogs(bundled)) {
+				// the store of the properties file bundled by narayana-jta, used before NarayanaConfig was applied
+				if (!StringUtils.isEmpty(this.config.getRecoveryLeaseStore())) {
+					throw new IllegalStateException("Transaction logs left in " + bundled
+							+ " would not be recovered by the leased object store, recover them or set logDir");
+				}
+				log.warn("Transaction logs found in {}, the object store of the Narayana properties file bundled by "
+						+ "narayana-jta: keeping it as the log directory. Set logDir to it, or recover its "
+						+ "transactions and remove it, to move to the default log directory", bundled);
+				this.config.setLogDir(bundled.getPath());
+				return;
+			}
 			File home = new File(System.getProperty("user.home"));
 			this.config.setLogDir(new File(home,".narayana/txLogs").getAbsolutePath());
 		}
 	}
+
+	private static boolean holdsLogs(File dir) {
+		if (!dir.isDirectory()) {
+			return false;
+		}
+		try (Stream<Path> files = Files.walk(dir.toPath())) {
+			return files.anyMatch(Files::isRegularFile);
+		} catch (IOException | UncheckedIOException e) {
+			throw new IllegalStateException("Cannot read the object store in " + dir, e);
+		}
+	}
+	
+	void initParallelTwoPhaseCommit() {
+		if (this.txConfig.isParallelTwoPhaseCommit()) {
+			this.config.setAsyncPrepare(true);
+			this.config.setAsyncCommit(true);
+			this.config.setAsyncRollback(true);
+			this.config.setMaxTwoPhaseCommitThreads(this.txConfig.getMaxTwoPhaseCommitThreads());
+		}
+	}
+	
+	/**
+	 * Start the recovery manager, scanning the resources registered by the adaptors in parallel.
+	 */
+	void initRecovery() {
+		if (!this.txConfig.isRecoveryEnabled()) {
+			return;
+		}
+		RecoveryManager.manager();
+		XARecoveryModule module = XARecoveryModule.getRegisteredXARecoveryModule();
+		if (module == null) {
+			log.warn("XARecoveryModule is not among the recovery modules, adapted resources are not recovered");
+			return;
+		}
+		this.recovery = new ParallelXAResourceRecovery(Math.max(1, this.txConfig.getRecoveryScanThreads()));
+		module.addXAResourceRecoveryHelper(this.recovery);
+		ParallelXAResourceRecovery scanned = this.recovery;
+		AdaptiveRecoveryScheduler.start(this.txConfig, () -> {
+			RecoveryManager.manager().scan();
+			return scanned.getLastInDoubtCount();
+		});
+	}
+
+	/**
+	 * Leave the periodic recovery of Narayana as a backstop at the maximum interval when scans are
+	 * scheduled adaptively.
+	 */
+	void initAdaptiveRecovery() {
+		if (this.txConfig.isRecoveryEnabled() && this.txConfig.isAdaptiveRecovery()) {
+			this.config.setPeriodicRecoveryPeriod((int) Math.max(1, this.txConfig.getMaxRecoveryIntervalMillis() / 1000));
+		}
+	}
+	
+	/**
+	 * Keep the connections of the recovered connection factories across scans, for twice the longest
+	 * interval between them unless configured.
+	 */
+	long getRecoveryConnectionIdleTimeoutMillis() {
+		if (this.txConfig.getRecoveryConnectionIdleTimeoutMillis() > 0) {
+			return this.txConfig.getRecoveryConnectionIdleTimeoutMillis();
+		}
+		return 2000L * (this.config.getPeriodicRecoveryPeriod() + this.config.getRecoveryBackoffPeriod());
+	}
 	
 	void initTransactionManagerId() {
 		if(StringUtils.isEmpty(this.config.getTransactionManagerId())) {
 			this.config.setTransactionManagerId(UUID.randomUUID().toString());
+			if (StringUtils.isNotEmpty(this.config.getRecoveryLeaseStore())) {
+				log.warn("Recovery leases need a transaction manager id stable across restarts, using the random id {}",
+						this.config.getTransactionManagerId());
+			}
+		}
+	}
+
+	/**
+	 * Take the recovery leases of this node and of the nodes gone, before the recovery manager starts. A
+	 * node gone is only adopted along with its object store, which every node keeps in its own directory
+	 * of the shared log directory.
+	 */
+	void initRecoveryLeases() {
+		if (!this.txConfig.isRecoveryEnabled() || StringUtils.isEmpty(this.config.getRecoveryLeaseStore())) {
+			return;
+		}
+		if (!LeasedObjectStore.class.getName().equals(BeanPopulator.getDefaultInstance(ObjectStoreEnvironmentBean.class).getObjectStoreType())) {
+			throw new IllegalStateException("Recovery leases need the object store of "
+					+ LeasedObjectStore.class.getSimpleName() + ", not configured by a Narayana properties file");
+		}
+		File logRoot = new File(this.config.getLogDir());
+		RecoveryLeaseManager.NodeRecovery nodeRecovery = new RecoveryLeaseManager.NodeRecovery() {
+
+			@Override
+			public void adopt(String nodeId) throws Exception {
+				LeasedObjectStore.adopt(logRoot, nodeId);
+			}
+
+			@Override
+			public void handOver(String nodeId) {
+				LeasedObjectStore.handOver(nodeId);
+				// returns once the scans started before are over
+				RecoveryManager.manager().scan();
+			}
+		};
+		try {
+			this.leaseManager = new RecoveryLeaseManager(createRecoveryLeaseStore(), this.config.getTransactionManagerId(),
+					Math.max(1, this.config.getRecoveryLeaseTtl()) * 1000L, nodeRecovery);
+		} catch (Exception e) {
+			throw new IllegalStateException("Failed to create the recovery lease store " + this.config.getRecoveryLeaseStore(), e);
+		}
+		try {
+			this.leaseManager.start();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted while taking the recovery lease", e);
+		} catch (Exception e) {
+			throw new IllegalStateException("Failed to take the recovery lease of node " + this.config.getTransactionManagerId(), e);
+		}
+	}
+
+	RecoveryLeaseStore createRecoveryLeaseStore() throws Exception {
+		switch (this.config.getRecoveryLeaseStore()) {
+		case "file":
+			String dir = this.config.getRecoveryLeaseDir();
+			return new FileRecoveryLeaseStore(StringUtils.isNotEmpty(dir) ? dir : new File(this.config.getLogDir(), "leases").getAbsolutePath());
+		case "jdbc":
+			return new JdbcRecoveryLeaseStore(this.config.getRecoveryLeaseJdbcUrl(), this.config.getRecoveryLeaseJdbcUser(),
+					this.config.getRecoveryLeaseJdbcPassword(), this.config.getRecoveryLeaseTable());
+		default:
+			return (RecoveryLeaseStore) Class.forName(this.config.getRecoveryLeaseStore()).getDeclaredConstructor().newInstance();
 		}
 	}
 }
@@ -0,0 +1,139 @@
+/**
+ *
+ */
+package com.ethwt.core.transaction.narayana;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import com.ethwt.core.transaction.ExceptionProducer;
+
+/**
+ * {@link RecoveryLeaseStore} keeping the leases as rows of a database table, for nodes sharing no file
+ * system. Each lease is taken by a single conditional update, the first one of a node identifier by an
+ * insert, and a node asks for its identifier back by a conditional update too, so the database arbitrates
+ * between the nodes. Connections are auto-commit and taken for each
+ * call, the database must not be one of the resources being recovered.
+ * <p>
+ * The table must exist:
+ * <pre>
+ * CREATE TABLE tx_recovery_lease (
+ *     node_id VARCHAR(255) NOT NULL PRIMARY KEY,
+ *     owner VARCHAR(255) NOT NULL,
+ *     expires_at BIGINT NOT NULL,
+ *     requested_until BIGINT DEFAULT 0 NOT NULL
+ * );
+ * </pre>
+ *
+ * @author neillin
+ *
+ */
+public class JdbcRecoveryLeaseStore implements RecoveryLeaseStore {
+
+	private final ExceptionProducer<Connection> connections;
+	private final String updateSql;
+	private final String insertSql;
+	private final String reclaimSql;
+	private final String releaseSql;
+	private final String selectSql;
+
+	/**
+	 * @param connections producer of the connections to the database of the table
+	 * @param table name of the table
+	 */
+	public JdbcRecoveryLeaseStore(ExceptionProducer<Connection> connections, String table) {
+		this.connections = connections;
+		this.updateSql = "UPDATE " + table + " SET owner = ?, expires_at = ?, requested_until = 0 WHERE node_id = ?"
+				+ " AND ((owner = ? AND requested_until < ?) OR (expires_at < ? AND (requested_until < ? OR node_id = ?)))";
+		this.insertSql = "INSERT INTO " + table + " (node_id, owner, expires_at, requested_until) VALUES (?, ?, ?, 0)";
+		this.reclaimSql = "UPDATE " + table + " SET requested_until = ? WHERE node_id = ? AND owner <> ?";
+		this.releaseSql = "UPDATE " + table + " SET expires_at = 0 WHERE node_id = ? AND owner = ?";
+		this.selectSql = "SELECT node_id FROM " + table;
+	}
+
+	public JdbcRecoveryLeaseStore(String url, String user, String password, String table) {
+		this(() -> DriverManager.getConnection(url, user, password), table);
+	}
+
+	@Override
+	public boolean tryAcquire(String nodeId, String owner, long ttlMillis, boolean reclaim) throws Exception {
+		long now = System.currentTimeMillis();
+		try (Connection connection = connections.execute()) {
+			try (PreparedStatement statement = connection.prepareStatement(updateSql)) {
+				statement.setString(1, owner);
+				statement.setLong(2, now + ttlMillis);
+				statement.setString(3, nodeId);
+				statement.setString(4, owner);
+				statement.setLong(5, now);
+				statement.setLong(6, now);
+				statement.setLong(7, now);
+				statement.setString(8, owner);
+				if (statement.executeUpdate() > 0) {
+					return true;
+				}
+			}
+			if (reclaim && nodeId.equals(owner)) {
+				try (PreparedStatement statement = connection.prepareStatement(reclaimSql)) {
+					statement.setLong(1, now + ttlMillis);
+					statement.setString(2, nodeId);
+					statement.setString(3, owner);
+					if (statement.executeUpdate() > 0) {
+						return false;
+					}
+				}
+			}
+			try (PreparedStatement statement = connection.prepareStatement(insertSql)) {
+				statement.setString(1, nodeId);
+				statement.setString(2, owner);
+				statement.setLong(3, now + ttlMillis);
+				statement.executeUpdate();
+				return true;
+			} catch (SQLException e) {
+				if (exists(connection, nodeId)) {
+					// another node holds the lease, or inserted it first
+					return false;
+				}
+				throw e;
+			}
+		}
+	}
+
+	@Override
+	public void release(String nodeId, String owner) throws Exception {
+		try (Connection connection = connections.execute();
+				PreparedStatement statement = connection.prepareStatement(releaseSql)) {
+			statement.setString(1, nodeId);
+			statement.setString(2, owner);
+			statement.executeUpdate();
+		}
+	}
+
+	@Override
+	public Collection<String> getNodeIds() throws Exception {
+		List<String> nodeIds = new ArrayList<>();
+		try (Connection connection = connections.execute();
+				PreparedStatement statement = connection.prepareStatement(selectSql);
+				ResultSet resultSet = statement.executeQuery()) {
+			while (resultSet.next()) {
+				nodeIds.add(resultSet.getString(1));
+			}
+		}
+		return nodeIds;
+	}
+
+	private boolean exists(Connection connection, String nodeId) throws SQLException {
+		try (PreparedStatement statement = connection.prepareStatement(selectSql + " WHERE node_id = ?")) {
+			statement.setString(1, nodeId);
+			try (ResultSet resultSet = statement.executeQuery()) {
+				return resultSet.next();
+			}
+		}
+	}
+
+}
@@ -0,0 +1,231 @@
+/**
+ *
+ */
+package com.ethwt.core.transaction.narayana;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.SyncFailedException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArraySet;
+
+import com.arjuna.ats.arjuna.common.ObjectStoreEnvironmentBean;
+import com.arjuna.ats.arjuna.common.Uid;
+import com.arjuna.ats.arjuna.exceptions.ObjectStoreException;
+import com.arjuna.ats.arjuna.objectstore.ObjectStoreAPI;
+import com.arjuna.ats.arjuna.objectstore.StateStatus;
+import com.arjuna.ats.arjuna.state.InputObjectState;
+import com.arjuna.ats.arjuna.state.OutputObjectState;
+import com.arjuna.ats.internal.arjuna.objectstore.ShadowNoFileLockStore;
+
+/**
+ * Object store of the transaction logs of a node sharing the recovery with other nodes through a
+ * {@link RecoveryLeaseManager}.
+ * <p>
+ * Every node keeps its logs in its own directory, named after its node identifier, of a parent directory
+ * shared by the nodes. The logs of this node are written to its directory only. The directories of the
+ * node identifiers this node adopted, see {@link #adopt(File, String)}, are added to the listings, so the logs of
+ * a node gone are recovered along with its XA branches, and its logs are read, rewritten and removed where
+ * they are. A directory is dropped from the listings when its node identifier is handed over.
+ *
+ * @author neillin
+ *
+ */
+public class LeasedObjectStore implements ObjectStoreAPI {
+
+	private static final Set<String> adoptedNodeIds = new CopyOnWriteArraySet<>();
+
+	private final ObjectStoreEnvironmentBean config;
+	private final File root;
+	private final ObjectStoreAPI own;
+	private final Map<String, ObjectStoreAPI> adopted = new HashMap<>();
+	private final String storeName;
+
+	public LeasedObjectStore(ObjectStoreEnvironmentBean config) throws ObjectStoreException {
+		this.config = config;
+		this.own = new ShadowNoFileLockStore(ShardedObjectStore.shardConfig(config, config.getObjectStoreDir()));
+		this.root = new File(config.getObjectStoreDir()).getAbsoluteFile().getParentFile();
+		this.storeName = "LeasedObjectStore[" + config.getObjectStoreDir() + "]";
+	}
+
+	/**
+	 * Add the logs of a node identifier to the listings of the stores.
+	 *
+	 * @param logRoot the parent directory of the directories of the nodes
+	 * @param nodeId the node identifier adopted
+	 * @throws IOException if the directory of the node identifier is not there, in which case its logs
+	 *   cannot be recovered
+	 */
+	static void adopt(File logRoot, String nodeId) throws IOException {
+		File dir = new File(logRoot, nodeId);
+		if (!dir.isDirectory()) {
+			throw new IOException("No object store of node " + nodeId + " in " + logRoot);
+		}
+		adoptedNodeIds.add(nodeId);
+	}
+
+	/**
+	 * Drop the logs of a node identifier from the listings of the stores.
+	 *
+	 * @param nodeId the node identifier handed over
+	 */
+	static void handOver(String nodeId) {
+		adoptedNodeIds.remove(nodeId);
+	}
+
+	/**
+	 * @return the stores of the node identifiers adopted now
+	 */
+	private synchronized List<ObjectStoreAPI> adopted() throws ObjectStoreException {
+		for (Iterator<Map.Entry<String, ObjectStoreAPI>> entries = adopted.entrySet().iterator(); entries.hasNext();) {
+			Map.Entry<String, ObjectStoreAPI> entry = entries.next();
+			if (!adoptedNodeIds.contains(entry.getKey())) {
+				entry.getValue().stop();
+				entries.remove();
+			}
+		}
+		List<ObjectStoreAPI> stores = new ArrayList<>(adoptedNodeIds.size());
+		for (String nodeId : adoptedNodeIds) {
+			ObjectStoreAPI store = adopted.get(nodeId);
+			if (store == null) {
+				store = new ShadowNoFileLockStore(ShardedObjectStore.shardConfig(config, new File(root, nodeId).getAbsolutePath()));
+				store.start();
+				adopted.put(nodeId, store);
+			}
+			stores.add(store);
+		}
+		return stores;
+	}
+
+	private List<ObjectStoreAPI> stores() throws ObjectStoreException {
+		List<ObjectStoreAPI> stores = new ArrayList<>();
+		stores.add(own);
+		stores.addAll(adopted());
+		return stores;
+	}
+
+	/**
+	 * @return the store holding the state, or the store of this node if none does
+	 */
+	private ObjectStoreAPI locate(Uid uid, String type) throws ObjectStoreException {
+		if (adoptedNodeIds.isEmpty()) {
+			// the common case, no lookup on the commit path
+			return own;
+		}
+		if (own.currentState(uid, type) != StateStatus.OS_UNKNOWN) {
+			return own;
+		}
+		for (ObjectStoreAPI store : adopted()) {
+			if (store.currentState(uid, type) != StateStatus.OS_UNKNOWN) {
+				return store;
+			}
+		}
+		return own;
+	}
+
+	@Override
+	public String getStoreName() {
+		return storeName;
+	}
+
+	@Override
+	public void start() {
+		own.start();
+	}
+
+	@Override
+	public synchronized void stop() {
+		own.stop();
+		for (ObjectStoreAPI store : adopted.values()) {
+			store.stop();
+		}
+	}
+
+	@Override
+	public void sync() throws SyncFailedException, ObjectStoreException {
+		for (ObjectStoreAPI store : stores()) {
+			store.sync();
+		}
+	}
+
+	@Override
+	public boolean fullCommitNeeded() {
+		return own.fullCommitNeeded();
+	}
+
+	@Override
+	public boolean write_committed(Uid uid, String type, OutputObjectState state) throws ObjectStoreException {
+		return locate(uid, type).write_committed(uid, type, state);
+	}
+
+	@Override
+	public boolean write_uncommitted(Uid uid, String type, OutputObjectState state) throws ObjectStoreException {
+		return locate(uid, type).write_uncommitted(uid, type, state);
+	}
+
+	@Override
+	public boolean remove_committed(Uid uid, String type) throws ObjectStoreException {
+		return locate(uid, type).remove_committed(uid, type);
+	}
+
+	@Override
+	public boolean remove_uncommitted(Uid uid, String type) throws ObjectStoreException {
+		return locate(uid, type).remove_uncommitted(uid, type);
+	}
+
+	@Override
+	public boolean commit_state(Uid uid, String type) throws ObjectStoreException {
+		return locate(uid, type).commit_state(uid, type);
+	}
+
+	@Override
+	public InputObjectState read_committed(Uid uid, String type) throws ObjectStoreException {
+		return locate(uid, type).read_committed(uid, type);
+	}
+
+	@Override
+	public InputObjectState read_uncommitted(Uid uid, String type) throws ObjectStoreException {
+		return locate(uid, type).read_uncommitted(uid, type);
+	}
+
+	@Override
+	public int currentState(Uid uid, String type) throws ObjectStoreException {
+		return locate(uid, type).currentState(uid, type);
+	}
+
+	@Override
+	public boolean hide_state(Uid uid, String type) throws ObjectStoreException {
+		return locate(uid, type).hide_state(uid, type);
+	}
+
+	@Override
+	public boolean reveal_state(Uid uid, String type) throws ObjectStoreException {
+		return locate(uid, type).reveal_state(uid, type);
+	}
+
+	@Override
+	public boolean isType(Uid uid, String type, int status) throws ObjectStoreException {
+		return locate(uid, type).isType(uid, type, status);
+	}
+
+	@Override
+	public boolean allObjUids(String type, InputObjectState state) throws ObjectStoreException {
+		return allObjUids(type, state, StateStatus.OS_UNKNOWN);
+	}
+
+	@Override
+	public boolean allObjUids(String type, InputObjectState state, int match) throws ObjectStoreException {
+		return ShardedObjectStore.mergeUids(stores(), type, state, match, storeName);
+	}
+
+	@Override
+	public boolean allTypes(InputObjectState state) throws ObjectStoreException {
+		return ShardedObjectStore.mergeTypes(stores(), state, storeName);
+	}
+
+}
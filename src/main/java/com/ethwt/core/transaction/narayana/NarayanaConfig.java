@@ -19,7 +19,9 @@ package com.ethwt.core.transaction.narayana;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 
 /**
@@ -38,10 +40,101 @@ public class NarayanaConfig {
     static final String PROPERTIES_PREFIX = "narayana";
 
     /**
-     * Transaction object store directory.
+     * Transaction object store directory, by default ~/.narayana/txLogs, or ./PutObjectStoreDirHere while it
+     * holds logs written with the properties file bundled by narayana-jta.
      */
     private String logDir;
 
+    /**
+     * Directory of the communication store, defaults to the log directory.
+     */
+    private String communicationStoreDir;
+
+    /**
+     * Directory of the state store, defaults to the log directory.
+     */
+    private String stateStoreDir;
+
+    /**
+     * Directories of the default store of the transaction logs, defaults to the log directory. With
+     * several directories the logs are sharded across them by transaction id hash, see
+     * {@link ShardedObjectStore}.
+     */
+    private List<String> actionStoreDirs = new ArrayList<>();
+
+    /**
+     * Store of the transaction logs: "default" for a file per transaction, "journal" for the append-only
+     * journal of Artemis, which must be on the class path, or "jdbc" for a database table.
+     */
+    private String objectStoreType = "default";
+
+    /**
+     * Size in bytes of the files of the journal store.
+     */
+    private int journalFileSize = 2 * 1024 * 1024;
+
+    /**
+     * Number of files the journal store keeps allocated.
+     */
+    private int journalMinFiles = 4;
+
+    /**
+     * Maximum number of writes in flight with asynchronous IO.
+     */
+    private int journalMaxIO = 2;
+
+    /**
+     * Whether the journal store syncs the records written before the commit goes on.
+     */
+    private boolean journalSyncWrites = true;
+
+    /**
+     * Whether the journal store syncs the removal of the records of completed transactions.
+     */
+    private boolean journalSyncDeletes = true;
+
+    /**
+     * How often the journal store flushes its buffer, the writes of a flush interval share one sync.
+     */
+    private int journalBufferFlushesPerSecond = 500;
+
+    /**
+     * Size in bytes of the write buffer of the journal store.
+     */
+    private int journalBufferSize = 490 * 1024;
+
+    /**
+     * Whether the journal store uses Linux native asynchronous IO when available.
+     */
+    private boolean journalAsyncIO = true;
+
+    /**
+     * Narayana JDBC access of the "jdbc" store, "class name;property=value;...". Overrides the data source
+     * settings below.
+     */
+    private String objectStoreJdbcAccess;
+
+    /**
+     * Class name of the data source of the "jdbc" store, such as the class of an XA data source also
+     * implementing {@link javax.sql.DataSource}.
+     */
+    private String objectStoreDataSourceClassName;
+
+    /**
+     * Properties of the data source of the "jdbc" store, set through its setters.
+     */
+    private Map<String, String> objectStoreDataSourceProperties = new LinkedHashMap<>();
+
+    /**
+     * Prefix of the table of the "jdbc" store.
+     */
+    private String objectStoreTablePrefix;
+
+    /**
+     * Whether the "jdbc" store creates its table if missing.
+     */
+    private boolean objectStoreCreateTable = true;
+
     /**
      * Unique transaction manager id.
      */
@@ -52,6 +145,26 @@ public class NarayanaConfig {
      */
     private boolean onePhaseCommit = true;
 
+    /**
+     * Prepare the participants in parallel.
+     */
+    private boolean asyncPrepare;
+
+    /**
+     * Commit the participants in parallel.
+     */
+    private boolean asyncCommit;
+
+    /**
+     * Roll back the participants in parallel.
+     */
+    private boolean asyncRollback;
+
+    /**
+     * Size of the thread pool running the parallel phases.
+     */
+    private int maxTwoPhaseCommitThreads = 100;
+
     /**
      * Transaction timeout in seconds.
      */
@@ -67,6 +180,11 @@ public class NarayanaConfig {
      */
     private int recoveryBackoffPeriod = 10;
 
+    /**
+     * Whether the recovery manager listens on a socket for recovery scan requests.
+     */
+    private boolean recoveryListener;
+
     /**
      * Comma-separated list of orphan filters.
      */
@@ -96,6 +214,39 @@ public class NarayanaConfig {
      */
     private List<String> xaRecoveryNodes = new ArrayList<>(Arrays.asList("1"));
 
+    /**
+     * Store of the leases partitioning the recovery between the nodes: "file", "jdbc" or the class name
+     * of a {@link RecoveryLeaseStore}. When set, the XA recovery nodes are the transaction manager id and
+     * the ids adopted from the nodes gone, and the log directory must be shared by the nodes: each keeps
+     * its stores in the subdirectory named after its transaction manager id, taken over with its id, see
+     * {@link LeasedObjectStore}. Needs the default object store type, unsharded.
+     */
+    private String recoveryLeaseStore;
+
+    /**
+     * Directory shared by the nodes for the "file" lease store, defaults to "leases" in the log directory.
+     */
+    private String recoveryLeaseDir;
+
+    /**
+     * JDBC url of the database of the "jdbc" lease store.
+     */
+    private String recoveryLeaseJdbcUrl;
+
+    private String recoveryLeaseJdbcUser;
+
+    private String recoveryLeaseJdbcPassword;
+
+    /**
+     * Table of the "jdbc" lease store.
+     */
+    private String recoveryLeaseTable = "tx_recovery_lease";
+
+    /**
+     * Lease time in seconds, after which the node ids of a node gone are adopted.
+     */
+    private int recoveryLeaseTtl = 30;
+
 	public String getLogDir() {
         return this.logDir;
     }
@@ -120,6 +271,38 @@ public class NarayanaConfig {
         this.onePhaseCommit = onePhaseCommit;
     }
 
+    public boolean isAsyncPrepare() {
+        return this.asyncPrepare;
+    }
+
+    public void setAsyncPrepare(boolean asyncPrepare) {
+        this.asyncPrepare = asyncPrepare;
+    }
+
+    public boolean isAsyncCommit() {
+        return this.asyncCommit;
+    }
+
+    public void setAsyncCommit(boolean asyncCommit) {
+        this.asyncCommit = asyncCommit;
+    }
+
+    public boolean isAsyncRollback() {
+        return this.asyncRollback;
+    }
+
+    public void setAsyncRollback(boolean asyncRollback) {
+        this.asyncRollback = asyncRollback;
+    }
+
+    public int getMaxTwoPhaseCommitThreads() {
+        return this.maxTwoPhaseCommitThreads;
+    }
+
+    public void setMaxTwoPhaseCommitThreads(int maxTwoPhaseCommitThreads) {
+        this.maxTwoPhaseCommitThreads = maxTwoPhaseCommitThreads;
+    }
+
     public int getDefaultTimeout() {
         return this.defaultTimeout;
     }
@@ -140,6 +323,14 @@ public class NarayanaConfig {
         this.recoveryBackoffPeriod = recoveryBackoffPeriod;
     }
 
+    public boolean isRecoveryListener() {
+        return this.recoveryListener;
+    }
+
+    public void setRecoveryListener(boolean recoveryListener) {
+        this.recoveryListener = recoveryListener;
+    }
+
     public void setDefaultTimeout(int defaultTimeout) {
         this.defaultTimeout = defaultTimeout;
     }
@@ -176,4 +367,196 @@ public class NarayanaConfig {
 		this.xaRecoveryNodes = xaRecoveryNodes;
 	}
 
+    public String getRecoveryLeaseStore() {
+        return this.recoveryLeaseStore;
+    }
+
+    public void setRecoveryLeaseStore(String recoveryLeaseStore) {
+        this.recoveryLeaseStore = recoveryLeaseStore;
+    }
+
+    public String getRecoveryLeaseDir() {
+        return this.recoveryLeaseDir;
+    }
+
+    public void setRecoveryLeaseDir(String recoveryLeaseDir) {
+        this.recoveryLeaseDir = recoveryLeaseDir;
+    }
+
+    public String getRecoveryLeaseJdbcUrl() {
+        return this.recoveryLeaseJdbcUrl;
+    }
+
+    public void setRecoveryLeaseJdbcUrl(String recoveryLeaseJdbcUrl) {
+        this.recoveryLeaseJdbcUrl = recoveryLeaseJdbcUrl;
+    }
+
+    public String getRecoveryLeaseJdbcUser() {
+        return this.recoveryLeaseJdbcUser;
+    }
+
+    public void setRecoveryLeaseJdbcUser(String recoveryLeaseJdbcUser) {
+        this.recoveryLeaseJdbcUser = recoveryLeaseJdbcUser;
+    }
+
+    public String getRecoveryLeaseJdbcPassword() {
+        return this.recoveryLeaseJdbcPassword;
+    }
+
+    public void setRecoveryLeaseJdbcPassword(String recoveryLeaseJdbcPassword) {
+        this.recoveryLeaseJdbcPassword = recoveryLeaseJdbcPassword;
+    }
+
+    public String getRecoveryLeaseTable() {
+        return this.recoveryLeaseTable;
+    }
+
+    public void setRecoveryLeaseTable(String recoveryLeaseTable) {
+        this.recoveryLeaseTable = recoveryLeaseTable;
+    }
+
+    public int getRecoveryLeaseTtl() {
+        return this.recoveryLeaseTtl;
+    }
+
+    public void setRecoveryLeaseTtl(int recoveryLeaseTtl) {
+        this.recoveryLeaseTtl = recoveryLeaseTtl;
+    }
+
+    public String getObjectStoreType() {
+        return this.objectStoreType;
+    }
+
+    public void setObjectStoreType(String objectStoreType) {
+        this.objectStoreType = objectStoreType;
+    }
+
+    public int getJournalFileSize() {
+        return this.journalFileSize;
+    }
+
+    public void setJournalFileSize(int journalFileSize) {
+        this.journalFileSize = journalFileSize;
+    }
+
+    public int getJournalMinFiles() {
+        return this.journalMinFiles;
+    }
+
+    public void setJournalMinFiles(int journalMinFiles) {
+        this.journalMinFiles = journalMinFiles;
+    }
+
+    public int getJournalMaxIO() {
+        return this.journalMaxIO;
+    }
+
+    public void setJournalMaxIO(int journalMaxIO) {
+        this.journalMaxIO = journalMaxIO;
+    }
+
+    public boolean isJournalSyncWrites() {
+        return this.journalSyncWrites;
+    }
+
+    public void setJournalSyncWrites(boolean journalSyncWrites) {
+        this.journalSyncWrites = journalSyncWrites;
+    }
+
+    public boolean isJournalSyncDeletes() {
+        return this.journalSyncDeletes;
+    }
+
+    public void setJournalSyncDeletes(boolean journalSyncDeletes) {
+        this.journalSyncDeletes = journalSyncDeletes;
+    }
+
+    public int getJournalBufferFlushesPerSecond() {
+        return this.journalBufferFlushesPerSecond;
+    }
+
+    public void setJournalBufferFlushesPerSecond(int journalBufferFlushesPerSecond) {
+        this.journalBufferFlushesPerSecond = journalBufferFlushesPerSecond;
+    }
+
+    public int getJournalBufferSize() {
+        return this.journalBufferSize;
+    }
+
+    public void setJournalBufferSize(int journalBufferSize) {
+        this.journalBufferSize = journalBufferSize;
+    }
+
+    public boolean isJournalAsyncIO() {
+        return this.journalAsyncIO;
+    }
+
+    public void setJournalAsyncIO(boolean journalAsyncIO) {
+        this.journalAsyncIO = journalAsyncIO;
+    }
+
+    public String getObjectStoreJdbcAccess() {
+        return this.objectStoreJdbcAccess;
+    }
+
+    public void setObjectStoreJdbcAccess(String objectStoreJdbcAccess) {
+        this.objectStoreJdbcAccess = objectStoreJdbcAccess;
+    }
+
+    public String getObjectStoreDataSourceClassName() {
+        return this.objectStoreDataSourceClassName;
+    }
+
+    public void setObjectStoreDataSourceClassName(String objectStoreDataSourceClassName) {
+        this.objectStoreDataSourceClassName = objectStoreDataSourceClassName;
+    }
+
+    public Map<String, String> getObjectStoreDataSourceProperties() {
+        return this.objectStoreDataSourceProperties;
+    }
+
+    public void setObjectStoreDataSourceProperties(Map<String, String> objectStoreDataSourceProperties) {
+        this.objectStoreDataSourceProperties = objectStoreDataSourceProperties;
+    }
+
+    public String getObjectStoreTablePrefix() {
+        return this.objectStoreTablePrefix;
+    }
+
+    public void setObjectStoreTablePrefix(String objectStoreTablePrefix) {
+        this.objectStoreTablePrefix = objectStoreTablePrefix;
+    }
+
+    public boolean isObjectStoreCreateTable() {
+        return this.objectStoreCreateTable;
+    }
+
+    public void setObjectStoreCreateTable(boolean objectStoreCreateTable) {
+        this.objectStoreCreateTable = objectStoreCreateTable;
+    }
+
+    public String getCommunicationStoreDir() {
+        return this.communicationStoreDir;
+    }
+
+    public void setCommunicationStoreDir(String communicationStoreDir) {
+        this.communicationStoreDir = communicationStoreDir;
+    }
+
+    public String getStateStoreDir() {
+        return this.stateStoreDir;
+    }
+
+    public void setStateStoreDir(String stateStoreDir) {
+        this.stateStoreDir = stateStoreDir;
+    }
+
+    public List<String> getActionStoreDirs() {
+        return this.actionStoreDirs;
+    }
+
+    public void setActionStoreDirs(List<String> actionStoreDirs) {
+        this.actionStoreDirs = actionStoreDirs;
+    }
+
 }
@@ -16,7 +16,10 @@
 
 package com.ethwt.core.transaction.narayana;
 
+import java.io.File;
 import java.util.List;
+import java.util.Map;
+import java.util.Properties;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -26,6 +29,9 @@ import com.arjuna.ats.arjuna.common.CoreEnvironmentBean;
 import com.arjuna.ats.arjuna.common.CoreEnvironmentBeanException;
 import com.arjuna.ats.arjuna.common.ObjectStoreEnvironmentBean;
 import com.arjuna.ats.arjuna.common.RecoveryEnvironmentBean;
+import com.arjuna.ats.internal.arjuna.objectstore.hornetq.HornetqJournalEnvironmentBean;
+import com.arjuna.ats.internal.arjuna.objectstore.jdbc.JDBCStore;
+import com.arjuna.ats.internal.arjuna.objectstore.jdbc.accessors.DynamicDataSourceJDBCAccess;
 import com.arjuna.ats.jta.common.JTAEnvironmentBean;
 import com.arjuna.common.internal.util.propertyservice.BeanPopulator;
 import com.arjuna.common.util.propertyservice.PropertiesFactory;
@@ -37,6 +43,22 @@ import com.arjuna.common.util.propertyservice.PropertiesFactory;
  */
 public class NarayanaPropertiesInitializer {
 
+    private static final String OBJECT_STORE_DIR_PROPERTY = "ObjectStoreEnvironmentBean.objectStoreDir";
+
+    // placeholder of the jbossts-properties.xml bundled by narayana-jta, kept by no application file
+    static final String BUNDLED_OBJECT_STORE_DIR = "PutObjectStoreDirHere";
+
+    static final String OBJECT_STORE_DEFAULT = "default";
+
+    static final String OBJECT_STORE_JOURNAL = "journal";
+
+    static final String OBJECT_STORE_JDBC = "jdbc";
+
+    private static final String JOURNAL_CLASS_NAME = "org.apache.activemq.artemis.core.journal.Journal";
+
+    // by name, loading it needs the journal classes
+    private static final String JOURNAL_STORE_CLASS_NAME = "com.arjuna.ats.internal.arjuna.objectstore.hornetq.HornetqObjectStoreAdaptor";
+
     private static final Logger logger = LoggerFactory.getLogger(NarayanaPropertiesInitializer.class);
 
     private final NarayanaConfig properties;
@@ -52,11 +74,15 @@ public class NarayanaPropertiesInitializer {
         }
         setNodeIdentifier(this.properties.getTransactionManagerId());
         setXARecoveryNodes(this.properties.getXaRecoveryNodes());
-        setObjectStoreDir(this.properties.getLogDir());
+        setObjectStoreDir(this.properties);
+        setObjectStoreType(this.properties);
         setCommitOnePhase(this.properties.isOnePhaseCommit());
+        setParallelPhases(this.properties.isAsyncPrepare(), this.properties.isAsyncCommit(),
+                this.properties.isAsyncRollback(), this.properties.getMaxTwoPhaseCommitThreads());
         setDefaultTimeout(this.properties.getDefaultTimeout());
         setPeriodicRecoveryPeriod(this.properties.getPeriodicRecoveryPeriod());
         setRecoveryBackoffPeriod(this.properties.getRecoveryBackoffPeriod());
+        setRecoveryListener(this.properties.isRecoveryListener());
         setXaResourceOrphanFilters(this.properties.getXaResourceOrphanFilters());
         setRecoveryModules(this.properties.getRecoveryModules());
         setExpiryScanners(this.properties.getExpiryScanners());
@@ -65,8 +91,13 @@ public class NarayanaPropertiesInitializer {
     private boolean isPropertiesFileAvailable() {
         // If the Narayana default properties are equal to the System properties,
         // it means that either the Narayana properties file is missing or it is empty.
-        return !PropertiesFactory.getDefaultProperties().stringPropertyNames()
-                .equals(System.getProperties().stringPropertyNames());
+        Properties defaults = PropertiesFactory.getDefaultProperties();
+        if (defaults.stringPropertyNames().equals(System.getProperties().stringPropertyNames())) {
+            return false;
+        }
+        // narayana-jta ships a properties file of its own, found first unless the application has one. It
+        // is told by its content rather than by its location, which shading changes.
+        return !BUNDLED_OBJECT_STORE_DIR.equals(defaults.getProperty(OBJECT_STORE_DIR_PROPERTY));
     }
 
     private void setNodeIdentifier(String nodeIdentifier) {
@@ -81,18 +112,123 @@ public class NarayanaPropertiesInitializer {
         getPopulator(JTAEnvironmentBean.class).setXaRecoveryNodes(xaRecoveryNodes);
     }
 
-    private void setObjectStoreDir(String objectStoreDir) {
-        if (objectStoreDir != null) {
+    private void setObjectStoreDir(NarayanaConfig config) {
+        String objectStoreDir = config.getLogDir();
+        List<String> actionStoreDirs = config.getActionStoreDirs();
+        if (config.getRecoveryLeaseStore() != null && !config.getRecoveryLeaseStore().isEmpty()) {
+            objectStoreDir = setLeasedObjectStore(config);
+        } else if (actionStoreDirs != null && actionStoreDirs.size() > 1) {
+            if (config.getObjectStoreType() != null && !OBJECT_STORE_DEFAULT.equals(config.getObjectStoreType())) {
+                throw new IllegalArgumentException("Sharded action store directories need the default object store type");
+            }
+            ObjectStoreEnvironmentBean actionStore = getPopulator(ObjectStoreEnvironmentBean.class);
+            actionStore.setObjectStoreDir(String.join(File.pathSeparator, actionStoreDirs));
+            actionStore.setObjectStoreType(ShardedObjectStore.class.getName());
+        } else if (actionStoreDirs != null && actionStoreDirs.size() == 1) {
+            getPopulator(ObjectStoreEnvironmentBean.class).setObjectStoreDir(actionStoreDirs.get(0));
+        } else if (objectStoreDir != null) {
             getPopulator(ObjectStoreEnvironmentBean.class).setObjectStoreDir(objectStoreDir);
-            getPopulator(ObjectStoreEnvironmentBean.class, "communicationStore").setObjectStoreDir(objectStoreDir);
-            getPopulator(ObjectStoreEnvironmentBean.class, "stateStore").setObjectStoreDir(objectStoreDir);
+        }
+        String communicationStoreDir = config.getCommunicationStoreDir() != null ? config.getCommunicationStoreDir() : objectStoreDir;
+        if (communicationStoreDir != null) {
+            getPopulator(ObjectStoreEnvironmentBean.class, "communicationStore").setObjectStoreDir(communicationStoreDir);
+        }
+        String stateStoreDir = config.getStateStoreDir() != null ? config.getStateStoreDir() : objectStoreDir;
+        if (stateStoreDir != null) {
+            getPopulator(ObjectStoreEnvironmentBean.class, "stateStore").setObjectStoreDir(stateStoreDir);
         }
     }
 
+    /**
+     * Keep the stores of this node in its own directory of the log directory, shared by the nodes, so that
+     * the node adopting its recovery also recovers its logs, see {@link LeasedObjectStore}.
+     *
+     * @return the directory of the stores of this node
+     */
+    private String setLeasedObjectStore(NarayanaConfig config) {
+        if ((config.getObjectStoreType() != null && !OBJECT_STORE_DEFAULT.equals(config.getObjectStoreType()))
+                || (config.getActionStoreDirs() != null && !config.getActionStoreDirs().isEmpty())) {
+            throw new IllegalArgumentException("Recovery leases need the default object store in the log directory");
+        }
+        String objectStoreDir = new File(config.getLogDir(), config.getTransactionManagerId()).getAbsolutePath();
+        ObjectStoreEnvironmentBean actionStore = getPopulator(ObjectStoreEnvironmentBean.class);
+        actionStore.setObjectStoreDir(objectStoreDir);
+        actionStore.setObjectStoreType(LeasedObjectStore.class.getName());
+        return objectStoreDir;
+    }
+
+    /**
+     * Select the store of the transaction logs, the one written at every two phase commit. The
+     * communication and state stores keep the default store.
+     */
+    private void setObjectStoreType(NarayanaConfig config) {
+        String type = config.getObjectStoreType();
+        if (type == null || OBJECT_STORE_DEFAULT.equals(type)) {
+            return;
+        }
+        ObjectStoreEnvironmentBean objectStore = getPopulator(ObjectStoreEnvironmentBean.class);
+        if (OBJECT_STORE_JOURNAL.equals(type)) {
+            try {
+                Class.forName(JOURNAL_CLASS_NAME, false, getClass().getClassLoader());
+            } catch (ClassNotFoundException e) {
+                throw new IllegalStateException(
+                        "The journal object store needs org.apache.activemq:artemis-journal on the class path", e);
+            }
+            HornetqJournalEnvironmentBean journal = getPopulator(HornetqJournalEnvironmentBean.class);
+            if (config.getLogDir() != null) {
+                journal.setStoreDir(new File(config.getLogDir(), "HornetqJournalStore").getAbsolutePath());
+            }
+            journal.setFileSize(config.getJournalFileSize());
+            journal.setMinFiles(config.getJournalMinFiles());
+            journal.setMaxIO(config.getJournalMaxIO());
+            journal.setSyncWrites(config.isJournalSyncWrites());
+            journal.setSyncDeletes(config.isJournalSyncDeletes());
+            journal.setBufferFlushesPerSecond(config.getJournalBufferFlushesPerSecond());
+            journal.setBufferSize(config.getJournalBufferSize());
+            journal.setAsyncIO(config.isJournalAsyncIO());
+            objectStore.setObjectStoreType(JOURNAL_STORE_CLASS_NAME);
+        } else if (OBJECT_STORE_JDBC.equals(type)) {
+            objectStore.setJdbcAccess(getJdbcAccess(config));
+            if (config.getObjectStoreTablePrefix() != null) {
+                objectStore.setTablePrefix(config.getObjectStoreTablePrefix());
+            }
+            objectStore.setCreateTable(config.isObjectStoreCreateTable());
+            objectStore.setObjectStoreType(JDBCStore.class.getName());
+        } else {
+            throw new IllegalArgumentException("Unknown object store type " + type);
+        }
+        logger.info("Transaction logs kept in the {} object store", type);
+    }
+
+    private static String getJdbcAccess(NarayanaConfig config) {
+        if (config.getObjectStoreJdbcAccess() != null) {
+            return config.getObjectStoreJdbcAccess();
+        }
+        if (config.getObjectStoreDataSourceClassName() == null) {
+            throw new IllegalArgumentException("The jdbc object store needs a JDBC access or a data source class name");
+        }
+        StringBuilder access = new StringBuilder(DynamicDataSourceJDBCAccess.class.getName())
+                .append(";ClassName=").append(config.getObjectStoreDataSourceClassName());
+        for (Map.Entry<String, String> property : config.getObjectStoreDataSourceProperties().entrySet()) {
+            access.append(';').append(property.getKey()).append('=')
+                    .append(property.getValue().replace("=", "\\equ").replace(";", "\\semi"));
+        }
+        return access.toString();
+    }
+
     private void setCommitOnePhase(boolean isCommitOnePhase) {
         getPopulator(CoordinatorEnvironmentBean.class).setCommitOnePhase(isCommitOnePhase);
     }
 
+    private void setParallelPhases(boolean asyncPrepare, boolean asyncCommit, boolean asyncRollback,
+            int maxTwoPhaseCommitThreads) {
+        CoordinatorEnvironmentBean coordinator = getPopulator(CoordinatorEnvironmentBean.class);
+        coordinator.setAsyncPrepare(asyncPrepare);
+        coordinator.setAsyncCommit(asyncCommit);
+        coordinator.setAsyncRollback(asyncRollback);
+        coordinator.setMaxTwoPhaseCommitThreads(maxTwoPhaseCommitThreads);
+    }
+
     private void setDefaultTimeout(int defaultTimeout) {
         getPopulator(CoordinatorEnvironmentBean.class).setDefaultTimeout(defaultTimeout);
     }
@@ -105,6 +241,10 @@ public class NarayanaPropertiesInitializer {
         getPopulator(RecoveryEnvironmentBean.class).setRecoveryBackoffPeriod(recoveryBackoffPeriod);
     }
 
+    private void setRecoveryListener(boolean recoveryListener) {
+        getPopulator(RecoveryEnvironmentBean.class).setRecoveryListener(recoveryListener);
+    }
+
     private void setXaResourceOrphanFilters(List<String> xaResourceOrphanFilters) {
         getPopulator(JTAEnvironmentBean.class).setXaResourceOrphanFilterClassNames(xaResourceOrphanFilters);
     }
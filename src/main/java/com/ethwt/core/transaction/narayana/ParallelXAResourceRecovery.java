@@ -0,0 +1,168 @@
+/**
+ *
+ */
+package com.ethwt.core.transaction.narayana;
+
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.transaction.xa.XAException;
+import javax.transaction.xa.XAResource;
+import javax.transaction.xa.Xid;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.arjuna.ats.internal.jta.utils.XAUtils;
+import com.arjuna.ats.jta.common.jtaPropertyManager;
+import com.arjuna.ats.jta.recovery.XAResourceRecoveryHelper;
+import com.ethwt.core.transaction.InDoubtTracker;
+
+/**
+ * {@link XAResourceRecoveryHelper} registered once with Narayana's {@code XARecoveryModule} on behalf of
+ * every adapted data source and connection factory.
+ * <p>
+ * The recovery module scans the resources of its helpers one after another, so the recovery time after a
+ * crash would grow with the number of databases and brokers. This helper runs the
+ * {@code recover(TMSTARTRSCAN)}..{@code recover(TMENDRSCAN)} scans of all its helpers' resources on a
+ * bounded pool when the module asks for the resources, and hands them back with the in-doubt Xids already
+ * fetched, see {@link PrefetchedXAResource}.
+ * <p>
+ * The in-doubt count handed to the adaptive recovery only takes the Xids of the nodes this one recovers,
+ * see {@code xaRecoveryNodes}, still in doubt at the following scan: the Xids of the other nodes sharing the
+ * resource managers and of the transactions between their prepare and their commit are not for this node to
+ * recover.
+ *
+ * @author neillin
+ *
+ */
+public class ParallelXAResourceRecovery implements XAResourceRecoveryHelper {
+
+	private static Logger log = LoggerFactory.getLogger(ParallelXAResourceRecovery.class);
+
+	private final List<XAResourceRecoveryHelper> helpers = new CopyOnWriteArrayList<>();
+	private final ExecutorService executor;
+	private final InDoubtTracker inDoubtTracker = new InDoubtTracker();
+	private volatile int lastInDoubt;
+
+	/**
+	 * @param threads maximum number of resources scanned at the same time
+	 */
+	public ParallelXAResourceRecovery(int threads) {
+		AtomicInteger sequence = new AtomicInteger();
+		ThreadPoolExecutor pool = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+				new LinkedBlockingQueue<>(), r -> {
+					Thread thread = new Thread(r, "tx-recovery-scan-" + sequence.incrementAndGet());
+					thread.setDaemon(true);
+					return thread;
+				});
+		pool.allowCoreThreadTimeOut(true);
+		this.executor = pool;
+	}
+
+	public void addHelper(XAResourceRecoveryHelper helper) {
+		helpers.add(helper);
+	}
+
+	public void removeHelper(XAResourceRecoveryHelper helper) {
+		helpers.remove(helper);
+	}
+
+	@Override
+	public boolean initialise(String p) throws Exception {
+		return true;
+	}
+
+	/**
+	 * Get the resources of every helper and scan them, in parallel.
+	 *
+	 * @return the resources whose scan succeeded, their in-doubt Xids prefetched
+	 */
+	@Override
+	public XAResource[] getXAResources() throws Exception {
+		List<Future<List<XAResource>>> scans = new ArrayList<>(helpers.size());
+		for (XAResourceRecoveryHelper helper : helpers) {
+			scans.add(executor.submit(() -> scan(helper)));
+		}
+		List<XAResource> resources = new ArrayList<>();
+		for (Future<List<XAResource>> scan : scans) {
+			try {
+				resources.addAll(scan.get());
+			} catch (ExecutionException e) {
+				log.warn("Recovery scan failed", e.getCause());
+			}
+		}
+		List<String> inDoubt = new ArrayList<>();
+		List<String> nodes = jtaPropertyManager.getJTAEnvironmentBean().getXaRecoveryNodes();
+		for (XAResource resource : resources) {
+			for (Xid xid : ((PrefetchedXAResource) resource).getInDoubtXids()) {
+				if (isRecoveredHere(xid, nodes)) {
+					inDoubt.add(key(xid));
+				}
+			}
+		}
+		lastInDoubt = inDoubtTracker.update(inDoubt);
+		return resources.toArray(new XAResource[0]);
+	}
+
+	/**
+	 * @return number of Xids of this node the resources reported in doubt at the last scan and the one before
+	 */
+	public int getLastInDoubtCount() {
+		return lastInDoubt;
+	}
+
+	private static boolean isRecoveredHere(Xid xid, List<String> nodes) {
+		String nodeName = XAUtils.getXANodeName(xid);
+		if (nodeName == null) {
+			// not created by Narayana
+			return false;
+		}
+		return nodes != null && (nodes.contains("*") || nodes.contains(nodeName));
+	}
+
+	private static String key(Xid xid) {
+		Base64.Encoder encoder = Base64.getEncoder();
+		return xid.getFormatId() + ":" + encoder.encodeToString(xid.getGlobalTransactionId()) + ":"
+				+ encoder.encodeToString(xid.getBranchQualifier());
+	}
+
+	private static List<XAResource> scan(XAResourceRecoveryHelper helper) throws Exception {
+		long start = System.nanoTime();
+		List<XAResource> resources = new ArrayList<>();
+		for (XAResource xaResource : helper.getXAResources()) {
+			try {
+				resources.add(new PrefetchedXAResource(xaResource, recover(xaResource)));
+			} catch (XAException e) {
+				log.warn("Recovery scan of {} failed with error code {}", xaResource, e.errorCode, e);
+			}
+		}
+		if (log.isDebugEnabled()) {
+			log.debug("Scanned {} in {}ms", helper, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+		}
+		return resources;
+	}
+
+	private static Xid[] recover(XAResource xaResource) throws XAException {
+		try {
+			Xid[] xids = xaResource.recover(XAResource.TMSTARTRSCAN);
+			return xids != null ? xids : new Xid[0];
+		} finally {
+			try {
+				xaResource.recover(XAResource.TMENDRSCAN);
+			} catch (XAException e) {
+				log.warn("Failed to end the recovery scan of {}", xaResource, e);
+			}
+		}
+	}
+
+}
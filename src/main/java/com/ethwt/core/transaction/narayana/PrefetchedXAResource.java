@@ -0,0 +1,87 @@
+/**
+ *
+ */
+package com.ethwt.core.transaction.narayana;
+
+import javax.transaction.xa.XAException;
+import javax.transaction.xa.XAResource;
+import javax.transaction.xa.Xid;
+
+/**
+ * {@link XAResource} decorator answering the {@code recover(TMSTARTRSCAN)} call of the recovery module with
+ * the Xids fetched by the parallel scan of {@link ParallelXAResourceRecovery}, and an empty array to the
+ * following calls of the scan. Commit, rollback and forget of the recovered Xids go to the resource.
+ *
+ * @author neillin
+ *
+ */
+class PrefetchedXAResource implements XAResource {
+
+	private final XAResource delegate;
+	private final Xid[] xids;
+
+	PrefetchedXAResource(XAResource delegate, Xid[] xids) {
+		this.delegate = delegate;
+		this.xids = xids;
+	}
+
+	Xid[] getInDoubtXids() {
+		return xids;
+	}
+
+	@Override
+	public Xid[] recover(int flag) throws XAException {
+		return (flag & TMSTARTRSCAN) != 0 ? xids.clone() : new Xid[0];
+	}
+
+	@Override
+	public void commit(Xid xid, boolean onePhase) throws XAException {
+		delegate.commit(xid, onePhase);
+	}
+
+	@Override
+	public void end(Xid xid, int flags) throws XAException {
+		delegate.end(xid, flags);
+	}
+
+	@Override
+	public void forget(Xid xid) throws XAException {
+		delegate.forget(xid);
+	}
+
+	@Override
+	public int getTransactionTimeout() throws XAException {
+		return delegate.getTransactionTimeout();
+	}
+
+	@Override
+	public boolean isSameRM(XAResource xares) throws XAException {
+		return delegate.isSameRM(xares instanceof PrefetchedXAResource ? ((PrefetchedXAResource) xares).delegate : xares);
+	}
+
+	@Override
+	public int prepare(Xid xid) throws XAException {
+		return delegate.prepare(xid);
+	}
+
+	@Override
+	public void rollback(Xid xid) throws XAException {
+		delegate.rollback(xid);
+	}
+
+	@Override
+	public boolean setTransactionTimeout(int seconds) throws XAException {
+		return delegate.setTransactionTimeout(seconds);
+	}
+
+	@Override
+	public void start(Xid xid, int flags) throws XAException {
+		delegate.start(xid, flags);
+	}
+
+	@Override
+	public String toString() {
+		return "PrefetchedXAResource[" + delegate + "]";
+	}
+
+}
@@ -0,0 +1,229 @@
+/**
+ *
+ */
+package com.ethwt.core.transaction.narayana;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.arjuna.ats.jta.common.JTAEnvironmentBean;
+import com.arjuna.common.internal.util.propertyservice.BeanPopulator;
+
+/**
+ * Partitions the recovery work between the nodes sharing a {@link RecoveryLeaseStore}.
+ * <p>
+ * Every node holds the lease on its own node identifier, renewing it every third of the lease time. At
+ * each renewal it also tries the lease of every other node identifier of the store: the lease of a live
+ * node is never expired, while the lease of a node gone for longer than the lease time is adopted by the
+ * first node to try it, which takes over its object store through {@link NodeRecovery#adopt(String)}, and
+ * does not adopt it if it cannot. The node identifiers a node holds the lease of are published as the XA
+ * recovery nodes of Narayana, read by the orphan filters at each recovery scan, so the in-doubt branches
+ * and the logs of each node identifier are recovered by exactly one live node.
+ * <p>
+ * A node starting again asks for its lease back and waits: the adopting node sees the request at its next
+ * renewal, stops recovering the node identifier, see {@link NodeRecovery#handOver(String)}, and only then
+ * releases the lease. The lease time must be above the duration of a recovery scan and of the pauses of the
+ * nodes; a node failing to renew its own lease stops recovering its own identifier until it gets it back.
+ *
+ * @author neillin
+ *
+ */
+public class RecoveryLeaseManager {
+
+	private static Logger log = LoggerFactory.getLogger(RecoveryLeaseManager.class);
+
+	/**
+	 * Takes over and gives up the recovery of the node identifiers of other nodes.
+	 */
+	public interface NodeRecovery {
+
+		/**
+		 * Take over the object store of a node identifier, so that its logs are recovered.
+		 *
+		 * @param nodeId the node identifier adopted
+		 * @throws Exception if its object store cannot be taken over, the lease is then released
+		 */
+		void adopt(String nodeId) throws Exception;
+
+		/**
+		 * Stop recovering a node identifier, returning once no recovery scan works on it any more.
+		 *
+		 * @param nodeId the node identifier handed over, no longer among the published recovery nodes
+		 * @throws Exception if the recovery could not be stopped, the lease is then kept
+		 */
+		void handOver(String nodeId) throws Exception;
+	}
+
+	private final RecoveryLeaseStore store;
+	private final String nodeId;
+	private final long ttlMillis;
+	private final NodeRecovery nodeRecovery;
+	private final Set<String> adopted = new LinkedHashSet<>();
+	private boolean ownHeld;
+	private ScheduledExecutorService scheduler;
+
+	/**
+	 * @param store the store shared by the nodes
+	 * @param nodeId the node identifier of this node, which must be stable across restarts
+	 * @param ttlMillis the lease time, after which the node identifiers of a node gone are adopted
+	 * @param nodeRecovery takes over the object stores of the node identifiers adopted
+	 */
+	public RecoveryLeaseManager(RecoveryLeaseStore store, String nodeId, long ttlMillis, NodeRecovery nodeRecovery) {
+		this.store = store;
+		this.nodeId = nodeId;
+		this.ttlMillis = ttlMillis;
+		this.nodeRecovery = nodeRecovery;
+	}
+
+	/**
+	 * Take the lease of this node, waiting for a node that adopted it to hand it over, then take the leases
+	 * of the nodes gone and keep renewing them. Called before the recovery manager starts so that its first
+	 * scan already covers the adopted node identifiers.
+	 *
+	 * @throws Exception if the store cannot be reached
+	 * @throws IllegalStateException if the lease of this node is not handed over within three lease times
+	 */
+	public synchronized void start() throws Exception {
+		if (scheduler != null) {
+			return;
+		}
+		long period = Math.max(1, ttlMillis / 3);
+		long deadline = System.currentTimeMillis() + 3 * ttlMillis;
+		while (!store.tryAcquire(nodeId, nodeId, ttlMillis, true)) {
+			if (System.currentTimeMillis() > deadline) {
+				throw new IllegalStateException("The recovery lease of node " + nodeId + " is not handed over by the node holding it");
+			}
+			log.info("Waiting for the recovery lease of node {} to be handed over", nodeId);
+			Thread.sleep(Math.min(1000, period));
+		}
+		ownHeld = true;
+		publish();
+		renew();
+		scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+			Thread thread = new Thread(r, "tx-recovery-lease");
+			thread.setDaemon(true);
+			return thread;
+		});
+		scheduler.scheduleWithFixedDelay(this::renew, period, period, TimeUnit.MILLISECONDS);
+		Runtime.getRuntime().addShutdownHook(new Thread(this::stop, "tx-recovery-lease-shutdown"));
+	}
+
+	/**
+	 * Stop renewing and release the leases, so that the other nodes adopt this node's identifier at once
+	 * if it does not come back.
+	 */
+	public synchronized void stop() {
+		if (scheduler == null) {
+			return;
+		}
+		scheduler.shutdownNow();
+		scheduler = null;
+		List<String> held = new ArrayList<>(adopted);
+		held.add(nodeId);
+		for (String id : held) {
+			try {
+				store.release(id, nodeId);
+			} catch (Exception e) {
+				log.warn("Failed to release the recovery lease of node {}", id, e);
+			}
+		}
+		adopted.clear();
+		ownHeld = false;
+	}
+
+	/**
+	 * @return the node identifiers this node recovers, its own first
+	 */
+	public synchronized List<String> getRecoveryNodes() {
+		List<String> nodes = new ArrayList<>(adopted.size() + 1);
+		if (ownHeld) {
+			nodes.add(nodeId);
+		}
+		nodes.addAll(adopted);
+		return nodes;
+	}
+
+	synchronized void renew() {
+		try {
+			boolean held = store.tryAcquire(nodeId, nodeId, ttlMillis, true);
+			if (held != ownHeld) {
+				if (held) {
+					log.info("Took back the recovery lease of node {}", nodeId);
+				} else {
+					log.warn("Lost the recovery lease of node {}, asking it back", nodeId);
+				}
+				ownHeld = held;
+				publish();
+			}
+			for (String id : store.getNodeIds()) {
+				if (id.equals(nodeId)) {
+					continue;
+				}
+				if (store.tryAcquire(id, nodeId, ttlMillis, false)) {
+					if (!adopted.contains(id)) {
+						adopt(id);
+					}
+				} else if (adopted.contains(id)) {
+					handOver(id);
+				}
+			}
+		} catch (Exception e) {
+			// the other nodes may adopt them once the leases expire
+			if (!adopted.isEmpty()) {
+				log.warn("Failed to renew the recovery leases, dropping nodes {}", adopted, e);
+				List<String> dropped = new ArrayList<>(adopted);
+				adopted.clear();
+				publish();
+				for (String id : dropped) {
+					try {
+						nodeRecovery.handOver(id);
+					} catch (Exception handOverFailure) {
+						log.warn("Failed to stop the recovery of node {}", id, handOverFailure);
+					}
+				}
+			} else {
+				log.warn("Failed to renew the recovery leases", e);
+			}
+		}
+	}
+
+	private void adopt(String id) throws Exception {
+		try {
+			nodeRecovery.adopt(id);
+		} catch (Exception e) {
+			log.warn("Cannot take over the object store of node {}, leaving its recovery", id, e);
+			store.release(id, nodeId);
+			return;
+		}
+		adopted.add(id);
+		publish();
+		log.info("Adopted the recovery of node {}", id);
+	}
+
+	private void handOver(String id) throws Exception {
+		adopted.remove(id);
+		publish();
+		try {
+			nodeRecovery.handOver(id);
+		} catch (Exception e) {
+			// still recovering it, keep the lease until it expires
+			log.warn("Failed to stop the recovery of node {}", id, e);
+			return;
+		}
+		store.release(id, nodeId);
+		log.info("Handed the recovery of node {} over", id);
+	}
+
+	private void publish() {
+		BeanPopulator.getDefaultInstance(JTAEnvironmentBean.class).setXaRecoveryNodes(getRecoveryNodes());
+	}
+
+}
@@ -0,0 +1,53 @@
+/**
+ *
+ */
+package com.ethwt.core.transaction.narayana;
+
+import java.util.Collection;
+
+/**
+ * Shared store of the leases telling which live node recovers the transactions of each node identifier.
+ * <p>
+ * Implementations must make {@link #tryAcquire(String, String, long, boolean)} atomic across the nodes
+ * sharing the store. Expiry is told by the clocks of the nodes, so the lease time should be well above
+ * their skew.
+ * <p>
+ * A node never takes its own identifier from the node holding it: it asks for it back, which makes the
+ * holder fail its next renewal and release the lease once it stopped recovering the identifier. An
+ * identifier asked back can only be taken by its own node until the request expires, one lease time
+ * after it was last made.
+ *
+ * @author neillin
+ *
+ */
+public interface RecoveryLeaseStore {
+
+	/**
+	 * Acquire or renew the lease on a node identifier.
+	 *
+	 * @param nodeId the node identifier whose transactions the lease covers
+	 * @param owner the node identifier of the node taking the lease
+	 * @param ttlMillis how long the lease is valid from now if acquired
+	 * @param reclaim whether to ask another owner holding the lease unexpired to release it, done by a node
+	 *   taking back its own identifier
+	 * @return whether the owner holds the lease now, false for a holder whose lease was asked back
+	 * @throws Exception if the store cannot be reached
+	 */
+	boolean tryAcquire(String nodeId, String owner, long ttlMillis, boolean reclaim) throws Exception;
+
+	/**
+	 * Release the lease on a node identifier if held by the owner, so that it can be adopted at once.
+	 *
+	 * @param nodeId the node identifier whose transactions the lease covers
+	 * @param owner the node identifier of the node releasing the lease
+	 * @throws Exception if the store cannot be reached
+	 */
+	void release(String nodeId, String owner) throws Exception;
+
+	/**
+	 * @return every node identifier a lease was ever taken on
+	 * @throws Exception if the store cannot be reached
+	 */
+	Collection<String> getNodeIds() throws Exception;
+
+}
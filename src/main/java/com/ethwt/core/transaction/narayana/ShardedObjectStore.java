@@ -0,0 +1,246 @@
+/**
+ *
+ */
+package com.ethwt.core.transaction.narayana;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.SyncFailedException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import com.arjuna.ats.arjuna.common.ObjectStoreEnvironmentBean;
+import com.arjuna.ats.arjuna.common.Uid;
+import com.arjuna.ats.arjuna.exceptions.ObjectStoreException;
+import com.arjuna.ats.arjuna.objectstore.ObjectStoreAPI;
+import com.arjuna.ats.arjuna.objectstore.StateStatus;
+import com.arjuna.ats.arjuna.state.InputObjectState;
+import com.arjuna.ats.arjuna.state.OutputObjectState;
+import com.arjuna.ats.internal.arjuna.common.UidHelper;
+import com.arjuna.ats.internal.arjuna.objectstore.ShadowNoFileLockStore;
+
+/**
+ * Object store spreading the transaction logs over several directories, typically on separate devices,
+ * so that the syncs of concurrent commits queue on several disks instead of one.
+ * <p>
+ * The directories are the {@link File#pathSeparator} separated parts of the object store directory of its
+ * environment bean, each holding a {@link ShadowNoFileLockStore}. A log is written to the directory chosen
+ * by the hash of its transaction {@link Uid}, which is the same in every JVM. Reads and removals look in
+ * that directory first, then in the others, so logs written with another set of directories are still
+ * found and recovered, and listings merge all the directories.
+ *
+ * @author neillin
+ *
+ */
+public class ShardedObjectStore implements ObjectStoreAPI {
+
+	private final ObjectStoreAPI[] shards;
+	private final String storeName;
+
+	public ShardedObjectStore(ObjectStoreEnvironmentBean config) throws ObjectStoreException {
+		String[] dirs = config.getObjectStoreDir().split(File.pathSeparator);
+		this.shards = new ObjectStoreAPI[dirs.length];
+		for (int i = 0; i < dirs.length; i++) {
+			this.shards[i] = new ShadowNoFileLockStore(shardConfig(config, dirs[i]));
+		}
+		this.storeName = "ShardedObjectStore" + Arrays.toString(dirs);
+	}
+
+	static ObjectStoreEnvironmentBean shardConfig(ObjectStoreEnvironmentBean config, String dir) {
+		ObjectStoreEnvironmentBean shard = new ObjectStoreEnvironmentBean();
+		shard.setObjectStoreDir(dir);
+		shard.setLocalOSRoot(config.getLocalOSRoot());
+		shard.setObjectStoreSync(config.isObjectStoreSync());
+		shard.setTransactionSync(config.isTransactionSync());
+		shard.setHashedDirectories(config.getHashedDirectories());
+		shard.setScanZeroLengthFiles(config.isScanZeroLengthFiles());
+		shard.setShare(config.getShare());
+		shard.setHierarchyRetry(config.getHierarchyRetry());
+		shard.setHierarchyTimeout(config.getHierarchyTimeout());
+		shard.setSynchronousRemoval(config.isSynchronousRemoval());
+		return shard;
+	}
+
+	private ObjectStoreAPI shard(Uid uid) {
+		return shards[(uid.hashCode() & Integer.MAX_VALUE) % shards.length];
+	}
+
+	/**
+	 * @return the shard holding the state, or the shard of the Uid if none does
+	 */
+	private ObjectStoreAPI locate(Uid uid, String type) throws ObjectStoreException {
+		ObjectStoreAPI primary = shard(uid);
+		if (shards.length == 1 || primary.currentState(uid, type) != StateStatus.OS_UNKNOWN) {
+			return primary;
+		}
+		for (ObjectStoreAPI shard : shards) {
+			if (shard != primary && shard.currentState(uid, type) != StateStatus.OS_UNKNOWN) {
+				return shard;
+			}
+		}
+		return primary;
+	}
+
+	@Override
+	public String getStoreName() {
+		return storeName;
+	}
+
+	@Override
+	public void start() {
+		for (ObjectStoreAPI shard : shards) {
+			shard.start();
+		}
+	}
+
+	@Override
+	public void stop() {
+		for (ObjectStoreAPI shard : shards) {
+			shard.stop();
+		}
+	}
+
+	@Override
+	public void sync() throws SyncFailedException, ObjectStoreException {
+		for (ObjectStoreAPI shard : shards) {
+			shard.sync();
+		}
+	}
+
+	@Override
+	public boolean fullCommitNeeded() {
+		return shards[0].fullCommitNeeded();
+	}
+
+	@Override
+	public boolean write_committed(Uid uid, String type, OutputObjectState state) throws ObjectStoreException {
+		return shard(uid).write_committed(uid, type, state);
+	}
+
+	@Override
+	public boolean write_uncommitted(Uid uid, String type, OutputObjectState state) throws ObjectStoreException {
+		return shard(uid).write_uncommitted(uid, type, state);
+	}
+
+	@Override
+	public boolean remove_committed(Uid uid, String type) throws ObjectStoreException {
+		return locate(uid, type).remove_committed(uid, type);
+	}
+
+	@Override
+	public boolean remove_uncommitted(Uid uid, String type) throws ObjectStoreException {
+		return locate(uid, type).remove_uncommitted(uid, type);
+	}
+
+	@Override
+	public boolean commit_state(Uid uid, String type) throws ObjectStoreException {
+		return locate(uid, type).commit_state(uid, type);
+	}
+
+	@Override
+	public InputObjectState read_committed(Uid uid, String type) throws ObjectStoreException {
+		return locate(uid, type).read_committed(uid, type);
+	}
+
+	@Override
+	public InputObjectState read_uncommitted(Uid uid, String type) throws ObjectStoreException {
+		return locate(uid, type).read_uncommitted(uid, type);
+	}
+
+	@Override
+	public int currentState(Uid uid, String type) throws ObjectStoreException {
+		return locate(uid, type).currentState(uid, type);
+	}
+
+	@Override
+	public boolean hide_state(Uid uid, String type) throws ObjectStoreException {
+		return locate(uid, type).hide_state(uid, type);
+	}
+
+	@Override
+	public boolean reveal_state(Uid uid, String type) throws ObjectStoreException {
+		return locate(uid, type).reveal_state(uid, type);
+	}
+
+	@Override
+	public boolean isType(Uid uid, String type, int status) throws ObjectStoreException {
+		return locate(uid, type).isType(uid, type, status);
+	}
+
+	@Override
+	public boolean allObjUids(String type, InputObjectState state) throws ObjectStoreException {
+		return allObjUids(type, state, StateStatus.OS_UNKNOWN);
+	}
+
+	@Override
+	public boolean allObjUids(String type, InputObjectState state, int match) throws ObjectStoreException {
+		return mergeUids(Arrays.asList(shards), type, state, match, storeName);
+	}
+
+	@Override
+	public boolean allTypes(InputObjectState state) throws ObjectStoreException {
+		return mergeTypes(Arrays.asList(shards), state, storeName);
+	}
+
+	/**
+	 * List the Uids of a type in every store into one state.
+	 */
+	static boolean mergeUids(List<ObjectStoreAPI> stores, String type, InputObjectState state, int match,
+			String storeName) throws ObjectStoreException {
+		List<Uid> uids = new ArrayList<>();
+		boolean result = true;
+		try {
+			for (ObjectStoreAPI store : stores) {
+				InputObjectState storeState = new InputObjectState();
+				result &= store.allObjUids(type, storeState, match);
+				if (storeState.notempty()) {
+					for (Uid uid = UidHelper.unpackFrom(storeState); uid.notEquals(Uid.nullUid()); uid = UidHelper.unpackFrom(storeState)) {
+						uids.add(uid);
+					}
+				}
+			}
+			OutputObjectState merged = new OutputObjectState();
+			for (Uid uid : uids) {
+				UidHelper.packInto(uid, merged);
+			}
+			UidHelper.packInto(Uid.nullUid(), merged);
+			state.setBuffer(merged.buffer());
+		} catch (IOException e) {
+			throw new ObjectStoreException("Failed to merge the Uids of " + storeName, e);
+		}
+		return result;
+	}
+
+	/**
+	 * List the types of every store into one state.
+	 */
+	static boolean mergeTypes(List<ObjectStoreAPI> stores, InputObjectState state, String storeName)
+			throws ObjectStoreException {
+		Set<String> types = new LinkedHashSet<>();
+		boolean result = true;
+		try {
+			for (ObjectStoreAPI store : stores) {
+				InputObjectState storeState = new InputObjectState();
+				result &= store.allTypes(storeState);
+				if (storeState.notempty()) {
+					for (String type = storeState.unpackString(); type != null && !type.isEmpty(); type = storeState.unpackString()) {
+						types.add(type);
+					}
+				}
+			}
+			OutputObjectState merged = new OutputObjectState();
+			for (String type : types) {
+				merged.packString(type);
+			}
+			merged.packString("");
+			state.setBuffer(merged.buffer());
+		} catch (IOException e) {
+			throw new ObjectStoreException("Failed to merge the types of " + storeName, e);
+		}
+		return result;
+	}
+
+}
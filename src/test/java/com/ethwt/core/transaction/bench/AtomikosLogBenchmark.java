@@ -0,0 +1,143 @@
+/**
+ *
+ */
+package com.ethwt.core.transaction.bench;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.InputStreamReader;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import javax.transaction.Transaction;
+import javax.transaction.TransactionManager;
+import javax.transaction.xa.XAResource;
+
+import com.atomikos.datasource.xa.XATransactionalResource;
+import com.atomikos.icatch.config.Configuration;
+import com.atomikos.icatch.config.UserTransactionServiceImp;
+import com.atomikos.icatch.jta.TransactionManagerImp;
+import com.ethwt.core.transaction.atomikos.AtomikosConfig;
+import com.ethwt.core.transaction.atomikos.MappedTransactionLogFactory;
+
+/**
+ * Measures the commits per second and the commit latency percentiles of two phase commits logged by
+ * Atomikos, with its file log and with the mapped log of {@link AtomikosConfig#getLogRepository()}. The
+ * maximum latency shows the checkpoint pauses of the file log.
+ * <p>
+ * Atomikos starts once per JVM, so each log runs in its own child JVM. Run with {@code java -cp <test
+ * classpath> com.ethwt.core.transaction.bench.AtomikosLogBenchmark [threads] [transactions]}.
+ *
+ * @author neillin
+ *
+ */
+public class AtomikosLogBenchmark {
+
+	private static final String CHILD = "child";
+
+	public static void main(String[] args) throws Exception {
+		if (args.length > 0 && CHILD.equals(args[0])) {
+			run(args[1], Integer.parseInt(args[2]), Integer.parseInt(args[3]));
+			System.exit(0);
+		}
+		int threads = args.length > 0 ? Integer.parseInt(args[0]) : 16;
+		int transactions = args.length > 1 ? Integer.parseInt(args[1]) : 20000;
+		fork(AtomikosConfig.LOG_REPOSITORY_FILE, threads, transactions);
+		fork(AtomikosConfig.LOG_REPOSITORY_MAPPED, threads, transactions);
+	}
+
+	private static void fork(String repository, int threads, int transactions) throws Exception {
+		String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+		Process process = new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"),
+				AtomikosLogBenchmark.class.getName(), CHILD, repository, String.valueOf(threads), String.valueOf(transactions))
+				.redirectErrorStream(true).start();
+		try (BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream()))) {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				System.out.println(line);
+			}
+		}
+		process.waitFor();
+	}
+
+	private static void run(String repository, int threads, int transactions) throws Exception {
+		AtomikosConfig config = new AtomikosConfig();
+		config.setLogBaseDir(Files.createTempDirectory("tx-bench").toFile().getAbsolutePath());
+		config.setTransactionManagerUniqueName("bench");
+		config.setMaxActives(-1);
+		config.setLogRepository(repository);
+		MappedTransactionLogFactory.configure(config);
+		Properties properties = new Properties();
+		properties.putAll(config.asProperties());
+		UserTransactionServiceImp service = new UserTransactionServiceImp(properties);
+		service.init();
+		// Atomikos only enlists the XAResources of a registered resource
+		Configuration.addResource(new XATransactionalResource("bench") {
+
+			@Override
+			protected XAResource refreshXAConnection() {
+				return new SlowXAResource(0);
+			}
+
+			@Override
+			public boolean usesXAResource(XAResource xaResource) {
+				return xaResource instanceof SlowXAResource;
+			}
+		});
+
+		TransactionManager tm = TransactionManagerImp.getTransactionManager();
+		for (int i = 0; i < 100; i++) {
+			commitOne(tm);
+		}
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		List<Future<long[]>> workers = new ArrayList<>(threads);
+		long start = System.nanoTime();
+		for (int t = 0; t < threads; t++) {
+			int count = transactions / threads + (t < transactions % threads ? 1 : 0);
+			workers.add(executor.submit(() -> {
+				long[] latencies = new long[count];
+				for (int i = 0; i < count; i++) {
+					latencies[i] = commitOne(tm);
+				}
+				return latencies;
+			}));
+		}
+		long[] latencies = new long[0];
+		for (Future<long[]> worker : workers) {
+			long[] part = worker.get();
+			long[] merged = Arrays.copyOf(latencies, latencies.length + part.length);
+			System.arraycopy(part, 0, merged, latencies.length, part.length);
+			latencies = merged;
+		}
+		long elapsed = System.nanoTime() - start;
+		executor.shutdown();
+		Arrays.sort(latencies);
+		System.out.printf("%-7s threads=%d transactions=%d commits/s=%.0f p50=%.2fms p99=%.2fms max=%.2fms%n", repository,
+				threads, transactions, transactions * 1e9 / elapsed, millis(latencies[latencies.length / 2]),
+				millis(latencies[latencies.length * 99 / 100]), millis(latencies[latencies.length - 1]));
+		service.shutdown(true);
+	}
+
+	private static double millis(long nanos) {
+		return TimeUnit.NANOSECONDS.toMicros(nanos) / 1000.0;
+	}
+
+	private static long commitOne(TransactionManager tm) throws Exception {
+		long start = System.nanoTime();
+		tm.begin();
+		Transaction tx = tm.getTransaction();
+		// two participants, so that the commit is two phase and logged
+		tx.enlistResource(new SlowXAResource(0));
+		tx.enlistResource(new SlowXAResource(0));
+		tm.commit();
+		return System.nanoTime() - start;
+	}
+
+}
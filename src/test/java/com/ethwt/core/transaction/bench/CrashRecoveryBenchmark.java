@@ -0,0 +1,234 @@
+/**
+ *
+ */
+package com.ethwt.core.transaction.bench;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import javax.transaction.Transaction;
+import javax.transaction.TransactionManager;
+
+import com.ethwt.core.transaction.PoolConfig;
+import com.ethwt.core.transaction.TransactionManagerService;
+import com.ethwt.core.transaction.atomikos.AtomikosConfig;
+import com.ethwt.core.transaction.atomikos.AtomikosTxManagerService;
+import com.ethwt.core.transaction.narayana.JBossTxManagerService;
+
+/**
+ * Measures how long {@link JBossTxManagerService} and {@link AtomikosTxManagerService} take to recover
+ * after a crash leaving transactions in doubt, by count of transactions in doubt and by count of resource
+ * managers.
+ * <p>
+ * For each combination, a first child JVM commits the transactions over {@link InDoubtResourceManager}s
+ * failing the second phase, so that each transaction is logged as committing with all its branches
+ * prepared, then halts. A second child JVM restarts the service on the same log directory and reports the
+ * time from the creation of the service to the commit of its first new transaction, and to the resolution
+ * of every branch left prepared, with how many were committed and rolled back; all should be committed.
+ * Both services read their configuration from the {@code light-4j-config-dir} written here, the restart
+ * scans with the adaptive recovery at {@code minRecoveryIntervalMillis}. The resolution cannot be faster
+ * than the backends allow: Atomikos commits a transaction logged as committing once its timeout expired,
+ * Narayana on the second pass of a scan, after its recovery backoff period.
+ * <p>
+ * Run with {@code java -cp <test classpath> com.ethwt.core.transaction.bench.CrashRecoveryBenchmark
+ * [narayana,atomikos,atomikos-mapped] [in-doubt counts, such as 1000,10000] [resource counts, 2 at least]
+ * [minRecoveryIntervalMillis] [timeoutSeconds]}.
+ *
+ * @author neillin
+ *
+ */
+public class CrashRecoveryBenchmark {
+
+	private static final String CRASH = "crash";
+	private static final String RESTART = "restart";
+	private static final String ATOMIKOS_MAPPED = "atomikos-mapped";
+
+	public static void main(String[] args) throws Exception {
+		if (args.length > 0 && (CRASH.equals(args[0]) || RESTART.equals(args[0]))) {
+			String backend = args[1];
+			File dir = new File(args[2]);
+			int resources = Integer.parseInt(args[3]);
+			if (CRASH.equals(args[0])) {
+				crash(backend, dir, Integer.parseInt(args[4]), resources);
+			} else {
+				restart(backend, dir, resources, Long.parseLong(args[4]));
+			}
+			// the recovery threads of the backends keep the JVM alive
+			System.exit(0);
+		}
+		String[] backends = (args.length > 0 ? args[0] : "narayana,atomikos").split(",");
+		String[] inDoubtCounts = (args.length > 1 ? args[1] : "1000,5000,10000").split(",");
+		String[] resourceCounts = (args.length > 2 ? args[2] : "2,4").split(",");
+		long minRecoveryIntervalMillis = args.length > 3 ? Long.parseLong(args[3]) : 1000;
+		long timeoutSeconds = args.length > 4 ? Long.parseLong(args[4]) : 600;
+		for (String backend : backends) {
+			for (String resources : resourceCounts) {
+				if (Integer.parseInt(resources) < 2) {
+					throw new IllegalArgumentException("A transaction on a single resource manager commits in one phase, give 2 resources at least");
+				}
+				for (String inDoubt : inDoubtCounts) {
+					File dir = Files.createTempDirectory("tx-bench-recovery").toFile();
+					writeConfig(backend, dir, false, minRecoveryIntervalMillis);
+					fork(dir, CRASH, backend, dir.getAbsolutePath(), resources, inDoubt);
+					writeConfig(backend, dir, true, minRecoveryIntervalMillis);
+					fork(dir, RESTART, backend, dir.getAbsolutePath(), resources, String.valueOf(timeoutSeconds));
+				}
+			}
+		}
+	}
+
+	private static void writeConfig(String backend, File dir, boolean adaptiveRecovery, long minRecoveryIntervalMillis)
+			throws IOException {
+		File config = new File(dir, "config");
+		config.mkdirs();
+		String logDir = new File(dir, "log").getAbsolutePath();
+		write(new File(config, "transaction.yml"), "recoveryEnabled: true\nadaptiveRecovery: " + adaptiveRecovery
+				+ "\nminRecoveryIntervalMillis: " + minRecoveryIntervalMillis + "\n");
+		// a warning with its stack trace per failed branch would bound the crash by the console
+		write(new File(config, "logging.properties"), ".level=OFF\n");
+		// stable ids, so that the restart recovers what the crash left
+		write(new File(config, "narayana.yml"), "logDir: " + logDir + "\ntransactionManagerId: bench\nxaRecoveryNodes:\n  - bench\n");
+		// failed commits left to recovery, instead of retried in the committing thread
+		write(new File(config, "atomikos.yml"), "logBaseDir: " + logDir + "\ntransactionManagerUniqueName: bench\nmaxActives: -1\nlogRepository: "
+				+ (ATOMIKOS_MAPPED.equals(backend) ? AtomikosConfig.LOG_REPOSITORY_MAPPED : AtomikosConfig.LOG_REPOSITORY_FILE)
+				+ "\nrecovery:\n  maxRetries: 0\n");
+	}
+
+	private static void write(File file, String content) throws IOException {
+		Files.write(file.toPath(), content.getBytes(StandardCharsets.UTF_8));
+	}
+
+	private static void fork(File dir, String... args) throws Exception {
+		String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+		List<String> command = new ArrayList<>();
+		command.add(java);
+		command.add("-Dlight-4j-config-dir=" + new File(dir, "config").getAbsolutePath());
+		command.add("-Djava.util.logging.config.file=" + new File(dir, "config/logging.properties").getAbsolutePath());
+		command.add("-cp");
+		command.add(System.getProperty("java.class.path"));
+		command.add(CrashRecoveryBenchmark.class.getName());
+		for (String arg : args) {
+			command.add(arg);
+		}
+		Process process = new ProcessBuilder(command).redirectErrorStream(true).start();
+		try (BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream()))) {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				// the results only
+				if (line.startsWith("#")) {
+					System.out.println(line.substring(1));
+				}
+			}
+		}
+		process.waitFor();
+	}
+
+	private static void crash(String backend, File dir, int inDoubt, int resources) throws Exception {
+		List<InDoubtResourceManager> resourceManagers = resourceManagers(resources);
+		TransactionManagerService service = createService(backend, resourceManagers);
+		TransactionManager tm = service.getTransactionManager();
+		resourceManagers.forEach(rm -> rm.setFailing(true));
+		int threads = 16;
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		List<Future<?>> workers = new ArrayList<>(threads);
+		long start = System.nanoTime();
+		for (int t = 0; t < threads; t++) {
+			int count = inDoubt / threads + (t < inDoubt % threads ? 1 : 0);
+			workers.add(executor.submit(() -> {
+				for (int i = 0; i < count; i++) {
+					try {
+						commitOne(tm, resourceManagers);
+					} catch (Exception e) {
+						// a heuristic outcome reported for the failed second phase, the branches stay prepared
+						tm.suspend();
+					}
+				}
+				return null;
+			}));
+		}
+		for (Future<?> worker : workers) {
+			worker.get();
+		}
+		long elapsed = System.nanoTime() - start;
+		for (InDoubtResourceManager rm : resourceManagers) {
+			rm.save(new File(dir, rm.getName() + ".xids"));
+		}
+		// one write, the backends log to the same output
+		System.out.println(String.format("#%-15s crash:   inDoubt=%d resources=%d prepared branches=%d in %dms", backend,
+				inDoubt, resources, resourceManagers.stream().mapToInt(InDoubtResourceManager::getPreparedCount).sum(),
+				TimeUnit.NANOSECONDS.toMillis(elapsed)));
+		System.out.flush();
+		// no shutdown hook, no log close: a crash
+		Runtime.getRuntime().halt(0);
+	}
+
+	private static void restart(String backend, File dir, int resources, long timeoutSeconds) throws Exception {
+		List<InDoubtResourceManager> resourceManagers = resourceManagers(resources);
+		int prepared = 0;
+		for (InDoubtResourceManager rm : resourceManagers) {
+			rm.load(new File(dir, rm.getName() + ".xids"));
+			prepared += rm.getPreparedCount();
+		}
+		long start = System.nanoTime();
+		TransactionManagerService service = createService(backend, resourceManagers);
+		commitOne(service.getTransactionManager(), resourceManagers);
+		long firstTransaction = System.nanoTime() - start;
+		long deadline = start + TimeUnit.SECONDS.toNanos(timeoutSeconds);
+		int left;
+		while ((left = resourceManagers.stream().mapToInt(InDoubtResourceManager::getPreparedCount).sum()) > 0
+				&& System.nanoTime() < deadline) {
+			TimeUnit.MILLISECONDS.sleep(10);
+		}
+		long allResolved = System.nanoTime() - start;
+		int committed = resourceManagers.stream().mapToInt(InDoubtResourceManager::getCommittedCount).sum() - resources;
+		int rolledBack = resourceManagers.stream().mapToInt(InDoubtResourceManager::getRolledBackCount).sum();
+		System.out.println(String.format("#%-15s restart: prepared branches=%d first new transaction=%dms %s=%dms committed=%d rolled back=%d",
+				backend, prepared, TimeUnit.NANOSECONDS.toMillis(firstTransaction),
+				left == 0 ? "all resolved" : "timed out with " + left + " left",
+				TimeUnit.NANOSECONDS.toMillis(allResolved), committed, rolledBack));
+	}
+
+	private static List<InDoubtResourceManager> resourceManagers(int resources) {
+		List<InDoubtResourceManager> resourceManagers = new ArrayList<>(resources);
+		for (int i = 0; i < resources; i++) {
+			resourceManagers.add(new InDoubtResourceManager("rm" + i));
+		}
+		return resourceManagers;
+	}
+
+	/**
+	 * Create the service and adapt the resource managers, which registers them for recovery.
+	 */
+	private static TransactionManagerService createService(String backend, List<InDoubtResourceManager> resourceManagers)
+			throws Exception {
+		UnusedDriver.register();
+		TransactionManagerService service = backend.startsWith("atomikos") ? new AtomikosTxManagerService()
+				: new JBossTxManagerService();
+		for (InDoubtResourceManager rm : resourceManagers) {
+			PoolConfig poolConfig = new PoolConfig();
+			poolConfig.setName(rm.getName());
+			service.getDataSourceAdaptor().adapt(rm, poolConfig);
+		}
+		return service;
+	}
+
+	private static void commitOne(TransactionManager tm, List<InDoubtResourceManager> resourceManagers) throws Exception {
+		tm.begin();
+		Transaction tx = tm.getTransaction();
+		for (InDoubtResourceManager rm : resourceManagers) {
+			tx.enlistResource(rm.getXAResource());
+		}
+		tm.commit();
+	}
+
+}
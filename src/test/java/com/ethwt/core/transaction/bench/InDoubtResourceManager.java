@@ -0,0 +1,303 @@
+/**
+ *
+ */
+package com.ethwt.core.transaction.bench;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Logger;
+
+import javax.sql.ConnectionEventListener;
+import javax.sql.StatementEventListener;
+import javax.sql.XAConnection;
+import javax.sql.XADataSource;
+import javax.transaction.xa.XAException;
+import javax.transaction.xa.XAResource;
+import javax.transaction.xa.Xid;
+
+/**
+ * In memory stand-in of a resource manager keeping the branches it prepared until they are committed or
+ * rolled back, seen by the transaction managers through an {@link XADataSource} so that they register it
+ * for recovery as they would a database.
+ * <p>
+ * While failing, the second phase calls fail with {@code XAER_RMFAIL}, leaving the branches prepared as a
+ * crash between prepare and commit would. A real resource manager outlives the crash of the transaction
+ * manager, so the prepared branches are saved with {@link #save(File)} before the crash and loaded with
+ * {@link #load(File)} after the restart.
+ *
+ * @author neillin
+ *
+ */
+public class InDoubtResourceManager implements XADataSource {
+
+	private final String name;
+	private final Set<BranchId> prepared = ConcurrentHashMap.newKeySet();
+	private final AtomicInteger committed = new AtomicInteger();
+	private final AtomicInteger rolledBack = new AtomicInteger();
+	private volatile boolean failing;
+
+	public InDoubtResourceManager(String name) {
+		this.name = name;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public void setFailing(boolean failing) {
+		this.failing = failing;
+	}
+
+	public int getPreparedCount() {
+		return prepared.size();
+	}
+
+	public int getCommittedCount() {
+		return committed.get();
+	}
+
+	public int getRolledBackCount() {
+		return rolledBack.get();
+	}
+
+	/**
+	 * @return a new connection to this resource manager, as the transaction managers enlist one per
+	 *         transaction
+	 */
+	public XAResource getXAResource() {
+		return new Branch();
+	}
+
+	/**
+	 * Save the prepared branches, one per line.
+	 *
+	 * @param file the file to write
+	 * @throws IOException if the file cannot be written
+	 */
+	public void save(File file) throws IOException {
+		try (PrintWriter writer = new PrintWriter(file, StandardCharsets.UTF_8.name())) {
+			Base64.Encoder encoder = Base64.getEncoder();
+			for (BranchId id : prepared) {
+				writer.println(id.formatId + " " + encoder.encodeToString(id.gtrid) + " " + encoder.encodeToString(id.bqual));
+			}
+		}
+	}
+
+	/**
+	 * Load the prepared branches saved by {@link #save(File)}.
+	 *
+	 * @param file the file to read
+	 * @throws IOException if the file cannot be read
+	 */
+	public void load(File file) throws IOException {
+		Base64.Decoder decoder = Base64.getDecoder();
+		for (String line : Files.readAllLines(file.toPath(), StandardCharsets.UTF_8)) {
+			String[] parts = line.split(" ");
+			prepared.add(new BranchId(Integer.parseInt(parts[0]), decoder.decode(parts[1]), decoder.decode(parts[2])));
+		}
+	}
+
+	@Override
+	public XAConnection getXAConnection() throws SQLException {
+		XAResource resource = getXAResource();
+		return new XAConnection() {
+
+			@Override
+			public XAResource getXAResource() {
+				return resource;
+			}
+
+			@Override
+			public Connection getConnection() throws SQLException {
+				throw new SQLFeatureNotSupportedException(name + " only takes part in recovery");
+			}
+
+			@Override
+			public void close() {
+			}
+
+			@Override
+			public void addConnectionEventListener(ConnectionEventListener listener) {
+			}
+
+			@Override
+			public void removeConnectionEventListener(ConnectionEventListener listener) {
+			}
+
+			@Override
+			public void addStatementEventListener(StatementEventListener listener) {
+			}
+
+			@Override
+			public void removeStatementEventListener(StatementEventListener listener) {
+			}
+		};
+	}
+
+	@Override
+	public XAConnection getXAConnection(String user, String password) throws SQLException {
+		return getXAConnection();
+	}
+
+	@Override
+	public PrintWriter getLogWriter() {
+		return null;
+	}
+
+	@Override
+	public void setLogWriter(PrintWriter out) {
+	}
+
+	@Override
+	public void setLoginTimeout(int seconds) {
+	}
+
+	@Override
+	public int getLoginTimeout() {
+		return 0;
+	}
+
+	@Override
+	public Logger getParentLogger() throws SQLFeatureNotSupportedException {
+		throw new SQLFeatureNotSupportedException();
+	}
+
+	@Override
+	public String toString() {
+		return name;
+	}
+
+	private class Branch implements XAResource {
+
+		@Override
+		public void start(Xid xid, int flags) throws XAException {
+		}
+
+		@Override
+		public void end(Xid xid, int flags) throws XAException {
+		}
+
+		@Override
+		public int prepare(Xid xid) throws XAException {
+			prepared.add(new BranchId(xid));
+			return XA_OK;
+		}
+
+		@Override
+		public void commit(Xid xid, boolean onePhase) throws XAException {
+			failIfFailing();
+			if (prepared.remove(new BranchId(xid)) || onePhase) {
+				committed.incrementAndGet();
+			} else {
+				throw new XAException(XAException.XAER_NOTA);
+			}
+		}
+
+		@Override
+		public void rollback(Xid xid) throws XAException {
+			failIfFailing();
+			if (prepared.remove(new BranchId(xid))) {
+				rolledBack.incrementAndGet();
+			}
+		}
+
+		@Override
+		public void forget(Xid xid) throws XAException {
+			prepared.remove(new BranchId(xid));
+		}
+
+		@Override
+		public Xid[] recover(int flag) throws XAException {
+			if ((flag & TMSTARTRSCAN) == 0) {
+				return new Xid[0];
+			}
+			List<Xid> xids = new ArrayList<>(prepared);
+			return xids.toArray(new Xid[xids.size()]);
+		}
+
+		@Override
+		public boolean isSameRM(XAResource xares) throws XAException {
+			return xares instanceof Branch && ((Branch) xares).getName().equals(name);
+		}
+
+		@Override
+		public int getTransactionTimeout() throws XAException {
+			return 0;
+		}
+
+		@Override
+		public boolean setTransactionTimeout(int seconds) throws XAException {
+			return false;
+		}
+
+		private String getName() {
+			return name;
+		}
+
+		private void failIfFailing() throws XAException {
+			if (failing) {
+				throw new XAException(XAException.XAER_RMFAIL);
+			}
+		}
+	}
+
+	private static final class BranchId implements Xid {
+
+		private final int formatId;
+		private final byte[] gtrid;
+		private final byte[] bqual;
+
+		BranchId(Xid xid) {
+			this(xid.getFormatId(), xid.getGlobalTransactionId(), xid.getBranchQualifier());
+		}
+
+		BranchId(int formatId, byte[] gtrid, byte[] bqual) {
+			this.formatId = formatId;
+			this.gtrid = gtrid;
+			this.bqual = bqual;
+		}
+
+		@Override
+		public int getFormatId() {
+			return formatId;
+		}
+
+		@Override
+		public byte[] getGlobalTransactionId() {
+			return gtrid.clone();
+		}
+
+		@Override
+		public byte[] getBranchQualifier() {
+			return bqual.clone();
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (!(obj instanceof BranchId)) {
+				return false;
+			}
+			BranchId other = (BranchId) obj;
+			return formatId == other.formatId && Arrays.equals(gtrid, other.gtrid) && Arrays.equals(bqual, other.bqual);
+		}
+
+		@Override
+		public int hashCode() {
+			return 31 * (31 * formatId + Arrays.hashCode(gtrid)) + Arrays.hashCode(bqual);
+		}
+	}
+
+}
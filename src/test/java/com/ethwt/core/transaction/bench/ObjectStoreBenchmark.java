@@ -0,0 +1,133 @@
+/**
+ *
+ */
+package com.ethwt.core.transaction.bench;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.InputStreamReader;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import javax.transaction.Transaction;
+import javax.transaction.TransactionManager;
+
+import com.ethwt.core.transaction.narayana.NarayanaConfig;
+import com.ethwt.core.transaction.narayana.NarayanaPropertiesInitializer;
+
+/**
+ * Measures the commits per second of two phase commits, each writing a transaction log, with the object
+ * store types of {@link NarayanaConfig#getObjectStoreType()}.
+ * <p>
+ * Narayana creates its object store once per JVM, so each store type runs in its own child JVM.
+ * {@code sharded=<n>} shards the default store over n temporary directories. The journal store needs
+ * artemis-journal on the class path, and the jdbc store a Narayana JDBC access with its driver on the class
+ * path, such as
+ * {@code com.arjuna.ats.internal.arjuna.objectstore.jdbc.accessors.DynamicDataSourceJDBCAccess;ClassName=org.h2.jdbcx.JdbcDataSource;URL=jdbc:h2:/tmp/txlog}.
+ * Run with {@code java -cp <test classpath> com.ethwt.core.transaction.bench.ObjectStoreBenchmark
+ * [threads] [transactions] [default|journal|sharded=<n>|jdbc=<access>]...}.
+ *
+ * @author neillin
+ *
+ */
+public class ObjectStoreBenchmark {
+
+	private static final String CHILD = "child";
+
+	public static void main(String[] args) throws Exception {
+		if (args.length > 0 && CHILD.equals(args[0])) {
+			run(args[1], Integer.parseInt(args[2]), Integer.parseInt(args[3]));
+			// the recovery threads of Narayana keep the JVM alive
+			System.exit(0);
+		}
+		int threads = args.length > 0 ? Integer.parseInt(args[0]) : 16;
+		int transactions = args.length > 1 ? Integer.parseInt(args[1]) : 20000;
+		List<String> types = new ArrayList<>();
+		for (int i = 2; i < args.length; i++) {
+			types.add(args[i]);
+		}
+		if (types.isEmpty()) {
+			types.add("default");
+			types.add("journal");
+		}
+		for (String type : types) {
+			fork(type, threads, transactions);
+		}
+	}
+
+	private static void fork(String type, int threads, int transactions) throws Exception {
+		String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+		Process process = new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"),
+				ObjectStoreBenchmark.class.getName(), CHILD, type, String.valueOf(threads), String.valueOf(transactions))
+				.redirectErrorStream(true).start();
+		try (BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream()))) {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				System.out.println(line);
+			}
+		}
+		process.waitFor();
+	}
+
+	private static void run(String type, int threads, int transactions) throws Exception {
+		NarayanaConfig config = new NarayanaConfig();
+		config.setLogDir(Files.createTempDirectory("tx-bench").toFile().getAbsolutePath());
+		if (type.startsWith("jdbc=")) {
+			config.setObjectStoreJdbcAccess(type.substring("jdbc=".length()));
+			config.setObjectStoreType("jdbc");
+		} else if (type.startsWith("sharded=")) {
+			// on one device this only measures the overhead, give real devices with actionStoreDirs
+			for (int i = Integer.parseInt(type.substring("sharded=".length())); i > 0; i--) {
+				config.getActionStoreDirs().add(Files.createTempDirectory("tx-bench-shard").toFile().getAbsolutePath());
+			}
+		} else {
+			config.setObjectStoreType(type);
+		}
+		try {
+			new NarayanaPropertiesInitializer(config).setup();
+		} catch (RuntimeException e) {
+			System.out.printf("%-10s skipped: %s%n", type, e.getMessage());
+			return;
+		}
+
+		TransactionManager tm = com.arjuna.ats.jta.TransactionManager.transactionManager();
+		for (int i = 0; i < 100; i++) {
+			commitOne(tm);
+		}
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		List<Future<?>> workers = new ArrayList<>(threads);
+		long start = System.nanoTime();
+		for (int t = 0; t < threads; t++) {
+			int count = transactions / threads + (t < transactions % threads ? 1 : 0);
+			workers.add(executor.submit(() -> {
+				for (int i = 0; i < count; i++) {
+					commitOne(tm);
+				}
+				return null;
+			}));
+		}
+		for (Future<?> worker : workers) {
+			worker.get();
+		}
+		long elapsed = System.nanoTime() - start;
+		executor.shutdown();
+		System.out.printf("%-10s threads=%d transactions=%d commits/s=%.0f avg commit=%.2fms%n", type, threads,
+				transactions, transactions * 1e9 / elapsed,
+				TimeUnit.NANOSECONDS.toMicros(elapsed) / 1000.0 * threads / transactions);
+	}
+
+	private static void commitOne(TransactionManager tm) throws Exception {
+		tm.begin();
+		Transaction tx = tm.getTransaction();
+		// two participants, so that the commit is two phase and logged
+		tx.enlistResource(new SlowXAResource(0));
+		tx.enlistResource(new SlowXAResource(0));
+		tm.commit();
+	}
+
+}
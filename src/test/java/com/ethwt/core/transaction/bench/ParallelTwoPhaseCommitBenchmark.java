@@ -0,0 +1,143 @@
+/**
+ *
+ */
+package com.ethwt.core.transaction.bench;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import javax.transaction.Transaction;
+import javax.transaction.TransactionManager;
+import javax.transaction.xa.XAResource;
+
+import com.atomikos.datasource.xa.XATransactionalResource;
+import com.atomikos.icatch.config.Configuration;
+import com.ethwt.core.transaction.TransactionConfig;
+import com.ethwt.core.transaction.TransactionManagerService;
+import com.ethwt.core.transaction.atomikos.AtomikosTxManagerService;
+import com.ethwt.core.transaction.narayana.JBossTxManagerService;
+
+/**
+ * Measures the commit latency of transactions enlisting several slow {@link SlowXAResource}s, with the two
+ * phase commit run sequentially and in parallel by {@link JBossTxManagerService} and
+ * {@link AtomikosTxManagerService}, as selected by {@link TransactionConfig#isParallelTwoPhaseCommit()}.
+ * <p>
+ * Both backends read their settings once per JVM, so each backend and mode runs in its own child JVM, with
+ * the configuration written to its {@code light-4j-config-dir}. Run with {@code java -cp <test classpath>
+ * com.ethwt.core.transaction.bench.ParallelTwoPhaseCommitBenchmark [narayana,atomikos] [resources]
+ * [delayMillis] [transactions]}.
+ *
+ * @author neillin
+ *
+ */
+public class ParallelTwoPhaseCommitBenchmark {
+
+	private static final String CHILD = "child";
+
+	public static void main(String[] args) throws Exception {
+		if (args.length > 0 && CHILD.equals(args[0])) {
+			run(args[1], Boolean.parseBoolean(args[2]), Arrays.copyOfRange(args, 3, args.length));
+			// the recovery threads of the backends keep the JVM alive
+			System.exit(0);
+		}
+		String[] backends = (args.length > 0 ? args[0] : "narayana,atomikos").split(",");
+		String[] rest = Arrays.copyOfRange(args, Math.min(1, args.length), args.length);
+		for (String backend : backends) {
+			fork(backend, false, rest);
+			fork(backend, true, rest);
+		}
+	}
+
+	private static void fork(String backend, boolean parallel, String[] args) throws Exception {
+		File dir = Files.createTempDirectory("tx-bench").toFile();
+		File config = new File(dir, "config");
+		config.mkdirs();
+		String logDir = new File(dir, "log").getAbsolutePath();
+		write(new File(config, "transaction.yml"), "parallelTwoPhaseCommit: " + parallel + "\n");
+		write(new File(config, "narayana.yml"), "logDir: " + logDir + "\n");
+		write(new File(config, "atomikos.yml"), "logBaseDir: " + logDir + "\n");
+		write(new File(config, "logging.properties"), ".level=OFF\n");
+
+		String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+		List<String> command = new ArrayList<>();
+		command.add(java);
+		command.add("-Dlight-4j-config-dir=" + config.getAbsolutePath());
+		command.add("-Djava.util.logging.config.file=" + new File(config, "logging.properties").getAbsolutePath());
+		command.add("-cp");
+		command.add(System.getProperty("java.class.path"));
+		command.add(ParallelTwoPhaseCommitBenchmark.class.getName());
+		command.add(CHILD);
+		command.add(backend);
+		command.add(String.valueOf(parallel));
+		command.addAll(Arrays.asList(args));
+		Process process = new ProcessBuilder(command).redirectErrorStream(true).start();
+		try (BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream()))) {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				// the results only
+				if (line.startsWith("#")) {
+					System.out.println(line.substring(1));
+				}
+			}
+		}
+		process.waitFor();
+	}
+
+	private static void write(File file, String content) throws IOException {
+		Files.write(file.toPath(), content.getBytes(StandardCharsets.UTF_8));
+	}
+
+	private static void run(String backend, boolean parallel, String[] args) throws Exception {
+		int resources = args.length > 0 ? Integer.parseInt(args[0]) : 3;
+		long delayMillis = args.length > 1 ? Long.parseLong(args[1]) : 20;
+		int transactions = args.length > 2 ? Integer.parseInt(args[2]) : 50;
+
+		TransactionManagerService service = "atomikos".equals(backend) ? new AtomikosTxManagerService()
+				: new JBossTxManagerService();
+		TransactionManager tm = service.getTransactionManager();
+		if (service instanceof AtomikosTxManagerService) {
+			// Atomikos only enlists the XAResources of a registered resource
+			Configuration.addResource(new XATransactionalResource("bench") {
+
+				@Override
+				protected XAResource refreshXAConnection() {
+					return new SlowXAResource(0);
+				}
+
+				@Override
+				public boolean usesXAResource(XAResource xaResource) {
+					return xaResource instanceof SlowXAResource;
+				}
+			});
+		}
+		for (int i = 0; i < 5; i++) {
+			commitOne(tm, resources, 0);
+		}
+		long start = System.nanoTime();
+		for (int i = 0; i < transactions; i++) {
+			commitOne(tm, resources, delayMillis);
+		}
+		long elapsed = System.nanoTime() - start;
+		System.out.println(String.format("#%-9s %-10s resources=%d delay=%dms transactions=%d avg commit=%.1fms", backend,
+				parallel ? "parallel" : "sequential", resources, delayMillis, transactions,
+				TimeUnit.NANOSECONDS.toMicros(elapsed) / 1000.0 / transactions));
+	}
+
+	private static void commitOne(TransactionManager tm, int resources, long delayMillis) throws Exception {
+		tm.begin();
+		Transaction tx = tm.getTransaction();
+		for (int i = 0; i < resources; i++) {
+			tx.enlistResource(new SlowXAResource(delayMillis));
+		}
+		tm.commit();
+	}
+
+}
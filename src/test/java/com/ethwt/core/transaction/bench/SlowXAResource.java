@@ -0,0 +1,86 @@
+/**
+ * 
+ */
+package com.ethwt.core.transaction.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import javax.transaction.xa.XAException;
+import javax.transaction.xa.XAResource;
+import javax.transaction.xa.Xid;
+
+/**
+ * In memory {@link XAResource} simulating a participant with a fixed round trip on every phase of the
+ * two phase commit.
+ * 
+ * @author neillin
+ *
+ */
+public class SlowXAResource implements XAResource {
+
+	private final long delayMillis;
+
+	public SlowXAResource(long delayMillis) {
+		this.delayMillis = delayMillis;
+	}
+
+	@Override
+	public void start(Xid xid, int flags) throws XAException {
+	}
+
+	@Override
+	public void end(Xid xid, int flags) throws XAException {
+	}
+
+	@Override
+	public int prepare(Xid xid) throws XAException {
+		roundTrip();
+		return XA_OK;
+	}
+
+	@Override
+	public void commit(Xid xid, boolean onePhase) throws XAException {
+		roundTrip();
+	}
+
+	@Override
+	public void rollback(Xid xid) throws XAException {
+		roundTrip();
+	}
+
+	@Override
+	public void forget(Xid xid) throws XAException {
+	}
+
+	@Override
+	public Xid[] recover(int flag) throws XAException {
+		return new Xid[0];
+	}
+
+	@Override
+	public boolean isSameRM(XAResource xares) throws XAException {
+		return false;
+	}
+
+	@Override
+	public int getTransactionTimeout() throws XAException {
+		return 0;
+	}
+
+	@Override
+	public boolean setTransactionTimeout(int seconds) throws XAException {
+		return false;
+	}
+
+	private void roundTrip() throws XAException {
+		try {
+			TimeUnit.MILLISECONDS.sleep(delayMillis);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			XAException ex = new XAException(XAException.XAER_RMFAIL);
+			ex.initCause(e);
+			throw ex;
+		}
+	}
+
+}
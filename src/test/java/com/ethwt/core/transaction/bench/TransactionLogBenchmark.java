@@ -0,0 +1,282 @@
+/**
+ *
+ */
+package com.ethwt.core.transaction.bench;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import javax.transaction.Transaction;
+import javax.transaction.Transactional.TxType;
+
+import com.ethwt.core.transaction.PoolConfig;
+import com.ethwt.core.transaction.TransactionManagerService;
+import com.ethwt.core.transaction.atomikos.AtomikosConfig;
+import com.ethwt.core.transaction.atomikos.AtomikosTxManagerService;
+import com.ethwt.core.transaction.narayana.JBossTxManagerService;
+import com.ethwt.core.transaction.narayana.NarayanaConfig;
+
+/**
+ * Measures the transaction log I/O of two phase commits run through
+ * {@link TransactionManagerService#executeWithTx(TxType, com.ethwt.core.transaction.TransactionalRunnable)}
+ * on two {@link InDoubtResourceManager}s, for each log configuration of {@link NarayanaConfig} and
+ * {@link AtomikosConfig}: commits per second, latency percentiles, device flushes per commit and bytes
+ * written per commit.
+ * <p>
+ * The bytes written are those of the benchmark JVM, from {@code /proc/self/io}. The logs force their writes
+ * through {@code FileDescriptor.sync()}, {@code FileChannel.force()} or {@code MappedByteBuffer.force()},
+ * which Java does not count, so the {@code fsync}s are counted as the cache flushes of the device holding
+ * the log directory, from {@code /proc/diskstats}: that is after the grouping of concurrent forces by the
+ * log, the file system and the block layer, which is what the device pays for. The device bytes include the
+ * file system metadata and journal. Both device counts take in all the writes to the device, so run on an
+ * otherwise quiet node; they are {@code n/a} without {@code /proc}, on a file system without a device such
+ * as tmpfs, and for the flushes on a device without a volatile write cache, which never gets any.
+ * <p>
+ * The configurations are {@code narayana} (the default object store), {@code narayana-journal},
+ * {@code narayana-sharded} (two action store directories), {@code atomikos} (the file log) and
+ * {@code atomikos-mapped}, each optionally followed by {@code :key=value;key=value} setting scalar entries
+ * of the configuration of its backend, such as
+ * {@code narayana-journal:journalSyncWrites=false;journalBufferFlushesPerSecond=1000} or
+ * {@code narayana:objectStoreType=jdbc;objectStoreJdbcAccess=<access>}. Each configuration runs in its own
+ * child JVM, with its log in a new directory under the given log directory. Run with
+ * {@code java -cp <test classpath> com.ethwt.core.transaction.bench.TransactionLogBenchmark [logDir]
+ * [threads] [transactions] [configuration]...}.
+ *
+ * @author neillin
+ *
+ */
+public class TransactionLogBenchmark {
+
+	private static final String CHILD = "child";
+	private static final String RESULT = "#";
+
+	public static void main(String[] args) throws Exception {
+		if (args.length > 0 && CHILD.equals(args[0])) {
+			run(args[1], Integer.parseInt(args[2]), Integer.parseInt(args[3]), new File(args[4]));
+			// the recovery threads of the backends keep the JVM alive
+			System.exit(0);
+		}
+		File logDir = new File(args.length > 0 ? args[0] : System.getProperty("java.io.tmpdir"));
+		int threads = args.length > 1 ? Integer.parseInt(args[1]) : 16;
+		int transactions = args.length > 2 ? Integer.parseInt(args[2]) : 20000;
+		List<String> configurations = new ArrayList<>();
+		for (int i = 3; i < args.length; i++) {
+			configurations.add(args[i]);
+		}
+		if (configurations.isEmpty()) {
+			configurations.addAll(Arrays.asList("narayana", "narayana-journal", "narayana-sharded", "atomikos", "atomikos-mapped"));
+		}
+		logDir.mkdirs();
+		for (String configuration : configurations) {
+			File dir = Files.createTempDirectory(logDir.toPath(), "tx-bench-log").toFile();
+			writeConfig(configuration, dir);
+			fork(configuration, threads, transactions, dir);
+		}
+	}
+
+	private static void writeConfig(String configuration, File dir) throws IOException {
+		int colon = configuration.indexOf(':');
+		String name = colon < 0 ? configuration : configuration.substring(0, colon);
+		StringBuilder narayana = new StringBuilder("logDir: ").append(new File(dir, "log").getAbsolutePath()).append('\n');
+		StringBuilder atomikos = new StringBuilder("logBaseDir: ").append(new File(dir, "log").getAbsolutePath())
+				.append("\ntransactionManagerUniqueName: bench\nmaxActives: -1\n");
+		switch (name) {
+		case "narayana":
+			break;
+		case "narayana-journal":
+			narayana.append("objectStoreType: journal\n");
+			break;
+		case "narayana-sharded":
+			narayana.append("actionStoreDirs:\n");
+			for (int i = 0; i < 2; i++) {
+				narayana.append("  - ").append(new File(dir, "shard" + i).getAbsolutePath()).append('\n');
+			}
+			break;
+		case "atomikos":
+			atomikos.append("logRepository: ").append(AtomikosConfig.LOG_REPOSITORY_FILE).append('\n');
+			break;
+		case "atomikos-mapped":
+			atomikos.append("logRepository: ").append(AtomikosConfig.LOG_REPOSITORY_MAPPED).append('\n');
+			break;
+		default:
+			throw new IllegalArgumentException("Unknown configuration " + name);
+		}
+		if (colon >= 0) {
+			StringBuilder target = name.startsWith("atomikos") ? atomikos : narayana;
+			for (String setting : configuration.substring(colon + 1).split(";")) {
+				int equals = setting.indexOf('=');
+				target.append(setting, 0, equals).append(": ").append(setting.substring(equals + 1)).append('\n');
+			}
+		}
+		File config = new File(dir, "config");
+		config.mkdirs();
+		Files.write(new File(config, "narayana.yml").toPath(), narayana.toString().getBytes(StandardCharsets.UTF_8));
+		Files.write(new File(config, "atomikos.yml").toPath(), atomikos.toString().getBytes(StandardCharsets.UTF_8));
+		// Atomikos only enlists the resources registered for recovery
+		Files.write(new File(config, "transaction.yml").toPath(), "recoveryEnabled: true\n".getBytes(StandardCharsets.UTF_8));
+	}
+
+	private static void fork(String configuration, int threads, int transactions, File dir) throws Exception {
+		String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+		Process process = new ProcessBuilder(java, "-Dlight-4j-config-dir=" + new File(dir, "config").getAbsolutePath(),
+				"-cp", System.getProperty("java.class.path"), TransactionLogBenchmark.class.getName(), CHILD, configuration,
+				String.valueOf(threads), String.valueOf(transactions), new File(dir, "log").getAbsolutePath())
+				.redirectErrorStream(true).start();
+		List<String> output = new ArrayList<>();
+		boolean measured = false;
+		try (BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream()))) {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				if (line.startsWith(RESULT)) {
+					System.out.println(line.substring(RESULT.length()));
+					measured = true;
+				} else {
+					output.add(line);
+				}
+			}
+		}
+		process.waitFor();
+		if (!measured) {
+			// the backend failed to start, such as the journal store without artemis-journal
+			System.out.printf("%-20s failed:%n", configuration);
+			output.stream().filter(line -> !line.startsWith("\tat ")).limit(20).forEach(System.out::println);
+		}
+	}
+
+	private static void run(String configuration, int threads, int transactions, File logDir) throws Exception {
+		InDoubtResourceManager first = new InDoubtResourceManager("rm0");
+		InDoubtResourceManager second = new InDoubtResourceManager("rm1");
+		UnusedDriver.register();
+		TransactionManagerService service = configuration.startsWith("atomikos") ? new AtomikosTxManagerService()
+				: new JBossTxManagerService();
+		for (InDoubtResourceManager rm : Arrays.asList(first, second)) {
+			PoolConfig poolConfig = new PoolConfig();
+			poolConfig.setName(rm.getName());
+			service.getDataSourceAdaptor().adapt(rm, poolConfig);
+		}
+		for (int i = 0; i < 200; i++) {
+			commitOne(service, first, second);
+		}
+
+		IoCounters before = IoCounters.read(logDir);
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		List<Future<long[]>> workers = new ArrayList<>(threads);
+		long start = System.nanoTime();
+		for (int t = 0; t < threads; t++) {
+			int count = transactions / threads + (t < transactions % threads ? 1 : 0);
+			workers.add(executor.submit(() -> {
+				long[] latencies = new long[count];
+				for (int i = 0; i < count; i++) {
+					latencies[i] = commitOne(service, first, second);
+				}
+				return latencies;
+			}));
+		}
+		long[] latencies = new long[transactions];
+		int filled = 0;
+		for (Future<long[]> worker : workers) {
+			long[] part = worker.get();
+			System.arraycopy(part, 0, latencies, filled, part.length);
+			filled += part.length;
+		}
+		long elapsed = System.nanoTime() - start;
+		IoCounters after = IoCounters.read(logDir);
+		executor.shutdown();
+		Arrays.sort(latencies);
+		System.out.println(String.format("%s%-20s commits/s=%.0f p50=%.2fms p99=%.2fms max=%.2fms flushes/commit=%s bytes/commit=%s device bytes/commit=%s",
+				RESULT, configuration, transactions * 1e9 / elapsed, millis(latencies[transactions / 2]),
+				millis(latencies[transactions * 99 / 100]), millis(latencies[transactions - 1]),
+				perCommit(before.deviceFlushes, after.deviceFlushes, transactions, "%.2f"),
+				perCommit(before.processBytes, after.processBytes, transactions, "%.0f"),
+				perCommit(before.deviceBytes, after.deviceBytes, transactions, "%.0f")));
+	}
+
+	private static long commitOne(TransactionManagerService service, InDoubtResourceManager first,
+			InDoubtResourceManager second) throws Exception {
+		long start = System.nanoTime();
+		service.executeWithTx(TxType.REQUIRED, () -> {
+			Transaction tx = service.getTransactionManager().getTransaction();
+			// two participants, so that the commit is two phase and logged
+			tx.enlistResource(first.getXAResource());
+			tx.enlistResource(second.getXAResource());
+		});
+		return System.nanoTime() - start;
+	}
+
+	private static String perCommit(long before, long after, int transactions, String format) {
+		return before < 0 || after < 0 ? "n/a" : String.format(format, (double) (after - before) / transactions);
+	}
+
+	private static double millis(long nanos) {
+		return TimeUnit.NANOSECONDS.toMicros(nanos) / 1000.0;
+	}
+
+	/**
+	 * The I/O counters of this JVM and of the device holding the log directory, -1 when not available.
+	 */
+	private static final class IoCounters {
+
+		long processBytes = -1;
+		long deviceBytes = -1;
+		long deviceFlushes = -1;
+
+		static IoCounters read(File logDir) {
+			IoCounters counters = new IoCounters();
+			try {
+				long written = 0;
+				long cancelled = 0;
+				for (String line : Files.readAllLines(new File("/proc/self/io").toPath())) {
+					if (line.startsWith("write_bytes:")) {
+						written = Long.parseLong(line.substring("write_bytes:".length()).trim());
+					} else if (line.startsWith("cancelled_write_bytes:")) {
+						cancelled = Long.parseLong(line.substring("cancelled_write_bytes:".length()).trim());
+					}
+				}
+				counters.processBytes = written - cancelled;
+			} catch (IOException | RuntimeException e) {
+				// not on Linux
+			}
+			try {
+				long dev = ((Number) Files.getAttribute(logDir.toPath(), "unix:dev")).longValue();
+				long major = ((dev >>> 8) & 0xfff) | ((dev >>> 32) & ~0xfffL);
+				long minor = (dev & 0xff) | ((dev >>> 12) & ~0xffL);
+				for (String line : Files.readAllLines(new File("/proc/diskstats").toPath())) {
+					String[] fields = line.trim().split("\\s+");
+					if (Long.parseLong(fields[0]) == major && Long.parseLong(fields[1]) == minor) {
+						// sectors of 512 bytes written, and flush requests completed since Linux 5.5
+						counters.deviceBytes = Long.parseLong(fields[9]) * 512;
+						if (fields.length > 17 && hasWriteBackCache(major, minor)) {
+							counters.deviceFlushes = Long.parseLong(fields[17]);
+						}
+					}
+				}
+			} catch (IOException | RuntimeException e) {
+				// not on Linux, or no device
+			}
+			return counters;
+		}
+
+		private static boolean hasWriteBackCache(long major, long minor) throws IOException {
+			File device = new File("/sys/dev/block/" + major + ":" + minor).getCanonicalFile();
+			File writeCache = new File(device, "queue/write_cache");
+			if (!writeCache.exists()) {
+				// a partition, the queue is the one of its disk
+				writeCache = new File(device.getParentFile(), "queue/write_cache");
+			}
+			return writeCache.exists()
+					&& new String(Files.readAllBytes(writeCache.toPath()), StandardCharsets.US_ASCII).trim().equals("write back");
+		}
+	}
+
+}
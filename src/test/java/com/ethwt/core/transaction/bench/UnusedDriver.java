@@ -0,0 +1,68 @@
+/**
+ *
+ */
+package com.ethwt.core.transaction.bench;
+
+import java.sql.Connection;
+import java.sql.Driver;
+import java.sql.DriverManager;
+import java.sql.DriverPropertyInfo;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.util.Properties;
+
+/**
+ * JDBC driver accepting any URL and never connecting. The Agroal pools created by
+ * {@link com.ethwt.core.transaction.XADataSourceAdaptor}s look up their driver when created, the benchmarks
+ * adapt stand-in data sources whose pools are never used.
+ *
+ * @author neillin
+ *
+ */
+class UnusedDriver implements Driver {
+
+	private static boolean registered;
+
+	static synchronized void register() throws SQLException {
+		if (!registered) {
+			DriverManager.registerDriver(new UnusedDriver());
+			registered = true;
+		}
+	}
+
+	@Override
+	public Connection connect(String url, Properties info) throws SQLException {
+		throw new SQLFeatureNotSupportedException("The benchmark does not connect");
+	}
+
+	@Override
+	public boolean acceptsURL(String url) {
+		return true;
+	}
+
+	@Override
+	public DriverPropertyInfo[] getPropertyInfo(String url, Properties info) {
+		return new DriverPropertyInfo[0];
+	}
+
+	@Override
+	public int getMajorVersion() {
+		return 1;
+	}
+
+	@Override
+	public int getMinorVersion() {
+		return 0;
+	}
+
+	@Override
+	public boolean jdbcCompliant() {
+		return false;
+	}
+
+	@Override
+	public java.util.logging.Logger getParentLogger() throws SQLFeatureNotSupportedException {
+		throw new SQLFeatureNotSupportedException();
+	}
+
+}